@@ -0,0 +1,55 @@
+package com.mauter.httpserver;
+
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Handles HTTP requests without tying up a thread while it waits.  Pass
+ * one to {@link HTTPServer#setHTTPRequestHandler(HTTPRequestHandler)} and
+ * the server hands the request over and goes back to serving other
+ * connections.  The response is written once the returned stage completes,
+ * on whichever thread completes it.
+ * <p>
+ * Because this extends {@link HTTPRequestHandler} an asynchronous handler
+ * can go anywhere a synchronous one can, such as behind a
+ * {@link MetricsHandler} or an {@link HTTPRouter}, where it simply waits
+ * for its own response.
+ */
+public interface AsyncHTTPRequestHandler extends HTTPRequestHandler {
+
+	/**
+	 * Called when the HTTP server wants to process the request.  Fill in
+	 * the given response and complete the stage with it, or complete it
+	 * with a different HTTPResponse whose status, headers and body are
+	 * then copied into the given one.  Complete the stage exceptionally
+	 * with an {@link HTTPException} to answer with its status.
+	 * 
+	 * @param request the HTTPRequest read from the socket's InputStream
+	 * @param response the HTTPResponse that will be written to the
+	 * socket's OutputStream
+	 * @return a CompletionStage that completes when the response is ready
+	 */
+	public CompletionStage<HTTPResponse> handleRequestAsync( HTTPRequest request, HTTPResponse response );
+
+	/**
+	 * Handles the request and waits for the response.
+	 * 
+	 * @param request the HTTPRequest read from the socket's InputStream
+	 * @param response the HTTPResponse that will be written to the
+	 * socket's OutputStream
+	 * @throws HTTPException if the stage completes exceptionally
+	 */
+	@Override
+	public default void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+		try {
+			HTTPServer.complete( response, handleRequestAsync( request, response ).toCompletableFuture().get(), null );
+		}
+		catch ( InterruptedException ie ) {
+			Thread.currentThread().interrupt();
+			throw new HTTPException( 503, "Interrupted while waiting for the response.", ie );
+		}
+		catch ( ExecutionException ee ) {
+			HTTPServer.complete( response, null, ee );
+		}
+	}
+}
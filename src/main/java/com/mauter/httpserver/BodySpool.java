@@ -0,0 +1,226 @@
+package com.mauter.httpserver;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Decides where request bodies are kept.  Small bodies stay on the heap
+ * as they always have.  Larger ones go to a direct buffer, off the heap,
+ * and the largest to a temporary file, so a client that sends, or merely
+ * claims, a huge Content-length cannot make the server allocate it all
+ * at once.  Direct buffers are all the same size and are pooled, since
+ * allocating them is slow and the memory is only given back when they
+ * are garbage collected.
+ */
+class BodySpool {
+
+	/**
+	 * The number of idle direct buffers kept for the next bodies.
+	 */
+	static final int POOL_SIZE = 4;
+
+	/**
+	 * Keeps every body on the heap, as the server did before bodies
+	 * could be spooled.
+	 */
+	static final BodySpool HEAP = new BodySpool( Integer.MAX_VALUE, Integer.MAX_VALUE - 8, 0 );
+
+	long maxBodySize;
+	int heapThreshold;
+	int directThreshold;
+	Path directory;
+	Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+
+	/**
+	 * Creates a spool.
+	 *
+	 * @param maxBodySize the largest body allowed or 0 for no limit
+	 * @param heapThreshold the largest body kept on the heap
+	 * @param directThreshold the largest body kept in a direct buffer or 0 to go straight to a file
+	 */
+	BodySpool( long maxBodySize, int heapThreshold, int directThreshold ) {
+		this.maxBodySize = maxBodySize;
+		this.heapThreshold = heapThreshold;
+		this.directThreshold = directThreshold;
+	}
+
+	/**
+	 * Checks whether a body of the given size is allowed.
+	 *
+	 * @param size the size of the body
+	 * @return true if the body is too large
+	 */
+	boolean isTooLarge( long size ) {
+		return maxBodySize > 0 && size > maxBodySize;
+	}
+
+	/**
+	 * Opens a stream to write a body to.
+	 *
+	 * @param expected the size of the body or -1 if it is not known
+	 * @return the SpoolOutputStream
+	 * @throws IOException if a temporary file cannot be created
+	 */
+	SpoolOutputStream open( long expected ) throws IOException {
+		return new SpoolOutputStream( this, expected );
+	}
+
+	/**
+	 * Takes a direct buffer from the pool or allocates a new one.
+	 *
+	 * @return a cleared direct buffer with a capacity of the direct threshold
+	 */
+	ByteBuffer allocate() {
+		ByteBuffer buffer;
+		while ( ( buffer = pool.poll() ) != null ) {
+			if ( buffer.capacity() == directThreshold ) {
+				buffer.clear();
+				return buffer;
+			}
+		}
+		return ByteBuffer.allocateDirect( directThreshold );
+	}
+
+	/**
+	 * Returns a direct buffer to the pool.  Buffers left over from a
+	 * different threshold, or beyond the size of the pool, are left for
+	 * the garbage collector.
+	 *
+	 * @param buffer the buffer from {@link #allocate()}
+	 */
+	void release( ByteBuffer buffer ) {
+		if ( buffer.capacity() == directThreshold && pool.size() < POOL_SIZE ) pool.add( buffer );
+	}
+
+	/**
+	 * Creates a temporary file for a body.
+	 *
+	 * @return the Path of the new file
+	 * @throws IOException if the file cannot be created
+	 */
+	Path createFile() throws IOException {
+		if ( directory == null ) return Files.createTempFile( "http-body-", ".tmp" );
+		return Files.createTempFile( directory, "http-body-", ".tmp" );
+	}
+
+	/**
+	 * Collects a body, moving it off the heap and then into a file as it
+	 * grows past each threshold.
+	 */
+	static class SpoolOutputStream extends OutputStream {
+		BodySpool spool;
+		ByteArrayOutputStream heap;
+		ByteBuffer direct;
+		Path path;
+		OutputStream file;
+		long size = 0;
+
+		SpoolOutputStream( BodySpool spool, long expected ) throws IOException {
+			this.spool = spool;
+			if ( expected < 0 || expected <= spool.heapThreshold ) heap = new ByteArrayOutputStream( expected < 0 ? 8192 : (int)expected );
+			else if ( expected <= spool.directThreshold ) direct = spool.allocate();
+			else openFile();
+		}
+
+		/**
+		 * Gets the number of bytes written so far.
+		 *
+		 * @return the size of the body
+		 */
+		long size() { return this.size; }
+
+		void openFile() throws IOException {
+			path = spool.createFile();
+			try {
+				file = new BufferedOutputStream( Files.newOutputStream( path ), 65536 );
+			}
+			catch ( IOException ioe ) {
+				Files.deleteIfExists( path );
+				path = null;
+				throw ioe;
+			}
+		}
+
+		@Override
+		public void write( int b ) throws IOException {
+			write( new byte[] { (byte)b }, 0, 1 );
+		}
+
+		@Override
+		public void write( byte[] b, int off, int len ) throws IOException {
+			if ( heap != null && heap.size() + (long)len > spool.heapThreshold ) {
+				byte[] written = heap.toByteArray();
+				heap = null;
+				if ( written.length + (long)len <= spool.directThreshold ) {
+					direct = spool.allocate();
+					direct.put( written );
+				}
+				else {
+					openFile();
+					file.write( written );
+				}
+			}
+			if ( direct != null && direct.remaining() < len ) {
+				openFile();
+				direct.flip();
+				byte[] chunk = new byte[ 8192 ];
+				while ( direct.hasRemaining() ) {
+					int count = Math.min( chunk.length, direct.remaining() );
+					direct.get( chunk, 0, count );
+					file.write( chunk, 0, count );
+				}
+				spool.release( direct );
+				direct = null;
+			}
+
+			if ( heap != null ) heap.write( b, off, len );
+			else if ( direct != null ) direct.put( b, off, len );
+			else file.write( b, off, len );
+			size += len;
+		}
+
+		/**
+		 * Finishes the body and hands it over.  The stream must not be
+		 * used or closed afterwards.
+		 *
+		 * @return the RequestBody holding what was written
+		 * @throws IOException if the file cannot be written
+		 */
+		RequestBody toRequestBody() throws IOException {
+			if ( heap != null ) return new RequestBody( heap.toByteArray() );
+			if ( direct != null ) {
+				direct.flip();
+				return new RequestBody( direct, spool );
+			}
+			file.close();
+			return new RequestBody( path, size );
+		}
+
+		/**
+		 * Throws away whatever was written when the body is not wanted.
+		 */
+		@Override
+		public void close() {
+			heap = null;
+			if ( direct != null ) spool.release( direct );
+			direct = null;
+			if ( file != null ) {
+				HTTPServer.closeQuietly( file );
+				try {
+					Files.deleteIfExists( path );
+				}
+				catch ( IOException ioe ) {
+					// it is only a temporary file
+				}
+			}
+			file = null;
+		}
+	}
+}
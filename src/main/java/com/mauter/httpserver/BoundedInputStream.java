@@ -0,0 +1,100 @@
+package com.mauter.httpserver;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads at most a fixed number of bytes from another InputStream and
+ * counts how many were read.  It is used to read a request body without
+ * reading past it into whatever follows on the connection.
+ */
+class BoundedInputStream extends FilterInputStream {
+
+	long remaining;
+	long count;
+
+	/**
+	 * Creates a stream that reads up to the given number of bytes.
+	 * 
+	 * @param in the InputStream to read from
+	 * @param limit the number of bytes to allow
+	 */
+	BoundedInputStream( InputStream in, long limit ) {
+		super( in );
+		this.remaining = limit;
+	}
+
+	/**
+	 * Gets the number of bytes read so far.
+	 * 
+	 * @return the number of bytes read
+	 */
+	long getCount() { return this.count; }
+
+	/**
+	 * Gets the number of bytes left before the limit.
+	 * 
+	 * @return the number of bytes remaining
+	 */
+	long getRemaining() { return this.remaining; }
+
+	@Override
+	public int read() throws IOException {
+		if ( remaining <= 0 ) return -1;
+		int b = in.read();
+		if ( b >= 0 ) {
+			remaining--;
+			count++;
+		}
+		return b;
+	}
+
+	@Override
+	public int read( byte[] b, int off, int len ) throws IOException {
+		if ( remaining <= 0 ) return -1;
+		int n = in.read( b, off, (int)Math.min( len, remaining ) );
+		if ( n > 0 ) {
+			remaining -= n;
+			count += n;
+		}
+		return n;
+	}
+
+	@Override
+	public long skip( long n ) throws IOException {
+		long skipped = in.skip( Math.min( n, remaining ) );
+		remaining -= skipped;
+		count += skipped;
+		return skipped;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int)Math.min( in.available(), remaining );
+	}
+
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+
+	/**
+	 * Leaves the underlying stream open so the connection can be reused.
+	 */
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * Reads and discards whatever is left before the limit.
+	 * 
+	 * @throws IOException if an I/O error occurs
+	 */
+	void drain() throws IOException {
+		byte[] buffer = new byte[ 4096 ];
+		while ( read( buffer, 0, buffer.length ) > 0 ) {
+			// discard
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package com.mauter.httpserver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps another {@link HTTPRequestHandler} and remembers the responses it
+ * generates.  Use it when a handler builds the same expensive response
+ * (templating, JSON generation, etc.) for thousands of identical requests.
+ * <p>
+ * Only GET and HEAD requests that are answered with a 2xx status are cached.
+ * Responses marked Cache-Control: no-store or private, or that set a cookie,
+ * are never stored.  Responses are keyed by method, path, the Authorization
+ * and Cookie headers, so one client's response is never replayed to another,
+ * and the values of the request headers passed to the constructor.  The cache holds at most the given number of
+ * entries, evicting the least recently used one when it is full, and an entry
+ * is discarded once it is older than the time to live.
+ * <p>
+ * The status line and headers of a cached response are serialized once when
+ * the entry is created, so a cache hit is written to the client without being
+ * formatted again.
+ */
+public class CachingHandler implements HTTPRequestHandler {
+
+	HTTPRequestHandler handler;
+	int maxEntries;
+	long ttlNanos;
+	String[] varyHeaders;
+
+	// request headers that identify the client, which are always part of the key
+	static final String[] CREDENTIALS = { "Authorization", "Cookie" };
+
+	Map<String, CachedResponse> cache;
+	AtomicLong hits = new AtomicLong();
+	AtomicLong misses = new AtomicLong();
+	AtomicLong evictions = new AtomicLong();
+
+	/**
+	 * Creates a caching handler.
+	 *
+	 * @param handler the HTTPRequestHandler that generates the responses
+	 * @param maxEntries the maximum number of responses to keep
+	 * @param ttl how long a response may be reused
+	 * @param unit the unit of the ttl
+	 * @param varyHeaders the names of request headers that are part of the cache key
+	 */
+	public CachingHandler( HTTPRequestHandler handler, int maxEntries, long ttl, TimeUnit unit, String... varyHeaders ) {
+		if ( maxEntries < 1 ) throw new IllegalArgumentException( "maxEntries must be at least 1" );
+		this.handler = handler;
+		this.maxEntries = maxEntries;
+		this.ttlNanos = unit.toNanos( ttl );
+		this.varyHeaders = varyHeaders;
+		this.cache = new LinkedHashMap<String, CachedResponse>( 16, 0.75f, true ) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( Map.Entry<String, CachedResponse> eldest ) {
+				if ( size() <= CachingHandler.this.maxEntries ) return false;
+				evictions.incrementAndGet();
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Gets the number of requests answered from the cache.
+	 *
+	 * @return the number of cache hits
+	 */
+	public long getHits() { return this.hits.get(); }
+
+	/**
+	 * Gets the number of cacheable requests that had to be handled.
+	 *
+	 * @return the number of cache misses
+	 */
+	public long getMisses() { return this.misses.get(); }
+
+	/**
+	 * Gets the number of responses removed to make room for newer ones.
+	 *
+	 * @return the number of evictions
+	 */
+	public long getEvictions() { return this.evictions.get(); }
+
+	/**
+	 * Gets the number of responses in the cache, including expired ones
+	 * that have not been discarded yet.
+	 *
+	 * @return the number of cached responses
+	 */
+	public int getSize() {
+		synchronized ( cache ) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Removes every response from the cache.
+	 */
+	public void clear() {
+		synchronized ( cache ) {
+			cache.clear();
+		}
+	}
+
+	@Override
+	public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+		if ( !"GET".equals( request.getMethod() ) && !"HEAD".equals( request.getMethod() ) ) {
+			handler.handleRequest( request, response );
+			return;
+		}
+
+		String key = key( request );
+		long now = System.nanoTime();
+
+		CachedResponse cached;
+		synchronized ( cache ) {
+			cached = cache.get( key );
+			if ( cached != null && now - cached.created >= ttlNanos ) {
+				cache.remove( key );
+				cached = null;
+			}
+		}
+
+		if ( cached != null ) {
+			hits.incrementAndGet();
+			response.copy( cached.response );
+			return;
+		}
+
+		misses.incrementAndGet();
+		handler.handleRequest( request, response );
+
+		int status = response.getStatus();
+		if ( status < 200 || status > 299 || !isStorable( response ) ) return;
+
+		HTTPResponse copy = new HTTPResponse();
+		copy.copy( response );
+		copy.head = HTTPServer.serializeHead( copy );
+		response.head = copy.head;
+
+		synchronized ( cache ) {
+			cache.put( key, new CachedResponse( copy, now ) );
+		}
+	}
+
+	String key( HTTPRequest request ) {
+		StringBuilder key = new StringBuilder( 64 );
+		key.append( request.getMethod() ).append( ' ' ).append( request.getPath() );
+		for ( String header : CREDENTIALS ) {
+			String value = request.getHeader( header );
+			key.append( '\n' );
+			key.append( value == null ? "\0" : value );
+		}
+		for ( String header : varyHeaders ) {
+			String value = request.getHeader( header );
+			key.append( '\n' );
+			key.append( value == null ? "\0" : value );
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Checks whether a response may be shared with other clients.
+	 *
+	 * @param response the HTTPResponse from the handler
+	 * @return false if the response says not to store it or sets a cookie
+	 */
+	static boolean isStorable( HTTPResponse response ) {
+		if ( response.getHeader( "Set-Cookie" ) != null ) return false;
+		String cacheControl = response.getHeader( "Cache-Control" );
+		if ( cacheControl == null ) return true;
+		for ( String directive : cacheControl.split( "," ) ) {
+			String name = directive.trim().toLowerCase();
+			int equals = name.indexOf( '=' );
+			if ( equals >= 0 ) name = name.substring( 0, equals ).trim();
+			if ( "no-store".equals( name ) || "private".equals( name ) ) return false;
+		}
+		return true;
+	}
+
+	static class CachedResponse {
+		HTTPResponse response;
+		long created;
+
+		CachedResponse( HTTPResponse response, long created ) {
+			this.response = response;
+			this.created = created;
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package com.mauter.httpserver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Wraps another {@link HTTPRequestHandler} so that identical requests that
+ * arrive while one of them is already being handled share that one
+ * execution instead of each calling the handler.  Every waiting request
+ * receives a copy of the resulting response, or the same HTTPException if
+ * the handler threw one.  This keeps a slow handler from being stampeded
+ * when many clients ask for the same thing at once.
+ * <p>
+ * Requests are only grouped while a handler call is in flight.  Once it
+ * returns, the next matching request calls the handler again.  Combine
+ * this with {@link CachingHandler} to reuse responses for longer.
+ */
+public class CoalescingHandler implements HTTPRequestHandler {
+
+	HTTPRequestHandler handler;
+	HTTPRequestKey key;
+	ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+	AtomicLong executions = new AtomicLong();
+	AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * Creates a coalescing handler that groups GET and HEAD requests by
+	 * method, path and credentials with {@link HTTPRequestKey#METHOD_AND_PATH}.
+	 * Requests with any other method always call the handler.
+	 * 
+	 * @param handler the HTTPRequestHandler that generates the responses
+	 */
+	public CoalescingHandler( HTTPRequestHandler handler ) {
+		this( handler, HTTPRequestKey.METHOD_AND_PATH );
+	}
+
+	/**
+	 * Creates a coalescing handler.
+	 * 
+	 * @param handler the HTTPRequestHandler that generates the responses
+	 * @param key the HTTPRequestKey that decides which requests are identical,
+	 * which must include the body and credentials of any request it groups
+	 * whose response depends on them
+	 */
+	public CoalescingHandler( HTTPRequestHandler handler, HTTPRequestKey key ) {
+		this.handler = handler;
+		this.key = key;
+	}
+
+	/**
+	 * Gets the number of times the wrapped handler was called.
+	 * 
+	 * @return the number of handler executions
+	 */
+	public long getExecutions() { return this.executions.get(); }
+
+	/**
+	 * Gets the number of requests that received the response of another
+	 * request's handler execution.
+	 * 
+	 * @return the number of coalesced requests
+	 */
+	public long getCoalesced() { return this.coalesced.get(); }
+
+	@Override
+	public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+		String k = key.getKey( request );
+		if ( k == null ) {
+			executions.incrementAndGet();
+			handler.handleRequest( request, response );
+			return;
+		}
+
+		Flight flight = new Flight();
+		Flight leader = flights.putIfAbsent( k, flight );
+		if ( leader != null ) {
+			coalesced.incrementAndGet();
+			leader.await( response );
+			return;
+		}
+
+		executions.incrementAndGet();
+		try {
+			handler.handleRequest( request, response );
+
+			HTTPResponse shared = new HTTPResponse();
+			shared.copy( response );
+			if ( shared.head == null ) shared.head = HTTPServer.serializeHead( shared );
+			flight.response = shared;
+		}
+		catch ( HTTPException he ) {
+			flight.exception = he;
+			throw he;
+		}
+		catch ( RuntimeException re ) {
+			flight.exception = new HTTPException( re );
+			throw re;
+		}
+		finally {
+			flights.remove( k, flight );
+			flight.done.countDown();
+		}
+	}
+
+	/**
+	 * A handler execution that other requests can wait for.
+	 */
+	static class Flight {
+		CountDownLatch done = new CountDownLatch( 1 );
+		volatile HTTPResponse response;
+		volatile HTTPException exception;
+
+		void await( HTTPResponse into ) throws HTTPException {
+			try {
+				done.await();
+			}
+			catch ( InterruptedException ie ) {
+				Thread.currentThread().interrupt();
+				throw new HTTPException( 503, "Interrupted while waiting for an identical request.", ie );
+			}
+
+			if ( exception != null ) throw exception;
+			if ( response == null ) throw new HTTPException( 500, "An identical request failed." );
+			into.copy( response );
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package com.mauter.httpserver;
+
+/**
+ * Decides whether a client that sent Expect: 100-continue may go on and
+ * send its body.  Implement this interface and pass it to
+ * {@link HTTPServer#setContinueHandler(ContinueHandler)}, or implement it
+ * on the {@link HTTPRequestHandler} itself, to turn away a request on its
+ * headers alone before the client uploads anything.
+ */
+public interface ContinueHandler {
+
+	/**
+	 * Called after the headers of a request that expects 100 Continue
+	 * have been read and before any of its body has been sent.  The body
+	 * of the request is not available yet.  Returning lets the client
+	 * send the body, and throwing rejects the request with the exception's
+	 * status, such as a 401 or a 413, and closes the connection.
+	 *
+	 * @param request the HTTPRequest with its request line and headers
+	 * @throws HTTPException to reject the request
+	 */
+	public void checkContinue( HTTPRequest request ) throws HTTPException;
+}
@@ -0,0 +1,411 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK, the header compression of HTTP/2, from RFC 7541.  Request headers
+ * are decoded with everything the client may use: the static and dynamic
+ * tables and Huffman coded strings.  Response headers are encoded without
+ * adding to the dynamic table, so encoding needs no state shared between
+ * streams and responses can be written in whatever order they finish.
+ */
+class HPACK {
+
+	static final String[][] STATIC_TABLE = {
+		{ ":authority", "" },
+		{ ":method", "GET" },
+		{ ":method", "POST" },
+		{ ":path", "/" },
+		{ ":path", "/index.html" },
+		{ ":scheme", "http" },
+		{ ":scheme", "https" },
+		{ ":status", "200" },
+		{ ":status", "204" },
+		{ ":status", "206" },
+		{ ":status", "304" },
+		{ ":status", "400" },
+		{ ":status", "404" },
+		{ ":status", "500" },
+		{ "accept-charset", "" },
+		{ "accept-encoding", "gzip, deflate" },
+		{ "accept-language", "" },
+		{ "accept-ranges", "" },
+		{ "accept", "" },
+		{ "access-control-allow-origin", "" },
+		{ "age", "" },
+		{ "allow", "" },
+		{ "authorization", "" },
+		{ "cache-control", "" },
+		{ "content-disposition", "" },
+		{ "content-encoding", "" },
+		{ "content-language", "" },
+		{ "content-length", "" },
+		{ "content-location", "" },
+		{ "content-range", "" },
+		{ "content-type", "" },
+		{ "cookie", "" },
+		{ "date", "" },
+		{ "etag", "" },
+		{ "expect", "" },
+		{ "expires", "" },
+		{ "from", "" },
+		{ "host", "" },
+		{ "if-match", "" },
+		{ "if-modified-since", "" },
+		{ "if-none-match", "" },
+		{ "if-range", "" },
+		{ "if-unmodified-since", "" },
+		{ "last-modified", "" },
+		{ "link", "" },
+		{ "location", "" },
+		{ "max-forwards", "" },
+		{ "proxy-authenticate", "" },
+		{ "proxy-authorization", "" },
+		{ "range", "" },
+		{ "referer", "" },
+		{ "refresh", "" },
+		{ "retry-after", "" },
+		{ "server", "" },
+		{ "set-cookie", "" },
+		{ "strict-transport-security", "" },
+		{ "transfer-encoding", "" },
+		{ "user-agent", "" },
+		{ "vary", "" },
+		{ "via", "" },
+		{ "www-authenticate", "" }
+	};
+
+	/**
+	 * The index of the first static table entry with each name.
+	 */
+	static final Map<String, Integer> STATIC_NAMES = new HashMap<>();
+
+	/**
+	 * The Huffman code of each octet, and of end-of-string as 256, right
+	 * aligned, from Appendix B of RFC 7541.
+	 */
+	static final int[] HUFFMAN_CODES = {
+		0x1ff8, 0x7fffd8, 0xfffffe2, 0xfffffe3, 0xfffffe4, 0xfffffe5, 0xfffffe6, 0xfffffe7,
+		0xfffffe8, 0xffffea, 0x3ffffffc, 0xfffffe9, 0xfffffea, 0x3ffffffd, 0xfffffeb, 0xfffffec,
+		0xfffffed, 0xfffffee, 0xfffffef, 0xffffff0, 0xffffff1, 0xffffff2, 0x3ffffffe, 0xffffff3,
+		0xffffff4, 0xffffff5, 0xffffff6, 0xffffff7, 0xffffff8, 0xffffff9, 0xffffffa, 0xffffffb,
+		0x14, 0x3f8, 0x3f9, 0xffa, 0x1ff9, 0x15, 0xf8, 0x7fa,
+		0x3fa, 0x3fb, 0xf9, 0x7fb, 0xfa, 0x16, 0x17, 0x18,
+		0x0, 0x1, 0x2, 0x19, 0x1a, 0x1b, 0x1c, 0x1d,
+		0x1e, 0x1f, 0x5c, 0xfb, 0x7ffc, 0x20, 0xffb, 0x3fc,
+		0x1ffa, 0x21, 0x5d, 0x5e, 0x5f, 0x60, 0x61, 0x62,
+		0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69, 0x6a,
+		0x6b, 0x6c, 0x6d, 0x6e, 0x6f, 0x70, 0x71, 0x72,
+		0xfc, 0x73, 0xfd, 0x1ffb, 0x7fff0, 0x1ffc, 0x3ffc, 0x22,
+		0x7ffd, 0x3, 0x23, 0x4, 0x24, 0x5, 0x25, 0x26,
+		0x27, 0x6, 0x74, 0x75, 0x28, 0x29, 0x2a, 0x7,
+		0x2b, 0x76, 0x2c, 0x8, 0x9, 0x2d, 0x77, 0x78,
+		0x79, 0x7a, 0x7b, 0x7ffe, 0x7fc, 0x3ffd, 0x1ffd, 0xffffffc,
+		0xfffe6, 0x3fffd2, 0xfffe7, 0xfffe8, 0x3fffd3, 0x3fffd4, 0x3fffd5, 0x7fffd9,
+		0x3fffd6, 0x7fffda, 0x7fffdb, 0x7fffdc, 0x7fffdd, 0x7fffde, 0xffffeb, 0x7fffdf,
+		0xffffec, 0xffffed, 0x3fffd7, 0x7fffe0, 0xffffee, 0x7fffe1, 0x7fffe2, 0x7fffe3,
+		0x7fffe4, 0x1fffdc, 0x3fffd8, 0x7fffe5, 0x3fffd9, 0x7fffe6, 0x7fffe7, 0xffffef,
+		0x3fffda, 0x1fffdd, 0xfffe9, 0x3fffdb, 0x3fffdc, 0x7fffe8, 0x7fffe9, 0x1fffde,
+		0x7fffea, 0x3fffdd, 0x3fffde, 0xfffff0, 0x1fffdf, 0x3fffdf, 0x7fffeb, 0x7fffec,
+		0x1fffe0, 0x1fffe1, 0x3fffe0, 0x1fffe2, 0x7fffed, 0x3fffe1, 0x7fffee, 0x7fffef,
+		0xfffea, 0x3fffe2, 0x3fffe3, 0x3fffe4, 0x7ffff0, 0x3fffe5, 0x3fffe6, 0x7ffff1,
+		0x3ffffe0, 0x3ffffe1, 0xfffeb, 0x7fff1, 0x3fffe7, 0x7ffff2, 0x3fffe8, 0x1ffffec,
+		0x3ffffe2, 0x3ffffe3, 0x3ffffe4, 0x7ffffde, 0x7ffffdf, 0x3ffffe5, 0xfffff1, 0x1ffffed,
+		0x7fff2, 0x1fffe3, 0x3ffffe6, 0x7ffffe0, 0x7ffffe1, 0x3ffffe7, 0x7ffffe2, 0xfffff2,
+		0x1fffe4, 0x1fffe5, 0x3ffffe8, 0x3ffffe9, 0xffffffd, 0x7ffffe3, 0x7ffffe4, 0x7ffffe5,
+		0xfffec, 0xfffff3, 0xfffed, 0x1fffe6, 0x3fffe9, 0x1fffe7, 0x1fffe8, 0x7ffff3,
+		0x3fffea, 0x3fffeb, 0x1ffffee, 0x1ffffef, 0xfffff4, 0xfffff5, 0x3ffffea, 0x7ffff4,
+		0x3ffffeb, 0x7ffffe6, 0x3ffffec, 0x3ffffed, 0x7ffffe7, 0x7ffffe8, 0x7ffffe9, 0x7ffffea,
+		0x7ffffeb, 0xffffffe, 0x7ffffec, 0x7ffffed, 0x7ffffee, 0x7ffffef, 0x7fffff0, 0x3ffffee,
+		0x3fffffff
+	};
+
+	static final byte[] HUFFMAN_LENGTHS = {
+		13, 23, 28, 28, 28, 28, 28, 28, 28, 24, 30, 28, 28, 30, 28, 28,
+		28, 28, 28, 28, 28, 28, 30, 28, 28, 28, 28, 28, 28, 28, 28, 28,
+		6, 10, 10, 12, 13, 6, 8, 11, 10, 10, 8, 11, 8, 6, 6, 6,
+		5, 5, 5, 6, 6, 6, 6, 6, 6, 6, 7, 8, 15, 6, 12, 10,
+		13, 6, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7, 7,
+		7, 7, 7, 7, 7, 7, 7, 7, 8, 7, 8, 13, 19, 13, 14, 6,
+		15, 5, 6, 5, 6, 5, 6, 6, 6, 5, 7, 7, 6, 6, 6, 5,
+		6, 7, 6, 5, 5, 6, 7, 7, 7, 7, 7, 15, 11, 14, 13, 28,
+		20, 22, 20, 20, 22, 22, 22, 23, 22, 23, 23, 23, 23, 23, 24, 23,
+		24, 24, 22, 23, 24, 23, 23, 23, 23, 21, 22, 23, 22, 23, 23, 24,
+		22, 21, 20, 22, 22, 23, 23, 21, 23, 22, 22, 24, 21, 22, 23, 23,
+		21, 21, 22, 21, 23, 22, 23, 23, 20, 22, 22, 22, 23, 22, 22, 23,
+		26, 26, 20, 19, 22, 23, 22, 25, 26, 26, 26, 27, 27, 26, 24, 25,
+		19, 21, 26, 27, 27, 26, 27, 24, 21, 21, 26, 26, 28, 27, 27, 27,
+		20, 24, 20, 21, 22, 21, 21, 23, 22, 22, 25, 25, 24, 24, 26, 23,
+		26, 27, 26, 26, 27, 27, 27, 27, 27, 28, 27, 27, 27, 27, 27, 26,
+		30
+	};
+	/**
+	 * The Huffman codes as a binary tree for decoding.  Entry 2n is the
+	 * child of node n for a 0 bit and 2n + 1 the child for a 1 bit.  A
+	 * positive entry is the index of another node and a negative one is a
+	 * leaf holding symbol -(entry + 1).
+	 */
+	static final int[] HUFFMAN_TREE = new int[ 2 * 256 ];
+
+	static {
+		for ( int i = STATIC_TABLE.length; i > 0; i-- ) STATIC_NAMES.put( STATIC_TABLE[i - 1][0], i );
+
+		int nodes = 1;
+		for ( int symbol = 0; symbol < HUFFMAN_CODES.length; symbol++ ) {
+			int code = HUFFMAN_CODES[symbol];
+			int node = 0;
+			for ( int bit = HUFFMAN_LENGTHS[symbol] - 1; bit > 0; bit-- ) {
+				int slot = node * 2 + ( ( code >>> bit ) & 1 );
+				if ( HUFFMAN_TREE[slot] == 0 ) HUFFMAN_TREE[slot] = nodes++;
+				node = HUFFMAN_TREE[slot];
+			}
+			HUFFMAN_TREE[node * 2 + ( code & 1 )] = -( symbol + 1 );
+		}
+	}
+
+	/**
+	 * Writes an integer with an N-bit prefix.
+	 *
+	 * @param out where to write it
+	 * @param value the integer
+	 * @param prefix the number of bits of the first byte used by the integer
+	 * @param flags the bits of the first byte above the prefix
+	 */
+	static void writeInteger( ByteArrayOutputStream out, int value, int prefix, int flags ) {
+		int max = ( 1 << prefix ) - 1;
+		if ( value < max ) {
+			out.write( flags | value );
+			return;
+		}
+		out.write( flags | max );
+		value -= max;
+		while ( value >= 0x80 ) {
+			out.write( ( value & 0x7f ) | 0x80 );
+			value >>>= 7;
+		}
+		out.write( value );
+	}
+
+	/**
+	 * Writes a string literal without Huffman coding.
+	 *
+	 * @param out where to write it
+	 * @param value the string
+	 */
+	static void writeString( ByteArrayOutputStream out, String value ) {
+		byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+		writeInteger( out, bytes.length, 7, 0 );
+		out.write( bytes, 0, bytes.length );
+	}
+
+	/**
+	 * Writes a header as a literal that is not added to the dynamic table,
+	 * using the static table for the name when it is there.
+	 *
+	 * @param out where to write it
+	 * @param name the lower case name of the header
+	 * @param value the value of the header
+	 */
+	static void writeHeader( ByteArrayOutputStream out, String name, String value ) {
+		Integer index = STATIC_NAMES.get( name );
+		if ( index != null ) {
+			writeInteger( out, index, 4, 0 );
+		}
+		else {
+			out.write( 0 );
+			writeString( out, name );
+		}
+		writeString( out, value );
+	}
+
+	/**
+	 * Writes the :status pseudo-header, as a single byte when the static
+	 * table has it.
+	 *
+	 * @param out where to write it
+	 * @param status the status code
+	 */
+	static void writeStatus( ByteArrayOutputStream out, int status ) {
+		String value = String.valueOf( status );
+		for ( int i = 8; i <= 14; i++ ) {
+			if ( STATIC_TABLE[i - 1][1].equals( value ) ) {
+				writeInteger( out, i, 7, 0x80 );
+				return;
+			}
+		}
+		writeHeader( out, ":status", value );
+	}
+
+	/**
+	 * Decodes a Huffman coded string.
+	 *
+	 * @param bytes the buffer holding the string
+	 * @param off where the string starts
+	 * @param len the length of the string in bytes
+	 * @return the decoded string
+	 * @throws HTTP2Exception if the code or the padding is invalid
+	 */
+	static String huffmanDecode( byte[] bytes, int off, int len ) throws HTTP2Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream( len * 8 / 5 + 1 );
+		int node = 0, depth = 0;
+		boolean ones = true;
+		for ( int i = off; i < off + len; i++ ) {
+			for ( int shift = 7; shift >= 0; shift-- ) {
+				int bit = ( bytes[i] >>> shift ) & 1;
+				int next = HUFFMAN_TREE[node * 2 + bit];
+				if ( next < 0 ) {
+					if ( next == -257 ) throw new HTTP2Exception( HTTP2Exception.COMPRESSION_ERROR, "Huffman coded string contains end-of-string." );
+					out.write( -next - 1 );
+					node = depth = 0;
+					ones = true;
+				}
+				else {
+					node = next;
+					depth++;
+					if ( bit == 0 ) ones = false;
+				}
+			}
+		}
+		// whatever is left over must be a short run of the end-of-string code's leading ones
+		if ( depth > 7 || !ones ) throw new HTTP2Exception( HTTP2Exception.COMPRESSION_ERROR, "Invalid Huffman padding." );
+		return new String( out.toByteArray(), StandardCharsets.UTF_8 );
+	}
+
+	/**
+	 * Decodes the header blocks of one connection.  The dynamic table lives
+	 * as long as the connection, so one Decoder must see every block the
+	 * client sends, in order.
+	 */
+	static class Decoder {
+		List<String[]> dynamic = new ArrayList<>();
+		int size = 0;
+		int maxSize;
+		int maxAllowed;
+
+		byte[] block;
+		int pos;
+		int end;
+
+		/**
+		 * Creates a decoder.
+		 *
+		 * @param maxAllowed the dynamic table size allowed by the server's settings
+		 */
+		Decoder( int maxAllowed ) {
+			this.maxSize = this.maxAllowed = maxAllowed;
+		}
+
+		/**
+		 * Decodes a complete header block.
+		 *
+		 * @param block the buffer holding the block
+		 * @param off where the block starts
+		 * @param len the length of the block
+		 * @return the headers as name and value pairs in the order they were sent
+		 * @throws HTTP2Exception if the block is malformed
+		 */
+		List<String[]> decode( byte[] block, int off, int len ) throws HTTP2Exception {
+			this.block = block;
+			this.pos = off;
+			this.end = off + len;
+
+			List<String[]> headers = new ArrayList<>();
+			while ( pos < end ) {
+				int b = block[pos] & 0xff;
+				if ( ( b & 0x80 ) != 0 ) {
+					headers.add( entry( integer( 7 ) ) );
+				}
+				else if ( ( b & 0x40 ) != 0 ) {
+					String[] header = literal( 6 );
+					add( header );
+					headers.add( header );
+				}
+				else if ( ( b & 0x20 ) != 0 ) {
+					if ( !headers.isEmpty() ) throw new HTTP2Exception( HTTP2Exception.COMPRESSION_ERROR, "Dynamic table size update after a header." );
+					int size = integer( 5 );
+					if ( size > maxAllowed ) throw new HTTP2Exception( HTTP2Exception.COMPRESSION_ERROR, "Dynamic table size " + size + " is over the limit of " + maxAllowed );
+					maxSize = size;
+					evict( 0 );
+				}
+				else {
+					// without indexing and never indexed only differ for proxies
+					headers.add( literal( 4 ) );
+				}
+			}
+			this.block = null;
+			return headers;
+		}
+
+		String[] literal( int prefix ) throws HTTP2Exception {
+			int index = integer( prefix );
+			String name = index == 0 ? string() : entry( index )[0];
+			return new String[] { name, string() };
+		}
+
+		String[] entry( int index ) throws HTTP2Exception {
+			if ( index > 0 && index <= STATIC_TABLE.length ) return STATIC_TABLE[index - 1];
+			int dynamicIndex = index - STATIC_TABLE.length - 1;
+			if ( index == 0 || dynamicIndex >= dynamic.size() ) throw new HTTP2Exception( HTTP2Exception.COMPRESSION_ERROR, "Invalid header table index " + index );
+			return dynamic.get( dynamicIndex );
+		}
+
+		int integer( int prefix ) throws HTTP2Exception {
+			if ( pos >= end ) throw new HTTP2Exception( HTTP2Exception.COMPRESSION_ERROR, "Truncated header block." );
+			int max = ( 1 << prefix ) - 1;
+			int value = block[pos++] & max;
+			if ( value < max ) return value;
+
+			int shift = 0, b;
+			do {
+				if ( pos >= end ) throw new HTTP2Exception( HTTP2Exception.COMPRESSION_ERROR, "Truncated header block." );
+				if ( shift > 21 ) throw new HTTP2Exception( HTTP2Exception.COMPRESSION_ERROR, "Integer too large in header block." );
+				b = block[pos++] & 0xff;
+				value += ( b & 0x7f ) << shift;
+				shift += 7;
+			} while ( ( b & 0x80 ) != 0 );
+			return value;
+		}
+
+		String string() throws HTTP2Exception {
+			if ( pos >= end ) throw new HTTP2Exception( HTTP2Exception.COMPRESSION_ERROR, "Truncated header block." );
+			boolean huffman = ( block[pos] & 0x80 ) != 0;
+			int length = integer( 7 );
+			if ( length > end - pos ) throw new HTTP2Exception( HTTP2Exception.COMPRESSION_ERROR, "Truncated header block." );
+			String value = huffman ? huffmanDecode( block, pos, length ) : new String( block, pos, length, StandardCharsets.UTF_8 );
+			pos += length;
+			return value;
+		}
+
+		/**
+		 * Adds a header to the front of the dynamic table, evicting the
+		 * oldest entries to make room.
+		 *
+		 * @param header the name and value
+		 */
+		void add( String[] header ) {
+			int entrySize = entrySize( header );
+			if ( entrySize > maxSize ) {
+				// too big to ever fit, which empties the table
+				dynamic.clear();
+				size = 0;
+				return;
+			}
+			evict( entrySize );
+			dynamic.add( 0, header );
+			size += entrySize;
+		}
+
+		void evict( int room ) {
+			while ( size + room > maxSize && !dynamic.isEmpty() ) size -= entrySize( dynamic.remove( dynamic.size() - 1 ) );
+		}
+
+		static int entrySize( String[] header ) {
+			return header[0].getBytes( StandardCharsets.UTF_8 ).length + header[1].getBytes( StandardCharsets.UTF_8 ).length + 32;
+		}
+	}
+}
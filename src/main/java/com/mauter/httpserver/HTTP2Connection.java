@@ -0,0 +1,996 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * One HTTP/2 connection over cleartext, h2c, from RFC 7540.  The thread
+ * that serves the connection reads frames.  Each request is handed to a
+ * worker as soon as it is complete, so many streams are handled at the
+ * same time and a slow one holds up nothing but itself.  Workers write
+ * their own responses, one frame at a time, so the frames of different
+ * responses interleave.
+ * <p>
+ * Flow control is honored in both directions.  Responses only send as
+ * much body as the client's windows allow.  Request bodies are kept by the
+ * server's {@link BodySpool}, the same as HTTP/1 bodies, and the client is
+ * only credited for bytes once they have been spooled.  A body over the
+ * maximum size is answered with a 413 and the rest of it is thrown away
+ * without crediting its stream.  Server push and stream priorities are
+ * not supported.
+ */
+class HTTP2Connection {
+
+	private static final Logger log = LoggerFactory.getLogger( HTTP2Connection.class );
+
+	static final byte[] PREFACE = "PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes( StandardCharsets.US_ASCII );
+	static final byte[] SWITCHING_PROTOCOLS = "HTTP/1.1 101 Switching Protocols\r\nconnection: Upgrade\r\nupgrade: h2c\r\n\r\n".getBytes( StandardCharsets.US_ASCII );
+
+	static final int DATA = 0x0;
+	static final int HEADERS = 0x1;
+	static final int PRIORITY = 0x2;
+	static final int RST_STREAM = 0x3;
+	static final int SETTINGS = 0x4;
+	static final int PUSH_PROMISE = 0x5;
+	static final int PING = 0x6;
+	static final int GOAWAY = 0x7;
+	static final int WINDOW_UPDATE = 0x8;
+	static final int CONTINUATION = 0x9;
+
+	static final int END_STREAM = 0x1;
+	static final int ACK = 0x1;
+	static final int END_HEADERS = 0x4;
+	static final int PADDED = 0x8;
+	static final int PRIORITY_FLAG = 0x20;
+
+	static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+	static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+	static final int DEFAULT_WINDOW_SIZE = 65535;
+	static final int DEFAULT_MAX_FRAME_SIZE = 16384;
+	static final int MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+	/**
+	 * How much body the client may send before it is credited, per stream
+	 * and for the whole connection.
+	 */
+	static final int RECEIVE_WINDOW_SIZE = 1 << 20;
+
+	/**
+	 * Response headers that only mean something to HTTP/1.1.
+	 */
+	static final String[] CONNECTION_HEADERS = { "connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade" };
+
+	HTTPServer server;
+	HTTPServer.Connection connection;
+	InputStream in;
+	OutputStream out;
+	HPACK.Decoder decoder = new HPACK.Decoder( 4096 );
+	Map<Integer, Stream> streams = new ConcurrentHashMap<>();
+	int maxConcurrentStreams;
+	int maxHeaderListSize;
+	int lastStreamId = 0;
+	volatile boolean closed = false;
+
+	// a header block being put together from HEADERS and CONTINUATION frames
+	ByteArrayOutputStream headerBlock;
+	int headerStreamId;
+	boolean headerEndStream;
+
+	// the client's settings and windows, guarded by this
+	int peerInitialWindowSize = DEFAULT_WINDOW_SIZE;
+	int peerMaxFrameSize = DEFAULT_MAX_FRAME_SIZE;
+	long sendWindow = DEFAULT_WINDOW_SIZE;
+
+	final Object writeLock = new Object();
+
+	// closes the connection when a write outlasts the write timeout
+	final Runnable writeExpired = new Runnable() {
+		@Override public void run() {
+			connection.abort();
+		}
+	};
+
+	/**
+	 * Creates an HTTP/2 connection.
+	 *
+	 * @param server the HTTPServer that accepted the connection
+	 * @param connection the Connection to speak HTTP/2 on
+	 */
+	HTTP2Connection( HTTPServer server, HTTPServer.Connection connection ) {
+		this.server = server;
+		this.connection = connection;
+		this.in = connection.is;
+		this.out = connection.os;
+		this.maxConcurrentStreams = server.maxConcurrentStreams;
+		this.maxHeaderListSize = server.maxHeaderListSize;
+	}
+
+	/**
+	 * Checks whether the client opened the connection with the HTTP/2
+	 * preface.  Only as many bytes are read as it takes to tell, so an
+	 * HTTP/1 request is left where it was.
+	 *
+	 * @param is the BufferedInputStream of the connection
+	 * @return true if the connection starts with the preface
+	 * @throws IOException if an I/O error occurs
+	 */
+	static boolean isPreface( InputStream is ) throws IOException {
+		is.mark( PREFACE.length );
+		try {
+			for ( byte b : PREFACE ) {
+				if ( is.read() != b ) return false;
+			}
+			return true;
+		}
+		finally {
+			is.reset();
+		}
+	}
+
+	/**
+	 * Checks whether an HTTP/1.1 request asks to upgrade to h2c.
+	 *
+	 * @param request the HTTPRequest to check
+	 * @return true if the connection should switch to HTTP/2
+	 */
+	static boolean isUpgrade( HTTPRequest request ) {
+		return "HTTP/1.1".equals( request.getVersion() )
+				&& request.getHeader( "HTTP2-Settings" ) != null
+				&& hasToken( request.getHeader( "Upgrade" ), "h2c" )
+				&& hasToken( request.getHeader( "Connection" ), "upgrade" );
+	}
+
+	static boolean hasToken( String header, String token ) {
+		if ( header == null ) return false;
+		for ( String t : header.split( "," ) ) {
+			if ( token.equalsIgnoreCase( t.trim() ) ) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Serves the connection until the client goes away, the server stops
+	 * or either side breaks the protocol.
+	 *
+	 * @param upgrade the HTTP/1.1 request that asked for h2c, which becomes
+	 * stream 1, or null if the client started with the preface
+	 * @param response the HTTPResponse for the upgrade request
+	 * @throws IOException if an I/O error occurs
+	 */
+	void serve( HTTPRequest upgrade, HTTPResponse response ) throws IOException {
+		if ( upgrade != null ) {
+			try {
+				applySettings( Base64.getUrlDecoder().decode( upgrade.getHeader( "HTTP2-Settings" ).trim() ) );
+			}
+			catch ( IllegalArgumentException | HTTP2Exception e ) {
+				throw new IOException( "Invalid HTTP2-Settings header.", e );
+			}
+			out.write( SWITCHING_PROTOCOLS );
+		}
+		writeSettings();
+
+		try {
+			readPreface();
+			if ( upgrade != null ) {
+				Stream stream = new Stream( 1, peerInitialWindowSize );
+				stream.request = upgrade;
+				stream.response = response;
+				stream.ended = true;
+				upgrade.version = "HTTP/2.0";
+				lastStreamId = 1;
+				streams.put( 1, stream );
+				dispatch( stream );
+			}
+
+			while ( !closed && readFrame() ) {
+				// keep reading
+			}
+		}
+		catch ( HTTP2Exception h2e ) {
+			log.debug( "HTTP/2 protocol error.", h2e );
+			writeGoAway( h2e.getErrorCode() );
+		}
+		catch ( IOException ioe ) {
+			if ( !connection.expired && !closed && server.isRunning ) log.debug( "HTTP/2 connection failed.", ioe );
+		}
+		finally {
+			connection.cancelTimer();
+			connection.idle = false;
+
+			// bodies the client never finished sending are thrown away
+			for ( Stream stream : streams.values() ) {
+				if ( stream.body == null ) continue;
+				stream.body.close();
+				stream.body = null;
+				streams.remove( stream.id );
+			}
+		}
+
+		// let the requests already being handled finish before the connection is closed
+		synchronized ( this ) {
+			while ( !streams.isEmpty() && !connection.closed.get() ) {
+				try {
+					wait( 100 );
+				}
+				catch ( InterruptedException ie ) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+			}
+			closed = true;
+			notifyAll();
+		}
+	}
+
+	void readPreface() throws IOException {
+		connection.startTimer( server.timers, server.headerTimeout, false );
+		byte[] preface = new byte[ PREFACE.length ];
+		readFully( preface, 0, preface.length );
+		connection.cancelTimer();
+		for ( int i = 0; i < PREFACE.length; i++ ) {
+			if ( preface[i] != PREFACE[i] ) throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "Invalid connection preface." );
+		}
+	}
+
+	/**
+	 * Reads and handles one frame.
+	 *
+	 * @return false if the client sent GOAWAY
+	 * @throws IOException if an I/O error occurs or the client breaks the protocol
+	 */
+	boolean readFrame() throws IOException {
+		byte[] header = new byte[ 9 ];
+
+		// an idle connection waits no longer than a keep-alive connection would
+		boolean idle = streams.isEmpty() && headerBlock == null;
+		if ( idle ) {
+			if ( !server.isRunning ) return false;
+			connection.idle = true;
+			connection.startTimer( server.timers, server.keepAliveTimeout > 0 ? server.keepAliveTimeout : server.headerTimeout, false );
+		}
+		try {
+			int first = in.read();
+			if ( first < 0 ) throw new EOFException( "Client closed the connection." );
+			header[0] = (byte)first;
+			connection.idle = false;
+			readFully( header, 1, 8 );
+		}
+		finally {
+			if ( idle ) connection.cancelTimer();
+			connection.idle = false;
+		}
+
+		int length = ( header[0] & 0xff ) << 16 | ( header[1] & 0xff ) << 8 | ( header[2] & 0xff );
+		int type = header[3] & 0xff;
+		int flags = header[4] & 0xff;
+		int streamId = ( ( header[5] & 0x7f ) << 24 ) | ( ( header[6] & 0xff ) << 16 ) | ( ( header[7] & 0xff ) << 8 ) | ( header[8] & 0xff );
+		if ( length > DEFAULT_MAX_FRAME_SIZE ) throw new HTTP2Exception( HTTP2Exception.FRAME_SIZE_ERROR, "Frame of " + length + " bytes is too large." );
+
+		byte[] payload = new byte[ length ];
+		readFully( payload, 0, length );
+
+		if ( headerBlock != null && ( type != CONTINUATION || streamId != headerStreamId ) ) {
+			throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "Expected CONTINUATION of stream " + headerStreamId );
+		}
+
+		switch ( type ) {
+			case DATA: readData( streamId, flags, payload ); break;
+			case HEADERS: readHeaders( streamId, flags, payload ); break;
+			case PRIORITY: break;
+			case RST_STREAM: readReset( streamId, payload ); break;
+			case SETTINGS: readSettings( streamId, flags, payload ); break;
+			case PUSH_PROMISE: throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "Clients cannot push." );
+			case PING: readPing( streamId, flags, payload ); break;
+			case GOAWAY: return false;
+			case WINDOW_UPDATE: readWindowUpdate( streamId, payload ); break;
+			case CONTINUATION: readContinuation( streamId, flags, payload ); break;
+			default: break; // unknown frame types are ignored
+		}
+		return true;
+	}
+
+	void readFully( byte[] b, int off, int len ) throws IOException {
+		while ( len > 0 ) {
+			int count = in.read( b, off, len );
+			if ( count < 0 ) throw new EOFException( "Client closed the connection in the middle of a frame." );
+			off += count;
+			len -= count;
+		}
+	}
+
+	/**
+	 * Strips the padding from a frame that has the PADDED flag.
+	 *
+	 * @return the offset and length of the rest of the payload
+	 */
+	static int[] unpad( int flags, byte[] payload, int skip ) throws HTTP2Exception {
+		int off = 0, len = payload.length;
+		if ( ( flags & PADDED ) != 0 ) {
+			if ( len < 1 ) throw new HTTP2Exception( HTTP2Exception.FRAME_SIZE_ERROR, "Padded frame without a pad length." );
+			int padding = payload[0] & 0xff;
+			off = 1;
+			len -= 1 + padding;
+		}
+		off += skip;
+		len -= skip;
+		if ( len < 0 ) throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "Padding is longer than the frame." );
+		return new int[] { off, len };
+	}
+
+	void readHeaders( int streamId, int flags, byte[] payload ) throws IOException {
+		if ( streamId == 0 ) throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "HEADERS on stream 0." );
+		int[] range = unpad( flags, payload, ( flags & PRIORITY_FLAG ) != 0 ? 5 : 0 );
+
+		headerBlock = new ByteArrayOutputStream( range[1] );
+		headerBlock.write( payload, range[0], range[1] );
+		headerStreamId = streamId;
+		headerEndStream = ( flags & END_STREAM ) != 0;
+		checkHeaderBlock();
+		if ( ( flags & END_HEADERS ) != 0 ) endHeaders();
+	}
+
+	void readContinuation( int streamId, int flags, byte[] payload ) throws IOException {
+		if ( headerBlock == null ) throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "CONTINUATION without HEADERS." );
+		headerBlock.write( payload, 0, payload.length );
+		checkHeaderBlock();
+		if ( ( flags & END_HEADERS ) != 0 ) endHeaders();
+	}
+
+	/**
+	 * Stops a header block from growing past the header list size.  A
+	 * compressed block is never much larger than the headers it holds,
+	 * and it has to be decoded in full to keep the table in step, so one
+	 * that is too large ends the connection.
+	 */
+	void checkHeaderBlock() throws HTTP2Exception {
+		if ( headerBlock.size() > maxHeaderListSize ) throw new HTTP2Exception( HTTP2Exception.ENHANCE_YOUR_CALM, "Header block is larger than " + maxHeaderListSize + " bytes." );
+	}
+
+	/**
+	 * Measures decoded headers the way SETTINGS_MAX_HEADER_LIST_SIZE does.
+	 *
+	 * @param headers the name and value pairs
+	 * @return the size of the header list in bytes
+	 */
+	static long headerListSize( List<String[]> headers ) {
+		long size = 0;
+		for ( String[] header : headers ) size += header[0].length() + header[1].length() + 32;
+		return size;
+	}
+
+	/**
+	 * Decodes a complete header block and starts a stream, or takes the
+	 * block as the trailers of a stream that is already open.
+	 */
+	void endHeaders() throws IOException {
+		byte[] block = headerBlock.toByteArray();
+		int streamId = headerStreamId;
+		boolean endStream = headerEndStream;
+		headerBlock = null;
+
+		// the block has to be decoded, even for a stream that is refused, to keep the table in step
+		List<String[]> headers = decoder.decode( block, 0, block.length );
+
+		Stream stream = streams.get( streamId );
+		if ( stream != null ) {
+			// trailers of a rejected request go the same way as its body
+			if ( stream.rejected ) {
+				if ( endStream ) stream.ended = true;
+				return;
+			}
+			if ( stream.body == null ) throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "HEADERS on half-closed stream " + streamId );
+			if ( !endStream ) throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "Trailers must end the stream." );
+			endRequest( stream );
+			return;
+		}
+
+		if ( streamId % 2 == 0 || streamId <= lastStreamId ) throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "Invalid stream " + streamId );
+		lastStreamId = streamId;
+		if ( !server.isRunning || streams.size() >= maxConcurrentStreams ) {
+			writeReset( streamId, HTTP2Exception.REFUSED_STREAM );
+			return;
+		}
+
+		stream = new Stream( streamId, peerInitialWindowSize );
+		stream.request = request( headers );
+		stream.response = new HTTPResponse();
+		server.record( stream.request, stream.response );
+		streams.put( streamId, stream );
+		if ( endStream ) stream.ended = true;
+
+		// a small block can still reference the same table entry over and over
+		if ( headerListSize( headers ) > maxHeaderListSize ) {
+			reject( stream, new HTTPException( 431, "Request headers are larger than " + maxHeaderListSize + " bytes." ) );
+			return;
+		}
+		if ( endStream ) {
+			dispatch( stream );
+			return;
+		}
+
+		// a body that says it is too large is turned away before any of it is sent
+		String declared = stream.request.getHeader( "content-length" );
+		if ( declared != null ) {
+			long contentLength;
+			try {
+				contentLength = Long.parseLong( declared.trim() );
+			}
+			catch ( NumberFormatException nfe ) {
+				contentLength = -1;
+			}
+			if ( contentLength < 0 ) {
+				reject( stream, new HTTPException( 400, "Invalid Content-length." ) );
+				return;
+			}
+			if ( server.spool.isTooLarge( contentLength ) ) {
+				reject( stream, new HTTPException( 413, "Request body is larger than " + server.spool.maxBodySize + " bytes." ) );
+				return;
+			}
+		}
+
+		// the claimed length does not size anything, since a connection carries many bodies at once
+		stream.body = server.spool.open( -1 );
+	}
+
+	/**
+	 * Turns decoded headers into a request.
+	 *
+	 * @param headers the name and value pairs
+	 * @return the HTTPRequest
+	 */
+	HTTPRequest request( List<String[]> headers ) throws HTTP2Exception {
+		HTTPRequest request = new HTTPRequest();
+		request.version = "HTTP/2.0";
+		request.remoteAddress = connection.remoteAddress;
+		for ( String[] header : headers ) {
+			String name = header[0], value = header[1];
+			if ( ":method".equals( name ) ) request.method = value;
+			else if ( ":path".equals( name ) ) request.path = value;
+			else if ( ":authority".equals( name ) ) request.setHeader( "Host", value );
+			else if ( name.startsWith( ":" ) ) continue;
+			else {
+				// HTTPRequest holds one value per name, so join repeats the way HTTP/1.1 would
+				String previous = request.getHeader( name );
+				if ( previous != null ) value = previous + ( "cookie".equals( name ) ? "; " : ", " ) + value;
+				request.setHeader( name, value );
+			}
+		}
+		if ( request.method == null || ( request.path == null && !"CONNECT".equals( request.method ) ) ) {
+			throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "Request is missing :method or :path." );
+		}
+		return request;
+	}
+
+	void readData( int streamId, int flags, byte[] payload ) throws IOException {
+		if ( streamId == 0 ) throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "DATA on stream 0." );
+		int[] range = unpad( flags, payload, 0 );
+
+		Stream stream = streams.get( streamId );
+		if ( stream == null || ( stream.body == null && !stream.rejected ) ) {
+			if ( streamId > lastStreamId ) throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "DATA on idle stream " + streamId );
+
+			// data that is thrown away holds nothing, so the connection is credited for it
+			if ( payload.length > 0 ) writeWindowUpdate( 0, payload.length );
+			writeReset( streamId, HTTP2Exception.STREAM_CLOSED );
+			return;
+		}
+		if ( ( flags & END_STREAM ) != 0 ) stream.ended = true;
+
+		if ( !stream.rejected && server.spool.isTooLarge( stream.body.size() + range[1] ) ) {
+			reject( stream, new HTTPException( 413, "Request body is larger than " + server.spool.maxBodySize + " bytes." ) );
+		}
+		if ( !stream.rejected ) {
+			try {
+				stream.body.write( payload, range[0], range[1] );
+			}
+			catch ( IOException ioe ) {
+				log.error( "Unable to spool HTTP/2 request body.", ioe );
+				reject( stream, new HTTPException( 500, "Unable to spool the request body.", ioe ) );
+			}
+		}
+		if ( payload.length > 0 ) writeWindowUpdate( 0, payload.length );
+
+		// a rejected stream is never credited, so its client soon stops sending
+		if ( stream.rejected ) return;
+		if ( stream.ended ) endRequest( stream );
+		else if ( payload.length > 0 ) writeWindowUpdate( streamId, payload.length );
+	}
+
+	/**
+	 * Answers a request before its body has been read and throws away
+	 * whatever of the body has been spooled or is still to come.
+	 *
+	 * @param stream the Stream to reject
+	 * @param he the reason, which becomes the response
+	 */
+	void reject( Stream stream, HTTPException he ) {
+		if ( stream.body != null ) stream.body.close();
+		stream.body = null;
+		stream.rejected = true;
+		stream.handled = true;
+		stream.response.buildStandardResponse( he.getStatus(), he );
+		dispatch( stream );
+	}
+
+	/**
+	 * Finishes reading a request body, decoding it unless decoding is
+	 * turned off, and hands the request to a worker.
+	 */
+	void endRequest( Stream stream ) {
+		BodySpool.SpoolOutputStream spooled = stream.body;
+		stream.body = null;
+		stream.ended = true;
+		try {
+			RequestBody body = spooled.toRequestBody();
+			spooled = null;
+			if ( body.getSize() > 0 ) readBody( stream.request, body );
+		}
+		catch ( HTTPException he ) {
+			stream.response.buildStandardResponse( he.getStatus(), he );
+			stream.handled = true;
+		}
+		catch ( IOException ioe ) {
+			stream.response.buildStandardResponse( 400, ioe );
+			stream.handled = true;
+		}
+		finally {
+			if ( spooled != null ) spooled.close();
+		}
+		dispatch( stream );
+	}
+
+	/**
+	 * Gives a spooled body to its request, first decoding it according
+	 * to its Content-Encoding the way an HTTP/1 body would be.
+	 *
+	 * @param request the HTTPRequest the body belongs to
+	 * @param body the body as it came off the wire
+	 */
+	void readBody( HTTPRequest request, RequestBody body ) throws IOException, HTTPException {
+		String encoding = request.getHeader( "content-encoding" );
+		if ( server.maxDecodedBodySize < 0 || encoding == null || "identity".equalsIgnoreCase( encoding.trim() ) ) {
+			request.wireBodySize = (int)Math.min( body.getSize(), Integer.MAX_VALUE );
+			request.setRequestBody( body );
+			return;
+		}
+		try ( InputStream is = body.getInputStream() ) {
+			HTTPServer.readBody( is, request, body.getSize(), server.maxDecodedBodySize, server.spool );
+		}
+		finally {
+			body.close();
+		}
+	}
+
+	void readReset( int streamId, byte[] payload ) throws HTTP2Exception {
+		if ( streamId == 0 ) throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "RST_STREAM on stream 0." );
+		if ( payload.length != 4 ) throw new HTTP2Exception( HTTP2Exception.FRAME_SIZE_ERROR, "RST_STREAM must be 4 bytes." );
+		Stream stream = streams.remove( streamId );
+		if ( stream == null ) return;
+		synchronized ( this ) {
+			stream.reset = true;
+			notifyAll();
+		}
+	}
+
+	void readSettings( int streamId, int flags, byte[] payload ) throws IOException {
+		if ( streamId != 0 ) throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "SETTINGS on stream " + streamId );
+		if ( ( flags & ACK ) != 0 ) {
+			if ( payload.length != 0 ) throw new HTTP2Exception( HTTP2Exception.FRAME_SIZE_ERROR, "SETTINGS ACK with a payload." );
+			return;
+		}
+		applySettings( payload );
+		writeFrame( SETTINGS, ACK, 0, new byte[0], 0, 0 );
+	}
+
+	/**
+	 * Applies the client's settings.
+	 *
+	 * @param payload the setting identifiers and values
+	 */
+	synchronized void applySettings( byte[] payload ) throws HTTP2Exception {
+		if ( payload.length % 6 != 0 ) throw new HTTP2Exception( HTTP2Exception.FRAME_SIZE_ERROR, "SETTINGS must be a multiple of 6 bytes." );
+		for ( int i = 0; i < payload.length; i += 6 ) {
+			int id = ( payload[i] & 0xff ) << 8 | ( payload[i + 1] & 0xff );
+			long value = readUnsignedInt( payload, i + 2 );
+			if ( id == SETTINGS_INITIAL_WINDOW_SIZE ) {
+				if ( value > MAX_WINDOW_SIZE ) throw new HTTP2Exception( HTTP2Exception.FLOW_CONTROL_ERROR, "Initial window size is too large." );
+				int delta = (int)value - peerInitialWindowSize;
+				peerInitialWindowSize = (int)value;
+				for ( Stream stream : streams.values() ) stream.sendWindow += delta;
+			}
+			else if ( id == SETTINGS_MAX_FRAME_SIZE ) {
+				if ( value < DEFAULT_MAX_FRAME_SIZE || value > 0xffffff ) throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "Invalid maximum frame size " + value );
+				peerMaxFrameSize = (int)value;
+			}
+			// the encoder never uses the dynamic table and the server never pushes, so the rest don't matter
+		}
+		notifyAll();
+	}
+
+	void readPing( int streamId, int flags, byte[] payload ) throws IOException {
+		if ( streamId != 0 ) throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "PING on stream " + streamId );
+		if ( payload.length != 8 ) throw new HTTP2Exception( HTTP2Exception.FRAME_SIZE_ERROR, "PING must be 8 bytes." );
+		if ( ( flags & ACK ) == 0 ) writeFrame( PING, ACK, 0, payload, 0, 8 );
+	}
+
+	void readWindowUpdate( int streamId, byte[] payload ) throws HTTP2Exception {
+		if ( payload.length != 4 ) throw new HTTP2Exception( HTTP2Exception.FRAME_SIZE_ERROR, "WINDOW_UPDATE must be 4 bytes." );
+		long increment = readUnsignedInt( payload, 0 ) & 0x7fffffffL;
+		if ( increment == 0 ) throw new HTTP2Exception( HTTP2Exception.PROTOCOL_ERROR, "WINDOW_UPDATE of 0." );
+
+		synchronized ( this ) {
+			if ( streamId == 0 ) {
+				sendWindow += increment;
+				if ( sendWindow > MAX_WINDOW_SIZE ) throw new HTTP2Exception( HTTP2Exception.FLOW_CONTROL_ERROR, "Connection window overflowed." );
+			}
+			else {
+				Stream stream = streams.get( streamId );
+				if ( stream == null ) return;
+				stream.sendWindow += increment;
+				if ( stream.sendWindow > MAX_WINDOW_SIZE ) {
+					streams.remove( streamId );
+					stream.reset = true;
+					notifyAll();
+					try {
+						writeReset( streamId, HTTP2Exception.FLOW_CONTROL_ERROR );
+					}
+					catch ( IOException ioe ) {
+						log.debug( "Unable to reset stream.", ioe );
+					}
+					return;
+				}
+			}
+			notifyAll();
+		}
+	}
+
+	static long readUnsignedInt( byte[] b, int off ) {
+		return ( ( b[off] & 0xffL ) << 24 ) | ( ( b[off + 1] & 0xff ) << 16 ) | ( ( b[off + 2] & 0xff ) << 8 ) | ( b[off + 3] & 0xff );
+	}
+
+	/**
+	 * Hands a complete request to a worker, which calls the handler and
+	 * writes the response.  When every worker is busy the stream is
+	 * refused, which tells the client it is safe to try again.
+	 *
+	 * @param stream the Stream whose request is complete
+	 */
+	void dispatch( final Stream stream ) {
+		// the workers are gone once the server has stopped
+		ExecutorService workers = server.workers;
+		if ( workers != null ) {
+			try {
+				workers.execute( new Runnable() {
+					@Override public void run() {
+						handle( stream );
+					}
+				} );
+				return;
+			}
+			catch ( RejectedExecutionException ree ) {
+				// every worker is busy
+			}
+		}
+
+		streams.remove( stream.id );
+		try {
+			writeReset( stream.id, HTTP2Exception.REFUSED_STREAM );
+		}
+		catch ( IOException ioe ) {
+			log.debug( "Unable to refuse stream.", ioe );
+		}
+		finished();
+	}
+
+	void handle( final Stream stream ) {
+		final HTTPResponse response = stream.response;
+		HTTPRequestHandler handler = server.handler;
+
+		if ( !stream.handled && handler instanceof AsyncHTTPRequestHandler ) {
+			final Runnable finish = new Runnable() {
+				@Override public void run() {
+					// waiting on flow control is no job for whatever thread completed the stage
+					Runnable respond = new Runnable() {
+						@Override public void run() {
+							respond( stream );
+						}
+					};
+					ExecutorService workers = server.workers;
+					if ( workers != null ) {
+						try {
+							workers.execute( respond );
+							return;
+						}
+						catch ( RejectedExecutionException ree ) {
+							// every worker is busy, so this thread writes it after all
+						}
+					}
+					respond.run();
+				}
+			};
+
+			// whichever of the stage and the deadline comes first writes the response
+			final AtomicBoolean answered = new AtomicBoolean();
+			Runnable expire = new Runnable() {
+				@Override public void run() {
+					if ( !answered.compareAndSet( false, true ) ) return;
+					HTTPServer.handlerExpired( response );
+					finish.run();
+				}
+			};
+			TimerWheel timers = server.timers;
+			final TimerWheel.Timeout deadline = server.handlerTimeout > 0 && timers != null ? timers.schedule( expire, server.handlerTimeout, TimeUnit.MILLISECONDS ) : null;
+
+			CompletionStage<HTTPResponse> stage;
+			try {
+				stage = ( (AsyncHTTPRequestHandler)handler ).handleRequestAsync( stream.request, response );
+			}
+			catch ( RuntimeException re ) {
+				CompletableFuture<HTTPResponse> failed = new CompletableFuture<>();
+				failed.completeExceptionally( re );
+				stage = failed;
+			}
+			stage.whenComplete( new BiConsumer<HTTPResponse, Throwable>() {
+				@Override public void accept( HTTPResponse result, Throwable t ) {
+					if ( !answered.compareAndSet( false, true ) ) return;
+					if ( deadline != null ) deadline.cancel();
+					try {
+						HTTPServer.complete( response, result, t );
+					}
+					catch ( HTTPException he ) {
+						response.buildStandardResponse( he.getStatus(), he );
+					}
+					finish.run();
+				}
+			} );
+			return;
+		}
+
+		if ( !stream.handled ) {
+			try {
+				handler.handleRequest( stream.request, response );
+			}
+			catch ( HTTPException he ) {
+				response.buildStandardResponse( he.getStatus(), he );
+			}
+			catch ( RuntimeException re ) {
+				log.error( "Handler failed.", re );
+				response.buildStandardResponse( 500, re );
+			}
+		}
+		respond( stream );
+	}
+
+	/**
+	 * Writes the response as a HEADERS frame and as many DATA frames as
+	 * the body and the client's windows call for.
+	 *
+	 * @param stream the Stream to answer
+	 */
+	void respond( Stream stream ) {
+		try {
+			HTTPResponse response = stream.response;
+			byte[] body = response.getBody();
+			boolean hasBody = body != null && body.length > 0 && !"HEAD".equals( stream.request.getMethod() );
+
+			ByteArrayOutputStream block = new ByteArrayOutputStream();
+			HPACK.writeStatus( block, response.getStatus() );
+			Map<String, String> headers = response.getHeaders();
+			if ( headers != null ) {
+				for ( Entry<String, String> header : headers.entrySet() ) {
+					String name = header.getKey().toLowerCase();
+					if ( header.getValue() == null || isConnectionHeader( name ) ) continue;
+					HPACK.writeHeader( block, name, header.getValue() );
+				}
+			}
+			writeHeaders( stream, block.toByteArray(), !hasBody );
+			if ( hasBody ) writeData( stream, body );
+
+			// a client still sending a rejected body can stop now that it has its answer
+			if ( !stream.ended ) writeReset( stream.id, HTTP2Exception.NO_ERROR );
+			server.exchanges.incrementAndGet();
+		}
+		catch ( IOException ioe ) {
+			log.debug( "Unable to write HTTP/2 response.", ioe );
+		}
+		finally {
+			streams.remove( stream.id );
+			finished();
+		}
+	}
+
+	static boolean isConnectionHeader( String name ) {
+		for ( String header : CONNECTION_HEADERS ) {
+			if ( header.equals( name ) ) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Wakes the reading thread when the last stream finishes so that an
+	 * idle connection times out and one on a stopped server closes.
+	 */
+	void finished() {
+		synchronized ( this ) {
+			notifyAll();
+		}
+		if ( streams.isEmpty() && !server.isRunning ) {
+			try {
+				writeGoAway( 0 );
+				connection.transport.shutdownInput();
+			}
+			catch ( IOException ioe ) {
+				log.debug( "Unable to close HTTP/2 connection.", ioe );
+			}
+		}
+	}
+
+	void writeHeaders( Stream stream, byte[] block, boolean endStream ) throws IOException {
+		// the frames of one header block cannot have anything in between
+		synchronized ( writeLock ) {
+			int frameSize = peerMaxFrameSize;
+			int off = 0;
+			boolean first = true;
+			do {
+				int len = Math.min( frameSize, block.length - off );
+				boolean last = off + len == block.length;
+				int flags = ( last ? END_HEADERS : 0 ) | ( first && endStream ? END_STREAM : 0 );
+				writeFrame( first ? HEADERS : CONTINUATION, flags, stream.id, block, off, len );
+				off += len;
+				first = false;
+			} while ( off < block.length );
+		}
+	}
+
+	void writeData( Stream stream, byte[] body ) throws IOException {
+		long timeout = TimeUnit.MILLISECONDS.toNanos( server.writeTimeout );
+		int off = 0;
+		while ( off < body.length ) {
+			int len;
+			synchronized ( this ) {
+				long deadline = System.nanoTime() + timeout;
+				while ( !stream.reset && !closed && ( sendWindow <= 0 || stream.sendWindow <= 0 ) ) {
+					long remaining = deadline - System.nanoTime();
+					if ( timeout > 0 && remaining <= 0 ) {
+						writeReset( stream.id, HTTP2Exception.CANCEL );
+						throw new IOException( "Timed out waiting for the client to open its flow control window." );
+					}
+					try {
+						wait( timeout > 0 ? Math.max( 1, TimeUnit.NANOSECONDS.toMillis( remaining ) ) : 0 );
+					}
+					catch ( InterruptedException ie ) {
+						Thread.currentThread().interrupt();
+						throw new IOException( "Interrupted while waiting for flow control.", ie );
+					}
+				}
+				if ( stream.reset || closed ) return;
+
+				len = (int)Math.min( Math.min( body.length - off, peerMaxFrameSize ), Math.min( sendWindow, stream.sendWindow ) );
+				sendWindow -= len;
+				stream.sendWindow -= len;
+			}
+			writeFrame( DATA, off + len == body.length ? END_STREAM : 0, stream.id, body, off, len );
+			off += len;
+		}
+	}
+
+	void writeSettings() throws IOException {
+		byte[] settings = new byte[ 18 ];
+		setting( settings, 0, SETTINGS_MAX_CONCURRENT_STREAMS, maxConcurrentStreams );
+		setting( settings, 6, SETTINGS_INITIAL_WINDOW_SIZE, RECEIVE_WINDOW_SIZE );
+		setting( settings, 12, SETTINGS_MAX_HEADER_LIST_SIZE, maxHeaderListSize );
+		writeFrame( SETTINGS, 0, 0, settings, 0, settings.length );
+		writeWindowUpdate( 0, RECEIVE_WINDOW_SIZE - DEFAULT_WINDOW_SIZE );
+	}
+
+	static void setting( byte[] b, int off, int id, int value ) {
+		b[off] = (byte)( id >>> 8 );
+		b[off + 1] = (byte)id;
+		writeInt( b, off + 2, value );
+	}
+
+	static void writeInt( byte[] b, int off, int value ) {
+		b[off] = (byte)( value >>> 24 );
+		b[off + 1] = (byte)( value >>> 16 );
+		b[off + 2] = (byte)( value >>> 8 );
+		b[off + 3] = (byte)value;
+	}
+
+	void writeWindowUpdate( int streamId, int increment ) throws IOException {
+		byte[] payload = new byte[ 4 ];
+		writeInt( payload, 0, increment );
+		writeFrame( WINDOW_UPDATE, 0, streamId, payload, 0, 4 );
+	}
+
+	void writeReset( int streamId, int errorCode ) throws IOException {
+		byte[] payload = new byte[ 4 ];
+		writeInt( payload, 0, errorCode );
+		writeFrame( RST_STREAM, 0, streamId, payload, 0, 4 );
+	}
+
+	void writeGoAway( int errorCode ) {
+		byte[] payload = new byte[ 8 ];
+		writeInt( payload, 0, lastStreamId );
+		writeInt( payload, 4, errorCode );
+		try {
+			writeFrame( GOAWAY, 0, 0, payload, 0, 8 );
+		}
+		catch ( IOException ioe ) {
+			log.debug( "Unable to send GOAWAY.", ioe );
+		}
+	}
+
+	/**
+	 * Writes one frame in a single write so that frames from different
+	 * threads never interleave.  A client that stops reading would hold
+	 * the lock, and every thread waiting for it, forever, so a write that
+	 * outlasts the write timeout closes the connection.  The connection's
+	 * own timer is not used, since the reading thread keeps its idle
+	 * timeout there while workers write.
+	 */
+	void writeFrame( int type, int flags, int streamId, byte[] payload, int off, int len ) throws IOException {
+		byte[] frame = new byte[ 9 + len ];
+		frame[0] = (byte)( len >>> 16 );
+		frame[1] = (byte)( len >>> 8 );
+		frame[2] = (byte)len;
+		frame[3] = (byte)type;
+		frame[4] = (byte)flags;
+		writeInt( frame, 5, streamId );
+		System.arraycopy( payload, off, frame, 9, len );
+		synchronized ( writeLock ) {
+			TimerWheel timers = server.timers;
+			TimerWheel.Timeout deadline = server.writeTimeout > 0 && timers != null ? timers.schedule( writeExpired, server.writeTimeout, TimeUnit.MILLISECONDS ) : null;
+			try {
+				out.write( frame );
+			}
+			finally {
+				if ( deadline != null ) deadline.cancel();
+			}
+		}
+	}
+
+	/**
+	 * A request and its response.  The body is being read while it is not
+	 * null.  A rejected stream was answered before the client finished
+	 * sending its body, and what is left of the body is thrown away.
+	 */
+	static class Stream {
+		int id;
+		HTTPRequest request;
+		HTTPResponse response;
+		BodySpool.SpoolOutputStream body;
+		boolean rejected = false;
+		volatile boolean ended = false;
+		boolean handled = false;
+		volatile boolean reset = false;
+		long sendWindow;
+
+		Stream( int id, int sendWindow ) {
+			this.id = id;
+			this.sendWindow = sendWindow;
+		}
+	}
+}
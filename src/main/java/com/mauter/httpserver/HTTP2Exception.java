@@ -0,0 +1,42 @@
+package com.mauter.httpserver;
+
+import java.io.IOException;
+
+/**
+ * A violation of the HTTP/2 protocol by the client.  It carries the error
+ * code sent back in the GOAWAY or RST_STREAM frame.
+ */
+class HTTP2Exception extends IOException {
+	private static final long serialVersionUID = 1L;
+
+	static final int NO_ERROR = 0x0;
+	static final int PROTOCOL_ERROR = 0x1;
+	static final int INTERNAL_ERROR = 0x2;
+	static final int FLOW_CONTROL_ERROR = 0x3;
+	static final int STREAM_CLOSED = 0x5;
+	static final int FRAME_SIZE_ERROR = 0x6;
+	static final int REFUSED_STREAM = 0x7;
+	static final int CANCEL = 0x8;
+	static final int COMPRESSION_ERROR = 0x9;
+	static final int ENHANCE_YOUR_CALM = 0xb;
+
+	int errorCode;
+
+	/**
+	 * Creates an exception with the given error code and message.
+	 *
+	 * @param errorCode the HTTP/2 error code
+	 * @param message the message
+	 */
+	HTTP2Exception( int errorCode, String message ) {
+		super( message );
+		this.errorCode = errorCode;
+	}
+
+	/**
+	 * Gets the HTTP/2 error code.
+	 *
+	 * @return the error code
+	 */
+	int getErrorCode() { return this.errorCode; }
+}
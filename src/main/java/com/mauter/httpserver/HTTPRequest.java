@@ -1,10 +1,14 @@
 package com.mauter.httpserver;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * This HTTP request object holds the data that is read in
@@ -16,8 +20,22 @@ public class HTTPRequest implements Serializable {
 	String method;
 	String path;
 	String version;
+	String remoteAddress;
 	byte[] body;
+	transient RequestBody largeBody;
+	int wireBodySize = -1;
 	Map<String, String> headers;
+	Map<String, String> pathParameters;
+
+	// headers read lazily stay as the bytes of their lines until needed
+	byte[] rawHeaders;
+	int[] headerIndex;
+	int headerCount;
+
+	transient Object decodedBody;
+	transient String bodyString;
+	transient Parameters query;
+	transient Parameters form;
 
 	/**
 	 * Gets the HTTP method of this request.
@@ -53,6 +71,107 @@ public class HTTPRequest implements Serializable {
 	 */
 	public void setPath( String path ) {
 		this.path = path;
+		this.query = null;
+	}
+
+	/**
+	 * Gets the query string of the path, the part after the '?', without
+	 * decoding it.
+	 * 
+	 * @return the query string or null if the path has none
+	 */
+	public String getQueryString() {
+		if ( this.path == null ) return null;
+		int question = this.path.indexOf( '?' );
+		return question < 0 ? null : this.path.substring( question + 1 );
+	}
+
+	/**
+	 * Gets the first value of a parameter in the query string.  The query
+	 * string is split the first time a parameter is asked for, and only
+	 * the values asked for are decoded.
+	 * 
+	 * @param name the decoded name of the parameter
+	 * @return the decoded value, an empty String if the parameter has no
+	 * value, or null if it is not there
+	 */
+	public String getQueryParameter( String name ) {
+		return queryParameters().get( name );
+	}
+
+	/**
+	 * Gets every value of a parameter that is repeated in the query string.
+	 * 
+	 * @param name the decoded name of the parameter
+	 * @return the decoded values in order, empty if the parameter is not there
+	 */
+	public List<String> getQueryParameters( String name ) {
+		return queryParameters().getAll( name );
+	}
+
+	/**
+	 * Gets the names of the parameters in the query string.
+	 * 
+	 * @return the decoded names in the order they first appear
+	 */
+	public Set<String> getQueryParameterNames() {
+		return queryParameters().names();
+	}
+
+	Parameters queryParameters() {
+		Parameters query = this.query;
+		if ( query == null ) {
+			int question = this.path == null ? -1 : this.path.indexOf( '?' );
+			query = question < 0 ? new Parameters( "", 0, 0 ) : new Parameters( this.path, question + 1, this.path.length() );
+			this.query = query;
+		}
+		return query;
+	}
+
+	/**
+	 * Gets the first value of a parameter in an
+	 * application/x-www-form-urlencoded body.  Like the query string, the
+	 * body is split once and only the values asked for are decoded.
+	 * 
+	 * @param name the decoded name of the parameter
+	 * @return the decoded value, an empty String if the parameter has no
+	 * value, or null if it is not there or the body is not a form
+	 */
+	public String getFormParameter( String name ) {
+		return formParameters().get( name );
+	}
+
+	/**
+	 * Gets every value of a parameter that is repeated in a form body.
+	 * 
+	 * @param name the decoded name of the parameter
+	 * @return the decoded values in order, empty if the parameter is not
+	 * there or the body is not a form
+	 */
+	public List<String> getFormParameters( String name ) {
+		return formParameters().getAll( name );
+	}
+
+	/**
+	 * Gets the names of the parameters in a form body.
+	 * 
+	 * @return the decoded names in the order they first appear, empty if
+	 * the body is not a form
+	 */
+	public Set<String> getFormParameterNames() {
+		return formParameters().names();
+	}
+
+	Parameters formParameters() {
+		Parameters form = this.form;
+		if ( form == null ) {
+			String contentType = getHeader( "Content-Type" );
+			byte[] body = null;
+			if ( contentType != null && contentType.trim().toLowerCase().startsWith( "application/x-www-form-urlencoded" ) ) body = getBody();
+			form = new Parameters( body == null ? new byte[ 0 ] : body );
+			this.form = form;
+		}
+		return form;
 	}
 	
 	/**
@@ -73,24 +192,112 @@ public class HTTPRequest implements Serializable {
 		this.version = version;
 	}
 
+	/**
+	 * Gets the IP address of the client that sent this request.
+	 * 
+	 * @return the remote address or null if this request was not read from a client
+	 */
+	public String getRemoteAddress() {
+		return remoteAddress;
+	}
+	
+	/**
+	 * Sets the IP address of the client that sent this request.
+	 * 
+	 * @param remoteAddress the remote address to set
+	 */
+	public void setRemoteAddress( String remoteAddress ) {
+		this.remoteAddress = remoteAddress;
+	}
+
 	/**
 	 * Gets the body as a series of bytes.  Fancier HTTP servers
 	 * would use an InputStream here, but to keep things simple
 	 * we're going to stick with a byte array.
+	 * <p>
+	 * A body the server kept off the heap is copied into a new array
+	 * each time, so use {@link #getRequestBody()} to read large bodies.
 	 * 
 	 * @return the body
+	 * @throws UncheckedIOException if a body kept off the heap cannot be read
 	 */
 	public byte[] getBody() {
+		if ( this.body == null && this.largeBody != null ) {
+			try {
+				return this.largeBody.getBytes();
+			}
+			catch ( IOException ioe ) {
+				throw new UncheckedIOException( ioe );
+			}
+		}
 		return body;
 	}
+
+	/**
+	 * Gets the body however the server kept it, on the heap, in a direct
+	 * buffer or in a temporary file.
+	 * 
+	 * @return the RequestBody or null if there is no body
+	 */
+	public RequestBody getRequestBody() {
+		if ( this.largeBody != null ) return this.largeBody;
+		return this.body == null ? null : new RequestBody( this.body );
+	}
+
+	/**
+	 * Sets the body from what the server read, keeping it off the heap if
+	 * that is where the server put it.
+	 * 
+	 * @param content the RequestBody read
+	 */
+	void setRequestBody( RequestBody content ) {
+		this.form = null;
+		if ( content.isOnHeap() ) {
+			this.body = content.bytes;
+			this.largeBody = null;
+		}
+		else {
+			this.body = null;
+			this.largeBody = content;
+		}
+	}
+	
+	/**
+	 * Gets the number of body bytes the client sent.  This differs from
+	 * {@link #getDecodedBodySize()} when the client compressed the body
+	 * with a Content-Encoding that the server decoded.
+	 * 
+	 * @return the size of the body on the wire or -1 if this request was not read from a client
+	 */
+	public int getWireBodySize() {
+		return wireBodySize;
+	}
+
+	/**
+	 * Gets the size of the body after any Content-Encoding was decoded.
+	 * 
+	 * @return the length of {@link #getBody()} or 0 if there is no body
+	 */
+	public int getDecodedBodySize() {
+		if ( this.body == null && this.largeBody != null ) return (int)Math.min( this.largeBody.getSize(), Integer.MAX_VALUE );
+		return this.body == null ? 0 : this.body.length;
+	}
 	
 	/**
-	 * Gets the body as a String.
+	 * Gets the body as a String.  The String is decoded the first time and
+	 * kept until the body is replaced, so changing the bytes of the array
+	 * returned by {@link #getBody()} is not reflected here.
 	 * 
 	 * @return the body as a String
 	 */
 	public String getBodyAsString() {
-		return this.body == null ? null : new String( this.body, StandardCharsets.UTF_8 );
+		Object body = this.body != null ? this.body : this.largeBody;
+		if ( body == null ) return null;
+		if ( body != this.decodedBody ) {
+			this.bodyString = new String( getBody(), StandardCharsets.UTF_8 );
+			this.decodedBody = body;
+		}
+		return this.bodyString;
 	}
 	
 	/**
@@ -99,6 +306,9 @@ public class HTTPRequest implements Serializable {
 	 * @param body the byte array to set as the body
 	 */
 	public void setBody( byte[] body ) { 
+		this.form = null;
+		if ( this.largeBody != null ) this.largeBody.close();
+		this.largeBody = null;
 		this.body = body;
 		if ( this.body != null ) setHeader( "Content-length", String.valueOf( body.length ) );
 	}
@@ -120,6 +330,7 @@ public class HTTPRequest implements Serializable {
 	 * @return the header value
 	 */
 	public String getHeader( String header ) {
+		if ( this.rawHeaders != null ) return findRawHeader( header );
 		if ( this.headers == null ) return null;
 		return this.headers.get( header.toLowerCase() );
 	}
@@ -132,6 +343,7 @@ public class HTTPRequest implements Serializable {
 	 * @param value the value of the header to set
 	 */
 	public void setHeader( String header, String value ) {
+		decodeHeaders();
 		if ( this.headers == null ) this.headers = new HashMap<>();
 		this.headers.put( header.toLowerCase(), value );
 	}
@@ -142,7 +354,134 @@ public class HTTPRequest implements Serializable {
 	 * @return the Map of headers
 	 */
 	public Map<String, String> getHeaders() {
+		decodeHeaders();
 		if ( this.headers == null ) return null;
 		return Collections.unmodifiableMap( this.headers );
 	}
+
+	/**
+	 * Keeps the header lines as they were read instead of decoding them.
+	 * Each line has three entries in the index: where it starts, where its
+	 * colon is, or -1 if it continues the line before, and where it ends.
+	 * 
+	 * @param raw the header lines without their line endings
+	 * @param index the offsets of each line in raw
+	 * @param count the number of lines
+	 */
+	void setRawHeaders( byte[] raw, int[] index, int count ) {
+		this.headers = null;
+		this.rawHeaders = raw;
+		this.headerIndex = index;
+		this.headerCount = count;
+	}
+
+	/**
+	 * Finds a header in the raw lines, decoding only its value.  Like the
+	 * Map, a header that is sent twice has the value of the last line.
+	 * 
+	 * @param header the name of the header
+	 * @return the header value or null if it was not sent
+	 */
+	String findRawHeader( String header ) {
+		byte[] raw = this.rawHeaders;
+		int[] index = this.headerIndex;
+		String value = null;
+		boolean matched = false;
+		for ( int i = 0; i < headerCount * 3; i += 3 ) {
+			if ( index[i + 1] < 0 ) {
+				if ( matched ) value += " " + decode( raw, index[i], index[i + 2] );
+			}
+			else {
+				matched = nameEquals( raw, index[i], index[i + 1], header );
+				if ( matched ) value = decode( raw, index[i + 1] + 1, index[i + 2] );
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Decodes every raw header line into the Map, the same way they are
+	 * decoded when headers are not read lazily.
+	 */
+	void decodeHeaders() {
+		byte[] raw = this.rawHeaders;
+		if ( raw == null ) return;
+		int[] index = this.headerIndex;
+		this.rawHeaders = null;
+		this.headerIndex = null;
+
+		String header = null;
+		for ( int i = 0; i < headerCount * 3; i += 3 ) {
+			if ( index[i + 1] < 0 ) {
+				setHeader( header, getHeader( header ) + " " + decode( raw, index[i], index[i + 2] ) );
+			}
+			else {
+				header = decode( raw, index[i], index[i + 1] );
+				setHeader( header, decode( raw, index[i + 1] + 1, index[i + 2] ) );
+			}
+		}
+		this.headerCount = 0;
+	}
+
+	/**
+	 * Decodes part of a line as UTF-8 without its surrounding whitespace.
+	 */
+	static String decode( byte[] raw, int start, int end ) {
+		while ( start < end && ( raw[start] & 0xff ) <= ' ' ) start++;
+		while ( end > start && ( raw[end - 1] & 0xff ) <= ' ' ) end--;
+		return new String( raw, start, end - start, StandardCharsets.UTF_8 );
+	}
+
+	/**
+	 * Compares a header name in a raw line to a String, ignoring case.
+	 * Header names are ASCII, so the bytes are compared directly and only
+	 * a name with other characters in it is decoded.
+	 */
+	static boolean nameEquals( byte[] raw, int start, int end, String name ) {
+		while ( start < end && ( raw[start] & 0xff ) <= ' ' ) start++;
+		while ( end > start && ( raw[end - 1] & 0xff ) <= ' ' ) end--;
+		int length = end - start;
+		for ( int i = 0; i < length && i < name.length(); i++ ) {
+			int b = raw[start + i];
+			char c = name.charAt( i );
+			if ( b < 0 || c >= 0x80 ) return decode( raw, start, end ).equalsIgnoreCase( name );
+			if ( b != c && Character.toLowerCase( (char)b ) != Character.toLowerCase( c ) ) return false;
+		}
+		return length == name.length();
+	}
+
+	/**
+	 * Gets a path parameter with the given name or null if it does not
+	 * exist.  Path parameters are filled in by {@link HTTPRouter} from
+	 * the route that matched this request.
+	 * 
+	 * @param name the name of the path parameter
+	 * @return the path parameter value
+	 */
+	public String getPathParameter( String name ) {
+		if ( this.pathParameters == null ) return null;
+		return this.pathParameters.get( name );
+	}
+
+	/**
+	 * Sets a path parameter with the given name and value overwriting any
+	 * previously set value having the same name.
+	 * 
+	 * @param name the name of the path parameter to set
+	 * @param value the value of the path parameter to set
+	 */
+	public void setPathParameter( String name, String value ) {
+		if ( this.pathParameters == null ) this.pathParameters = new HashMap<>();
+		this.pathParameters.put( name, value );
+	}
+
+	/**
+	 * Gets the path parameters as an unmodifiable Map.
+	 * 
+	 * @return the Map of path parameters
+	 */
+	public Map<String, String> getPathParameters() {
+		if ( this.pathParameters == null ) return null;
+		return Collections.unmodifiableMap( this.pathParameters );
+	}
 }
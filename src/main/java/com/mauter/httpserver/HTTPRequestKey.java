@@ -0,0 +1,65 @@
+package com.mauter.httpserver;
+
+/**
+ * Derives a key from a request so that requests can be grouped together,
+ * for example by {@link CoalescingHandler}.  Requests with equal keys are
+ * considered identical.  {@link RateLimitingHandler} uses one to tell
+ * clients apart.
+ */
+public interface HTTPRequestKey {
+
+	/**
+	 * Keys GET and HEAD requests by their method and path, including the
+	 * query string, and by their Authorization and Cookie headers, so that
+	 * one client never receives a response meant for another.  Requests
+	 * with any other method are not grouped, since their bodies can make
+	 * two of them different even when their paths match.  A key that
+	 * groups other methods must include the body and the credentials of
+	 * the request.
+	 */
+	public static final HTTPRequestKey METHOD_AND_PATH = new HTTPRequestKey() {
+		@Override public String getKey( HTTPRequest request ) {
+			String method = request.getMethod();
+			if ( !"GET".equals( method ) && !"HEAD".equals( method ) ) return null;
+
+			StringBuilder key = new StringBuilder( method ).append( ' ' ).append( request.getPath() );
+			String authorization = request.getHeader( "Authorization" );
+			if ( authorization != null ) key.append( "\nAuthorization: " ).append( authorization );
+			String cookie = request.getHeader( "Cookie" );
+			if ( cookie != null ) key.append( "\nCookie: " ).append( cookie );
+			return key.toString();
+		}
+	};
+
+	/**
+	 * Keys requests by the IP address of the client.
+	 */
+	public static final HTTPRequestKey REMOTE_ADDRESS = new HTTPRequestKey() {
+		@Override public String getKey( HTTPRequest request ) {
+			return request.getRemoteAddress();
+		}
+	};
+
+	/**
+	 * Keys requests by the value of a header, such as an API key.  Requests
+	 * without the header are not grouped.
+	 * 
+	 * @param header the name of the header
+	 * @return the HTTPRequestKey
+	 */
+	public static HTTPRequestKey header( final String header ) {
+		return new HTTPRequestKey() {
+			@Override public String getKey( HTTPRequest request ) {
+				return request.getHeader( header );
+			}
+		};
+	}
+
+	/**
+	 * Gets the key for the given request.
+	 * 
+	 * @param request the HTTPRequest to get the key for
+	 * @return the key or null if the request should not be grouped with any other
+	 */
+	public String getKey( HTTPRequest request );
+}
@@ -20,6 +20,13 @@ public class HTTPResponse implements Serializable {
 	byte[] body;
 	Map<String, String> headers;
 
+	/**
+	 * The status line and headers already serialized for the wire, or
+	 * null if they need to be formatted when the response is written.
+	 * Any change to the status or headers clears it.
+	 */
+	transient byte[] head;
+
 	/**
 	 * Gets the HTTP status to be returned to the caller.
 	 * 
@@ -36,11 +43,21 @@ public class HTTPResponse implements Serializable {
 	 */
 	public void setStatus( int status ) {
 		this.status = status;
+		this.head = null;
 		
 		if ( 200 == status ) this.statusMessage = "OK";
 		else if ( 400 == status ) this.statusMessage = "Bad Request";
+		else if ( 401 == status ) this.statusMessage = "Unauthorized";
 		else if ( 404 == status ) this.statusMessage = "Not Found";
+		else if ( 405 == status ) this.statusMessage = "Method Not Allowed";
+		else if ( 408 == status ) this.statusMessage = "Request Timeout";
+		else if ( 413 == status ) this.statusMessage = "Payload Too Large";
+		else if ( 415 == status ) this.statusMessage = "Unsupported Media Type";
+		else if ( 417 == status ) this.statusMessage = "Expectation Failed";
+		else if ( 429 == status ) this.statusMessage = "Too Many Requests";
+		else if ( 431 == status ) this.statusMessage = "Request Header Fields Too Large";
 		else if ( 500 == status ) this.statusMessage = "Server Error";
+		else if ( 503 == status ) this.statusMessage = "Service Unavailable";
 		else this.statusMessage = status + " Message";
 	}
 	
@@ -63,6 +80,7 @@ public class HTTPResponse implements Serializable {
 	 */
 	public void setStatusMessage( String statusMessage ) {
 		this.statusMessage = statusMessage;
+		this.head = null;
 	}
 
 	/**
@@ -126,6 +144,7 @@ public class HTTPResponse implements Serializable {
 	public void setHeader( String header, String value ) {
 		if ( this.headers == null ) this.headers = new HashMap<>();
 		this.headers.put( header.toLowerCase(), value );
+		this.head = null;
 	}
 
 	/**
@@ -161,6 +180,7 @@ public class HTTPResponse implements Serializable {
 	 */
 	public void buildStandardResponse( int status, Throwable t ) {
 		headers = null;
+		head = null;
 		setStatus( status );
 		setHeader( "Content-Type", "text/html" );
 		
@@ -176,4 +196,19 @@ public class HTTPResponse implements Serializable {
 		
 		setBody( body.toString() );
 	}
+
+	/**
+	 * Makes this response a copy of the given response.  The body is
+	 * shared rather than copied, so neither response should modify the
+	 * contents of the byte array afterward.
+	 * 
+	 * @param other the HTTPResponse to copy
+	 */
+	void copy( HTTPResponse other ) {
+		this.status = other.status;
+		this.statusMessage = other.statusMessage;
+		this.body = other.body;
+		this.headers = other.headers == null ? null : new HashMap<>( other.headers );
+		this.head = other.head;
+	}
 }
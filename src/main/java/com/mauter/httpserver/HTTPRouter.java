@@ -0,0 +1,245 @@
+package com.mauter.httpserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Dispatches requests to other {@link HTTPRequestHandler}s based on the
+ * method and path of the request.  Register a handler for each route
+ * instead of writing one big handler full of if/else statements.
+ * <p>
+ * Route patterns are literal paths that may contain path parameters and
+ * a trailing wildcard:
+ * <ul>
+ * <li><code>/users</code> only matches /users</li>
+ * <li><code>/users/{id}</code> matches /users/1234 and makes "1234" available
+ * through {@link HTTPRequest#getPathParameter(String)} as "id"</li>
+ * <li><code>/files/*</code> matches anything starting with /files/ and makes
+ * the rest of the path available as "*"</li>
+ * <li><code>/files/*name</code> does the same but names the parameter "name"</li>
+ * </ul>
+ * Literal characters win over path parameters, and path parameters win over
+ * wildcards.  The query string is ignored when matching.  A method of "*"
+ * matches any method that does not have a route of its own.
+ * <p>
+ * Routes are compiled into one character trie per method, so finding the
+ * handler walks the path once without splitting it or hashing segments.
+ */
+public class HTTPRouter implements HTTPRequestHandler {
+
+	static final String ANY_METHOD = "*";
+	static final String WILDCARD = "*";
+
+	Map<String, Node> trees = new HashMap<>();
+	HTTPRequestHandler defaultHandler;
+	int maxParameters = 0;
+
+	/**
+	 * Gets the handler used when no route matches the request.
+	 *
+	 * @return the default HTTPRequestHandler or null
+	 */
+	public HTTPRequestHandler getDefaultHandler() { return this.defaultHandler; }
+
+	/**
+	 * Sets the handler used when no route matches the request.  When this
+	 * is null, the router responds with a standard 404 or, if the path
+	 * matches a route for another method, a standard 405.
+	 *
+	 * @param defaultHandler the default HTTPRequestHandler
+	 */
+	public void setDefaultHandler( HTTPRequestHandler defaultHandler ) { this.defaultHandler = defaultHandler; }
+
+	/**
+	 * Registers a handler for the given method and path pattern.
+	 *
+	 * @param method the HTTP method, or "*" for any method
+	 * @param pattern the path pattern
+	 * @param handler the HTTPRequestHandler to call when the route matches
+	 * @throws IllegalArgumentException if the pattern is malformed or already registered
+	 */
+	public void addRoute( String method, String pattern, HTTPRequestHandler handler ) {
+		if ( method == null || pattern == null || handler == null ) throw new IllegalArgumentException( "method, pattern and handler are required" );
+
+		Node node = trees.get( method );
+		if ( node == null ) trees.put( method, node = new Node() );
+
+		List<String> names = new ArrayList<>();
+		int length = pattern.length();
+		for ( int i = 0; i < length; i++ ) {
+			char c = pattern.charAt( i );
+
+			if ( c == '{' ) {
+				int close = pattern.indexOf( '}', i );
+				if ( close < 0 ) throw new IllegalArgumentException( "Unclosed path parameter in " + pattern );
+				if ( close + 1 < length && pattern.charAt( close + 1 ) != '/' ) throw new IllegalArgumentException( "Path parameters must end a segment in " + pattern );
+				names.add( pattern.substring( i + 1, close ) );
+				if ( node.parameter == null ) node.parameter = new Node();
+				node = node.parameter;
+				i = close;
+			}
+			else if ( c == '*' ) {
+				String name = pattern.substring( i + 1 );
+				if ( name.indexOf( '/' ) >= 0 ) throw new IllegalArgumentException( "Wildcards must end the pattern " + pattern );
+				names.add( name.isEmpty() ? WILDCARD : name );
+				if ( node.wildcard != null ) throw new IllegalArgumentException( "Route already registered " + method + " " + pattern );
+				node.wildcard = new Route( handler, names );
+				maxParameters = Math.max( maxParameters, names.size() );
+				return;
+			}
+			else {
+				node = node.add( c );
+			}
+		}
+
+		if ( node.route != null ) throw new IllegalArgumentException( "Route already registered " + method + " " + pattern );
+		node.route = new Route( handler, names );
+		maxParameters = Math.max( maxParameters, names.size() );
+	}
+
+	@Override
+	public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+		String path = request.getPath();
+		if ( path == null ) path = "";
+
+		int end = path.indexOf( '?' );
+		if ( end < 0 ) end = path.length();
+
+		int[] offsets = new int[ maxParameters * 2 ];
+		Route route = find( request.getMethod(), path, end, offsets );
+		if ( route == null ) route = find( ANY_METHOD, path, end, offsets );
+
+		if ( route != null ) {
+			for ( int i = 0; i < route.names.length; i++ ) {
+				request.setPathParameter( route.names[i], path.substring( offsets[ i * 2 ], offsets[ i * 2 + 1 ] ) );
+			}
+			route.handler.handleRequest( request, response );
+		}
+		else if ( defaultHandler != null ) {
+			defaultHandler.handleRequest( request, response );
+		}
+		else {
+			String allow = allowedMethods( path, end, offsets );
+			if ( allow == null ) {
+				response.buildStandardResponse( 404 );
+			}
+			else {
+				response.buildStandardResponse( 405 );
+				response.setHeader( "Allow", allow );
+			}
+		}
+	}
+
+	Route find( String method, String path, int end, int[] offsets ) {
+		Node root = trees.get( method );
+		return root == null ? null : match( root, path, 0, end, offsets, 0 );
+	}
+
+	/**
+	 * Lists the methods that have a route matching the path.
+	 *
+	 * @return the comma separated methods or null if there are none
+	 */
+	String allowedMethods( String path, int end, int[] offsets ) {
+		StringBuilder allow = null;
+		for ( Entry<String, Node> entry : trees.entrySet() ) {
+			if ( match( entry.getValue(), path, 0, end, offsets, 0 ) == null ) continue;
+			if ( allow == null ) allow = new StringBuilder();
+			else allow.append( ", " );
+			allow.append( entry.getKey() );
+		}
+		return allow == null ? null : allow.toString();
+	}
+
+	/**
+	 * Walks the trie from the given node.  Straight runs of literal
+	 * characters are followed in a loop and only nodes that also have a
+	 * path parameter or wildcard branch recurse, so that a failed literal
+	 * match can fall back to them.
+	 */
+	static Route match( Node node, String path, int i, int end, int[] offsets, int depth ) {
+		while ( true ) {
+			if ( i == end ) {
+				if ( node.route != null ) return node.route;
+				if ( node.wildcard != null ) {
+					offsets[ depth * 2 ] = offsets[ depth * 2 + 1 ] = end;
+					return node.wildcard;
+				}
+				return null;
+			}
+
+			Node child = node.child( path.charAt( i ) );
+			if ( node.parameter == null && node.wildcard == null ) {
+				if ( child == null ) return null;
+				node = child;
+				i++;
+				continue;
+			}
+
+			if ( child != null ) {
+				Route route = match( child, path, i + 1, end, offsets, depth );
+				if ( route != null ) return route;
+			}
+
+			if ( node.parameter != null ) {
+				int j = i;
+				while ( j < end && path.charAt( j ) != '/' ) j++;
+				if ( j > i ) {
+					Route route = match( node.parameter, path, j, end, offsets, depth + 1 );
+					if ( route != null ) {
+						offsets[ depth * 2 ] = i;
+						offsets[ depth * 2 + 1 ] = j;
+						return route;
+					}
+				}
+			}
+
+			if ( node.wildcard != null ) {
+				offsets[ depth * 2 ] = i;
+				offsets[ depth * 2 + 1 ] = end;
+				return node.wildcard;
+			}
+
+			return null;
+		}
+	}
+
+	static class Node {
+		char[] labels = new char[0];
+		Node[] children = new Node[0];
+		Node parameter;
+		Route route;
+		Route wildcard;
+
+		Node child( char c ) {
+			for ( int i = 0; i < labels.length; i++ ) {
+				if ( labels[i] == c ) return children[i];
+			}
+			return null;
+		}
+
+		Node add( char c ) {
+			Node child = child( c );
+			if ( child != null ) return child;
+
+			labels = Arrays.copyOf( labels, labels.length + 1 );
+			children = Arrays.copyOf( children, children.length + 1 );
+			labels[ labels.length - 1 ] = c;
+			return children[ children.length - 1 ] = new Node();
+		}
+	}
+
+	static class Route {
+		HTTPRequestHandler handler;
+		String[] names;
+
+		Route( HTTPRequestHandler handler, List<String> names ) {
+			this.handler = handler;
+			this.names = names.toArray( new String[ names.size() ] );
+		}
+	}
+}
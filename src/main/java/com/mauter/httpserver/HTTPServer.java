@@ -1,21 +1,64 @@
 package com.mauter.httpserver;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.function.BiConsumer;
+import java.util.zip.ZipException;
+
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.TrustManagerFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,19 +69,121 @@ import org.slf4j.LoggerFactory;
  * just so you can exercise a few HTTP calls.  Start the server with
  * a try-with-resources statement.  Before you exit the try, inspect
  * the requests and responses to verify that your code works. 
+ * <p>
+ * A single thread accepts connections and hands each one to a pool
+ * of worker threads, so concurrent clients are handled concurrently.
+ * Servers that open connections faster than one thread can accept them
+ * can use more acceptor threads with {@link #setAcceptors(int)}.
+ * Handlers must be safe to call from more than one thread at a time.
+ * An {@link AsyncHTTPRequestHandler} gives its worker back while it waits,
+ * so a few workers can keep many slow requests going.
+ * By default the pool grows with demand.  Limit the number of workers,
+ * the number of connections waiting for one and how long they may wait
+ * to make the server answer with a quick 503 when it is overloaded
+ * instead of falling further and further behind.
+ * <p>
+ * Every phase of a connection has a deadline: reading the request line
+ * and headers, reading the body, writing the response and, when keep-alive
+ * is turned on, waiting for the next request.  A client that stalls past
+ * a deadline is answered with a 408 or simply disconnected, so a slow or
+ * dead client cannot hold a worker forever.  The deadlines are tracked by
+ * a single timer thread no matter how many connections are open.
+ * <p>
+ * Call {@link #setSecure(boolean)} to serve HTTPS.  A self-signed
+ * certificate is made for localhost unless a key store is given, and
+ * clients resume their TLS sessions to skip the full handshake.
+ * <p>
+ * Stopping the server is graceful.  It stops accepting connections, closes
+ * idle keep-alive connections and gives the requests already in flight
+ * until the drain timeout to finish before their connections are closed.
  */
 public class HTTPServer implements Runnable, Closeable {
 
 	private static final Logger log = LoggerFactory.getLogger( HTTPServer.class );
 
+	/**
+	 * The default limit on the size of a request body after its
+	 * Content-Encoding has been decoded, 16 MB.
+	 */
+	public static final int DEFAULT_MAX_DECODED_BODY_SIZE = 16 * 1024 * 1024;
+
+	/**
+	 * The default limit on the size of a request body as it was sent,
+	 * 64 MB.
+	 */
+	public static final long DEFAULT_MAX_BODY_SIZE = 64 * 1024 * 1024;
+
+	/**
+	 * The default limit on the size of the headers of an HTTP/2 request,
+	 * 64 KB.
+	 */
+	public static final int DEFAULT_MAX_HEADER_LIST_SIZE = 64 * 1024;
+
+	static final byte[] CRLF = "\r\n".getBytes( StandardCharsets.UTF_8 );
+	static final byte[] NO_CONTENT = "content-length: 0\r\n".getBytes( StandardCharsets.UTF_8 );
+	static final byte[] CONTINUE = "HTTP/1.1 100 Continue\r\n\r\n".getBytes( StandardCharsets.UTF_8 );
+	static final int SHED_HANDSHAKE_TIMEOUT = 1000;
+
 	Thread thread;
 	ServerSocket serverSocket;
-	boolean isRunning = false;
+	int acceptors = 1;
+	List<Thread> acceptorThreads = new ArrayList<>();
+	List<ServerSocket> reusePortSockets = new ArrayList<>();
+	ExecutorService workers;
+	ExecutorService shedder;
+	volatile boolean isRunning = false;
 
 	int port = 0;
-	List<HTTPRequest> requests = new ArrayList<>();
-	List<HTTPResponse> responses = new ArrayList<>();
+	Path unixDomainSocket;
+	HTTPServerGroup group;
+	HTTPServerGroup joined;
+	List<HTTPRequest> requests = Collections.synchronizedList( new ArrayList<HTTPRequest>() );
+	List<HTTPResponse> responses = Collections.synchronizedList( new ArrayList<HTTPResponse>() );
 	HTTPRequestHandler handler;
+	ContinueHandler continueHandler;
+	ResponseCompressor compressor;
+	int maxDecodedBodySize = DEFAULT_MAX_DECODED_BODY_SIZE;
+	BodySpool spool = new BodySpool( DEFAULT_MAX_BODY_SIZE, 1024 * 1024, 8 * 1024 * 1024 );
+	AtomicInteger activeConnections = new AtomicInteger();
+
+	int backlog = 50;
+	int maxConnections = 0;
+	int maxQueuedRequests = -1;
+	long queueDelayTarget = 0;
+	int retryAfter = 1;
+	QueueDelayController queueDelay;
+	byte[] overloadResponse;
+	AtomicLong shedCount = new AtomicLong();
+
+	int headerTimeout = 10000;
+	int bodyTimeout = 30000;
+	int writeTimeout = 30000;
+	int handlerTimeout = 30000;
+	int keepAliveTimeout = 0;
+	int readBandwidth = 0;
+	int writeBandwidth = 0;
+	boolean http2Enabled = false;
+	boolean lazyHeaders = false;
+	int maxConcurrentStreams = 100;
+	int maxHeaderListSize = DEFAULT_MAX_HEADER_LIST_SIZE;
+
+	boolean secure = false;
+	KeyStore keyStore;
+	char[] keyStorePassword;
+	int sessionCacheSize = 20480;
+	int sessionTimeout = 86400;
+	SSLContext sslContext;
+	SSLContext clientSSLContext;
+	AtomicLong handshakes = new AtomicLong();
+	AtomicLong resumedHandshakes = new AtomicLong();
+	byte[] keepAliveHeaders;
+	TimerWheel timers;
+	Set<Connection> connections = Collections.newSetFromMap( new ConcurrentHashMap<Connection, Boolean>() );
+
+	int drainTimeout = 1000;
+	AtomicLong exchanges = new AtomicLong();
+	long drainedExchanges = 0;
+	long abortedExchanges = 0;
 
 	/**
 	 * Gets the port number bound by the listening socket.  The default
@@ -58,6 +203,41 @@ public class HTTPServer implements Runnable, Closeable {
 	 */
 	public void setPort( int port ) { this.port = port; }
 
+	/**
+	 * Gets the path of the Unix domain socket the server listens on.
+	 * 
+	 * @return the path or null if the server listens on a TCP port
+	 */
+	public Path getUnixDomainSocket() { return this.unixDomainSocket; }
+
+	/**
+	 * Listens on a Unix domain socket instead of a TCP port, which needs
+	 * Java 16 or later.  Requests are handled exactly as they are over TCP,
+	 * but they skip the loopback network stack and use up no ports.  The
+	 * file must not exist when the server starts and is deleted when it
+	 * stops.  Requests have no remote address.  Pass null to go back to
+	 * TCP.  This takes effect the next time the server is started.
+	 * 
+	 * @param unixDomainSocket the path of the socket file or null
+	 */
+	public void setUnixDomainSocket( Path unixDomainSocket ) { this.unixDomainSocket = unixDomainSocket; }
+
+	/**
+	 * Gets the group whose threads the server shares.
+	 * 
+	 * @return the HTTPServerGroup or null if the server has threads of its own
+	 */
+	public HTTPServerGroup getGroup() { return this.group; }
+
+	/**
+	 * Runs the server on the threads of a group shared with other servers
+	 * instead of threads of its own.  Pass null to go back to its own.
+	 * This takes effect the next time the server is started.
+	 * 
+	 * @param group the HTTPServerGroup or null
+	 */
+	public void setGroup( HTTPServerGroup group ) { this.group = group; }
+
 	/**
 	 * Gets the list of requests that have been made since startup
 	 * or the last call to {@linkplain #reset()}.
@@ -75,134 +255,1666 @@ public class HTTPServer implements Runnable, Closeable {
 	public List<HTTPResponse> getResponses() { return Collections.unmodifiableList( this.responses ); }
 
 	/**
-	 * Gets the request handler used by the server to handle requests.
-	 * 
-	 * @return the HTTPRequestHandler that handles all requests to this server
-	 */
-	public HTTPRequestHandler getHTTPRequestHandler() { return this.handler; }
-	
-	/**
-	 * Sets the request handler used by the server to handle requests.
+	 * Gets the request handler used by the server to handle requests.
+	 * 
+	 * @return the HTTPRequestHandler that handles all requests to this server
+	 */
+	public HTTPRequestHandler getHTTPRequestHandler() { return this.handler; }
+	
+	/**
+	 * Sets the request handler used by the server to handle requests.
+	 * 
+	 * @param handler the HTTPRequestHandler used to handle all requests to this server
+	 */
+	public void setHTTPRequestHandler( HTTPRequestHandler handler ) { this.handler = handler; }
+
+	/**
+	 * Gets the handler that decides whether clients that send Expect:
+	 * 100-continue may send their bodies.
+	 * 
+	 * @return the ContinueHandler or null if there is none
+	 */
+	public ContinueHandler getContinueHandler() { return this.continueHandler; }
+
+	/**
+	 * Sets the handler that decides whether clients that send Expect:
+	 * 100-continue may send their bodies.  Without one, a request handler
+	 * that is also a ContinueHandler is asked instead, and otherwise every
+	 * body within the maximum size is let through.
+	 * 
+	 * @param continueHandler the ContinueHandler to use
+	 */
+	public void setContinueHandler( ContinueHandler continueHandler ) { this.continueHandler = continueHandler; }
+
+	/**
+	 * Gets the compressor used to compress response bodies.
+	 * 
+	 * @return the ResponseCompressor or null if responses are not compressed
+	 */
+	public ResponseCompressor getResponseCompressor() { return this.compressor; }
+
+	/**
+	 * Sets the compressor used to compress response bodies for clients
+	 * that send an Accept-Encoding header.  The default of null leaves
+	 * every response uncompressed.
+	 * 
+	 * @param compressor the ResponseCompressor to use
+	 */
+	public void setResponseCompressor( ResponseCompressor compressor ) { this.compressor = compressor; }
+
+	/**
+	 * Gets the limit on the size of a request body after its
+	 * Content-Encoding has been decoded.
+	 * 
+	 * @return the maximum decoded body size in bytes or -1 if bodies are not decoded
+	 */
+	public int getMaxDecodedBodySize() { return this.maxDecodedBodySize; }
+
+	/**
+	 * Sets the limit on the size of a request body after its Content-Encoding
+	 * has been decoded.  Requests sent with a Content-Encoding of gzip or
+	 * deflate are inflated as they are read so that {@link HTTPRequest#getBody()}
+	 * holds the original content.  Bodies that inflate past this limit are
+	 * rejected with a 413 so a small compressed upload cannot exhaust memory.
+	 * Set it to -1 to store bodies exactly as they were sent.
+	 * 
+	 * @param maxDecodedBodySize the maximum decoded body size in bytes or -1
+	 */
+	public void setMaxDecodedBodySize( int maxDecodedBodySize ) { this.maxDecodedBodySize = maxDecodedBodySize; }
+
+	/**
+	 * Gets the limit on the size of a request body as it was sent.
+	 * 
+	 * @return the maximum body size in bytes or 0 for no limit
+	 */
+	public long getMaxBodySize() { return this.spool.maxBodySize; }
+
+	/**
+	 * Sets the limit on the size of a request body as it was sent.  A
+	 * request whose Content-length is larger is rejected with a 413 before
+	 * any of its body is read, and a body that grows past it without one,
+	 * as an HTTP/2 body can, is rejected as soon as it does.  The default
+	 * is {@link #DEFAULT_MAX_BODY_SIZE}.  Raise it for tests that upload
+	 * more than that.
+	 * 
+	 * @param maxBodySize the maximum body size in bytes or 0 for no limit
+	 */
+	public void setMaxBodySize( long maxBodySize ) { this.spool.maxBodySize = maxBodySize; }
+
+	/**
+	 * Gets the size up to which request bodies are kept on the heap.
+	 * 
+	 * @return the heap threshold in bytes
+	 */
+	public int getHeapBodyThreshold() { return this.spool.heapThreshold; }
+
+	/**
+	 * Sets the size up to which request bodies are kept on the heap in a
+	 * byte array.  Larger bodies go to a direct buffer or a temporary file
+	 * and are read through {@link HTTPRequest#getRequestBody()}.  The
+	 * default is 1 MB.
+	 * 
+	 * @param heapBodyThreshold the heap threshold in bytes
+	 */
+	public void setHeapBodyThreshold( int heapBodyThreshold ) { this.spool.heapThreshold = heapBodyThreshold; }
+
+	/**
+	 * Gets the size up to which request bodies are kept in direct buffers.
+	 * 
+	 * @return the direct threshold in bytes or 0 if direct buffers are not used
+	 */
+	public int getDirectBodyThreshold() { return this.spool.directThreshold; }
+
+	/**
+	 * Sets the size up to which request bodies too large for the heap are
+	 * kept off the heap in direct buffers.  Each buffer is this large and
+	 * a few are pooled between requests.  Larger bodies are written to a
+	 * temporary file.  The default is 8 MB.
+	 * 
+	 * @param directBodyThreshold the direct threshold in bytes or 0 to write large bodies straight to files
+	 */
+	public void setDirectBodyThreshold( int directBodyThreshold ) { this.spool.directThreshold = directBodyThreshold; }
+
+	/**
+	 * Gets the directory large request bodies are written to.
+	 * 
+	 * @return the directory or null for the system's temporary directory
+	 */
+	public Path getBodyDirectory() { return this.spool.directory; }
+
+	/**
+	 * Sets the directory large request bodies are written to.  The files
+	 * are deleted when the server is reset.
+	 * 
+	 * @param bodyDirectory the directory or null for the system's temporary directory
+	 */
+	public void setBodyDirectory( Path bodyDirectory ) { this.spool.directory = bodyDirectory; }
+
+	/**
+	 * Gets the maximum number of connections the operating system queues
+	 * before the server accepts them.
+	 * 
+	 * @return the accept backlog
+	 */
+	public int getBacklog() { return this.backlog; }
+
+	/**
+	 * Sets the maximum number of connections the operating system queues
+	 * before the server accepts them.  The default is 50.  This takes
+	 * effect the next time the server is started.
+	 * 
+	 * @param backlog the accept backlog
+	 */
+	public void setBacklog( int backlog ) { this.backlog = backlog; }
+
+	/**
+	 * Gets the number of threads accepting connections.
+	 * 
+	 * @return the number of acceptor threads
+	 */
+	public int getAcceptors() { return this.acceptors; }
+
+	/**
+	 * Sets the number of threads accepting connections.  The default is 1.
+	 * Where the operating system supports SO_REUSEPORT, Linux for one, each
+	 * thread gets a socket of its own bound to the same port and the kernel
+	 * spreads new connections across them.  Elsewhere the threads take turns
+	 * accepting from one shared socket.  Either way they all hand connections
+	 * to the same workers.  This takes effect the next time the server is
+	 * started.
+	 * 
+	 * @param acceptors the number of acceptor threads
+	 */
+	public void setAcceptors( int acceptors ) {
+		if ( acceptors < 1 ) throw new IllegalArgumentException( "There must be at least one acceptor." );
+		this.acceptors = acceptors;
+	}
+
+	/**
+	 * Gets the maximum number of connections handled at the same time.
+	 * 
+	 * @return the maximum number of connections or 0 if there is no limit
+	 */
+	public int getMaxConnections() { return this.maxConnections; }
+
+	/**
+	 * Sets the maximum number of connections handled at the same time,
+	 * which is also the number of worker threads.  The default of 0 means
+	 * there is no limit.  This takes effect the next time the server is
+	 * started.
+	 * 
+	 * @param maxConnections the maximum number of connections or 0
+	 */
+	public void setMaxConnections( int maxConnections ) { this.maxConnections = maxConnections; }
+
+	/**
+	 * Gets the maximum number of requests that wait for a worker when all
+	 * of them are busy.
+	 * 
+	 * @return the maximum number of queued requests or -1 if there is no limit
+	 */
+	public int getMaxQueuedRequests() { return this.maxQueuedRequests; }
+
+	/**
+	 * Sets the maximum number of requests that wait for a worker when all
+	 * of them are busy.  Requests beyond this are answered with a 503.  The
+	 * default of -1 means there is no limit and 0 means requests never wait.
+	 * It only applies when {@link #setMaxConnections(int)} sets a limit and
+	 * takes effect the next time the server is started.
+	 * 
+	 * @param maxQueuedRequests the maximum number of queued requests or -1
+	 */
+	public void setMaxQueuedRequests( int maxQueuedRequests ) { this.maxQueuedRequests = maxQueuedRequests; }
+
+	/**
+	 * Gets the queueing delay the server tries to stay under.
+	 * 
+	 * @return the target queueing delay in milliseconds or 0 if it is not used
+	 */
+	public long getQueueDelayTarget() { return this.queueDelayTarget; }
+
+	/**
+	 * Turns on adaptive load shedding.  When requests keep waiting longer
+	 * than this for a worker for 100 ms straight, the server answers them
+	 * with a 503 until one gets through under the target again.  This
+	 * follows the load instead of relying on a fixed queue length.  The
+	 * default of 0 turns it off.  This takes effect the next time the server
+	 * is started.
+	 * 
+	 * @param queueDelayTarget the target queueing delay in milliseconds or 0
+	 */
+	public void setQueueDelayTarget( long queueDelayTarget ) { this.queueDelayTarget = queueDelayTarget; }
+
+	/**
+	 * Gets the number of seconds overloaded clients are told to wait
+	 * before retrying.
+	 * 
+	 * @return the Retry-After value in seconds
+	 */
+	public int getRetryAfter() { return this.retryAfter; }
+
+	/**
+	 * Sets the number of seconds sent in the Retry-After header of the 503
+	 * used to shed load.  The default is 1.  This takes effect the next
+	 * time the server is started.
+	 * 
+	 * @param retryAfter the Retry-After value in seconds
+	 */
+	public void setRetryAfter( int retryAfter ) { this.retryAfter = retryAfter; }
+
+	/**
+	 * Gets the number of connections answered with a 503 because the
+	 * server was overloaded.  Shed connections are not handled and do not
+	 * appear in {@link #getRequests()}.
+	 * 
+	 * @return the number of shed connections
+	 */
+	public long getShedCount() { return this.shedCount.get(); }
+
+	/**
+	 * Gets how long a client has to send the request line and headers.
+	 * 
+	 * @return the header timeout in milliseconds or 0 if there is none
+	 */
+	public int getHeaderTimeout() { return this.headerTimeout; }
+
+	/**
+	 * Sets how long a client has to send the request line and headers
+	 * once it connects or starts a new request.  A client that takes longer
+	 * is answered with a 408.  The default is 10 seconds and 0 waits forever.
+	 * 
+	 * @param headerTimeout the header timeout in milliseconds or 0
+	 */
+	public void setHeaderTimeout( int headerTimeout ) { this.headerTimeout = headerTimeout; }
+
+	/**
+	 * Gets how long a client has to send the request body.
+	 * 
+	 * @return the body timeout in milliseconds or 0 if there is none
+	 */
+	public int getBodyTimeout() { return this.bodyTimeout; }
+
+	/**
+	 * Sets how long a client has to send the whole request body once the
+	 * headers are read.  A client that takes longer is answered with a 408.
+	 * The default is 30 seconds and 0 waits forever.
+	 * 
+	 * @param bodyTimeout the body timeout in milliseconds or 0
+	 */
+	public void setBodyTimeout( int bodyTimeout ) { this.bodyTimeout = bodyTimeout; }
+
+	/**
+	 * Gets how long the server may take to write a response.
+	 * 
+	 * @return the write timeout in milliseconds or 0 if there is none
+	 */
+	public int getWriteTimeout() { return this.writeTimeout; }
+
+	/**
+	 * Sets how long the server may take to write a response to a client
+	 * that is not reading it.  The connection is closed when it runs out.
+	 * The default is 30 seconds and 0 waits forever.
+	 * 
+	 * @param writeTimeout the write timeout in milliseconds or 0
+	 */
+	public void setWriteTimeout( int writeTimeout ) { this.writeTimeout = writeTimeout; }
+
+	/**
+	 * Gets how long an asynchronous handler may take to complete a response.
+	 * 
+	 * @return the handler timeout in milliseconds or 0 if there is none
+	 */
+	public int getHandlerTimeout() { return this.handlerTimeout; }
+
+	/**
+	 * Sets how long an {@link AsyncHTTPRequestHandler} may take to complete
+	 * its stage.  When it runs out the client is answered with a 503 and
+	 * the connection is closed, and whatever the stage completes with
+	 * later is ignored.  The default is 30 seconds and 0 waits forever.
+	 * 
+	 * @param handlerTimeout the handler timeout in milliseconds or 0
+	 */
+	public void setHandlerTimeout( int handlerTimeout ) { this.handlerTimeout = handlerTimeout; }
+
+	/**
+	 * Gets how long an idle connection is kept open waiting for another request.
+	 * 
+	 * @return the keep-alive timeout in milliseconds or 0 if keep-alive is off
+	 */
+	public int getKeepAliveTimeout() { return this.keepAliveTimeout; }
+
+	/**
+	 * Turns on keep-alive.  Clients that ask for it get to send more
+	 * requests over the same connection, which is closed after it sits
+	 * idle this long.  The default of 0 closes every connection after one
+	 * response.  This takes effect the next time the server is started.
+	 * 
+	 * @param keepAliveTimeout the keep-alive timeout in milliseconds or 0
+	 */
+	public void setKeepAliveTimeout( int keepAliveTimeout ) { this.keepAliveTimeout = keepAliveTimeout; }
+
+	/**
+	 * Gets how fast each connection reads requests.
+	 * 
+	 * @return the read bandwidth in bytes per second or 0 if there is no limit
+	 */
+	public int getReadBandwidth() { return this.readBandwidth; }
+
+	/**
+	 * Limits how fast each connection reads requests, to see how a client
+	 * copes with a slow link.  The default of 0 reads as fast as the client
+	 * sends.  Remember that a slow upload may need a longer body timeout.
+	 * This applies to connections accepted after it is set.
+	 * 
+	 * @param readBandwidth the read bandwidth in bytes per second or 0
+	 */
+	public void setReadBandwidth( int readBandwidth ) { this.readBandwidth = readBandwidth; }
+
+	/**
+	 * Gets how fast each connection writes responses.
+	 * 
+	 * @return the write bandwidth in bytes per second or 0 if there is no limit
+	 */
+	public int getWriteBandwidth() { return this.writeBandwidth; }
+
+	/**
+	 * Limits how fast each connection writes responses, to see how a client
+	 * copes with a slow link.  The default of 0 writes as fast as the client
+	 * reads.  Remember that a slow download may need a longer write timeout.
+	 * This applies to connections accepted after it is set.
+	 * 
+	 * @param writeBandwidth the write bandwidth in bytes per second or 0
+	 */
+	public void setWriteBandwidth( int writeBandwidth ) { this.writeBandwidth = writeBandwidth; }
+
+	/**
+	 * Gets whether request headers are decoded only when they are needed.
+	 * 
+	 * @return true if headers are read lazily
+	 */
+	public boolean isLazyHeaders() { return this.lazyHeaders; }
+
+	/**
+	 * Keeps each request's header lines as the bytes that were read and
+	 * decodes a header only when it is asked for.  Most handlers look at
+	 * one or two headers, so this saves building and keeping a String for
+	 * every name and value.  Getting or changing the whole Map decodes all
+	 * of them.  The default is false.
+	 * 
+	 * @param lazyHeaders true to read headers lazily
+	 */
+	public void setLazyHeaders( boolean lazyHeaders ) { this.lazyHeaders = lazyHeaders; }
+
+	/**
+	 * Gets whether clients may speak cleartext HTTP/2.
+	 * 
+	 * @return true if HTTP/2 is enabled
+	 */
+	public boolean isHTTP2Enabled() { return this.http2Enabled; }
+
+	/**
+	 * Lets clients speak cleartext HTTP/2, either by opening the connection
+	 * with the HTTP/2 preface or by asking an HTTP/1.1 request to upgrade
+	 * to h2c.  Each connection then carries many requests at once, and each
+	 * is handed to the handler as its own HTTPRequest on one of the
+	 * workers.  The default is false.  This applies to connections accepted
+	 * after it is set.
+	 * 
+	 * @param http2Enabled true to enable HTTP/2
+	 */
+	public void setHTTP2Enabled( boolean http2Enabled ) { this.http2Enabled = http2Enabled; }
+
+	/**
+	 * Gets how many requests an HTTP/2 connection may have open at once.
+	 * 
+	 * @return the maximum number of concurrent streams
+	 */
+	public int getMaxConcurrentStreams() { return this.maxConcurrentStreams; }
+
+	/**
+	 * Sets how many requests an HTTP/2 connection may have open at once.
+	 * Streams beyond this are refused and the client tries them again
+	 * later.  The default is 100.
+	 * 
+	 * @param maxConcurrentStreams the maximum number of concurrent streams
+	 */
+	public void setMaxConcurrentStreams( int maxConcurrentStreams ) { this.maxConcurrentStreams = maxConcurrentStreams; }
+
+	/**
+	 * Gets how large the headers of an HTTP/2 request may be.
+	 * 
+	 * @return the maximum header list size in bytes
+	 */
+	public int getMaxHeaderListSize() { return this.maxHeaderListSize; }
+
+	/**
+	 * Sets how large the headers of an HTTP/2 request may be, counted the
+	 * way RFC 7540 counts them: each header's name and value plus 32
+	 * bytes.  The limit is advertised to clients in SETTINGS.  A request
+	 * whose headers are over it is answered with a 431, and a header block
+	 * that is itself over it closes the connection, since it has to be
+	 * held in full before it can be decoded.  The default is
+	 * {@link #DEFAULT_MAX_HEADER_LIST_SIZE}.  This applies to connections
+	 * accepted after it is set.
+	 * 
+	 * @param maxHeaderListSize the maximum header list size in bytes
+	 */
+	public void setMaxHeaderListSize( int maxHeaderListSize ) {
+		if ( maxHeaderListSize < 1 ) throw new IllegalArgumentException( "The maximum header list size must be positive." );
+		this.maxHeaderListSize = maxHeaderListSize;
+	}
+
+	/**
+	 * Gets whether the server speaks HTTPS.
+	 * 
+	 * @return true if connections are secured with TLS
+	 */
+	public boolean isSecure() { return this.secure; }
+
+	/**
+	 * Secures every connection with TLS.  Unless a key store is given with
+	 * {@link #setKeyStore(KeyStore, char[])}, a self-signed certificate for
+	 * localhost is made when the server starts.  It is good for 825 days
+	 * and is not renewed, so a server left running longer than that must
+	 * be restarted for a new one.  Clients can trust it through
+	 * {@link #getClientSSLContext()}.  The default is false.  This
+	 * takes effect the next time the server is started.
+	 * 
+	 * @param secure true to serve HTTPS
+	 */
+	public void setSecure( boolean secure ) { this.secure = secure; }
+
+	/**
+	 * Serves HTTPS with the key and certificate chain in the given key
+	 * store.  This takes effect the next time the server is started.
+	 * 
+	 * @param keyStore the KeyStore holding the server's key
+	 * @param password the password of the key
+	 */
+	public void setKeyStore( KeyStore keyStore, char[] password ) {
+		this.keyStore = keyStore;
+		this.keyStorePassword = password;
+		this.secure = keyStore != null;
+	}
+
+	/**
+	 * Gets how many TLS sessions are kept so that clients can resume them.
+	 * 
+	 * @return the session cache size
+	 */
+	public int getSessionCacheSize() { return this.sessionCacheSize; }
+
+	/**
+	 * Sets how many TLS sessions are kept so that clients can resume them
+	 * with an abbreviated handshake.  The default is 20480 and 0 means no
+	 * limit.  This takes effect the next time the server is started.
+	 * 
+	 * @param sessionCacheSize the session cache size
+	 */
+	public void setSessionCacheSize( int sessionCacheSize ) { this.sessionCacheSize = sessionCacheSize; }
+
+	/**
+	 * Gets how long a TLS session can be resumed.
+	 * 
+	 * @return the session timeout in seconds
+	 */
+	public int getSessionTimeout() { return this.sessionTimeout; }
+
+	/**
+	 * Sets how long a TLS session can be resumed.  The default is a day.
+	 * This takes effect the next time the server is started.
+	 * 
+	 * @param sessionTimeout the session timeout in seconds
+	 */
+	public void setSessionTimeout( int sessionTimeout ) { this.sessionTimeout = sessionTimeout; }
+
+	/**
+	 * Gets an SSLContext for clients that trusts the server's certificate,
+	 * self-signed or not.  Use its socket factory with an
+	 * HttpsURLConnection, or hand it to any other client.
+	 * 
+	 * @return the SSLContext or null if the server is not secure or not started
+	 */
+	public SSLContext getClientSSLContext() { return this.clientSSLContext; }
+
+	/**
+	 * Gets the number of TLS handshakes completed since the server started,
+	 * both full and resumed.
+	 * 
+	 * @return the number of handshakes
+	 */
+	public long getHandshakeCount() { return this.handshakes.get(); }
+
+	/**
+	 * Gets the number of TLS handshakes that resumed an earlier session
+	 * instead of doing a full handshake.
+	 * 
+	 * @return the number of resumed handshakes
+	 */
+	public long getResumedHandshakeCount() { return this.resumedHandshakes.get(); }
+
+	/**
+	 * Gets how long {@link #stop()} waits for requests in flight to finish.
+	 * 
+	 * @return the drain timeout in milliseconds
+	 */
+	public int getDrainTimeout() { return this.drainTimeout; }
+
+	/**
+	 * Sets how long {@link #stop()} waits for requests in flight to finish
+	 * before it closes their connections.  The default is 1 second.
+	 * 
+	 * @param drainTimeout the drain timeout in milliseconds
+	 */
+	public void setDrainTimeout( int drainTimeout ) { this.drainTimeout = drainTimeout; }
+
+	/**
+	 * Gets the number of requests that were in flight when the server was
+	 * last stopped and finished before the drain timeout.
+	 * 
+	 * @return the number of drained requests
+	 */
+	public long getDrainedExchanges() { return this.drainedExchanges; }
+
+	/**
+	 * Gets the number of requests that were still in flight when the drain
+	 * timeout ran out the last time the server was stopped.  Their
+	 * connections were closed without a complete response.
+	 * 
+	 * @return the number of aborted requests
+	 */
+	public long getAbortedExchanges() { return this.abortedExchanges; }
+
+	/**
+	 * Gets the number of client connections currently open and being
+	 * processed by the server.
+	 * 
+	 * @return the number of open client connections
+	 */
+	public int getActiveConnections() { return this.activeConnections.get(); }
+
+	/**
+	 * Creates and starts a server that always returns a 200 OK response no
+	 * matter the request.
+	 * 
+	 * @return a new HTTPServer that's already started and listening for requests
+	 * @throws IOException if an I/O error occurs when opening the socket
+	 */
+	public static HTTPServer always200OK() throws IOException {
+		HTTPServer server = new HTTPServer();
+		server.setHTTPRequestHandler( new HTTPRequestHandler() {
+			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+				response.setStatus( 200 );
+			}
+		} );
+		server.start();
+		return server;
+	}
+
+	/**
+	 * Starts the server if not already running.  During this call
+	 * the socket is created and bound to the port.  If the default
+	 * port of 0 is used, the socket will find an open port, bind
+	 * to it and report it back to the server's port variable.
+	 * 
+	 * @throws IOException if an I/O error occurs when opening the socket
+	 */
+	public void start() throws IOException {
+		if ( isRunning ) return;
+		
+		sslContext = null;
+		clientSSLContext = null;
+		if ( secure ) createSSLContexts();
+
+		isRunning = true;
+		reset();
+
+		if ( group != null ) {
+			startInGroup();
+			return;
+		}
+
+		boolean reusePort = false;
+		if ( unixDomainSocket != null ) {
+			// every acceptor shares the one socket, there is no SO_REUSEPORT for files
+			serverSocket = UnixDomainSockets.bind( unixDomainSocket, this.backlog );
+			log.info( "bound to {}", unixDomainSocket );
+		}
+		else {
+			serverSocket = new ServerSocket();
+			reusePort = acceptors > 1 && setReusePort( serverSocket );
+			serverSocket.bind( new InetSocketAddress( this.port ), this.backlog );
+			this.port = serverSocket.getLocalPort();
+			log.info( "bound to port {}", this.port );
+		}
+
+		overloadResponse = buildOverloadResponse( retryAfter );
+		keepAliveHeaders = ( "connection: keep-alive\r\nkeep-alive: timeout=" + Math.max( 1, keepAliveTimeout / 1000 ) + "\r\n" ).getBytes( StandardCharsets.UTF_8 );
+		timers = new TimerWheel( "HTTPServerTimer-" + port, 10, TimeUnit.MILLISECONDS, 512 );
+		queueDelay = new QueueDelayController( TimeUnit.MILLISECONDS.toNanos( queueDelayTarget ), QueueDelayController.DEFAULT_INTERVAL );
+		workers = createWorkers();
+		shedder = new ThreadPoolExecutor( 1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 1024 ),
+				threadFactory( "HTTPServerShedder-" + port + "-" ) );
+
+		thread = new Thread( this, "HTTPServerThread" );
+		thread.start();
+
+		for ( int i = 1; i < acceptors; i++ ) {
+			ServerSocket listener = serverSocket;
+			if ( reusePort ) {
+				try {
+					listener = new ServerSocket();
+					setReusePort( listener );
+					listener.bind( new InetSocketAddress( this.port ), this.backlog );
+					reusePortSockets.add( listener );
+				}
+				catch ( IOException ioe ) {
+					log.warn( "Unable to bind another socket to port " + port + ", sharing one instead.", ioe );
+					closeQuietly( listener );
+					listener = serverSocket;
+					reusePort = false;
+				}
+			}
+
+			final ServerSocket acceptFrom = listener;
+			Thread acceptor = new Thread( new Runnable() {
+				@Override public void run() {
+					accept( acceptFrom );
+				}
+			}, "HTTPServerThread-" + i );
+			acceptorThreads.add( acceptor );
+			acceptor.start();
+		}
+	}
+
+	/**
+	 * Binds the port and borrows the threads of the group.
+	 * 
+	 * @throws IOException if an I/O error occurs when opening the socket
+	 */
+	void startInGroup() throws IOException {
+		ServerSocketChannel channel;
+		if ( unixDomainSocket != null ) {
+			channel = UnixDomainSockets.open( unixDomainSocket, this.backlog );
+			serverSocket = new UnixDomainSockets.ChannelServerSocket( channel );
+			log.info( "bound to {} in group {}", unixDomainSocket, group.id );
+		}
+		else {
+			channel = ServerSocketChannel.open();
+			channel.bind( new InetSocketAddress( this.port ), this.backlog );
+			serverSocket = channel.socket();
+			this.port = serverSocket.getLocalPort();
+			log.info( "bound to port {} in group {}", this.port, group.id );
+		}
+
+		overloadResponse = buildOverloadResponse( retryAfter );
+		keepAliveHeaders = ( "connection: keep-alive\r\nkeep-alive: timeout=" + Math.max( 1, keepAliveTimeout / 1000 ) + "\r\n" ).getBytes( StandardCharsets.UTF_8 );
+		timers = group.timers;
+		queueDelay = new QueueDelayController( TimeUnit.MILLISECONDS.toNanos( queueDelayTarget ), QueueDelayController.DEFAULT_INTERVAL );
+		workers = group.workers;
+		shedder = group.shedder;
+
+		try {
+			group.register( this, channel );
+			joined = group;
+		}
+		catch ( IOException ioe ) {
+			closeQuietly( channel );
+			isRunning = false;
+			throw ioe;
+		}
+	}
+
+	/**
+	 * Creates the SSLContext that secures connections, and one for clients
+	 * that trusts it, making a self-signed certificate when there is no key
+	 * store.
+	 * 
+	 * @throws IOException if the key store cannot be used
+	 */
+	void createSSLContexts() throws IOException {
+		try {
+			KeyStore keyStore = this.keyStore;
+			char[] password = this.keyStorePassword;
+			if ( keyStore == null ) {
+				password = new char[0];
+				keyStore = new SelfSignedCertificate( password ).keyStore;
+			}
+
+			KeyManagerFactory keyManagers = KeyManagerFactory.getInstance( KeyManagerFactory.getDefaultAlgorithm() );
+			keyManagers.init( keyStore, password );
+			SSLContext server = SSLContext.getInstance( "TLS" );
+			server.init( keyManagers.getKeyManagers(), null, null );
+			server.getServerSessionContext().setSessionCacheSize( sessionCacheSize );
+			server.getServerSessionContext().setSessionTimeout( sessionTimeout );
+
+			TrustManagerFactory trustManagers = TrustManagerFactory.getInstance( TrustManagerFactory.getDefaultAlgorithm() );
+			trustManagers.init( keyStore );
+			SSLContext client = SSLContext.getInstance( "TLS" );
+			client.init( null, trustManagers.getTrustManagers(), null );
+
+			this.sslContext = server;
+			this.clientSSLContext = client;
+		}
+		catch ( GeneralSecurityException gse ) {
+			throw new IOException( "Unable to set up TLS.", gse );
+		}
+	}
+
+	/**
+	 * Layers TLS over an accepted socket.  The handshake happens later, on
+	 * the worker, when the connection is first read.
+	 * 
+	 * @param client the Socket accepted from the client
+	 * @return the SSLSocket to read and write
+	 * @throws IOException if the socket cannot be layered
+	 */
+	SSLSocket secure( Socket client ) throws IOException {
+		return secure( client, http2Enabled );
+	}
+
+	/**
+	 * Layers TLS over an accepted socket, offering HTTP/2 through ALPN
+	 * only when asked to.
+	 * 
+	 * @param client the Socket accepted from the client
+	 * @param http2 true to offer h2 as well as http/1.1
+	 * @return the SSLSocket to read and write
+	 * @throws IOException if the socket cannot be layered
+	 */
+	SSLSocket secure( Socket client, boolean http2 ) throws IOException {
+		SSLSocket socket = (SSLSocket)sslContext.getSocketFactory().createSocket( client, null, client.getPort(), true );
+		socket.setUseClientMode( false );
+		SSLParameters parameters = socket.getSSLParameters();
+		String[] protocols = http2 ? new String[] { "h2", "http/1.1" } : new String[] { "http/1.1" };
+		if ( setApplicationProtocols( parameters, protocols ) ) socket.setSSLParameters( parameters );
+		return socket;
+	}
+
+	/**
+	 * Offers application protocols through ALPN, so that a client can pick
+	 * HTTP/2 during the handshake.  ALPN was added in Java 9 and late
+	 * updates of Java 8, so it is looked up by name.
+	 * 
+	 * @param parameters the SSLParameters to modify
+	 * @param protocols the protocols in order of preference
+	 * @return true if the protocols were set, false if this Java does not support ALPN
+	 */
+	static boolean setApplicationProtocols( SSLParameters parameters, String[] protocols ) {
+		try {
+			SSLParameters.class.getMethod( "setApplicationProtocols", String[].class ).invoke( parameters, (Object)protocols );
+			return true;
+		}
+		catch ( ReflectiveOperationException roe ) {
+			log.debug( "ALPN is not supported.", roe );
+			return false;
+		}
+	}
+
+	/**
+	 * Runs the TLS handshake on a new connection under the header timeout
+	 * and counts whether it resumed an earlier session.
+	 * 
+	 * @param connection the Connection to secure
+	 * @return true if the handshake succeeded
+	 */
+	boolean handshake( Connection connection ) {
+		SSLSocket socket = (SSLSocket)connection.socket;
+		long started = System.currentTimeMillis();
+		try {
+			connection.startTimer( timers, headerTimeout, false );
+			socket.startHandshake();
+		}
+		catch ( IOException ioe ) {
+			log.debug( "TLS handshake failed.", ioe );
+			return false;
+		}
+		finally {
+			connection.cancelTimer();
+		}
+
+		// a resumed session was created by an earlier handshake
+		SSLSession session = socket.getSession();
+		handshakes.incrementAndGet();
+		if ( session.getCreationTime() < started ) resumedHandshakes.incrementAndGet();
+		return true;
+	}
+
+	/**
+	 * Turns on SO_REUSEPORT so more than one socket can listen on the same
+	 * port.  The option was added in Java 9, so it is looked up by name.
+	 * 
+	 * @param listener the unbound ServerSocket
+	 * @return true if the option was set, false if this Java or operating
+	 * system does not support it
+	 */
+	static boolean setReusePort( ServerSocket listener ) {
+		try {
+			Object option = StandardSocketOptions.class.getField( "SO_REUSEPORT" ).get( null );
+			ServerSocket.class.getMethod( "setOption", SocketOption.class, Object.class ).invoke( listener, option, Boolean.TRUE );
+			return true;
+		}
+		catch ( ReflectiveOperationException roe ) {
+			log.debug( "SO_REUSEPORT is not supported.", roe );
+			return false;
+		}
+	}
+
+	/**
+	 * Clears the stored requests and responses and releases the bodies
+	 * that were kept off the heap.
+	 */
+	public void reset() { 
+		synchronized ( requests ) {
+			releaseBodies();
+			requests.clear();
+			responses.clear();
+		}
+	}
+
+	/**
+	 * Releases the bodies of the stored requests that were kept off the
+	 * heap, freeing their direct buffers and deleting their temporary files.
+	 */
+	void releaseBodies() {
+		synchronized ( requests ) {
+			for ( HTTPRequest request : requests ) {
+				if ( request.largeBody != null ) request.largeBody.close();
+			}
+		}
+	}
+
+	/**
+	 * Stores a request and its response at the same index of
+	 * {@link #getRequests()} and {@link #getResponses()}.  Connections are
+	 * served at the same time, so both are added under one lock.
+	 * 
+	 * @param request the HTTPRequest that was received
+	 * @param response the HTTPResponse that answers it
+	 */
+	void record( HTTPRequest request, HTTPResponse response ) {
+		synchronized ( requests ) {
+			requests.add( request );
+			responses.add( response );
+		}
+	}
+
+	/**
+	 * Stops the server and closes the socket.  Requests in flight are
+	 * given until the drain timeout to finish.  Connections that have not
+	 * finished by then are closed.
+	 */
+	public void stop() {
+		if ( !isRunning ) return;
+		isRunning = false;
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( drainTimeout );
+		long completed = exchanges.get();
+
+		try {
+			serverSocket.close();
+			serverSocket = null;
+		}
+		catch ( IOException ioe ) {
+			log.error( "Unable to close server socket.", ioe );
+		}
+
+		for ( ServerSocket listener : reusePortSockets ) closeQuietly( listener );
+		reusePortSockets.clear();
+
+		if ( unixDomainSocket != null ) {
+			try {
+				Files.deleteIfExists( unixDomainSocket );
+			}
+			catch ( IOException ioe ) {
+				log.warn( "Unable to delete " + unixDomainSocket, ioe );
+			}
+		}
+
+		// a group only needs to let go of the port, its threads carry on
+		HTTPServerGroup joined = this.joined;
+		this.joined = null;
+		if ( joined != null ) joined.unregister( this );
+
+		try {
+			if ( thread != null ) thread.join( 1000 );
+			thread = null;
+			for ( Thread acceptor : acceptorThreads ) acceptor.join( 1000 );
+			acceptorThreads.clear();
+		}
+		catch ( InterruptedException ie ) {
+			log.error( "Interrupted when waiting for server to stop.", ie );
+		}
+
+		// nobody is going to send another request on an idle connection
+		for ( Connection connection : connections ) {
+			if ( connection.idle ) connection.run();
+		}
+
+		// requests in flight finish and then their connections close
+		// because the server is no longer running.  asynchronous ones
+		// don't hold a worker while they wait, so watch the connections too.
+		long aborted = 0;
+		try {
+			boolean drained = true;
+			if ( joined == null ) {
+				workers.shutdown();
+				shedder.shutdown();
+				drained = workers.awaitTermination( deadline - System.nanoTime(), TimeUnit.NANOSECONDS );
+			}
+			synchronized ( connections ) {
+				long remaining;
+				while ( !connections.isEmpty() && ( remaining = deadline - System.nanoTime() ) > 0 ) {
+					connections.wait( Math.max( 1, TimeUnit.NANOSECONDS.toMillis( remaining ) ) );
+				}
+			}
+			if ( !drained || !connections.isEmpty() ) {
+				for ( Connection connection : connections ) {
+					if ( !connection.idle ) aborted++;
+					connection.abort();
+					close( connection );
+				}
+				if ( joined == null ) workers.shutdownNow();
+			}
+			if ( joined == null && !shedder.awaitTermination( Math.max( deadline - System.nanoTime(), TimeUnit.MILLISECONDS.toNanos( 100 ) ), TimeUnit.NANOSECONDS ) ) shedder.shutdownNow();
+			workers = null;
+			shedder = null;
+		}
+		catch ( InterruptedException ie ) {
+			log.error( "Interrupted when waiting for workers to stop.", ie );
+		}
+
+		drainedExchanges = exchanges.get() - completed;
+		abortedExchanges = aborted;
+		log.info( "stopped port {}, drained {} and aborted {} requests", port, drainedExchanges, abortedExchanges );
+
+		if ( joined == null ) timers.close();
+		timers = null;
+	}
+
+	ThreadFactory threadFactory( final String prefix ) {
+		return new ThreadFactory() {
+			AtomicInteger count = new AtomicInteger();
+			@Override public Thread newThread( Runnable r ) {
+				return new Thread( r, prefix + count.incrementAndGet() );
+			}
+		};
+	}
+
+	/**
+	 * Creates the pool of worker threads according to the connection and
+	 * queue limits.
+	 * 
+	 * @return the ExecutorService that runs the workers
+	 */
+	ExecutorService createWorkers() {
+		ThreadFactory factory = threadFactory( "HTTPServerWorker-" + port + "-" );
+		if ( maxConnections <= 0 ) {
+			return new ThreadPoolExecutor( 0, Integer.MAX_VALUE, 60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(), factory );
+		}
+
+		BlockingQueue<Runnable> queue;
+		if ( maxQueuedRequests < 0 ) queue = new LinkedBlockingQueue<>();
+		else if ( maxQueuedRequests == 0 ) queue = new SynchronousQueue<>();
+		else queue = new ArrayBlockingQueue<>( maxQueuedRequests );
+
+		ThreadPoolExecutor executor = new ThreadPoolExecutor( maxConnections, maxConnections, 60, TimeUnit.SECONDS, queue, factory );
+		executor.allowCoreThreadTimeOut( true );
+		return executor;
+	}
+
+	/**
+	 * Builds the complete 503 response used to shed load so that it
+	 * does not have to be formatted while the server is overloaded.
+	 * 
+	 * @param retryAfter the Retry-After value in seconds
+	 * @return the serialized response
+	 */
+	static byte[] buildOverloadResponse( int retryAfter ) {
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( 503 );
+		response.setHeader( "Retry-After", String.valueOf( retryAfter ) );
+		response.setHeader( "Content-Type", "text/plain" );
+		response.setHeader( "Connection", "close" );
+		response.setBody( "503 - Service Unavailable" );
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream( 200 );
+		try {
+			write( baos, response );
+		}
+		catch ( IOException ioe ) {
+			throw new IllegalStateException( ioe );
+		}
+		return baos.toByteArray();
+	}
+
+	/**
+	 * Answers a connection with the prebuilt 503 and closes it without
+	 * reading the request.  Waiting for the client to close its end first
+	 * keeps the operating system from resetting the connection before the
+	 * client has read the 503, so this is done on the shedder thread
+	 * rather than holding up the accept loop or a worker.  On a secure
+	 * server the TLS handshake is run first, offering only HTTP/1.1, so
+	 * the 503 reaches the client through TLS.
+	 * 
+	 * @param socket the Socket to shed
+	 */
+	void shed( final Socket socket ) {
+		shedCount.incrementAndGet();
+		try {
+			shedder.execute( new Runnable() {
+				@Override public void run() {
+					Socket s = socket;
+					try {
+						if ( sslContext != null ) {
+							SSLSocket secured = secure( socket, false );
+							s = secured;
+							s.setSoTimeout( SHED_HANDSHAKE_TIMEOUT );
+							secured.startHandshake();
+						}
+						s.setSoTimeout( 100 );
+						s.getOutputStream().write( overloadResponse );
+						s.getOutputStream().flush();
+
+						// TLS cannot half close, so a secure client only learns of the end when the socket closes
+						if ( !( s instanceof SSLSocket ) ) s.shutdownOutput();
+
+						InputStream is = s.getInputStream();
+						byte[] discard = new byte[ 1024 ];
+						long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( 200 );
+						while ( is.read( discard ) >= 0 && System.nanoTime() < deadline ) {
+							// wait for the client to close
+						}
+					}
+					catch ( IOException ioe ) {
+						log.debug( "Unable to shed connection.", ioe );
+					}
+					finally {
+						closeQuietly( s );
+					}
+				}
+			} );
+		}
+		catch ( RejectedExecutionException ree ) {
+			closeQuietly( socket );
+		}
+	}
+
+	static void closeQuietly( Closeable closeable ) {
+		try {
+			closeable.close();
+		}
+		catch ( IOException ioe ) {
+			log.debug( "Unable to close.", ioe );
+		}
+	}
+
+	/**
+	 * Stops the server and closes the socket.  The stored requests and
+	 * responses can still be inspected, but request bodies kept off the
+	 * heap are released, so their temporary files do not outlive the
+	 * server.
+	 * @see #stop()
+	 */
+	public void close() {
+		stop();
+		releaseBodies();
+	}
+
+	/**
+	 * Listens for client connections and hands each one to a worker.
+	 */
+	@Override
+	public void run() {
+		accept( serverSocket );
+	}
+
+	/**
+	 * Hands a newly accepted connection to a worker, or sheds it when the
+	 * workers are too busy.
+	 * 
+	 * @param socket the Socket accepted from the client
+	 * @throws IOException if the socket cannot be closed
+	 */
+	void accepted( final Socket socket ) throws IOException {
+		try {
+			workers.execute( new Runnable() {
+				long accepted = System.nanoTime();
+				@Override public void run() {
+					long now = System.nanoTime();
+					if ( queueDelay.shouldShed( now - accepted, now ) ) shed( socket );
+					else process( socket );
+				}
+			} );
+		}
+		catch ( RejectedExecutionException ree ) {
+			if ( isRunning ) shed( socket );
+			else socket.close();
+		}
+	}
+
+	/**
+	 * Accepts connections from one listening socket until the server stops.
+	 * 
+	 * @param listener the ServerSocket to accept from
+	 */
+	void accept( ServerSocket listener ) {
+		while ( isRunning ) {
+			try {
+				accepted( listener.accept() );
+			}
+			catch ( IOException ioe ) {
+				// only log the exception if we're running.  closing the serverSocket
+				// always throws an exception, so ignore that.
+				if ( isRunning ) log.error( "Unable to accept connection.", ioe );
+			}
+		}
+	}
+
+	/**
+	 * Reads input from the client connection and writes output.
+	 * This method is what calls {@linkplain HTTPRequestHandler#handleRequest(HTTPRequest, HTTPResponse)}.
+	 * 
+	 * @param client the Socket connected to the client
+	 */
+	void process( Socket client ) {
+		Connection connection;
+		try {
+			Socket socket = sslContext != null ? secure( client ) : client;
+			connection = new Connection( socket, readBandwidth, writeBandwidth );
+			connection.transport = client;
+		}
+		catch ( IOException ioe ) {
+			closeQuietly( client );
+			if ( isRunning ) log.error( "Unable to process request.", ioe );
+			return;
+		}
+		log.debug( "socket={}, is={}, os={}", connection.socket, connection.is, connection.os );
+		activeConnections.incrementAndGet();
+		connections.add( connection );
+		serve( connection, true );
+	}
+
+	/**
+	 * Sends a request through the server without a socket.  The request is
+	 * serialized and read back, handled and its response written and
+	 * parsed, just as it would be over the network, so what the handler
+	 * sees and what a client would get are the same.  The server does not
+	 * have to be started, which spares a test the port, the threads and
+	 * the system calls.  The request is recorded like any other.
+	 * <p>
+	 * The call returns once the response is written, even when an
+	 * {@link AsyncHTTPRequestHandler} completes it on another thread, or
+	 * with a 503 once the handler timeout runs out.
+	 * 
+	 * @param request the HTTPRequest a client would send
+	 * @return the HTTPResponse the client would receive
+	 * @throws IOException if the server wrote no response
+	 */
+	public HTTPResponse exchange( HTTPRequest request ) throws IOException {
+		MemorySocket socket = new MemorySocket( serializeRequest( request ) );
+		Connection connection = new Connection( socket, 0, 0 );
+		connection.remoteAddress = request.getRemoteAddress();
+		activeConnections.incrementAndGet();
+		connections.add( connection );
+		serve( connection, true );
+
+		// an asynchronous handler finishes on another thread and closes the connection when it does
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( handlerTimeout );
+		synchronized ( connections ) {
+			while ( !connection.closed.get() ) {
+				try {
+					// without the timer thread of a started server, this thread keeps the handler's deadline
+					if ( timers != null || handlerTimeout <= 0 ) connections.wait();
+					else if ( deadline - System.nanoTime() > 0 ) connections.wait( Math.max( 1, TimeUnit.NANOSECONDS.toMillis( deadline - System.nanoTime() ) ) );
+					else break;
+				}
+				catch ( InterruptedException ie ) {
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException( "Interrupted while waiting for the response." );
+				}
+			}
+		}
+		Runnable expire = connection.handlerExpired;
+		if ( !connection.closed.get() && expire != null ) expire.run();
+		return readResponse( new ByteArrayInputStream( socket.getWritten() ) );
+	}
+
+	/**
+	 * Handles requests on a connection until the client or a deadline
+	 * closes it.  An {@link AsyncHTTPRequestHandler} takes the connection
+	 * over, and the thread returns, until its response is ready.
+	 * 
+	 * @param connection the Connection to serve
+	 * @param first true if no request has been read from the connection yet
+	 */
+	void serve( Connection connection, boolean first ) {
+		boolean handedOff = false;
+		try {
+			if ( first && connection.socket instanceof SSLSocket && !handshake( connection ) ) return;
+			if ( first && http2Enabled && isHTTP2( connection ) ) {
+				new HTTP2Connection( this, connection ).serve( null, null );
+				return;
+			}
+
+			while ( first || ( isRunning && awaitRequest( connection ) ) ) {
+				first = false;
+
+				HTTPRequest request = new HTTPRequest();
+				request.remoteAddress = connection.remoteAddress;
+				HTTPResponse response = new HTTPResponse();
+				record( request, response );
+
+				boolean complete = read( connection, request, response );
+				if ( complete && http2Enabled && HTTP2Connection.isUpgrade( request ) ) {
+					new HTTP2Connection( this, connection ).serve( request, response );
+					return;
+				}
+				if ( complete ) {
+					HTTPRequestHandler handler = this.handler;
+					if ( handler instanceof AsyncHTTPRequestHandler ) {
+						dispatch( (AsyncHTTPRequestHandler)handler, connection, request, response );
+						handedOff = true;
+						return;
+					}
+
+					try {
+						handler.handleRequest( request, response );
+					}
+					catch ( HTTPException he ) {
+						response.buildStandardResponse( he.getStatus(), he );
+					}
+				}
+
+				if ( !respond( connection, request, response, complete ) ) break;
+			}
+		}
+		catch ( IOException ioe ) {
+			if ( isRunning ) log.error( "Unable to process request.", ioe );
+		}
+		finally {
+			if ( !handedOff ) close( connection );
+		}
+	}
+
+	/**
+	 * Checks whether a new connection starts with the HTTP/2 preface.
+	 * 
+	 * @param connection the Connection to check
+	 * @return true if the client speaks HTTP/2 from the start
+	 * @throws IOException if an I/O error occurs
+	 */
+	boolean isHTTP2( Connection connection ) throws IOException {
+		try {
+			connection.startTimer( timers, headerTimeout, false );
+			return HTTP2Connection.isPreface( connection.is );
+		}
+		finally {
+			connection.cancelTimer();
+		}
+	}
+
+	/**
+	 * Reads one request from the connection.  When it cannot be read the
+	 * response is filled in with the reason.
+	 * 
+	 * @param connection the Connection to read from
+	 * @param request the HTTPRequest to fill in
+	 * @param response the HTTPResponse to fill in if the request is bad
+	 * @return true if the whole request was read
+	 */
+	boolean read( Connection connection, HTTPRequest request, HTTPResponse response ) {
+		try {
+			connection.startTimer( timers, headerTimeout, false );
+			readHead( connection.is, request, lazyHeaders );
+			if ( request.getHeader( "Expect" ) != null ) expectContinue( connection, request );
+			connection.startTimer( timers, bodyTimeout, false );
+			readContent( connection.is, request, maxDecodedBodySize, spool );
+			connection.cancelTimer();
+
+			// a stalled client looks like one that sent a short request, so check the clock
+			if ( connection.expired ) throw new HTTPException( 408, "Timed out reading the request." );
+			return true;
+		}
+		catch( HTTPException he ) {
+			response.buildStandardResponse( connection.expired ? 408 : he.getStatus(), he );
+		}
+		catch( IOException ioe ) {
+			if ( connection.expired ) {
+				response.buildStandardResponse( 408, ioe );
+			}
+			else {
+				response.buildStandardResponse( 500, ioe );
+				log.error( "Unable to read the request.", ioe );
+			}
+		}
+		finally {
+			connection.cancelTimer();
+		}
+		return false;
+	}
+
+	/**
+	 * Answers a request that sent an Expect header.  A client that expects
+	 * 100-continue waits for the interim response before sending its body,
+	 * so the body's size and the ContinueHandler are checked first and a
+	 * rejection goes back before a single byte of the body is sent.
+	 * HTTP/1.0 clients do not know 100 Continue and are not sent one.
 	 * 
-	 * @param handler the HTTPRequestHandler used to handle all requests to this server
+	 * @param connection the Connection the request came from
+	 * @param request the HTTPRequest whose headers have been read
+	 * @throws IOException if the interim response cannot be written
+	 * @throws HTTPException if the expectation is unknown or the request is rejected
 	 */
-	public void setHTTPRequestHandler( HTTPRequestHandler handler ) { this.handler = handler; }
+	void expectContinue( Connection connection, HTTPRequest request ) throws IOException, HTTPException {
+		if ( !"100-continue".equalsIgnoreCase( request.getHeader( "Expect" ).trim() ) ) throw new HTTPException( 417, "Only 100-continue is supported." );
+		if ( !"HTTP/1.1".equals( request.getVersion() ) ) return;
+
+		// a missing or bad Content-length is left for readContent to sort out
+		String sContentLength = request.getHeader( "Content-length" );
+		long contentLength;
+		try {
+			contentLength = sContentLength == null ? 0 : Long.parseLong( sContentLength.trim() );
+		}
+		catch ( NumberFormatException nfe ) {
+			return;
+		}
+		if ( contentLength <= 0 ) return;
+		if ( spool.isTooLarge( contentLength ) ) throw new HTTPException( 413, "Request body is larger than " + spool.maxBodySize + " bytes." );
+
+		ContinueHandler check = this.continueHandler;
+		if ( check == null && handler instanceof ContinueHandler ) check = (ContinueHandler)handler;
+		if ( check != null ) check.checkContinue( request );
+
+		connection.os.write( CONTINUE );
+		connection.os.flush();
+	}
 
 	/**
-	 * Creates and starts a server that always returns a 200 OK response no
-	 * matter the request.
+	 * Passes the request to an asynchronous handler and arranges for the
+	 * response to be written, and the connection served again, on one of
+	 * the workers once the handler completes it.  A handler that takes
+	 * longer than the handler timeout is answered for with a 503, and the
+	 * connection is closed.
 	 * 
-	 * @return a new HTTPServer that's already started and listening for requests
-	 * @throws IOException if an I/O error occurs when opening the socket
+	 * @param handler the AsyncHTTPRequestHandler to call
+	 * @param connection the Connection the request came from
+	 * @param request the HTTPRequest to handle
+	 * @param response the HTTPResponse to write
 	 */
-	public static HTTPServer always200OK() throws IOException {
-		HTTPServer server = new HTTPServer();
-		server.setHTTPRequestHandler( new HTTPRequestHandler() {
-			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
-				response.setStatus( 200 );
+	void dispatch( AsyncHTTPRequestHandler handler, final Connection connection, final HTTPRequest request, final HTTPResponse response ) {
+		final ExecutorService workers = this.workers;
+		final Runnable resume = new Runnable() {
+			@Override public void run() {
+				boolean keepAlive = false;
+				try {
+					keepAlive = respond( connection, request, response, true );
+				}
+				catch ( IOException ioe ) {
+					if ( isRunning ) log.error( "Unable to process request.", ioe );
+				}
+				if ( keepAlive ) serve( connection, false );
+				else close( connection );
+			}
+		};
+
+		final Runnable finish = new Runnable() {
+			@Override public void run() {
+				try {
+					if ( workers == null ) resume.run();
+					else workers.execute( resume );
+				}
+				catch ( RejectedExecutionException ree ) {
+					// every worker is busy or the server is stopping, so write it from here
+					resume.run();
+				}
+			}
+		};
+
+		// whichever of the stage and the deadline comes first writes the response
+		final AtomicBoolean answered = new AtomicBoolean();
+		final Runnable expire = new Runnable() {
+			@Override public void run() {
+				if ( !answered.compareAndSet( false, true ) ) return;
+				handlerExpired( response );
+
+				// the handler may still be working on the response, so the connection is not used again
+				response.setHeader( "Connection", "close" );
+				finish.run();
+			}
+		};
+		connection.handlerExpired = expire;
+		final TimerWheel.Timeout deadline = handlerTimeout > 0 && timers != null ? timers.schedule( expire, handlerTimeout, TimeUnit.MILLISECONDS ) : null;
+
+		CompletionStage<HTTPResponse> stage;
+		try {
+			stage = handler.handleRequestAsync( request, response );
+		}
+		catch ( RuntimeException re ) {
+			CompletableFuture<HTTPResponse> failed = new CompletableFuture<>();
+			failed.completeExceptionally( re );
+			stage = failed;
+		}
+
+		stage.whenComplete( new BiConsumer<HTTPResponse, Throwable>() {
+			@Override public void accept( HTTPResponse result, Throwable t ) {
+				if ( !answered.compareAndSet( false, true ) ) return;
+				if ( deadline != null ) deadline.cancel();
+				connection.handlerExpired = null;
+				try {
+					complete( response, result, t );
+				}
+				catch ( HTTPException he ) {
+					response.buildStandardResponse( he.getStatus(), he );
+				}
+				finish.run();
 			}
 		} );
-		server.start();
-		return server;
 	}
 
 	/**
-	 * Starts the server if not already running.  During this call
-	 * the socket is created and bound to the port.  If the default
-	 * port of 0 is used, the socket will find an open port, bind
-	 * to it and report it back to the server's port variable.
+	 * Answers for an asynchronous handler that ran out of time.
 	 * 
-	 * @throws IOException if an I/O error occurs when opening the socket
+	 * @param response the HTTPResponse to fill in
 	 */
-	public void start() throws IOException {
-		if ( isRunning ) return;
-		
-		isRunning = true;
-		reset();
-
-		serverSocket = new ServerSocket( this.port );
-		this.port = serverSocket.getLocalPort();
-		log.info( "bound to port {}", this.port );
-
-		thread = new Thread( this, "HTTPServerThread" );
-		thread.start();
+	static void handlerExpired( HTTPResponse response ) {
+		response.buildStandardResponse( 503, new HTTPException( 503, "Timed out handling the request." ) );
 	}
 
 	/**
-	 * Clears the stored requests and responses.
+	 * Copies the outcome of an asynchronous handler into the response the
+	 * server writes.
+	 * 
+	 * @param response the HTTPResponse that will be written
+	 * @param result the HTTPResponse the stage completed with, may be null
+	 * @param t the Throwable the stage failed with or null if it did not fail
+	 * @throws HTTPException if the stage failed
 	 */
-	public void reset() { 
-		requests.clear();
-		responses.clear();
+	static void complete( HTTPResponse response, HTTPResponse result, Throwable t ) throws HTTPException {
+		if ( t != null ) {
+			// stages wrap what they were completed with, so dig it out
+			Throwable cause = t;
+			while ( ( cause instanceof CompletionException || cause instanceof ExecutionException ) && cause.getCause() != null ) cause = cause.getCause();
+			if ( cause instanceof HTTPException ) throw (HTTPException)cause;
+			throw new HTTPException( cause );
+		}
+		if ( result != null && result != response ) response.copy( result );
 	}
 
 	/**
-	 * Stops the server and closes the socket.
+	 * Writes the response to the connection.
+	 * 
+	 * @param connection the Connection to write to
+	 * @param request the HTTPRequest being answered
+	 * @param response the HTTPResponse to write
+	 * @param complete true if the whole request was read
+	 * @return true if the connection can be used for another request
+	 * @throws IOException if an I/O error occurs while writing
 	 */
-	public void stop() {
-		if ( !isRunning ) return;
-		isRunning = false;
+	boolean respond( Connection connection, HTTPRequest request, HTTPResponse response, boolean complete ) throws IOException {
+		boolean keepAlive = complete && isRunning && keepAliveTimeout > 0 && isKeepAlive( request )
+				&& !"close".equalsIgnoreCase( response.getHeader( "Connection" ) );
 
 		try {
-			serverSocket.close();
-			serverSocket = null;
+			connection.startTimer( timers, writeTimeout, true );
+			ResponseCompressor compressor = this.compressor;
+			String encoding = compressor == null ? null : compressor.negotiate( request.getHeader( "Accept-Encoding" ) );
+			if ( encoding != null && compressor.isCompressible( response ) ) {
+				keepAlive = compressor.write( connection.os, response, encoding, keepAlive ? keepAliveHeaders : null );
+			}
+			else {
+				write( connection.os, response, keepAlive ? keepAliveHeaders : null );
+			}
 		}
 		catch ( IOException ioe ) {
-			log.error( "Unable to close server socket.", ioe );
+			if ( !connection.expired ) throw ioe;
+			log.debug( "Timed out writing the response.", ioe );
+			return false;
+		}
+		finally {
+			connection.cancelTimer();
 		}
+		exchanges.incrementAndGet();
+		return keepAlive;
+	}
 
+	/**
+	 * Waits on an idle keep-alive connection for the first byte of the
+	 * next request.
+	 * 
+	 * @param connection the Connection to wait on
+	 * @return true if another request is coming, false if the client closed
+	 * the connection or the keep-alive timeout ran out
+	 * @throws IOException if an I/O error occurs
+	 */
+	boolean awaitRequest( Connection connection ) throws IOException {
+		BufferedInputStream is = connection.is;
+		connection.idle = true;
 		try {
-			thread.join( 1000 );
-			thread = null;
+			connection.startTimer( timers, keepAliveTimeout, false );
+			is.mark( 1 );
+			int b = is.read();
+			connection.cancelTimer();
+			if ( b < 0 || connection.expired ) return false;
+			is.reset();
+			return true;
 		}
-		catch ( InterruptedException ie ) {
-			log.error( "Interrupted when waiting for server to stop.", ie );
+		finally {
+			connection.idle = false;
 		}
 	}
 
 	/**
-	 * Stops the server and closes the socket.
-	 * @see #stop()
+	 * Closes the connection and stops tracking it.  This happens once
+	 * no matter how many times it is called.
+	 * 
+	 * @param connection the Connection to close
 	 */
-	public void close() {
-		stop();
+	void close( Connection connection ) {
+		if ( !connection.closed.compareAndSet( false, true ) ) return;
+		connection.cancelTimer();
+		closeQuietly( connection.socket );
+		connections.remove( connection );
+		activeConnections.decrementAndGet();
+		synchronized ( connections ) {
+			connections.notifyAll();
+		}
 	}
 
 	/**
-	 * Listens for client connections, reads input and writes output.
-	 * This method is what calls {@linkplain HTTPRequestHandler#handleRequest(HTTPRequest, HTTPResponse)}.
+	 * Decides whether the client asked to keep the connection open.
+	 * HTTP/1.1 connections stay open unless the client says otherwise and
+	 * HTTP/1.0 ones are closed unless it asks for keep-alive.
+	 * 
+	 * @param request the HTTPRequest to check
+	 * @return true if the client wants to keep the connection open
 	 */
-	@Override
-	public void run() {
-		while ( isRunning ) {
-			try ( Socket socket = serverSocket.accept();
-					InputStream is = socket.getInputStream();
-					OutputStream os = socket.getOutputStream() ) {
-				log.debug( "socket={}, is={}, os={}", socket, is, os );
+	static boolean isKeepAlive( HTTPRequest request ) {
+		String connection = request.getHeader( "Connection" );
+		if ( connection != null ) {
+			for ( String token : connection.split( "," ) ) {
+				token = token.trim();
+				if ( "close".equalsIgnoreCase( token ) ) return false;
+				if ( "keep-alive".equalsIgnoreCase( token ) ) return true;
+			}
+		}
+		return "HTTP/1.1".equals( request.getVersion() );
+	}
 
-				HTTPRequest request = new HTTPRequest();
-				this.requests.add( request );
+	/**
+	 * A client connection and the deadline on whatever it is doing at the
+	 * moment.  When the time runs out the connection's input is shut down
+	 * so that a blocked read sees the end of the stream, or the socket is
+	 * closed outright to break a blocked write.
+	 */
+	static class Connection implements Runnable {
+		Socket socket;
+		Socket transport;
+		String remoteAddress;
+		BufferedInputStream is;
+		OutputStream os;
+		boolean write;
+		volatile boolean expired = false;
+		volatile boolean idle = false;
+		AtomicBoolean closed = new AtomicBoolean();
+		TimerWheel.Timeout timeout;
+		volatile Runnable handlerExpired;
 
-				HTTPResponse response = new HTTPResponse();
-				this.responses.add( response );
+		/**
+		 * Wraps a client socket.
+		 * 
+		 * @param socket the Socket connected to the client
+		 * @param readBandwidth the most bytes per second to read or 0
+		 * @param writeBandwidth the most bytes per second to write or 0
+		 * @throws IOException if the socket's streams cannot be opened
+		 */
+		Connection( Socket socket, int readBandwidth, int writeBandwidth ) throws IOException {
+			this.socket = socket;
+			this.transport = socket;
+			if ( socket.getInetAddress() != null ) this.remoteAddress = socket.getInetAddress().getHostAddress();
+			InputStream is = socket.getInputStream();
+			if ( readBandwidth > 0 ) is = new ThrottledInputStream( is, readBandwidth );
+			this.is = new BufferedInputStream( is );
+			this.os = socket.getOutputStream();
+			if ( writeBandwidth > 0 ) this.os = new ThrottledOutputStream( this.os, writeBandwidth );
+		}
 
-				try {
-					read( is, request );
-					this.handler.handleRequest( request, response );
-				}
-				catch( HTTPException he ) {
-					response.buildStandardResponse( he.getStatus(), he );
-				}
-				catch( IOException ioe ) {
-					response.buildStandardResponse( 500, ioe );
-					log.error( "Unable to read the request.", ioe );
-				}
-				write( os, response );
+		/**
+		 * Starts the clock on the next phase, cancelling the previous one.
+		 * 
+		 * @param timers the TimerWheel that tracks the deadline
+		 * @param millis how long the phase may take or 0 for no limit
+		 * @param write true if the phase writes to the socket
+		 */
+		void startTimer( TimerWheel timers, int millis, boolean write ) {
+			cancelTimer();
+			this.write = write;
+			if ( millis > 0 && timers != null ) timeout = timers.schedule( this, millis, TimeUnit.MILLISECONDS );
+		}
+
+		void cancelTimer() {
+			TimerWheel.Timeout timeout = this.timeout;
+			if ( timeout != null ) timeout.cancel();
+			this.timeout = null;
+		}
+
+		/**
+		 * Closes the connection no matter what it is doing.
+		 */
+		void abort() {
+			expired = true;
+			closeQuietly( transport );
+		}
+
+		@Override
+		public void run() {
+			expired = true;
+			try {
+				// TLS sockets cannot always shut down their input, but the socket under them can
+				if ( write || transport.isInputShutdown() ) transport.close();
+				else transport.shutdownInput();
 			}
 			catch ( IOException ioe ) {
-				// only log the exception if we're running.  closing the serverSocket
-				// always throws an exception, so ignore that.
-				if ( isRunning ) log.error( "Unable to process request.", ioe );
+				closeQuietly( transport );
 			}
 		}
 	}
@@ -215,8 +1927,47 @@ public class HTTPServer implements Runnable, Closeable {
 	 * @throws IOException If an I/O error occurs
 	 */
 	static void read( InputStream is, HTTPRequest request ) throws IOException, HTTPException {
-		BufferedInputStream bis = new BufferedInputStream( is );
+		read( is, request, DEFAULT_MAX_DECODED_BODY_SIZE );
+	}
+
+	/**
+	 * Reads the given InputStream into the request decoding the body
+	 * according to its Content-Encoding.
+	 * 
+	 * @param is the InputStream to read
+	 * @param request the HTTPRequest to modify
+	 * @param maxDecodedBodySize the largest decoded body allowed or -1 to leave the body encoded
+	 * @throws IOException If an I/O error occurs
+	 */
+	static void read( InputStream is, HTTPRequest request, int maxDecodedBodySize ) throws IOException, HTTPException {
+		BufferedInputStream bis = is instanceof BufferedInputStream ? (BufferedInputStream)is : new BufferedInputStream( is );
+		readHead( bis, request );
+		readContent( bis, request, maxDecodedBodySize );
+	}
+
+	/**
+	 * Reads the request line and headers.
+	 * 
+	 * @param bis the BufferedInputStream to read
+	 * @param request the HTTPRequest to modify
+	 * @throws IOException If an I/O error occurs
+	 * @throws HTTPException if the request line or a header is invalid
+	 */
+	static void readHead( BufferedInputStream bis, HTTPRequest request ) throws IOException, HTTPException {
+		readHead( bis, request, false );
+	}
 
+	/**
+	 * Reads the request line and headers, leaving the headers undecoded if
+	 * asked.
+	 * 
+	 * @param bis the BufferedInputStream to read
+	 * @param request the HTTPRequest to modify
+	 * @param lazy true to keep the header lines as bytes until they are needed
+	 * @throws IOException If an I/O error occurs
+	 * @throws HTTPException if the request line or a header is invalid
+	 */
+	static void readHead( BufferedInputStream bis, HTTPRequest request, boolean lazy ) throws IOException, HTTPException {
 		// read the first line containing method, path and version
 		String line = readLine( bis );
 		log.debug( "line={}", line );
@@ -227,6 +1978,11 @@ public class HTTPServer implements Runnable, Closeable {
 		request.setPath( st.nextToken() );
 		request.setVersion( st.nextToken() );
 
+		if ( lazy ) {
+			readRawHeaders( bis, request );
+			return;
+		}
+
 		// read the headers
 		String header = null, value = null;
 		while ( ( line = readLine( bis ) ) != null ) {
@@ -255,19 +2011,196 @@ public class HTTPServer implements Runnable, Closeable {
 
 			request.setHeader( header, value );
 		}
+	}
+
+	/**
+	 * Reads the header lines into one array without decoding them, noting
+	 * where each line and its colon are.  The lines are checked the same
+	 * way as when they are decoded.
+	 * 
+	 * @param bis the BufferedInputStream positioned after the request line
+	 * @param request the HTTPRequest to modify
+	 * @throws IOException If an I/O error occurs
+	 * @throws HTTPException if a header is invalid
+	 */
+	static void readRawHeaders( BufferedInputStream bis, HTTPRequest request ) throws IOException, HTTPException {
+		byte[] raw = new byte[ 1024 ];
+		int[] index = new int[ 48 ];
+		int size = 0, count = 0;
+		while ( true ) {
+			int start = size, colon = -1, b;
+			while ( ( b = bis.read() ) >= 0 && b != '\n' && b != '\r' ) {
+				if ( size == raw.length ) raw = Arrays.copyOf( raw, size * 2 );
+				if ( b == ':' && colon < 0 ) colon = size;
+				raw[size++] = (byte)b;
+			}
+			if ( b >= 0 ) skipLineEnding( bis, b );
+			if ( size == start ) break;
+
+			if ( colon < 0 && ( count == 0 || raw[start] != ' ' ) ) throw new HTTPException( 400, "Invalid HTTP header." );
+			if ( count * 3 == index.length ) index = Arrays.copyOf( index, index.length * 2 );
+			index[count * 3] = start;
+			index[count * 3 + 1] = colon;
+			index[count * 3 + 2] = size;
+			count++;
+		}
+		request.setRawHeaders( Arrays.copyOf( raw, size ), Arrays.copyOf( index, count * 3 ), count );
+	}
+
+	/**
+	 * Reads the body of the request, if it has one, according to its
+	 * Content-length header.
+	 * 
+	 * @param bis the BufferedInputStream positioned after the headers
+	 * @param request the HTTPRequest to modify
+	 * @param maxDecodedBodySize the largest decoded body allowed or -1 to leave the body encoded
+	 * @throws IOException If an I/O error occurs
+	 * @throws HTTPException if the body is short, cannot be decoded or is too large
+	 */
+	static void readContent( BufferedInputStream bis, HTTPRequest request, int maxDecodedBodySize ) throws IOException, HTTPException {
+		readContent( bis, request, maxDecodedBodySize, BodySpool.HEAP );
+	}
 
+	/**
+	 * Reads the body of the request, if it has one, according to its
+	 * Content-length header, keeping it wherever the spool says.
+	 * 
+	 * @param bis the BufferedInputStream positioned after the headers
+	 * @param request the HTTPRequest to modify
+	 * @param maxDecodedBodySize the largest decoded body allowed or -1 to leave the body encoded
+	 * @param spool the BodySpool that decides where the body is kept
+	 * @throws IOException If an I/O error occurs
+	 * @throws HTTPException if the body is short, cannot be decoded or is too large
+	 */
+	static void readContent( BufferedInputStream bis, HTTPRequest request, int maxDecodedBodySize, BodySpool spool ) throws IOException, HTTPException {
 		// read the body of the request
 		String sContentLength = request.getHeader( "Content-length" );
 		if ( sContentLength != null && !sContentLength.isEmpty() ) {
-			int contentLength = Integer.parseInt( sContentLength );
+			long contentLength;
+			try {
+				contentLength = Long.parseLong( sContentLength.trim() );
+			}
+			catch ( NumberFormatException nfe ) {
+				throw new HTTPException( 400, "Invalid Content-length.", nfe );
+			}
+			if ( contentLength < 0 ) throw new HTTPException( 400, "Invalid Content-length." );
+			if ( spool.isTooLarge( contentLength ) ) throw new HTTPException( 413, "Request body is larger than " + spool.maxBodySize + " bytes." );
 
 			if ( contentLength > 0 ) {
-				byte[] body = new byte[ contentLength ];
-				bis.read( body, 0, contentLength );
-				request.setBody( body );
-				log.debug( "body={}", request.getBody() );
+				readBody( bis, request, contentLength, maxDecodedBodySize, spool );
+				log.debug( "body size={}", contentLength );
+			}
+		}
+	}
+
+	/**
+	 * Reads exactly Content-length bytes of body and, unless decoding is
+	 * turned off, inflates them on the fly according to the Content-Encoding
+	 * header.  The Content-length and Content-Encoding headers are left as
+	 * they were sent.
+	 * 
+	 * @param is the InputStream positioned at the start of the body
+	 * @param request the HTTPRequest to modify
+	 * @param contentLength the number of bytes of body on the wire
+	 * @param maxDecodedBodySize the largest decoded body allowed or -1 to leave the body encoded
+	 * @throws IOException If an I/O error occurs
+	 * @throws HTTPException if the body is short, cannot be decoded or is too large
+	 */
+	static void readBody( InputStream is, HTTPRequest request, int contentLength, int maxDecodedBodySize ) throws IOException, HTTPException {
+		readBody( is, request, contentLength, maxDecodedBodySize, BodySpool.HEAP );
+	}
+
+	/**
+	 * Reads exactly Content-length bytes of body, decoding them unless
+	 * decoding is turned off, and keeps the body on the heap, in a direct
+	 * buffer or in a temporary file according to its size.
+	 * 
+	 * @param is the InputStream positioned at the start of the body
+	 * @param request the HTTPRequest to modify
+	 * @param contentLength the number of bytes of body on the wire
+	 * @param maxDecodedBodySize the largest decoded body allowed or -1 to leave the body encoded
+	 * @param spool the BodySpool that decides where the body is kept
+	 * @throws IOException If an I/O error occurs
+	 * @throws HTTPException if the body is short, cannot be decoded or is too large
+	 */
+	static void readBody( InputStream is, HTTPRequest request, long contentLength, int maxDecodedBodySize, BodySpool spool ) throws IOException, HTTPException {
+		BoundedInputStream wire = new BoundedInputStream( is, contentLength );
+		String encoding = request.getHeader( "Content-Encoding" );
+		request.wireBodySize = (int)Math.min( contentLength, Integer.MAX_VALUE );
+
+		if ( maxDecodedBodySize < 0 || encoding == null || "identity".equalsIgnoreCase( encoding.trim() ) ) {
+			if ( contentLength <= spool.heapThreshold ) {
+				int length = (int)contentLength;
+				byte[] body = new byte[ length ];
+				int count, total = 0;
+				while ( total < length && ( count = wire.read( body, total, length - total ) ) > 0 ) total += count;
+				if ( total < length ) throw new HTTPException( 400, "Request body is shorter than its Content-length." );
+				request.body = body;
+				return;
+			}
+
+			BodySpool.SpoolOutputStream body = spool.open( contentLength );
+			try {
+				byte[] buffer = new byte[ 8192 ];
+				int count;
+				while ( ( count = wire.read( buffer ) ) > 0 ) body.write( buffer, 0, count );
+				if ( body.size() < contentLength ) throw new HTTPException( 400, "Request body is shorter than its Content-length." );
+				request.setRequestBody( body.toRequestBody() );
+				body = null;
+			}
+			finally {
+				if ( body != null ) body.close();
+			}
+			return;
+		}
+
+		BodySpool.SpoolOutputStream body = null;
+		try {
+			// codings are listed in the order they were applied, so undo them in reverse
+			InputStream decoded = wire;
+			String[] codings = encoding.split( "," );
+			for ( int i = codings.length - 1; i >= 0; i-- ) {
+				String coding = codings[i].trim().toLowerCase();
+				if ( "gzip".equals( coding ) || "x-gzip".equals( coding ) ) decoded = new GZIPInputStream( decoded );
+				else if ( "deflate".equals( coding ) ) decoded = inflate( decoded );
+				else if ( !"identity".equals( coding ) ) throw new HTTPException( 415, "Unsupported Content-Encoding " + coding );
+			}
+
+			body = spool.open( -1 );
+			byte[] buffer = new byte[ 8192 ];
+			int count;
+			while ( ( count = decoded.read( buffer ) ) > 0 ) {
+				if ( body.size() + count > maxDecodedBodySize ) throw new HTTPException( 413, "Decoded request body is larger than " + maxDecodedBodySize + " bytes." );
+				body.write( buffer, 0, count );
 			}
+			if ( wire.getRemaining() > 0 ) wire.drain();
+			if ( wire.getCount() < contentLength ) throw new HTTPException( 400, "Request body is shorter than its Content-length." );
+
+			request.setRequestBody( body.toRequestBody() );
+			body = null;
 		}
+		catch ( ZipException | EOFException e ) {
+			throw new HTTPException( 400, "Unable to decode request body with Content-Encoding " + encoding, e );
+		}
+		finally {
+			if ( body != null ) body.close();
+		}
+	}
+
+	/**
+	 * Inflates a deflate coded stream.  The HTTP spec calls for a zlib
+	 * wrapper, but some clients send raw deflate data, so peek at the
+	 * first two bytes to tell which one this is.
+	 */
+	static InputStream inflate( InputStream is ) throws IOException {
+		PushbackInputStream pis = new PushbackInputStream( is, 2 );
+		byte[] header = new byte[2];
+		int count, total = 0;
+		while ( total < 2 && ( count = pis.read( header, total, 2 - total ) ) > 0 ) total += count;
+		if ( total > 0 ) pis.unread( header, 0, total );
+
+		boolean zlib = total == 2 && ( header[0] & 0x0F ) == 8 && ( ( ( header[0] & 0xFF ) << 8 ) | ( header[1] & 0xFF ) ) % 31 == 0;
+		return new InflaterInputStream( pis, new Inflater( !zlib ) );
 	}
 	
 	static String readLine( BufferedInputStream bis ) throws IOException {
@@ -276,17 +2209,7 @@ public class HTTPServer implements Runnable, Closeable {
 		int b;
 		while( ( b = bis.read() ) >= 0 ) {
 			if ( b == '\n' || b == '\r' ) {
-				
-				// check for two character line endings (LF vs CRLF)
-				bis.mark( 0 );
-				int b2 = bis.read();
-				
-				// do we want to keep the second character?
-				// keep it if it's the same line ending character as the first character
-				// or if it's different, only if it's not another line ending character
-				if ( b == b2 || ( b2 != '\n' && b2 != '\r' ) ) {
-					bis.reset();
-				}
+				skipLineEnding( bis, b );
 				break;
 			}
 			else {
@@ -296,6 +2219,26 @@ public class HTTPServer implements Runnable, Closeable {
 		return line.toString( StandardCharsets.UTF_8.name() );
 	}
 	
+	/**
+	 * Consumes the second character of a two character line ending (LF vs
+	 * CRLF) if there is one.
+	 * 
+	 * @param bis the BufferedInputStream positioned after the first character
+	 * @param b the first line ending character
+	 * @throws IOException If an I/O error occurs
+	 */
+	static void skipLineEnding( BufferedInputStream bis, int b ) throws IOException {
+		bis.mark( 0 );
+		int b2 = bis.read();
+
+		// do we want to keep the second character?
+		// keep it if it's the same line ending character as the first character
+		// or if it's different, only if it's not another line ending character
+		if ( b == b2 || ( b2 != '\n' && b2 != '\r' ) ) {
+			bis.reset();
+		}
+	}
+
 	/**
 	 * Writes the response out to the given OutputStream.
 	 * 
@@ -304,21 +2247,134 @@ public class HTTPServer implements Runnable, Closeable {
 	 * @throws IOException if an I/O error occurs
 	 */
 	static void write( OutputStream os, HTTPResponse response ) throws IOException {
-		os.write( MessageFormat.format( "HTTP/1.0 {0} {1}\r\n", response.getStatus(), response.getStatusMessage() ).getBytes( StandardCharsets.UTF_8 ) );
+		write( os, response, null );
+	}
+
+	/**
+	 * Writes the response out to the given OutputStream, adding the headers
+	 * that keep the connection open.  A response without a body gets a
+	 * Content-length of 0 so the client knows where it ends.
+	 * 
+	 * @param os the OutputStream to write to
+	 * @param response the HTTPResponse to write
+	 * @param keepAlive the Connection and Keep-Alive header lines or null to close
+	 * the connection after the response
+	 * @throws IOException if an I/O error occurs
+	 */
+	static void write( OutputStream os, HTTPResponse response, byte[] keepAlive ) throws IOException {
+		byte[] head = response.head;
+		os.write( head != null ? head : serializeHead( response ) );
 		
-		Map<String, String> headers = response.getHeaders();
+		byte[] body = response.getBody();
+		if ( keepAlive != null ) {
+			os.write( keepAlive );
+			if ( body == null && response.getHeader( "Content-length" ) == null ) os.write( NO_CONTENT );
+			os.write( CRLF );
+		}
+		else if ( body != null ) {
+			os.write( CRLF );
+		}
+		if ( body != null ) os.write( body );
+		
+		os.flush();
+	}
+
+	/**
+	 * Serializes a request the way a client would send it.  A missing
+	 * method, path or version defaults to GET / HTTP/1.1.
+	 * 
+	 * @param request the HTTPRequest to serialize
+	 * @return the request line, headers and body as bytes
+	 */
+	static byte[] serializeRequest( HTTPRequest request ) {
+		StringBuilder head = new StringBuilder( 128 );
+		head.append( request.getMethod() == null ? "GET" : request.getMethod() ).append( ' ' );
+		head.append( request.getPath() == null ? "/" : request.getPath() ).append( ' ' );
+		head.append( request.getVersion() == null ? "HTTP/1.1" : request.getVersion() ).append( "\r\n" );
+
+		Map<String, String> headers = request.getHeaders();
 		if ( headers != null ) {
 			for ( Entry<String, String> header : headers.entrySet() ) {
-				os.write( MessageFormat.format( "{0}: {1}\r\n", header.getKey(), header.getValue() ).getBytes( StandardCharsets.UTF_8 ) );
+				head.append( header.getKey() ).append( ": " ).append( header.getValue() ).append( "\r\n" );
+			}
+		}
+		byte[] body = request.getBody();
+		if ( body != null && request.getHeader( "Content-length" ) == null ) head.append( "content-length: " ).append( body.length ).append( "\r\n" );
+		head.append( "\r\n" );
+
+		byte[] bytes = head.toString().getBytes( StandardCharsets.UTF_8 );
+		if ( body == null || body.length == 0 ) return bytes;
+		byte[] serialized = new byte[ bytes.length + body.length ];
+		System.arraycopy( bytes, 0, serialized, 0, bytes.length );
+		System.arraycopy( body, 0, serialized, bytes.length, body.length );
+		return serialized;
+	}
+
+	/**
+	 * Reads a response the way a client would.  The body runs to the
+	 * Content-Length or, without one, to the end of the stream.  Interim
+	 * responses, such as 100 Continue, are skipped.
+	 * 
+	 * @param is the InputStream holding the response
+	 * @return the HTTPResponse
+	 * @throws IOException if the stream does not hold a response
+	 */
+	static HTTPResponse readResponse( InputStream is ) throws IOException {
+		BufferedInputStream bis = is instanceof BufferedInputStream ? (BufferedInputStream)is : new BufferedInputStream( is );
+		HTTPResponse response;
+		do {
+			String line = readLine( bis );
+			if ( line == null || !line.startsWith( "HTTP/" ) ) throw new IOException( "No response." );
+
+			response = new HTTPResponse();
+			String[] status = line.split( " ", 3 );
+			try {
+				response.setStatus( Integer.parseInt( status[1] ) );
+			}
+			catch ( ArrayIndexOutOfBoundsException | NumberFormatException e ) {
+				throw new IOException( "Invalid status line: " + line, e );
+			}
+			if ( status.length > 2 ) response.setStatusMessage( status[2] );
+
+			while ( ( line = readLine( bis ) ) != null && !line.isEmpty() ) {
+				int pos = line.indexOf( ':' );
+				if ( pos > 0 ) response.setHeader( line.substring( 0, pos ).trim(), line.substring( pos + 1 ).trim() );
 			}
+		} while ( response.getStatus() >= 100 && response.getStatus() < 200 && response.getStatus() != 101 );
+
+		String contentLength = response.getHeader( "Content-length" );
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		byte[] buffer = new byte[ 8192 ];
+		long remaining = contentLength == null ? Long.MAX_VALUE : Long.parseLong( contentLength.trim() );
+		int count;
+		while ( remaining > 0 && ( count = bis.read( buffer, 0, (int)Math.min( buffer.length, remaining ) ) ) >= 0 ) {
+			body.write( buffer, 0, count );
+			remaining -= count;
 		}
+		if ( body.size() > 0 || contentLength != null ) response.body = body.toByteArray();
+		response.head = null;
+		return response;
+	}
+
+	/**
+	 * Serializes the status line and headers of the response.  Handlers
+	 * that send the same response over and over can keep the result in
+	 * the response's head field so it is only formatted once.
+	 * 
+	 * @param response the HTTPResponse to serialize
+	 * @return the status line and headers as bytes
+	 */
+	static byte[] serializeHead( HTTPResponse response ) {
+		StringBuilder head = new StringBuilder( 128 );
+		head.append( MessageFormat.format( "HTTP/1.0 {0} {1}\r\n", response.getStatus(), response.getStatusMessage() ) );
 		
-		byte[] body = response.getBody();
-		if ( body != null ) {
-			os.write( "\r\n".getBytes( StandardCharsets.UTF_8 ) );
-			os.write( body );
+		Map<String, String> headers = response.getHeaders();
+		if ( headers != null ) {
+			for ( Entry<String, String> header : headers.entrySet() ) {
+				head.append( MessageFormat.format( "{0}: {1}\r\n", header.getKey(), header.getValue() ) );
+			}
 		}
 		
-		os.flush();
+		return head.toString().getBytes( StandardCharsets.UTF_8 );
 	}
 }
@@ -0,0 +1,244 @@
+package com.mauter.httpserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lets many servers in one JVM share their threads.  On its own each
+ * {@link HTTPServer} has an acceptor thread, a timer thread, a thread to
+ * turn away clients when it is overloaded and a pool of workers.  Servers
+ * in a group have none of their own.  One thread accepts connections for
+ * every server in the group through a selector, and they share one pool
+ * of workers, one timer and one shedder.  A server that is started in a
+ * group only binds its port, and stopping it only closes the port and its
+ * connections, so both are cheap.
+ * <pre>
+ * HTTPServerGroup group = new HTTPServerGroup();
+ * HTTPServer server = new HTTPServer();
+ * server.setGroup( group );
+ * server.start();
+ * </pre>
+ * <p>
+ * The workers are shared, so {@link HTTPServer#setMaxConnections(int)} and
+ * {@link HTTPServer#setMaxQueuedRequests(int)} do not apply to a server in
+ * a group.  Limit the group as a whole instead.  The group's threads are
+ * daemon threads.  Closing the group stops any server still running in it.
+ */
+public class HTTPServerGroup implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger( HTTPServerGroup.class );
+
+	static final AtomicInteger groups = new AtomicInteger();
+
+	int id = groups.incrementAndGet();
+	Selector selector;
+	Thread acceptor;
+	ExecutorService workers;
+	ExecutorService shedder;
+	TimerWheel timers;
+	Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+	Set<HTTPServer> servers = Collections.newSetFromMap( new ConcurrentHashMap<HTTPServer, Boolean>() );
+	volatile boolean isRunning = true;
+
+	/**
+	 * Creates a group whose pool of workers grows with demand and shrinks
+	 * when the servers sit idle.
+	 *
+	 * @throws IOException if the selector cannot be opened
+	 */
+	public HTTPServerGroup() throws IOException {
+		this( 0 );
+	}
+
+	/**
+	 * Creates a group with at most the given number of workers between
+	 * all of its servers.  Connections that arrive while every worker is
+	 * busy are answered with a 503.
+	 *
+	 * @param maxWorkers the most worker threads or 0 for no limit
+	 * @throws IOException if the selector cannot be opened
+	 */
+	public HTTPServerGroup( int maxWorkers ) throws IOException {
+		this.selector = Selector.open();
+		this.workers = new ThreadPoolExecutor( 0, maxWorkers > 0 ? maxWorkers : Integer.MAX_VALUE, 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), threadFactory( "HTTPServerGroup-" + id + "-Worker-" ) );
+		this.shedder = new ThreadPoolExecutor( 1, 1, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>( 1024 ),
+				threadFactory( "HTTPServerGroup-" + id + "-Shedder-" ) );
+		this.timers = new TimerWheel( "HTTPServerGroup-" + id + "-Timer", 10, TimeUnit.MILLISECONDS, 512 );
+		this.acceptor = threadFactory( "HTTPServerGroup-" + id + "-Acceptor" ).newThread( new Runnable() {
+			@Override public void run() {
+				accept();
+			}
+		} );
+		this.acceptor.start();
+	}
+
+	static ThreadFactory threadFactory( final String prefix ) {
+		return new ThreadFactory() {
+			AtomicInteger count = new AtomicInteger();
+			@Override public Thread newThread( Runnable r ) {
+				Thread thread = new Thread( r, prefix.endsWith( "-" ) ? prefix + count.incrementAndGet() : prefix );
+				thread.setDaemon( true );
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Gets the number of servers running in the group.
+	 *
+	 * @return the number of servers
+	 */
+	public int getServerCount() { return this.servers.size(); }
+
+	/**
+	 * Starts accepting connections for a server on a channel it has bound.
+	 *
+	 * @param server the HTTPServer the connections are for
+	 * @param channel the bound ServerSocketChannel
+	 * @throws IOException if the group is closed
+	 */
+	void register( final HTTPServer server, final ServerSocketChannel channel ) throws IOException {
+		if ( !isRunning ) throw new IOException( "The server group is closed." );
+		channel.configureBlocking( false );
+		servers.add( server );
+
+		// a channel registers with a selector most reliably from the selecting thread
+		pending.add( new Runnable() {
+			@Override public void run() {
+				try {
+					channel.register( selector, SelectionKey.OP_ACCEPT, server );
+				}
+				catch ( IOException ioe ) {
+					// the server may have stopped before it got this far
+					if ( channel.isOpen() ) log.error( "Unable to accept connections on " + channel, ioe );
+				}
+			}
+		} );
+		selector.wakeup();
+	}
+
+	/**
+	 * Forgets a server whose channel has been closed.
+	 *
+	 * @param server the HTTPServer that stopped
+	 */
+	void unregister( HTTPServer server ) {
+		servers.remove( server );
+
+		// the selector lets go of a closed channel's port on its next pass
+		selector.wakeup();
+	}
+
+	void accept() {
+		while ( isRunning ) {
+			try {
+				selector.select();
+				Runnable task;
+				while ( ( task = pending.poll() ) != null ) task.run();
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while ( keys.hasNext() ) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					if ( key.isValid() && key.isAcceptable() ) accept( key );
+				}
+			}
+			catch ( ClosedSelectorException cse ) {
+				return;
+			}
+			catch ( IOException ioe ) {
+				if ( isRunning ) log.error( "Unable to select.", ioe );
+			}
+		}
+	}
+
+	/**
+	 * Accepts every connection waiting on a channel and hands each to its
+	 * server.
+	 *
+	 * @param key the SelectionKey of the channel
+	 */
+	void accept( SelectionKey key ) {
+		ServerSocketChannel channel = (ServerSocketChannel)key.channel();
+		HTTPServer server = (HTTPServer)key.attachment();
+		while ( true ) {
+			SocketChannel client;
+			try {
+				client = channel.accept();
+				if ( client == null ) return;
+			}
+			catch ( IOException ioe ) {
+				if ( server.isRunning ) log.error( "Unable to accept connection.", ioe );
+				return;
+			}
+
+			try {
+				client.configureBlocking( true );
+				Socket socket = client.getLocalAddress() instanceof InetSocketAddress ? client.socket() : new UnixDomainSockets.ChannelSocket( client );
+				server.accepted( socket );
+			}
+			catch ( IOException | RuntimeException e ) {
+				// one server going away must not take the others with it
+				HTTPServer.closeQuietly( client );
+				if ( server.isRunning ) log.error( "Unable to accept connection.", e );
+			}
+		}
+	}
+
+	/**
+	 * Stops every server still running in the group and then the group's
+	 * threads.
+	 */
+	@Override
+	public void close() {
+		if ( !isRunning ) return;
+		List<HTTPServer> running = new ArrayList<>( servers );
+		for ( HTTPServer server : running ) {
+			server.stop();
+			server.releaseBodies();
+		}
+
+		isRunning = false;
+		try {
+			selector.close();
+		}
+		catch ( IOException ioe ) {
+			log.error( "Unable to close the selector.", ioe );
+		}
+		try {
+			acceptor.join( 1000 );
+		}
+		catch ( InterruptedException ie ) {
+			Thread.currentThread().interrupt();
+		}
+		workers.shutdown();
+		shedder.shutdown();
+		timers.close();
+	}
+}
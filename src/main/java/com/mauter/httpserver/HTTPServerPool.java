@@ -0,0 +1,154 @@
+package com.mauter.httpserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Hands out servers that are already started.  Creating a server, binding
+ * its port and starting its threads for every test adds up across a large
+ * suite, so a pool starts a few servers up front, in one
+ * {@link HTTPServerGroup} so they share their threads, and lends them out.
+ * Releasing a server does not stop it.  Its stored requests and responses
+ * are cleared and its handler goes back to answering 200 OK, and then it
+ * waits for the next test.
+ * <pre>
+ * HTTPServer server = pool.acquire();
+ * try {
+ *     server.setHTTPRequestHandler( myHandler );
+ *     // test against server.getPort()
+ * }
+ * finally {
+ *     pool.release( server );
+ * }
+ * </pre>
+ * <p>
+ * Only the handler and the stored exchanges are reset.  A test that
+ * changes other settings, such as timeouts, should put them back itself,
+ * and one that stops its server simply doesn't get it back into the pool.
+ * {@link HTTPServerRule} does the acquiring and releasing for JUnit tests.
+ */
+public class HTTPServerPool implements Closeable {
+
+	static final HTTPRequestHandler OK = new HTTPRequestHandler() {
+		@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+			response.setStatus( 200 );
+		}
+	};
+
+	static HTTPServerPool shared;
+
+	HTTPServerGroup group;
+	int size;
+	Deque<HTTPServer> idle = new ArrayDeque<>();
+	List<HTTPServer> servers = new ArrayList<>();
+	boolean closed = false;
+
+	/**
+	 * Gets a pool shared by everything in the JVM, creating it with four
+	 * servers the first time.  Its threads are daemon threads, so it never
+	 * needs to be closed.
+	 *
+	 * @return the shared HTTPServerPool
+	 * @throws IOException if the servers cannot be started
+	 */
+	public static synchronized HTTPServerPool shared() throws IOException {
+		if ( shared == null ) shared = new HTTPServerPool( 4 );
+		return shared;
+	}
+
+	/**
+	 * Creates a pool and starts the given number of servers in it.  More
+	 * servers are started if more are acquired at once, but only this many
+	 * are kept when they are released.
+	 *
+	 * @param size the number of servers to keep started
+	 * @throws IOException if the servers cannot be started
+	 */
+	public HTTPServerPool( int size ) throws IOException {
+		this.group = new HTTPServerGroup();
+		this.size = size;
+		try {
+			for ( int i = 0; i < size; i++ ) idle.add( create() );
+		}
+		catch ( IOException ioe ) {
+			close();
+			throw ioe;
+		}
+	}
+
+	HTTPServer create() throws IOException {
+		HTTPServer server = new HTTPServer();
+		server.setGroup( group );
+		server.setHTTPRequestHandler( OK );
+		server.start();
+		synchronized ( this ) {
+			servers.add( server );
+		}
+		return server;
+	}
+
+	/**
+	 * Gets the number of servers waiting to be acquired.
+	 *
+	 * @return the number of idle servers
+	 */
+	public synchronized int getIdleCount() { return this.idle.size(); }
+
+	/**
+	 * Lends out a started server that answers every request with a 200 OK
+	 * until it is given a handler.
+	 *
+	 * @return a running HTTPServer
+	 * @throws IOException if the pool is closed or a new server cannot be started
+	 */
+	public HTTPServer acquire() throws IOException {
+		synchronized ( this ) {
+			if ( closed ) throw new IOException( "The server pool is closed." );
+			HTTPServer server;
+			while ( ( server = idle.poll() ) != null ) {
+				if ( server.isRunning ) return server;
+				servers.remove( server );
+			}
+		}
+		return create();
+	}
+
+	/**
+	 * Takes back a server, clears its requests and responses and puts its
+	 * handler back.  A server that has been stopped, or one more than the
+	 * pool keeps, is stopped and forgotten instead.
+	 *
+	 * @param server the HTTPServer from {@link #acquire()}
+	 */
+	public void release( HTTPServer server ) {
+		if ( server == null ) return;
+		server.setHTTPRequestHandler( OK );
+		server.reset();
+
+		synchronized ( this ) {
+			if ( !closed && server.isRunning && idle.size() < size && !idle.contains( server ) ) {
+				idle.push( server );
+				return;
+			}
+			servers.remove( server );
+		}
+		server.stop();
+	}
+
+	/**
+	 * Stops every server the pool started, lent out or not.
+	 */
+	@Override
+	public void close() {
+		synchronized ( this ) {
+			closed = true;
+			idle.clear();
+			servers.clear();
+		}
+		group.close();
+	}
+}
@@ -0,0 +1,66 @@
+package com.mauter.httpserver;
+
+import org.junit.rules.ExternalResource;
+
+/**
+ * A JUnit 4 rule that lends each test a started server from an
+ * {@link HTTPServerPool} and gives it back afterwards.
+ * <pre>
+ * &#64;Rule
+ * public HTTPServerRule http = new HTTPServerRule();
+ *
+ * &#64;Test
+ * public void testSomething() throws IOException {
+ *     http.getServer().setHTTPRequestHandler( myHandler );
+ *     // test against http.getPort()
+ * }
+ * </pre>
+ * JUnit is not a dependency of this library, so it must already be on the
+ * test classpath to use the rule.
+ */
+public class HTTPServerRule extends ExternalResource {
+
+	HTTPServerPool pool;
+	HTTPServer server;
+
+	/**
+	 * Creates a rule that borrows from the JVM's shared pool.
+	 */
+	public HTTPServerRule() {
+	}
+
+	/**
+	 * Creates a rule that borrows from the given pool.
+	 *
+	 * @param pool the HTTPServerPool to borrow from
+	 */
+	public HTTPServerRule( HTTPServerPool pool ) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Gets the server lent to the current test.
+	 *
+	 * @return the HTTPServer
+	 */
+	public HTTPServer getServer() { return this.server; }
+
+	/**
+	 * Gets the port of the server lent to the current test.
+	 *
+	 * @return the port number
+	 */
+	public int getPort() { return this.server.getPort(); }
+
+	@Override
+	protected void before() throws Throwable {
+		if ( pool == null ) pool = HTTPServerPool.shared();
+		server = pool.acquire();
+	}
+
+	@Override
+	protected void after() {
+		pool.release( server );
+		server = null;
+	}
+}
@@ -0,0 +1,186 @@
+package com.mauter.httpserver;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough of a JSON parser to read stub mapping files without pulling
+ * a JSON library onto everyone's classpath.  Objects become LinkedHashMaps,
+ * arrays become ArrayLists, numbers become Longs or Doubles and true, false
+ * and null become Boolean.TRUE, Boolean.FALSE and null.
+ */
+class JSON {
+
+	String text;
+	int pos = 0;
+
+	JSON( String text ) {
+		this.text = text;
+	}
+
+	/**
+	 * Parses a JSON document.
+	 *
+	 * @param text the JSON text
+	 * @return the parsed value
+	 * @throws IllegalArgumentException if the text is not valid JSON
+	 */
+	static Object parse( String text ) {
+		JSON json = new JSON( text );
+		Object value = json.value();
+		json.skipWhitespace();
+		if ( json.pos < text.length() ) throw json.error( "Unexpected text after the end" );
+		return value;
+	}
+
+	Object value() {
+		skipWhitespace();
+		if ( pos >= text.length() ) throw error( "Unexpected end" );
+
+		char c = text.charAt( pos );
+		if ( c == '{' ) return object();
+		if ( c == '[' ) return array();
+		if ( c == '"' ) return string();
+		if ( c == '-' || ( c >= '0' && c <= '9' ) ) return number();
+		if ( text.startsWith( "true", pos ) ) { pos += 4; return Boolean.TRUE; }
+		if ( text.startsWith( "false", pos ) ) { pos += 5; return Boolean.FALSE; }
+		if ( text.startsWith( "null", pos ) ) { pos += 4; return null; }
+		throw error( "Unexpected character '" + c + "'" );
+	}
+
+	Map<String, Object> object() {
+		Map<String, Object> object = new LinkedHashMap<>();
+		pos++;
+		skipWhitespace();
+		if ( peek() == '}' ) {
+			pos++;
+			return object;
+		}
+
+		while ( true ) {
+			skipWhitespace();
+			if ( peek() != '"' ) throw error( "Expected a string key" );
+			String key = string();
+			skipWhitespace();
+			expect( ':' );
+			object.put( key, value() );
+			skipWhitespace();
+			if ( peek() == ',' ) {
+				pos++;
+				continue;
+			}
+			expect( '}' );
+			return object;
+		}
+	}
+
+	List<Object> array() {
+		List<Object> array = new ArrayList<>();
+		pos++;
+		skipWhitespace();
+		if ( peek() == ']' ) {
+			pos++;
+			return array;
+		}
+
+		while ( true ) {
+			array.add( value() );
+			skipWhitespace();
+			if ( peek() == ',' ) {
+				pos++;
+				continue;
+			}
+			expect( ']' );
+			return array;
+		}
+	}
+
+	String string() {
+		pos++;
+		StringBuilder string = null;
+		int start = pos;
+		while ( true ) {
+			if ( pos >= text.length() ) throw error( "Unterminated string" );
+			char c = text.charAt( pos );
+			if ( c == '"' ) {
+				String value = string == null ? text.substring( start, pos ) : string.append( text, start, pos ).toString();
+				pos++;
+				return value;
+			}
+			if ( c < ' ' ) throw error( "Control character in string" );
+			if ( c != '\\' ) {
+				pos++;
+				continue;
+			}
+
+			// only build a new string when there is something to unescape
+			if ( string == null ) string = new StringBuilder();
+			string.append( text, start, pos );
+			if ( ++pos >= text.length() ) throw error( "Unterminated string" );
+			char escaped = text.charAt( pos++ );
+			switch ( escaped ) {
+				case '"': case '\\': case '/': string.append( escaped ); break;
+				case 'b': string.append( '\b' ); break;
+				case 'f': string.append( '\f' ); break;
+				case 'n': string.append( '\n' ); break;
+				case 'r': string.append( '\r' ); break;
+				case 't': string.append( '\t' ); break;
+				case 'u':
+					if ( pos + 4 > text.length() ) throw error( "Bad unicode escape" );
+					try {
+						string.append( (char)Integer.parseInt( text.substring( pos, pos + 4 ), 16 ) );
+					}
+					catch ( NumberFormatException nfe ) {
+						throw error( "Bad unicode escape" );
+					}
+					pos += 4;
+					break;
+				default: throw error( "Bad escape \\" + escaped );
+			}
+			start = pos;
+		}
+	}
+
+	Number number() {
+		int start = pos;
+		boolean decimal = false;
+		if ( peek() == '-' ) pos++;
+		while ( pos < text.length() ) {
+			char c = text.charAt( pos );
+			if ( c == '.' || c == 'e' || c == 'E' || c == '+' || ( c == '-' && pos > start ) ) decimal = true;
+			else if ( c < '0' || c > '9' ) break;
+			pos++;
+		}
+
+		String number = text.substring( start, pos );
+		try {
+			return decimal ? (Number)Double.valueOf( number ) : (Number)Long.valueOf( number );
+		}
+		catch ( NumberFormatException nfe ) {
+			throw error( "Bad number " + number );
+		}
+	}
+
+	void skipWhitespace() {
+		while ( pos < text.length() ) {
+			char c = text.charAt( pos );
+			if ( c != ' ' && c != '\t' && c != '\n' && c != '\r' ) return;
+			pos++;
+		}
+	}
+
+	char peek() {
+		return pos < text.length() ? text.charAt( pos ) : 0;
+	}
+
+	void expect( char c ) {
+		if ( peek() != c ) throw error( "Expected '" + c + "'" );
+		pos++;
+	}
+
+	IllegalArgumentException error( String message ) {
+		return new IllegalArgumentException( message + " at position " + pos + " of JSON" );
+	}
+}
@@ -0,0 +1,79 @@
+package com.mauter.httpserver;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Picks how long a {@link ShapingHandler} holds each response.  Use one of
+ * the distributions here or implement your own.
+ */
+public interface Latency {
+
+	/**
+	 * Picks the latency of the next response.
+	 *
+	 * @return the latency in milliseconds
+	 */
+	public long nextDelay();
+
+	/**
+	 * The same latency for every response.
+	 *
+	 * @param millis the latency in milliseconds
+	 * @return the Latency
+	 */
+	public static Latency fixed( final long millis ) {
+		if ( millis < 0 ) throw new IllegalArgumentException( "Latency cannot be negative." );
+		return new Latency() {
+			@Override public long nextDelay() { return millis; }
+		};
+	}
+
+	/**
+	 * A latency spread evenly between two bounds.
+	 *
+	 * @param min the shortest latency in milliseconds
+	 * @param max the longest latency in milliseconds
+	 * @return the Latency
+	 */
+	public static Latency uniform( final long min, final long max ) {
+		if ( min < 0 || max < min ) throw new IllegalArgumentException( "Expected 0 <= min <= max." );
+		return new Latency() {
+			@Override public long nextDelay() { return min + ThreadLocalRandom.current().nextLong( max - min + 1 ); }
+		};
+	}
+
+	/**
+	 * A latency that follows measured percentiles, such as a p50 of 20 ms,
+	 * a p99 of 250 ms and a maximum of 1 second:
+	 * <pre>
+	 * Latency.percentiles( new double[] { 50, 99, 100 }, new long[] { 20, 250, 1000 } )
+	 * </pre>
+	 * Latencies between the given percentiles are interpolated linearly.
+	 * Below the first percentile the latency is the first value and above
+	 * the last it is the last value.
+	 *
+	 * @param percentiles the percentiles, increasing, between 0 and 100
+	 * @param millis the latency in milliseconds at each percentile, not decreasing
+	 * @return the Latency
+	 */
+	public static Latency percentiles( double[] percentiles, long[] millis ) {
+		if ( percentiles.length == 0 || percentiles.length != millis.length ) throw new IllegalArgumentException( "Expected the same number of percentiles and latencies." );
+		for ( int i = 0; i < percentiles.length; i++ ) {
+			if ( percentiles[i] < 0 || percentiles[i] > 100 || ( i > 0 && percentiles[i] <= percentiles[i - 1] ) ) throw new IllegalArgumentException( "Percentiles must increase from 0 to 100." );
+			if ( millis[i] < 0 || ( i > 0 && millis[i] < millis[i - 1] ) ) throw new IllegalArgumentException( "Latencies must not decrease." );
+		}
+
+		final double[] p = percentiles.clone();
+		final long[] m = millis.clone();
+		return new Latency() {
+			@Override public long nextDelay() {
+				double u = ThreadLocalRandom.current().nextDouble() * 100;
+				if ( u <= p[0] ) return m[0];
+				for ( int i = 1; i < p.length; i++ ) {
+					if ( u <= p[i] ) return m[i - 1] + Math.round( ( m[i] - m[i - 1] ) * ( u - p[i - 1] ) / ( p[i] - p[i - 1] ) );
+				}
+				return m[m.length - 1];
+			}
+		};
+	}
+}
@@ -0,0 +1,126 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * A socket with nothing on the other end but a byte array.  The client's
+ * bytes are read from the array and whatever the server writes is kept,
+ * so a request can go through the same reading and writing as one from
+ * the network without a port, a thread or a system call.
+ */
+class MemorySocket extends Socket {
+
+	ByteArrayInputStream input;
+	ByteArrayOutputStream output = new ByteArrayOutputStream();
+	volatile boolean closed = false;
+	volatile boolean inputShutdown = false;
+	volatile boolean outputShutdown = false;
+
+	InputStream in = new InputStream() {
+		@Override public int read() throws IOException {
+			if ( inputShutdown ) return -1;
+			return input.read();
+		}
+
+		@Override public int read( byte[] b, int off, int len ) throws IOException {
+			if ( inputShutdown ) return -1;
+			return input.read( b, off, len );
+		}
+
+		@Override public int available() {
+			return inputShutdown ? 0 : input.available();
+		}
+	};
+
+	OutputStream out = new OutputStream() {
+		@Override public void write( int b ) throws IOException {
+			write( new byte[] { (byte)b }, 0, 1 );
+		}
+
+		@Override public void write( byte[] b, int off, int len ) throws IOException {
+			if ( closed || outputShutdown ) throw new SocketException( "Socket output is closed" );
+			output.write( b, off, len );
+		}
+	};
+
+	/**
+	 * Creates a socket that reads the given bytes.
+	 *
+	 * @param request the bytes the client sends
+	 */
+	MemorySocket( byte[] request ) {
+		this.input = new ByteArrayInputStream( request );
+	}
+
+	/**
+	 * Gets everything the server wrote.
+	 *
+	 * @return the bytes written so far
+	 */
+	byte[] getWritten() {
+		return output.toByteArray();
+	}
+
+	@Override
+	public InputStream getInputStream() throws IOException {
+		if ( closed ) throw new SocketException( "Socket is closed" );
+		return in;
+	}
+
+	@Override
+	public OutputStream getOutputStream() throws IOException {
+		if ( closed ) throw new SocketException( "Socket is closed" );
+		return out;
+	}
+
+	@Override
+	public void shutdownInput() {
+		inputShutdown = true;
+	}
+
+	@Override
+	public void shutdownOutput() {
+		outputShutdown = true;
+	}
+
+	@Override
+	public boolean isInputShutdown() {
+		return inputShutdown;
+	}
+
+	@Override
+	public boolean isOutputShutdown() {
+		return outputShutdown;
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+	}
+
+	@Override
+	public boolean isClosed() {
+		return closed;
+	}
+
+	@Override
+	public boolean isConnected() {
+		return true;
+	}
+
+	@Override
+	public synchronized void setSoTimeout( int timeout ) {
+		// reading a byte array never blocks
+	}
+
+	@Override
+	public String toString() {
+		return "MemorySocket";
+	}
+}
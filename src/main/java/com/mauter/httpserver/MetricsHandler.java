@@ -0,0 +1,186 @@
+package com.mauter.httpserver;
+
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Wraps another {@link HTTPRequestHandler} and counts the requests that
+ * pass through it.  Requests for the metrics path (/metrics by default)
+ * are answered directly with the counters in the Prometheus text
+ * exposition format so a long-running server can be scraped like any
+ * other service.
+ * <p>
+ * Every counter is an independent atomic value, so recording a request
+ * never takes a lock and a scrape only reads the counters one at a time
+ * while it renders them.
+ */
+public class MetricsHandler implements HTTPRequestHandler {
+
+	static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+	/**
+	 * The upper bounds of the latency histogram buckets in seconds.
+	 */
+	static final double[] BUCKETS = { 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+	static final long[] BUCKET_NANOS = new long[ BUCKETS.length ];
+	static {
+		for ( int i = 0; i < BUCKETS.length; i++ ) {
+			BUCKET_NANOS[i] = (long)( BUCKETS[i] * TimeUnit.SECONDS.toNanos( 1 ) );
+		}
+	}
+
+	HTTPServer server;
+	HTTPRequestHandler handler;
+	String path = "/metrics";
+
+	ConcurrentMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<>();
+	AtomicLongArray buckets = new AtomicLongArray( BUCKETS.length + 1 );
+	AtomicLong durationNanos = new AtomicLong();
+	AtomicLong count = new AtomicLong();
+	AtomicInteger inFlight = new AtomicInteger();
+
+	/**
+	 * Creates a metrics handler that passes requests on to the given handler.
+	 *
+	 * @param server the HTTPServer whose connections and captured requests are reported,
+	 * may be null
+	 * @param handler the HTTPRequestHandler that handles everything but the metrics path
+	 */
+	public MetricsHandler( HTTPServer server, HTTPRequestHandler handler ) {
+		this.server = server;
+		this.handler = handler;
+	}
+
+	/**
+	 * Gets the path that answers with the metrics.
+	 *
+	 * @return the metrics path
+	 */
+	public String getPath() { return this.path; }
+
+	/**
+	 * Sets the path that answers with the metrics.  The default is /metrics.
+	 *
+	 * @param path the metrics path
+	 */
+	public void setPath( String path ) { this.path = path; }
+
+	/**
+	 * Gets the number of requests handled so far, not counting scrapes.
+	 *
+	 * @return the number of requests
+	 */
+	public long getCount() { return this.count.get(); }
+
+	@Override
+	public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+		if ( isMetricsPath( request.getPath() ) ) {
+			response.setStatus( 200 );
+			response.setHeader( "Content-Type", CONTENT_TYPE );
+			response.setBody( render() );
+			return;
+		}
+
+		inFlight.incrementAndGet();
+		long start = System.nanoTime();
+		int status = 500;
+		try {
+			handler.handleRequest( request, response );
+			status = response.getStatus();
+		}
+		catch ( HTTPException he ) {
+			status = he.getStatus();
+			throw he;
+		}
+		finally {
+			inFlight.decrementAndGet();
+			record( request.getMethod(), status, System.nanoTime() - start );
+		}
+	}
+
+	boolean isMetricsPath( String requestPath ) {
+		if ( requestPath == null || path == null || !requestPath.startsWith( path ) ) return false;
+		return requestPath.length() == path.length() || requestPath.charAt( path.length() ) == '?';
+	}
+
+	/**
+	 * Records a single request.
+	 *
+	 * @param method the HTTP method of the request
+	 * @param status the HTTP status returned
+	 * @param nanos how long the request took in nanoseconds
+	 */
+	void record( String method, int status, long nanos ) {
+		String labels = "method=\"" + escape( method ) + "\",status=\"" + status + "\"";
+		AtomicLong counter = requestCounts.get( labels );
+		if ( counter == null ) {
+			AtomicLong existing = requestCounts.putIfAbsent( labels, counter = new AtomicLong() );
+			if ( existing != null ) counter = existing;
+		}
+		counter.incrementAndGet();
+
+		int bucket = 0;
+		while ( bucket < BUCKET_NANOS.length && nanos > BUCKET_NANOS[bucket] ) bucket++;
+		buckets.incrementAndGet( bucket );
+		durationNanos.addAndGet( nanos );
+		count.incrementAndGet();
+	}
+
+	/**
+	 * Renders the current value of every metric in the Prometheus text
+	 * exposition format.
+	 *
+	 * @return the metrics
+	 */
+	String render() {
+		StringBuilder out = new StringBuilder( 2048 );
+
+		out.append( "# HELP httpserver_requests_total Total number of requests handled.\n" );
+		out.append( "# TYPE httpserver_requests_total counter\n" );
+		for ( Entry<String, AtomicLong> entry : requestCounts.entrySet() ) {
+			out.append( "httpserver_requests_total{" ).append( entry.getKey() ).append( "} " ).append( entry.getValue().get() ).append( '\n' );
+		}
+
+		out.append( "# HELP httpserver_request_duration_seconds Time spent handling requests.\n" );
+		out.append( "# TYPE httpserver_request_duration_seconds histogram\n" );
+		long cumulative = 0;
+		for ( int i = 0; i < BUCKETS.length; i++ ) {
+			cumulative += buckets.get( i );
+			out.append( "httpserver_request_duration_seconds_bucket{le=\"" ).append( BUCKETS[i] ).append( "\"} " ).append( cumulative ).append( '\n' );
+		}
+		cumulative += buckets.get( BUCKETS.length );
+		out.append( "httpserver_request_duration_seconds_bucket{le=\"+Inf\"} " ).append( cumulative ).append( '\n' );
+		out.append( "httpserver_request_duration_seconds_sum " ).append( durationNanos.get() / 1e9 ).append( '\n' );
+		out.append( "httpserver_request_duration_seconds_count " ).append( cumulative ).append( '\n' );
+
+		out.append( "# HELP httpserver_requests_in_flight Requests currently being handled.\n" );
+		out.append( "# TYPE httpserver_requests_in_flight gauge\n" );
+		out.append( "httpserver_requests_in_flight " ).append( inFlight.get() ).append( '\n' );
+
+		if ( server != null ) {
+			out.append( "# HELP httpserver_connections_active Client connections currently open.\n" );
+			out.append( "# TYPE httpserver_connections_active gauge\n" );
+			out.append( "httpserver_connections_active " ).append( server.getActiveConnections() ).append( '\n' );
+
+			out.append( "# HELP httpserver_connections_shed_total Connections answered with a 503 because the server was overloaded.\n" );
+			out.append( "# TYPE httpserver_connections_shed_total counter\n" );
+			out.append( "httpserver_connections_shed_total " ).append( server.getShedCount() ).append( '\n' );
+
+			out.append( "# HELP httpserver_captured_requests Requests held by the server since startup or the last reset.\n" );
+			out.append( "# TYPE httpserver_captured_requests gauge\n" );
+			out.append( "httpserver_captured_requests " ).append( server.getRequests().size() ).append( '\n' );
+		}
+
+		return out.toString();
+	}
+
+	static String escape( String value ) {
+		if ( value == null ) return "";
+		return value.replace( "\\", "\\\\" ).replace( "\"", "\\\"" ).replace( "\n", "\\n" );
+	}
+}
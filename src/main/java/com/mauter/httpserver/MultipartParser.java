@@ -0,0 +1,435 @@
+package com.mauter.httpserver;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a multipart/form-data body in one pass.  The stream is searched
+ * for each boundary with the Boyer-Moore-Horspool algorithm, which skips
+ * ahead by up to the length of the boundary at a time instead of
+ * comparing every byte, and only a small buffer of the body is held at
+ * once.  Each part's content is written out as it is found.  Small parts
+ * stay in memory and large ones go to a temporary file, so a handler can
+ * check a file of hundreds of megabytes without holding it.
+ * <pre>
+ * for ( MultipartParser.Part part : MultipartParser.parse( request ) ) {
+ *     try ( InputStream in = part.getInputStream() ) {
+ *         ...
+ *     }
+ *     part.close();
+ * }
+ * </pre>
+ * Close each part when done with it so its file is deleted.
+ */
+public class MultipartParser {
+
+	/**
+	 * The most bytes of headers a part may have.
+	 */
+	static final int MAX_HEADER_SIZE = 16 * 1024;
+
+	InputStream in;
+	byte[] delimiter;
+	int[] skip = new int[ 256 ];
+	byte[] buffer;
+	int pos = 0;
+	int limit = 0;
+	boolean started = false;
+	boolean finished = false;
+	BodySpool spool = new BodySpool( 0, 1024 * 1024, 0 );
+
+	/**
+	 * Reads every part of a multipart request.  The boundary is taken from
+	 * the request's Content-Type.
+	 *
+	 * @param request the HTTPRequest with a multipart body
+	 * @return the parts in the order they were sent
+	 * @throws IOException if the body cannot be read or a part cannot be written
+	 * @throws HTTPException if the request is not multipart or its body is malformed
+	 */
+	public static List<Part> parse( HTTPRequest request ) throws IOException, HTTPException {
+		String boundary = getBoundary( request.getHeader( "Content-Type" ) );
+		if ( boundary == null ) throw new HTTPException( 415, "The request is not multipart." );
+		RequestBody body = request.getRequestBody();
+		if ( body == null ) throw new HTTPException( 400, "The multipart request has no body." );
+
+		try ( InputStream in = body.getInputStream() ) {
+			return new MultipartParser( in, boundary ).parse();
+		}
+	}
+
+	/**
+	 * Gets the boundary parameter of a multipart Content-Type.
+	 *
+	 * @param contentType the Content-Type header
+	 * @return the boundary or null if the content type is not multipart
+	 */
+	static String getBoundary( String contentType ) {
+		if ( contentType == null || !contentType.trim().toLowerCase().startsWith( "multipart/" ) ) return null;
+		return getParameter( contentType, "boundary" );
+	}
+
+	/**
+	 * Creates a parser for a body whose parts are separated by the given
+	 * boundary.
+	 *
+	 * @param in the InputStream positioned at the start of the body
+	 * @param boundary the boundary from the Content-Type
+	 */
+	public MultipartParser( InputStream in, String boundary ) {
+		if ( boundary == null || boundary.isEmpty() ) throw new IllegalArgumentException( "boundary is required" );
+		this.in = in;
+
+		// the CRLF before a boundary belongs to it rather than to the content
+		this.delimiter = ( "\r\n--" + boundary ).getBytes( StandardCharsets.US_ASCII );
+		this.buffer = new byte[ Math.max( 65536, delimiter.length * 2 ) ];
+		for ( int i = 0; i < skip.length; i++ ) skip[i] = delimiter.length;
+		for ( int i = 0; i < delimiter.length - 1; i++ ) skip[ delimiter[i] & 0xff ] = delimiter.length - 1 - i;
+
+		// the first boundary has no CRLF before it, so pretend it does
+		buffer[ limit++ ] = '\r';
+		buffer[ limit++ ] = '\n';
+	}
+
+	/**
+	 * Sets the largest part kept in memory.  Larger parts are written to
+	 * a temporary file.  The default is 1 MB.
+	 *
+	 * @param heapThreshold the largest part kept in memory in bytes
+	 */
+	public void setHeapThreshold( int heapThreshold ) { this.spool.heapThreshold = heapThreshold; }
+
+	/**
+	 * Sets the directory large parts are written to.
+	 *
+	 * @param directory the directory or null for the system's temporary directory
+	 */
+	public void setDirectory( Path directory ) { this.spool.directory = directory; }
+
+	/**
+	 * Reads the rest of the parts.
+	 *
+	 * @return the parts in the order they were sent
+	 * @throws IOException if the body cannot be read or a part cannot be written
+	 * @throws HTTPException if the body is malformed
+	 */
+	public List<Part> parse() throws IOException, HTTPException {
+		List<Part> parts = new ArrayList<>();
+		try {
+			Part part;
+			while ( ( part = next() ) != null ) parts.add( part );
+		}
+		catch ( IOException | HTTPException e ) {
+			for ( Part part : parts ) part.close();
+			throw e;
+		}
+		return parts;
+	}
+
+	/**
+	 * Reads the next part.
+	 *
+	 * @return the next Part or null after the closing boundary
+	 * @throws IOException if the body cannot be read or the part cannot be written
+	 * @throws HTTPException if the body is malformed
+	 */
+	public Part next() throws IOException, HTTPException {
+		if ( finished ) return null;
+		if ( !started ) {
+			// anything before the first boundary is a preamble to ignore
+			readContent( null );
+			started = true;
+		}
+		if ( readBoundaryEnd() ) {
+			finished = true;
+			return null;
+		}
+
+		Part part = new Part();
+		readHeaders( part );
+		BodySpool.SpoolOutputStream content = spool.open( -1 );
+		try {
+			readContent( content );
+			part.body = content.toRequestBody();
+			content = null;
+		}
+		finally {
+			if ( content != null ) content.close();
+		}
+		return part;
+	}
+
+	/**
+	 * Finds the delimiter in the buffer from the current position.
+	 *
+	 * @return the index of the delimiter or -1 if it is not in the buffer
+	 */
+	int find() {
+		int n = delimiter.length;
+		int i = pos;
+		while ( i + n <= limit ) {
+			int j = n - 1;
+			while ( buffer[i + j] == delimiter[j] ) {
+				if ( j == 0 ) return i;
+				j--;
+			}
+			i += skip[ buffer[i + n - 1] & 0xff ];
+		}
+		return -1;
+	}
+
+	/**
+	 * Moves what has not been read to the front of the buffer and reads
+	 * more after it.
+	 *
+	 * @return false if the stream has ended
+	 * @throws IOException if the stream cannot be read
+	 */
+	boolean fill() throws IOException {
+		if ( pos > 0 ) {
+			System.arraycopy( buffer, pos, buffer, 0, limit - pos );
+			limit -= pos;
+			pos = 0;
+		}
+		int count = in.read( buffer, limit, buffer.length - limit );
+		if ( count < 0 ) return false;
+		limit += count;
+		return true;
+	}
+
+	/**
+	 * Makes sure the buffer holds at least the given number of bytes.
+	 */
+	void require( int count ) throws IOException, HTTPException {
+		while ( limit - pos < count ) {
+			if ( !fill() ) throw new HTTPException( 400, "The multipart body ends before its closing boundary." );
+		}
+	}
+
+	/**
+	 * Copies content up to the next delimiter and skips the delimiter.
+	 *
+	 * @param out where to write the content or null to throw it away
+	 */
+	void readContent( BodySpool.SpoolOutputStream out ) throws IOException, HTTPException {
+		while ( true ) {
+			int found = find();
+			int end = found >= 0 ? found : limit - delimiter.length + 1;
+			if ( end > pos ) {
+				if ( out != null ) out.write( buffer, pos, end - pos );
+				pos = end;
+			}
+			if ( found >= 0 ) {
+				pos += delimiter.length;
+				return;
+			}
+			if ( !fill() ) throw new HTTPException( 400, "The multipart body ends before its closing boundary." );
+		}
+	}
+
+	/**
+	 * Reads what follows a boundary, either the "--" that closes the body
+	 * or the line break before the next part's headers.
+	 *
+	 * @return true if this was the closing boundary
+	 */
+	boolean readBoundaryEnd() throws IOException, HTTPException {
+		require( 2 );
+		if ( buffer[pos] == '-' && buffer[pos + 1] == '-' ) return true;
+
+		// senders may pad the boundary line with spaces
+		while ( true ) {
+			require( 2 );
+			if ( buffer[pos] == '\r' && buffer[pos + 1] == '\n' ) {
+				pos += 2;
+				return false;
+			}
+			if ( buffer[pos] != ' ' && buffer[pos] != '\t' ) throw new HTTPException( 400, "Invalid multipart boundary." );
+			pos++;
+		}
+	}
+
+	/**
+	 * Reads a part's header lines up to the empty line after them.
+	 */
+	void readHeaders( Part part ) throws IOException, HTTPException {
+		int size = 0;
+		String header = null;
+		while ( true ) {
+			int end = pos;
+			while ( true ) {
+				if ( end + 1 >= limit ) {
+					int scanned = end - pos;
+					if ( size + scanned > MAX_HEADER_SIZE ) throw new HTTPException( 400, "The headers of a multipart part are too large." );
+					require( scanned + 2 );
+					end = pos + scanned;
+				}
+				if ( buffer[end] == '\r' && buffer[end + 1] == '\n' ) break;
+				end++;
+			}
+
+			String line = new String( buffer, pos, end - pos, StandardCharsets.UTF_8 );
+			size += end - pos + 2;
+			pos = end + 2;
+			if ( line.isEmpty() ) return;
+
+			int colon = line.indexOf( ':' );
+			if ( colon < 0 ) {
+				if ( header == null || ( line.charAt( 0 ) != ' ' && line.charAt( 0 ) != '\t' ) ) throw new HTTPException( 400, "Invalid multipart header." );
+				part.headers.put( header, part.headers.get( header ) + " " + line.trim() );
+			}
+			else {
+				header = line.substring( 0, colon ).trim().toLowerCase();
+				part.headers.put( header, line.substring( colon + 1 ).trim() );
+			}
+		}
+	}
+
+	/**
+	 * Gets a parameter of a header value such as the name in
+	 * <code>form-data; name="file"</code>.  Quoted values may contain
+	 * escaped characters.
+	 *
+	 * @param value the header value
+	 * @param name the name of the parameter
+	 * @return the parameter value or null if it is not there
+	 */
+	static String getParameter( String value, String name ) {
+		if ( value == null ) return null;
+		int i = value.indexOf( ';' );
+		while ( i >= 0 && i < value.length() ) {
+			i++;
+			int equals = value.indexOf( '=', i );
+			if ( equals < 0 ) return null;
+			String key = value.substring( i, equals ).trim();
+
+			StringBuilder parameter = new StringBuilder();
+			i = equals + 1;
+			while ( i < value.length() && value.charAt( i ) == ' ' ) i++;
+			if ( i < value.length() && value.charAt( i ) == '"' ) {
+				for ( i++; i < value.length() && value.charAt( i ) != '"'; i++ ) {
+					if ( value.charAt( i ) == '\\' && i + 1 < value.length() ) i++;
+					parameter.append( value.charAt( i ) );
+				}
+				i = value.indexOf( ';', i );
+			}
+			else {
+				int end = value.indexOf( ';', i );
+				parameter.append( value.substring( i, end < 0 ? value.length() : end ).trim() );
+				i = end;
+			}
+			if ( key.equalsIgnoreCase( name ) ) return parameter.toString();
+		}
+		return null;
+	}
+
+	/**
+	 * One part of a multipart body: its headers and its content.
+	 */
+	public static class Part implements Closeable {
+		Map<String, String> headers = new HashMap<>();
+		RequestBody body;
+
+		/**
+		 * Gets a header of this part.
+		 *
+		 * @param header the name of the header
+		 * @return the header value or null if it was not sent
+		 */
+		public String getHeader( String header ) {
+			return this.headers.get( header.toLowerCase() );
+		}
+
+		/**
+		 * Gets the headers of this part as an unmodifiable Map with lower
+		 * case names.
+		 *
+		 * @return the Map of headers
+		 */
+		public Map<String, String> getHeaders() {
+			return Collections.unmodifiableMap( this.headers );
+		}
+
+		/**
+		 * Gets the name of the form field from the Content-Disposition.
+		 *
+		 * @return the field name or null
+		 */
+		public String getName() {
+			return getParameter( getHeader( "Content-Disposition" ), "name" );
+		}
+
+		/**
+		 * Gets the name of the uploaded file from the Content-Disposition.
+		 *
+		 * @return the file name or null if this part is not a file
+		 */
+		public String getFilename() {
+			return getParameter( getHeader( "Content-Disposition" ), "filename" );
+		}
+
+		/**
+		 * Gets the Content-Type of this part.
+		 *
+		 * @return the content type or null if it was not sent
+		 */
+		public String getContentType() {
+			return getHeader( "Content-Type" );
+		}
+
+		/**
+		 * Gets the size of the content.
+		 *
+		 * @return the number of bytes of content
+		 */
+		public long getSize() {
+			return this.body.getSize();
+		}
+
+		/**
+		 * Gets the content, kept in memory or in a temporary file
+		 * depending on its size.
+		 *
+		 * @return the RequestBody holding the content
+		 */
+		public RequestBody getBody() {
+			return this.body;
+		}
+
+		/**
+		 * Opens a stream that reads the content from the beginning.
+		 *
+		 * @return a new InputStream
+		 * @throws IOException if the content cannot be read
+		 */
+		public InputStream getInputStream() throws IOException {
+			return this.body.getInputStream();
+		}
+
+		/**
+		 * Gets the content as a String.
+		 *
+		 * @return the content decoded as UTF-8
+		 * @throws IOException if the content cannot be read
+		 */
+		public String getBodyAsString() throws IOException {
+			return new String( this.body.getBytes(), StandardCharsets.UTF_8 );
+		}
+
+		/**
+		 * Deletes the temporary file holding the content, if there is one.
+		 */
+		@Override
+		public void close() {
+			this.body.close();
+		}
+	}
+}
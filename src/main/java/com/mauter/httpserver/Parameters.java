@@ -0,0 +1,193 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The parameters of a query string or an application/x-www-form-urlencoded
+ * body, read straight from the characters of the path or the bytes of the
+ * body.  The pairs are split the first time a parameter is asked for, by
+ * noting where each key and value start and end, and a value is only
+ * URL-decoded when it is asked for.  A key may be repeated.
+ */
+class Parameters {
+
+	String string;
+	byte[] bytes;
+	int start;
+	int end;
+
+	// each pair has three entries: where its key starts, where its key ends and where its value ends
+	int[] index;
+	int count;
+
+	/**
+	 * Creates the parameters in part of a String, such as the query
+	 * string after the '?' of a path.
+	 *
+	 * @param string the String holding the parameters
+	 * @param start the index of the first character of the parameters
+	 * @param end the index after the last character of the parameters
+	 */
+	Parameters( String string, int start, int end ) {
+		this.string = string;
+		this.start = start;
+		this.end = end;
+	}
+
+	/**
+	 * Creates the parameters in a form body.
+	 *
+	 * @param bytes the body
+	 */
+	Parameters( byte[] bytes ) {
+		this.bytes = bytes;
+		this.start = 0;
+		this.end = bytes.length;
+	}
+
+	char charAt( int i ) {
+		return string != null ? string.charAt( i ) : (char)( bytes[i] & 0xff );
+	}
+
+	/**
+	 * Splits the pairs on '&amp;' and each pair on its first '=' without
+	 * decoding anything.
+	 */
+	void split() {
+		if ( index != null ) return;
+		int[] pairs = new int[ 24 ];
+		int pairCount = 0;
+		int pairStart = start;
+		while ( pairStart < end ) {
+			int keyEnd = -1, pairEnd = pairStart;
+			while ( pairEnd < end ) {
+				char c = charAt( pairEnd );
+				if ( c == '&' ) break;
+				if ( c == '=' && keyEnd < 0 ) keyEnd = pairEnd;
+				pairEnd++;
+			}
+
+			// an empty pair, as in a&&b, is skipped
+			if ( pairEnd > pairStart ) {
+				if ( pairCount * 3 == pairs.length ) pairs = Arrays.copyOf( pairs, pairs.length * 2 );
+				pairs[pairCount * 3] = pairStart;
+				pairs[pairCount * 3 + 1] = keyEnd < 0 ? pairEnd : keyEnd;
+				pairs[pairCount * 3 + 2] = pairEnd;
+				pairCount++;
+			}
+			pairStart = pairEnd + 1;
+		}
+		this.count = pairCount;
+		this.index = pairs;
+	}
+
+	/**
+	 * Gets the first value of a parameter.
+	 *
+	 * @param name the name of the parameter
+	 * @return the decoded value, an empty String if the parameter has no
+	 * '=', or null if it is not there
+	 */
+	String get( String name ) {
+		split();
+		for ( int i = 0; i < count * 3; i += 3 ) {
+			if ( keyEquals( index[i], index[i + 1], name ) ) return value( i );
+		}
+		return null;
+	}
+
+	/**
+	 * Gets every value of a parameter in the order they appear.
+	 *
+	 * @param name the name of the parameter
+	 * @return the decoded values, empty if the parameter is not there
+	 */
+	List<String> getAll( String name ) {
+		split();
+		List<String> values = null;
+		for ( int i = 0; i < count * 3; i += 3 ) {
+			if ( !keyEquals( index[i], index[i + 1], name ) ) continue;
+			if ( values == null ) values = new ArrayList<>( 2 );
+			values.add( value( i ) );
+		}
+		return values == null ? Collections.<String>emptyList() : Collections.unmodifiableList( values );
+	}
+
+	/**
+	 * Gets the decoded names of the parameters in the order they first
+	 * appear.
+	 *
+	 * @return the parameter names
+	 */
+	Set<String> names() {
+		split();
+		Set<String> names = new LinkedHashSet<>();
+		for ( int i = 0; i < count * 3; i += 3 ) names.add( decode( index[i], index[i + 1] ) );
+		return Collections.unmodifiableSet( names );
+	}
+
+	String value( int pair ) {
+		int keyEnd = index[pair + 1], pairEnd = index[pair + 2];
+		return keyEnd == pairEnd ? "" : decode( keyEnd + 1, pairEnd );
+	}
+
+	/**
+	 * Compares an encoded key to a name.  A key without escapes is
+	 * compared character by character, and only one with escapes is
+	 * decoded first.
+	 */
+	boolean keyEquals( int keyStart, int keyEnd, String name ) {
+		int length = keyEnd - keyStart;
+		boolean same = length == name.length();
+		for ( int i = 0; i < length; i++ ) {
+			char c = charAt( keyStart + i );
+			if ( c == '%' || c == '+' || c >= 0x80 ) return decode( keyStart, keyEnd ).equals( name );
+			if ( same && c != name.charAt( i ) ) same = false;
+		}
+		return same;
+	}
+
+	/**
+	 * URL-decodes part of the parameters.  '+' is a space and each %XX is
+	 * a byte of UTF-8.  A '%' that is not followed by two hex digits is
+	 * kept as it is.
+	 */
+	String decode( int from, int to ) {
+		boolean plain = true;
+		for ( int i = from; i < to && plain; i++ ) {
+			char c = charAt( i );
+			plain = c != '%' && c != '+' && c < 0x80;
+		}
+		if ( plain ) return string != null ? string.substring( from, to ) : new String( bytes, from, to - from, StandardCharsets.US_ASCII );
+
+		StringBuilder decoded = new StringBuilder( to - from );
+		ByteArrayOutputStream pending = new ByteArrayOutputStream();
+		for ( int i = from; i < to; i++ ) {
+			char c = charAt( i );
+			int hi, lo;
+			if ( c == '%' && i + 2 < to && ( hi = Character.digit( charAt( i + 1 ), 16 ) ) >= 0 && ( lo = Character.digit( charAt( i + 2 ), 16 ) ) >= 0 ) {
+				pending.write( hi << 4 | lo );
+				i += 2;
+				continue;
+			}
+			if ( bytes != null && c >= 0x80 ) {
+				pending.write( c );
+				continue;
+			}
+			if ( pending.size() > 0 ) {
+				decoded.append( new String( pending.toByteArray(), StandardCharsets.UTF_8 ) );
+				pending.reset();
+			}
+			decoded.append( c == '+' ? ' ' : c );
+		}
+		if ( pending.size() > 0 ) decoded.append( new String( pending.toByteArray(), StandardCharsets.UTF_8 ) );
+		return decoded.toString();
+	}
+}
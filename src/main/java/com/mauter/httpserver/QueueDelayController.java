@@ -0,0 +1,57 @@
+package com.mauter.httpserver;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decides when to shed load based on how long connections wait in the
+ * queue before a worker picks them up, in the style of the CoDel queue
+ * management algorithm.  A short burst that pushes the queueing delay
+ * above the target is tolerated.  Only when the delay stays above the
+ * target for a whole interval does the controller start shedding, and
+ * it stops as soon as a connection gets through under the target.
+ */
+class QueueDelayController {
+
+	static final long DEFAULT_INTERVAL = TimeUnit.MILLISECONDS.toNanos( 100 );
+
+	long targetNanos;
+	long intervalNanos;
+	volatile boolean above = false;
+	volatile long shedAfter;
+
+	/**
+	 * Creates a controller.
+	 * 
+	 * @param targetNanos the acceptable queueing delay or 0 to never shed
+	 * @param intervalNanos how long the delay must stay above the target before shedding
+	 */
+	QueueDelayController( long targetNanos, long intervalNanos ) {
+		this.targetNanos = targetNanos;
+		this.intervalNanos = intervalNanos;
+	}
+
+	/**
+	 * Records the queueing delay of a connection and decides whether
+	 * it should be shed.
+	 * 
+	 * @param delayNanos how long the connection waited for a worker
+	 * @param now the current value of {@link System#nanoTime()}
+	 * @return true if the connection should be answered with a 503
+	 */
+	boolean shouldShed( long delayNanos, long now ) {
+		if ( targetNanos <= 0 ) return false;
+
+		if ( delayNanos < targetNanos ) {
+			above = false;
+			return false;
+		}
+
+		if ( !above ) {
+			shedAfter = now + intervalNanos;
+			above = true;
+			return false;
+		}
+
+		return now - shedAfter >= 0;
+	}
+}
@@ -0,0 +1,154 @@
+package com.mauter.httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Wraps another {@link HTTPRequestHandler} and limits how many requests
+ * each client may make.  Every client gets a {@link TokenBucket} that
+ * refills at the given rate and holds up to the given burst.  A request
+ * that finds its client's bucket empty is answered with a 429 Too Many
+ * Requests and a Retry-After header saying how many seconds until the
+ * next token, without calling the handler.
+ * <p>
+ * Clients are told apart by an {@link HTTPRequestKey}, their IP address
+ * by default.  Use {@link HTTPRequestKey#header(String)} to limit by API
+ * key instead.  Requests without a key are not limited.
+ * <p>
+ * The buckets are spread over a number of stripes, each with its own
+ * lock, so requests from different clients rarely wait on each other.
+ * The 429 responses are built and serialized once up front, so turning a
+ * client away costs a hash lookup and a copy.  Each stripe keeps at most
+ * 1024 buckets and drops the least recently used one to make room, which
+ * has most likely filled back up and is then no different from a new one.
+ */
+public class RateLimitingHandler implements HTTPRequestHandler {
+
+	static final int STRIPES = 64;
+	static final int MAX_KEYS_PER_STRIPE = 1024;
+	static final int MAX_RETRY_AFTER = 3600;
+
+	HTTPRequestHandler handler;
+	HTTPRequestKey key;
+	double requestsPerSecond;
+	int burst;
+	Stripe[] stripes = new Stripe[ STRIPES ];
+	HTTPResponse[] tooManyRequests;
+	LongAdder limited = new LongAdder();
+
+	/**
+	 * Creates a rate limiting handler that tells clients apart by IP address.
+	 *
+	 * @param handler the HTTPRequestHandler that generates the responses
+	 * @param requestsPerSecond how many requests per second each client may make
+	 * @param burst how many requests a client may make at once after sitting idle
+	 */
+	public RateLimitingHandler( HTTPRequestHandler handler, double requestsPerSecond, int burst ) {
+		this( handler, requestsPerSecond, burst, HTTPRequestKey.REMOTE_ADDRESS );
+	}
+
+	/**
+	 * Creates a rate limiting handler.
+	 *
+	 * @param handler the HTTPRequestHandler that generates the responses
+	 * @param requestsPerSecond how many requests per second each client may make
+	 * @param burst how many requests a client may make at once after sitting idle
+	 * @param key the HTTPRequestKey that tells clients apart
+	 */
+	public RateLimitingHandler( HTTPRequestHandler handler, double requestsPerSecond, int burst, HTTPRequestKey key ) {
+		if ( requestsPerSecond <= 0 ) throw new IllegalArgumentException( "requestsPerSecond must be positive" );
+		if ( burst < 1 ) throw new IllegalArgumentException( "burst must be at least 1" );
+		this.handler = handler;
+		this.requestsPerSecond = requestsPerSecond;
+		this.burst = burst;
+		this.key = key;
+		for ( int i = 0; i < stripes.length; i++ ) stripes[i] = new Stripe();
+
+		// a client never waits longer than one token takes to drip in
+		int longest = (int)Math.min( MAX_RETRY_AFTER, Math.ceil( 1 / requestsPerSecond ) );
+		this.tooManyRequests = new HTTPResponse[ longest + 1 ];
+		for ( int seconds = 1; seconds <= longest; seconds++ ) tooManyRequests[seconds] = buildTooManyRequests( seconds );
+	}
+
+	/**
+	 * Builds a 429 response with its head already serialized.
+	 *
+	 * @param retryAfter the Retry-After value in seconds
+	 * @return the HTTPResponse
+	 */
+	static HTTPResponse buildTooManyRequests( int retryAfter ) {
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( 429 );
+		response.setHeader( "Retry-After", String.valueOf( retryAfter ) );
+		response.setHeader( "Content-Type", "text/plain" );
+		response.setBody( "Too Many Requests".getBytes( StandardCharsets.UTF_8 ) );
+		response.head = HTTPServer.serializeHead( response );
+		return response;
+	}
+
+	/**
+	 * Gets the number of requests turned away with a 429.
+	 *
+	 * @return the number of limited requests
+	 */
+	public long getLimitedCount() { return this.limited.sum(); }
+
+	@Override
+	public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+		String k = key.getKey( request );
+		if ( k != null ) {
+			long wait = stripes[ stripe( k.hashCode() ) ].tryTake( k, System.nanoTime() );
+			if ( wait > 0 ) {
+				limited.increment();
+				long seconds = Math.max( 1, ( wait + TimeUnit.SECONDS.toNanos( 1 ) - 1 ) / TimeUnit.SECONDS.toNanos( 1 ) );
+				response.copy( tooManyRequests[ (int)Math.min( seconds, tooManyRequests.length - 1 ) ] );
+				return;
+			}
+		}
+		handler.handleRequest( request, response );
+	}
+
+	/**
+	 * Picks the stripe for a key, mixing in the high bits of the hash.
+	 *
+	 * @param hash the hash code of the key
+	 * @return the index of the stripe
+	 */
+	static int stripe( int hash ) {
+		return ( hash ^ ( hash >>> 16 ) ) & ( STRIPES - 1 );
+	}
+
+	/**
+	 * The buckets of the clients whose keys hash to one stripe.
+	 */
+	class Stripe {
+		Map<String, TokenBucket> buckets = new LinkedHashMap<String, TokenBucket>( 16, 0.75f, true ) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( Map.Entry<String, TokenBucket> eldest ) {
+				return size() > MAX_KEYS_PER_STRIPE;
+			}
+		};
+
+		/**
+		 * Takes a token from the client's bucket.
+		 *
+		 * @param k the client's key
+		 * @param now the current System.nanoTime()
+		 * @return 0 if the request may go ahead, otherwise how many
+		 * nanoseconds until it could
+		 */
+		synchronized long tryTake( String k, long now ) {
+			TokenBucket bucket = buckets.get( k );
+			if ( bucket == null ) {
+				bucket = new TokenBucket( requestsPerSecond, burst );
+				buckets.put( k, bucket );
+			}
+			return bucket.tryTake( 1, now );
+		}
+	}
+}
@@ -0,0 +1,194 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The body of a request wherever the server decided to keep it: in a
+ * byte array, in a direct buffer off the heap or in a temporary file.
+ * However it is kept, it can be read as a stream or a ByteBuffer, and a
+ * body in a file can also be opened by its Path.
+ * <p>
+ * Bodies kept off the heap are released when the server is reset or
+ * closed.  After that, or after {@link #close()}, the body can no longer be
+ * read.
+ */
+public class RequestBody implements Closeable {
+
+	byte[] bytes;
+	ByteBuffer buffer;
+	BodySpool spool;
+	Path path;
+	long size;
+	volatile boolean closed = false;
+	boolean exposed = false;
+
+	/**
+	 * Wraps a body held in a byte array.
+	 *
+	 * @param bytes the body
+	 */
+	RequestBody( byte[] bytes ) {
+		this.bytes = bytes;
+		this.size = bytes.length;
+	}
+
+	/**
+	 * Wraps a body held in a direct buffer from a spool's pool.
+	 *
+	 * @param buffer the buffer, flipped so the body is between its position and limit
+	 * @param spool the BodySpool to return the buffer to
+	 */
+	RequestBody( ByteBuffer buffer, BodySpool spool ) {
+		this.buffer = buffer;
+		this.spool = spool;
+		this.size = buffer.remaining();
+	}
+
+	/**
+	 * Wraps a body written to a temporary file.
+	 *
+	 * @param path the file
+	 * @param size the size of the file
+	 */
+	RequestBody( Path path, long size ) {
+		this.path = path;
+		this.size = size;
+	}
+
+	/**
+	 * Gets the size of the body.
+	 *
+	 * @return the number of bytes in the body
+	 */
+	public long getSize() { return this.size; }
+
+	/**
+	 * Checks whether the body is kept on the heap.
+	 *
+	 * @return true if the body is in a byte array
+	 */
+	public boolean isOnHeap() { return this.bytes != null; }
+
+	/**
+	 * Checks whether the body is kept in a direct buffer.
+	 *
+	 * @return true if the body is off the heap in memory
+	 */
+	public boolean isDirect() { return this.buffer != null; }
+
+	/**
+	 * Gets the temporary file the body was written to.
+	 *
+	 * @return the Path of the file or null if the body is in memory
+	 */
+	public Path getPath() { return this.path; }
+
+	/**
+	 * Opens a stream that reads the body from the beginning.
+	 *
+	 * @return a new InputStream
+	 * @throws IOException if the body has been released or the file cannot be opened
+	 */
+	public InputStream getInputStream() throws IOException {
+		checkOpen();
+		if ( bytes != null ) return new ByteArrayInputStream( bytes );
+		if ( path != null ) return Files.newInputStream( path );
+
+		final ByteBuffer source = buffer.duplicate();
+		return new InputStream() {
+			@Override public int read() throws IOException {
+				checkOpen();
+				return source.hasRemaining() ? source.get() & 0xff : -1;
+			}
+
+			@Override public int read( byte[] b, int off, int len ) throws IOException {
+				checkOpen();
+				if ( len == 0 ) return 0;
+				if ( !source.hasRemaining() ) return -1;
+				int count = Math.min( len, source.remaining() );
+				source.get( b, off, count );
+				return count;
+			}
+
+			@Override public int available() {
+				return source.remaining();
+			}
+		};
+	}
+
+	/**
+	 * Gets the body as a read-only ByteBuffer.  A body in a file is mapped
+	 * into memory rather than read.  A body in a direct buffer is returned
+	 * without copying, and that buffer is then left for the garbage
+	 * collector rather than pooled, so the view stays valid after the body
+	 * is released.
+	 *
+	 * @return a ByteBuffer positioned at the start of the body
+	 * @throws IOException if the body has been released or the file cannot be mapped
+	 */
+	public ByteBuffer getByteBuffer() throws IOException {
+		checkOpen();
+		if ( bytes != null ) return ByteBuffer.wrap( bytes ).asReadOnlyBuffer();
+		if ( buffer != null ) {
+			synchronized ( this ) {
+				checkOpen();
+				exposed = true;
+				return buffer.asReadOnlyBuffer();
+			}
+		}
+		if ( size > Integer.MAX_VALUE ) throw new IOException( "A body of " + size + " bytes is too large to map." );
+		try ( FileChannel channel = FileChannel.open( path, StandardOpenOption.READ ) ) {
+			return channel.map( FileChannel.MapMode.READ_ONLY, 0, size );
+		}
+	}
+
+	/**
+	 * Gets the body as a byte array.  A body kept on the heap is returned
+	 * as it is, and any other is copied into a new array each time.
+	 *
+	 * @return the body
+	 * @throws IOException if the body has been released, does not fit in an array or cannot be read
+	 */
+	public byte[] getBytes() throws IOException {
+		checkOpen();
+		if ( bytes != null ) return bytes;
+		if ( size > Integer.MAX_VALUE - 8 ) throw new IOException( "A body of " + size + " bytes does not fit in an array." );
+		if ( path != null ) return Files.readAllBytes( path );
+
+		byte[] copy = new byte[ (int)size ];
+		buffer.duplicate().get( copy );
+		return copy;
+	}
+
+	void checkOpen() throws IOException {
+		if ( closed ) throw new IOException( "The request body has been released." );
+	}
+
+	/**
+	 * Releases the body.  A direct buffer goes back to the pool, unless it
+	 * was handed out by {@link #getByteBuffer()}, and a temporary file is
+	 * deleted.  A body on the heap is left alone.
+	 */
+	@Override
+	public synchronized void close() {
+		if ( bytes != null || closed ) return;
+		closed = true;
+		if ( buffer != null && !exposed ) spool.release( buffer );
+		if ( path != null ) {
+			try {
+				Files.deleteIfExists( path );
+			}
+			catch ( IOException ioe ) {
+				// it is only a temporary file
+			}
+		}
+	}
+}
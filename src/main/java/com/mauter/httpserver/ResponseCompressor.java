@@ -0,0 +1,332 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Compresses response bodies with gzip or deflate when the client says it
+ * accepts them.  Pass one to {@link HTTPServer#setResponseCompressor(ResponseCompressor)}
+ * and the server negotiates an encoding from the Accept-Encoding header of
+ * every request.  Only the bytes sent to the client are compressed.  The
+ * captured {@link HTTPResponse} still holds the body the handler produced.
+ * <p>
+ * A body is compressed when it is at least {@link #getMinimumSize()} bytes,
+ * its Content-Type starts with one of {@link #getContentTypes()} and it
+ * has no Content-Encoding already.  Compressed bodies are kept in a small
+ * least recently used cache so that a body that is sent over and over is
+ * only compressed once.  Bodies larger than {@link #getMaximumCachedSize()}
+ * are not cached; they are compressed straight onto the socket without
+ * being buffered and the end of the connection marks the end of the body.
+ */
+public class ResponseCompressor {
+
+	static final String GZIP = "gzip";
+	static final String DEFLATE = "deflate";
+
+	int minimumSize = 1024;
+	int maximumCachedSize = 1024 * 1024;
+	int level = Deflater.DEFAULT_COMPRESSION;
+	String[] contentTypes = { "text/", "application/json", "application/javascript", "application/xml", "image/svg+xml" };
+
+	Map<CacheKey, byte[]> cache;
+	AtomicLong compressions = new AtomicLong();
+	AtomicLong cacheHits = new AtomicLong();
+
+	/**
+	 * Creates a compressor that caches up to 64 compressed bodies.
+	 */
+	public ResponseCompressor() {
+		this( 64 );
+	}
+
+	/**
+	 * Creates a compressor.
+	 *
+	 * @param cacheEntries the maximum number of compressed bodies to cache
+	 */
+	public ResponseCompressor( final int cacheEntries ) {
+		this.cache = new LinkedHashMap<CacheKey, byte[]>( 16, 0.75f, true ) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry( Map.Entry<CacheKey, byte[]> eldest ) {
+				return size() > cacheEntries;
+			}
+		};
+	}
+
+	/**
+	 * Gets the smallest body that is compressed.  The default is 1024 bytes.
+	 *
+	 * @return the minimum size in bytes
+	 */
+	public int getMinimumSize() { return this.minimumSize; }
+
+	/**
+	 * Sets the smallest body that is compressed.
+	 *
+	 * @param minimumSize the minimum size in bytes
+	 */
+	public void setMinimumSize( int minimumSize ) { this.minimumSize = minimumSize; }
+
+	/**
+	 * Gets the largest body whose compressed form is cached.  The default is 1 MB.
+	 *
+	 * @return the maximum cached size in bytes
+	 */
+	public int getMaximumCachedSize() { return this.maximumCachedSize; }
+
+	/**
+	 * Sets the largest body whose compressed form is cached.  Larger bodies
+	 * are streamed through the compressor without a Content-length.
+	 *
+	 * @param maximumCachedSize the maximum cached size in bytes
+	 */
+	public void setMaximumCachedSize( int maximumCachedSize ) { this.maximumCachedSize = maximumCachedSize; }
+
+	/**
+	 * Gets the compression level.
+	 *
+	 * @return the compression level
+	 */
+	public int getLevel() { return this.level; }
+
+	/**
+	 * Sets the compression level from 0 to 9 or {@link Deflater#DEFAULT_COMPRESSION}.
+	 *
+	 * @param level the compression level
+	 */
+	public void setLevel( int level ) { this.level = level; }
+
+	/**
+	 * Gets the Content-Type prefixes that are compressed.
+	 *
+	 * @return the Content-Type prefixes
+	 */
+	public String[] getContentTypes() { return this.contentTypes.clone(); }
+
+	/**
+	 * Sets the Content-Type prefixes that are compressed, for example
+	 * "text/" or "application/json".  Matching ignores case.
+	 *
+	 * @param contentTypes the Content-Type prefixes
+	 */
+	public void setContentTypes( String... contentTypes ) { this.contentTypes = contentTypes.clone(); }
+
+	/**
+	 * Gets the number of times a body was actually compressed.
+	 *
+	 * @return the number of compressions
+	 */
+	public long getCompressions() { return this.compressions.get(); }
+
+	/**
+	 * Gets the number of times a compressed body was found in the cache.
+	 *
+	 * @return the number of cache hits
+	 */
+	public long getCacheHits() { return this.cacheHits.get(); }
+
+	/**
+	 * Picks the encoding to use for the given Accept-Encoding header.
+	 * Encodings with a higher quality value win and gzip wins ties.
+	 *
+	 * @param acceptEncoding the value of the Accept-Encoding request header
+	 * @return "gzip", "deflate" or null if neither is acceptable
+	 */
+	String negotiate( String acceptEncoding ) {
+		if ( acceptEncoding == null ) return null;
+
+		float gzip = -1, deflate = -1, any = -1;
+		for ( String coding : acceptEncoding.split( "," ) ) {
+			String name = coding;
+			float q = 1;
+
+			int semicolon = coding.indexOf( ';' );
+			if ( semicolon >= 0 ) {
+				name = coding.substring( 0, semicolon );
+				String parameter = coding.substring( semicolon + 1 ).trim();
+				if ( parameter.startsWith( "q=" ) ) {
+					try {
+						q = Float.parseFloat( parameter.substring( 2 ).trim() );
+					}
+					catch ( NumberFormatException nfe ) {
+						q = 0;
+					}
+				}
+			}
+
+			name = name.trim().toLowerCase();
+			if ( GZIP.equals( name ) || "x-gzip".equals( name ) ) gzip = q;
+			else if ( DEFLATE.equals( name ) ) deflate = q;
+			else if ( "*".equals( name ) ) any = q;
+		}
+
+		if ( gzip < 0 ) gzip = any;
+		if ( deflate < 0 ) deflate = any;
+		if ( gzip <= 0 && deflate <= 0 ) return null;
+		return gzip >= deflate ? GZIP : DEFLATE;
+	}
+
+	/**
+	 * Decides whether the response body should be compressed.
+	 *
+	 * @param response the HTTPResponse to check
+	 * @return true if the body should be compressed
+	 */
+	boolean isCompressible( HTTPResponse response ) {
+		byte[] body = response.getBody();
+		if ( body == null || body.length < minimumSize ) return false;
+		if ( response.getHeader( "Content-Encoding" ) != null ) return false;
+
+		String contentType = response.getHeader( "Content-Type" );
+		if ( contentType == null ) return false;
+		contentType = contentType.toLowerCase();
+		for ( String type : contentTypes ) {
+			if ( contentType.startsWith( type.toLowerCase() ) ) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Writes the response with its body compressed using the given encoding.
+	 *
+	 * @param os the OutputStream to write to
+	 * @param response the HTTPResponse to write
+	 * @param encoding "gzip" or "deflate"
+	 * @throws IOException if an I/O error occurs
+	 */
+	void write( OutputStream os, HTTPResponse response, String encoding ) throws IOException {
+		write( os, response, encoding, null );
+	}
+
+	/**
+	 * Writes the response with its body compressed using the given encoding,
+	 * keeping the connection open if the body's length is known up front.
+	 *
+	 * @param os the OutputStream to write to
+	 * @param response the HTTPResponse to write
+	 * @param encoding "gzip" or "deflate"
+	 * @param keepAlive the Connection and Keep-Alive header lines or null
+	 * @return true if the connection can stay open
+	 * @throws IOException if an I/O error occurs
+	 */
+	boolean write( OutputStream os, HTTPResponse response, String encoding, byte[] keepAlive ) throws IOException {
+		HTTPResponse wire = new HTTPResponse();
+		wire.copy( response );
+		wire.setHeader( "Content-Encoding", encoding );
+		String vary = response.getHeader( "Vary" );
+		wire.setHeader( "Vary", vary == null ? "Accept-Encoding" : vary + ", Accept-Encoding" );
+
+		byte[] body = response.getBody();
+		if ( body.length <= maximumCachedSize ) {
+			wire.setBody( compress( body, encoding ) );
+			HTTPServer.write( os, wire, keepAlive );
+			return keepAlive != null;
+		}
+
+		// too big to keep around, so compress it on the way out
+		wire.headers.remove( "content-length" );
+		wire.body = null;
+		HTTPServer.write( os, wire );
+		os.write( HTTPServer.CRLF );
+
+		OutputStream compressor = open( new FilterOutputStream( os ) {
+			@Override public void write( byte[] b, int off, int len ) throws IOException {
+				out.write( b, off, len );
+			}
+			@Override public void close() throws IOException {
+				flush();
+			}
+		}, encoding );
+		compressor.write( body );
+		compressor.close();
+		compressions.incrementAndGet();
+		os.flush();
+		return false;
+	}
+
+	/**
+	 * Compresses the body or finds it in the cache.
+	 *
+	 * @param body the bytes to compress
+	 * @param encoding "gzip" or "deflate"
+	 * @return the compressed bytes
+	 * @throws IOException if an I/O error occurs
+	 */
+	byte[] compress( byte[] body, String encoding ) throws IOException {
+		CacheKey key = new CacheKey( encoding, body );
+		byte[] compressed;
+		synchronized ( cache ) {
+			compressed = cache.get( key );
+		}
+		if ( compressed != null ) {
+			cacheHits.incrementAndGet();
+			return compressed;
+		}
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream( Math.max( 64, body.length / 4 ) );
+		try ( OutputStream compressor = open( baos, encoding ) ) {
+			compressor.write( body );
+		}
+		compressed = baos.toByteArray();
+		compressions.incrementAndGet();
+
+		synchronized ( cache ) {
+			cache.put( key, compressed );
+		}
+		return compressed;
+	}
+
+	OutputStream open( OutputStream os, String encoding ) throws IOException {
+		if ( GZIP.equals( encoding ) ) {
+			return new GZIPOutputStream( os, 8192 ) {
+				{ def.setLevel( level ); }
+			};
+		}
+		return new DeflaterOutputStream( os, new Deflater( level ), 8192 ) {
+			@Override public void close() throws IOException {
+				super.close();
+				def.end();
+			}
+		};
+	}
+
+	/**
+	 * Identifies a body by its contents so equal bodies in different
+	 * arrays share a cache entry.  The hash is computed once per lookup.
+	 */
+	static class CacheKey {
+		String encoding;
+		byte[] body;
+		int hash;
+
+		CacheKey( String encoding, byte[] body ) {
+			this.encoding = encoding;
+			this.body = body;
+			this.hash = 31 * encoding.hashCode() + Arrays.hashCode( body );
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals( Object o ) {
+			if ( !( o instanceof CacheKey ) ) return false;
+			CacheKey other = (CacheKey)o;
+			return hash == other.hash && encoding.equals( other.encoding )
+					&& ( body == other.body || Arrays.equals( body, other.body ) );
+		}
+	}
+}
@@ -0,0 +1,143 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.KeyStore;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.ECGenParameterSpec;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Makes a throwaway certificate for localhost so HTTPS can be tested
+ * without a key store.  Java has no public API for building certificates,
+ * so the few DER structures an X.509 certificate needs are written by
+ * hand.  The key is an EC P-256 key because it is generated in a few
+ * milliseconds, where an RSA key can take most of a second.
+ */
+class SelfSignedCertificate {
+
+	static final String ALIAS = "localhost";
+
+	/**
+	 * How long a certificate is good for.  A stub server can be left up
+	 * for as long as it is needed without its handshakes starting to fail,
+	 * and this is the longest validity Apple's TLS clients accept.
+	 */
+	static final long VALIDITY_DAYS = 825;
+
+	static final byte[] EC_WITH_SHA256 = { 0x2a, (byte)0x86, 0x48, (byte)0xce, 0x3d, 0x04, 0x03, 0x02 };
+	static final byte[] COMMON_NAME = { 0x55, 0x04, 0x03 };
+	static final byte[] SUBJECT_ALT_NAME = { 0x55, 0x1d, 0x11 };
+
+	X509Certificate certificate;
+	KeyStore keyStore;
+
+	/**
+	 * Generates a key pair and a certificate for localhost, 127.0.0.1 and
+	 * ::1 that is good for {@link #VALIDITY_DAYS} days, and puts them in a
+	 * key store.
+	 *
+	 * @param password the password protecting the key in the key store
+	 * @throws GeneralSecurityException if the key or signature cannot be made
+	 */
+	SelfSignedCertificate( char[] password ) throws GeneralSecurityException {
+		KeyPairGenerator generator = KeyPairGenerator.getInstance( "EC" );
+		generator.initialize( new ECGenParameterSpec( "secp256r1" ) );
+		KeyPair keys = generator.generateKeyPair();
+
+		byte[] algorithm = sequence( oid( EC_WITH_SHA256 ) );
+		byte[] name = sequence( der( 0x31, sequence( oid( COMMON_NAME ), der( 0x0c, ALIAS.getBytes( StandardCharsets.UTF_8 ) ) ) ) );
+		long now = System.currentTimeMillis();
+		byte[] validity = sequence( time( now - TimeUnit.HOURS.toMillis( 1 ) ), time( now + TimeUnit.DAYS.toMillis( VALIDITY_DAYS ) ) );
+		byte[] altNames = sequence(
+				der( 0x82, ALIAS.getBytes( StandardCharsets.UTF_8 ) ),
+				der( 0x87, new byte[] { 127, 0, 0, 1 } ),
+				der( 0x87, new byte[] { 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1 } ) );
+		byte[] extensions = der( 0xa3, sequence( sequence( oid( SUBJECT_ALT_NAME ), der( 0x04, altNames ) ) ) );
+
+		byte[] tbs = sequence(
+				der( 0xa0, der( 0x02, new byte[] { 2 } ) ),
+				der( 0x02, new BigInteger( 64, new SecureRandom() ).add( BigInteger.ONE ).toByteArray() ),
+				algorithm,
+				name,
+				validity,
+				name,
+				keys.getPublic().getEncoded(),
+				extensions );
+
+		Signature signer = Signature.getInstance( "SHA256withECDSA" );
+		signer.initSign( keys.getPrivate() );
+		signer.update( tbs );
+		byte[] signature = signer.sign();
+		byte[] bits = new byte[ signature.length + 1 ];
+		System.arraycopy( signature, 0, bits, 1, signature.length );
+
+		byte[] encoded = sequence( tbs, algorithm, der( 0x03, bits ) );
+		certificate = (X509Certificate)CertificateFactory.getInstance( "X.509" ).generateCertificate( new ByteArrayInputStream( encoded ) );
+
+		try {
+			keyStore = KeyStore.getInstance( KeyStore.getDefaultType() );
+			keyStore.load( null, null );
+		}
+		catch ( IOException ioe ) {
+			throw new GeneralSecurityException( "Unable to create an empty key store.", ioe );
+		}
+		keyStore.setKeyEntry( ALIAS, keys.getPrivate(), password, new Certificate[] { certificate } );
+	}
+
+	static byte[] sequence( byte[]... contents ) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		for ( byte[] content : contents ) out.write( content, 0, content.length );
+		return der( 0x30, out.toByteArray() );
+	}
+
+	static byte[] oid( byte[] encoded ) {
+		return der( 0x06, encoded );
+	}
+
+	static byte[] time( long millis ) {
+		SimpleDateFormat format = new SimpleDateFormat( "yyMMddHHmmss'Z'" );
+		format.setTimeZone( TimeZone.getTimeZone( "UTC" ) );
+		return der( 0x17, format.format( new Date( millis ) ).getBytes( StandardCharsets.US_ASCII ) );
+	}
+
+	/**
+	 * Writes a DER tag, length and contents.
+	 *
+	 * @param tag the tag byte
+	 * @param contents the contents
+	 * @return the encoded value
+	 */
+	static byte[] der( int tag, byte[] contents ) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream( contents.length + 4 );
+		out.write( tag );
+		int length = contents.length;
+		if ( length < 0x80 ) {
+			out.write( length );
+		}
+		else if ( length < 0x100 ) {
+			out.write( 0x81 );
+			out.write( length );
+		}
+		else {
+			out.write( 0x82 );
+			out.write( length >>> 8 );
+			out.write( length );
+		}
+		out.write( contents, 0, length );
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,112 @@
+package com.mauter.httpserver;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+/**
+ * Wraps another {@link HTTPRequestHandler} and holds each response back
+ * for a latency picked from a {@link Latency} distribution, to see how a
+ * client copes with a slow service.  The latency is measured from when the
+ * request reaches this handler, so a handler that is already slower than
+ * the latency picked is not slowed down further.
+ * <p>
+ * Responses are held by a timer rather than a sleeping thread, so with the
+ * server's workers free in the meantime thousands of requests can wait at
+ * once.  Combine this with {@link HTTPServer#setWriteBandwidth(int)} and
+ * {@link HTTPServer#setReadBandwidth(int)} to limit throughput as well.
+ */
+public class ShapingHandler implements AsyncHTTPRequestHandler {
+
+	static ScheduledExecutorService timer;
+
+	HTTPRequestHandler handler;
+	Latency latency;
+
+	/**
+	 * Creates a shaping handler.
+	 *
+	 * @param handler the HTTPRequestHandler that generates the responses
+	 * @param latency the Latency to hold each response for
+	 */
+	public ShapingHandler( HTTPRequestHandler handler, Latency latency ) {
+		this.handler = handler;
+		this.latency = latency;
+	}
+
+	/**
+	 * Gets the latency distribution.
+	 *
+	 * @return the Latency
+	 */
+	public Latency getLatency() { return this.latency; }
+
+	/**
+	 * Sets the latency distribution.  It can be changed while the server
+	 * is running.
+	 *
+	 * @param latency the Latency
+	 */
+	public void setLatency( Latency latency ) { this.latency = latency; }
+
+	/**
+	 * Gets the timer shared by every shaping handler, starting it the first
+	 * time.  Its thread only completes stages, so one is plenty.
+	 *
+	 * @return the ScheduledExecutorService
+	 */
+	static synchronized ScheduledExecutorService timer() {
+		if ( timer == null ) {
+			timer = Executors.newSingleThreadScheduledExecutor( new ThreadFactory() {
+				@Override public Thread newThread( Runnable r ) {
+					Thread thread = new Thread( r, "http-shaping" );
+					thread.setDaemon( true );
+					return thread;
+				}
+			} );
+		}
+		return timer;
+	}
+
+	@Override
+	public CompletionStage<HTTPResponse> handleRequestAsync( HTTPRequest request, HTTPResponse response ) {
+		final long release = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos( latency.nextDelay() );
+		final CompletableFuture<HTTPResponse> delayed = new CompletableFuture<>();
+
+		CompletionStage<HTTPResponse> stage;
+		try {
+			if ( handler instanceof AsyncHTTPRequestHandler ) {
+				stage = ( (AsyncHTTPRequestHandler)handler ).handleRequestAsync( request, response );
+			}
+			else {
+				handler.handleRequest( request, response );
+				stage = CompletableFuture.completedFuture( response );
+			}
+		}
+		catch ( HTTPException | RuntimeException e ) {
+			CompletableFuture<HTTPResponse> failed = new CompletableFuture<>();
+			failed.completeExceptionally( e );
+			stage = failed;
+		}
+
+		stage.whenComplete( new BiConsumer<HTTPResponse, Throwable>() {
+			@Override public void accept( final HTTPResponse result, final Throwable t ) {
+				Runnable finish = new Runnable() {
+					@Override public void run() {
+						if ( t != null ) delayed.completeExceptionally( t );
+						else delayed.complete( result );
+					}
+				};
+
+				long wait = release - System.nanoTime();
+				if ( wait <= 0 ) finish.run();
+				else timer().schedule( finish, wait, TimeUnit.NANOSECONDS );
+			}
+		} );
+		return delayed;
+	}
+}
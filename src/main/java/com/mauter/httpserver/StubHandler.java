@@ -0,0 +1,360 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+
+import com.mauter.httpserver.StubMapping.ValueMatcher;
+
+/**
+ * Answers requests from a list of {@link StubMapping}s instead of code.
+ * Add mappings one at a time or load them from JSON:
+ * <pre>
+ * {
+ *   "mappings": [ {
+ *     "priority": 1,
+ *     "request": {
+ *       "method": "GET",
+ *       "pathPattern": "/users/{id}",
+ *       "headers": { "Accept": { "contains": "json" } }
+ *     },
+ *     "response": {
+ *       "status": 200,
+ *       "headers": { "Content-Type": "application/json" },
+ *       "body": "{\"name\":\"Bob\"}"
+ *     }
+ *   } ]
+ * }
+ * </pre>
+ * The request may also have an exact "path" and a "body".  Header and body
+ * conditions are either a plain string, which must be equal, or an object
+ * with one of "equalTo", "contains", "matches" or "absent".  A missing
+ * method matches any method.  Requests that match no mapping get a 404, or
+ * go to the default handler if there is one.
+ * <p>
+ * The mappings are compiled into an index the first time a request comes
+ * in after they change.  The index goes straight to the mappings for the
+ * request's method and exact path, so only those and the pattern mappings
+ * for the method are checked against the headers and body.  Each canned
+ * response has its status line and headers serialized once, at compile
+ * time, so matching requests are answered without formatting anything.
+ */
+public class StubHandler implements HTTPRequestHandler {
+
+	static final HTTPRequestHandler NOTHING = new HTTPRequestHandler() {
+		@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {}
+	};
+
+	List<StubMapping> mappings = new ArrayList<>();
+	volatile Index index;
+	HTTPRequestHandler defaultHandler;
+
+	/**
+	 * Gets the handler used when no mapping matches the request.
+	 *
+	 * @return the default HTTPRequestHandler or null
+	 */
+	public HTTPRequestHandler getDefaultHandler() { return this.defaultHandler; }
+
+	/**
+	 * Sets the handler used when no mapping matches the request.  When
+	 * this is null, the request gets a standard 404.
+	 *
+	 * @param defaultHandler the default HTTPRequestHandler
+	 */
+	public void setDefaultHandler( HTTPRequestHandler defaultHandler ) { this.defaultHandler = defaultHandler; }
+
+	/**
+	 * Gets the mappings in the order they were added.
+	 *
+	 * @return the List of StubMappings
+	 */
+	public synchronized List<StubMapping> getStubMappings() { return Collections.unmodifiableList( new ArrayList<>( this.mappings ) ); }
+
+	/**
+	 * Adds a mapping.
+	 *
+	 * @param mapping the StubMapping to add
+	 * @throws IllegalArgumentException if the mapping has no response or a malformed path pattern
+	 */
+	public synchronized void addStubMapping( StubMapping mapping ) {
+		if ( mapping.getResponse() == null ) throw new IllegalArgumentException( "A stub mapping needs a response." );
+		if ( mapping.getPathPattern() != null ) new HTTPRouter().addRoute( HTTPRouter.ANY_METHOD, mapping.getPathPattern(), NOTHING );
+		mappings.add( mapping );
+		index = null;
+	}
+
+	/**
+	 * Removes every mapping.
+	 */
+	public synchronized void clear() {
+		mappings.clear();
+		index = null;
+	}
+
+	/**
+	 * Adds the mappings in a JSON file.
+	 *
+	 * @param file the Path of the JSON file
+	 * @throws IOException if the file cannot be read
+	 * @throws IllegalArgumentException if the JSON or a mapping is malformed
+	 */
+	public void load( Path file ) throws IOException {
+		load( new String( Files.readAllBytes( file ), StandardCharsets.UTF_8 ) );
+	}
+
+	/**
+	 * Adds the mappings in a JSON document read from a stream, such as a
+	 * resource on the test classpath.
+	 *
+	 * @param is the InputStream to read the JSON from
+	 * @throws IOException if the stream cannot be read
+	 * @throws IllegalArgumentException if the JSON or a mapping is malformed
+	 */
+	public void load( InputStream is ) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[ 8192 ];
+		int count;
+		while ( ( count = is.read( buffer ) ) > 0 ) baos.write( buffer, 0, count );
+		load( new String( baos.toByteArray(), StandardCharsets.UTF_8 ) );
+	}
+
+	/**
+	 * Adds the mappings in a JSON document.  The document is either an
+	 * object with a "mappings" array or the array itself.
+	 *
+	 * @param json the JSON text
+	 * @throws IllegalArgumentException if the JSON or a mapping is malformed
+	 */
+	public void load( String json ) {
+		Object document = JSON.parse( json );
+		if ( document instanceof Map ) document = ( (Map<?, ?>)document ).get( "mappings" );
+		if ( !( document instanceof List ) ) throw new IllegalArgumentException( "Expected an array of mappings." );
+
+		List<StubMapping> parsed = new ArrayList<>();
+		for ( Object mapping : (List<?>)document ) parsed.add( parseMapping( object( mapping, "mapping" ) ) );
+		synchronized ( this ) {
+			for ( StubMapping mapping : parsed ) addStubMapping( mapping );
+		}
+	}
+
+	static StubMapping parseMapping( Map<?, ?> json ) {
+		StubMapping mapping = new StubMapping();
+		Integer priority = integer( json.get( "priority" ), "priority" );
+		if ( priority != null ) mapping.setPriority( priority );
+
+		Map<?, ?> request = object( json.get( "request" ), "request" );
+		String method = string( request.get( "method" ), "method" );
+		if ( method != null && !"ANY".equals( method ) && !HTTPRouter.ANY_METHOD.equals( method ) ) mapping.setMethod( method );
+		String path = string( request.get( "path" ), "path" );
+		if ( path != null ) mapping.setPath( path );
+		String pathPattern = string( request.get( "pathPattern" ), "pathPattern" );
+		if ( pathPattern != null ) mapping.setPathPattern( pathPattern );
+		if ( request.get( "headers" ) != null ) {
+			for ( Entry<?, ?> header : object( request.get( "headers" ), "headers" ).entrySet() ) {
+				mapping.setHeaderMatcher( (String)header.getKey(), parseMatcher( header.getValue() ) );
+			}
+		}
+		if ( request.get( "body" ) != null ) mapping.setBodyMatcher( parseMatcher( request.get( "body" ) ) );
+
+		Map<?, ?> canned = object( json.get( "response" ), "response" );
+		HTTPResponse response = new HTTPResponse();
+		Integer status = integer( canned.get( "status" ), "status" );
+		response.setStatus( status == null ? 200 : status );
+		String statusMessage = string( canned.get( "statusMessage" ), "statusMessage" );
+		if ( statusMessage != null ) response.setStatusMessage( statusMessage );
+		if ( canned.get( "headers" ) != null ) {
+			for ( Entry<?, ?> header : object( canned.get( "headers" ), "headers" ).entrySet() ) {
+				response.setHeader( (String)header.getKey(), String.valueOf( header.getValue() ) );
+			}
+		}
+		String body = string( canned.get( "body" ), "body" );
+		if ( body != null ) response.setBody( body );
+		mapping.setResponse( response );
+		return mapping;
+	}
+
+	static ValueMatcher parseMatcher( Object json ) {
+		if ( json instanceof String ) return ValueMatcher.equalTo( (String)json );
+
+		Map<?, ?> matcher = object( json, "matcher" );
+		String equalTo = string( matcher.get( "equalTo" ), "equalTo" );
+		if ( equalTo != null ) return ValueMatcher.equalTo( equalTo );
+		String contains = string( matcher.get( "contains" ), "contains" );
+		if ( contains != null ) return ValueMatcher.contains( contains );
+		String matches = string( matcher.get( "matches" ), "matches" );
+		if ( matches != null ) return ValueMatcher.matches( matches );
+		if ( Boolean.TRUE.equals( matcher.get( "absent" ) ) ) return ValueMatcher.absent();
+		throw new IllegalArgumentException( "Expected equalTo, contains, matches or absent in " + matcher );
+	}
+
+	static Map<?, ?> object( Object json, String name ) {
+		if ( !( json instanceof Map ) ) throw new IllegalArgumentException( "Expected " + name + " to be an object." );
+		return (Map<?, ?>)json;
+	}
+
+	static String string( Object json, String name ) {
+		if ( json != null && !( json instanceof String ) ) throw new IllegalArgumentException( "Expected " + name + " to be a string." );
+		return (String)json;
+	}
+
+	static Integer integer( Object json, String name ) {
+		if ( json == null ) return null;
+		if ( !( json instanceof Number ) ) throw new IllegalArgumentException( "Expected " + name + " to be a number." );
+		return ( (Number)json ).intValue();
+	}
+
+	@Override
+	public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+		Index index = this.index;
+		if ( index == null ) index = compile();
+
+		Candidate match = index.find( request );
+		if ( match != null ) {
+			response.copy( match.response );
+		}
+		else if ( defaultHandler != null ) {
+			defaultHandler.handleRequest( request, response );
+		}
+		else {
+			response.buildStandardResponse( 404 );
+		}
+	}
+
+	/**
+	 * Builds the index from the current mappings.
+	 *
+	 * @return the new Index
+	 */
+	synchronized Index compile() {
+		if ( index != null ) return index;
+
+		List<Candidate> candidates = new ArrayList<>( mappings.size() );
+		for ( StubMapping mapping : mappings ) candidates.add( new Candidate( mapping ) );
+		Collections.sort( candidates, new Comparator<Candidate>() {
+			@Override public int compare( Candidate a, Candidate b ) {
+				return Integer.compare( a.mapping.getPriority(), b.mapping.getPriority() );
+			}
+		} );
+		for ( int i = 0; i < candidates.size(); i++ ) candidates.get( i ).rank = i;
+
+		Set<String> methods = new HashSet<>();
+		for ( StubMapping mapping : mappings ) {
+			if ( mapping.getMethod() != null ) methods.add( mapping.getMethod() );
+		}
+
+		Index compiled = new Index();
+		for ( String method : methods ) compiled.methods.put( method, new Bucket( candidates, method ) );
+		compiled.any = new Bucket( candidates, null );
+		return index = compiled;
+	}
+
+	static class Index {
+		Map<String, Bucket> methods = new HashMap<>();
+		Bucket any;
+
+		/**
+		 * Finds the best mapping for the request.
+		 *
+		 * @return the Candidate with the lowest rank that matches, or null
+		 */
+		Candidate find( HTTPRequest request ) {
+			Bucket bucket = request.getMethod() == null ? null : methods.get( request.getMethod() );
+			if ( bucket == null ) bucket = any;
+
+			String path = request.getPath();
+			if ( path == null ) path = "";
+			int end = path.indexOf( '?' );
+			if ( end >= 0 ) path = path.substring( 0, end );
+
+			// both lists are in rank order, so walk them together
+			Candidate[] exact = bucket.exact.get( path );
+			if ( exact == null ) exact = new Candidate[0];
+			Candidate[] patterns = bucket.patterns;
+			int e = 0, p = 0;
+			while ( e < exact.length || p < patterns.length ) {
+				Candidate candidate;
+				if ( p >= patterns.length || ( e < exact.length && exact[e].rank < patterns[p].rank ) ) {
+					candidate = exact[e++];
+				}
+				else {
+					candidate = patterns[p++];
+					if ( !candidate.matchesPath( path ) ) continue;
+				}
+				if ( candidate.mapping.matches( request ) ) return candidate;
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * The mappings that apply to one method, split into those with an
+	 * exact path, looked up by that path, and the rest, which have to be
+	 * tried one by one.
+	 */
+	static class Bucket {
+		Map<String, Candidate[]> exact = new HashMap<>();
+		Candidate[] patterns;
+
+		Bucket( List<Candidate> candidates, String method ) {
+			Map<String, List<Candidate>> exact = new HashMap<>();
+			List<Candidate> patterns = new ArrayList<>();
+			for ( Candidate candidate : candidates ) {
+				String required = candidate.mapping.getMethod();
+				if ( required != null && !required.equals( method ) ) continue;
+
+				String path = candidate.mapping.getPath();
+				if ( path == null ) {
+					patterns.add( candidate );
+					continue;
+				}
+				List<Candidate> list = exact.get( path );
+				if ( list == null ) exact.put( path, list = new ArrayList<>() );
+				list.add( candidate );
+			}
+
+			for ( Entry<String, List<Candidate>> entry : exact.entrySet() ) {
+				this.exact.put( entry.getKey(), entry.getValue().toArray( new Candidate[ entry.getValue().size() ] ) );
+			}
+			this.patterns = patterns.toArray( new Candidate[ patterns.size() ] );
+		}
+	}
+
+	/**
+	 * A compiled mapping with its path pattern turned into a trie and its
+	 * response serialized.
+	 */
+	static class Candidate {
+		StubMapping mapping;
+		int rank;
+		HTTPRouter router;
+		HTTPResponse response = new HTTPResponse();
+
+		Candidate( StubMapping mapping ) {
+			this.mapping = mapping;
+			if ( mapping.getPathPattern() != null ) {
+				router = new HTTPRouter();
+				router.addRoute( HTTPRouter.ANY_METHOD, mapping.getPathPattern(), NOTHING );
+			}
+			response.copy( mapping.getResponse() );
+			response.head = HTTPServer.serializeHead( response );
+		}
+
+		boolean matchesPath( String path ) {
+			if ( router == null ) return true;
+			return router.find( HTTPRouter.ANY_METHOD, path, path.length(), new int[ router.maxParameters * 2 ] ) != null;
+		}
+	}
+}
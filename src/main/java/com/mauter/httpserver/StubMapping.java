@@ -0,0 +1,235 @@
+package com.mauter.httpserver;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.regex.Pattern;
+
+/**
+ * One rule for a {@link StubHandler}: when a request matches, answer with
+ * the canned response.  A request matches when its method and path match
+ * and every header, body and custom predicate holds.  Leave the method
+ * null to match any method.  Give either an exact path or a path pattern
+ * in the same syntax as {@link HTTPRouter}, such as /users/{id} or
+ * /files/*.
+ * <p>
+ * When more than one rule matches, the one with the lowest priority
+ * number wins, and between rules of equal priority the one added first
+ * wins.
+ */
+public class StubMapping {
+
+	/**
+	 * The priority of a rule that does not set one.
+	 */
+	public static final int DEFAULT_PRIORITY = 5;
+
+	String method;
+	String path;
+	String pathPattern;
+	int priority = DEFAULT_PRIORITY;
+	Map<String, ValueMatcher> headers = new LinkedHashMap<>();
+	ValueMatcher body;
+	List<RequestMatcher> matchers = new ArrayList<>();
+	HTTPResponse response;
+
+	/**
+	 * Gets the method the request must have.
+	 *
+	 * @return the HTTP method or null to match any method
+	 */
+	public String getMethod() { return this.method; }
+
+	/**
+	 * Sets the method the request must have.
+	 *
+	 * @param method the HTTP method or null to match any method
+	 */
+	public void setMethod( String method ) { this.method = method; }
+
+	/**
+	 * Gets the exact path the request must have.
+	 *
+	 * @return the path or null
+	 */
+	public String getPath() { return this.path; }
+
+	/**
+	 * Sets the exact path the request must have, not counting the query
+	 * string.  This replaces any path pattern.
+	 *
+	 * @param path the path
+	 */
+	public void setPath( String path ) {
+		this.path = path;
+		this.pathPattern = null;
+	}
+
+	/**
+	 * Gets the pattern the path of the request must match.
+	 *
+	 * @return the path pattern or null
+	 */
+	public String getPathPattern() { return this.pathPattern; }
+
+	/**
+	 * Sets the pattern the path of the request must match using the syntax
+	 * of {@link HTTPRouter#addRoute(String, String, HTTPRequestHandler)}.
+	 * This replaces any exact path.
+	 *
+	 * @param pathPattern the path pattern
+	 */
+	public void setPathPattern( String pathPattern ) {
+		this.pathPattern = pathPattern;
+		this.path = null;
+	}
+
+	/**
+	 * Gets the priority of this rule.
+	 *
+	 * @return the priority, lower numbers first
+	 */
+	public int getPriority() { return this.priority; }
+
+	/**
+	 * Sets the priority of this rule.  The default is {@value #DEFAULT_PRIORITY}.
+	 *
+	 * @param priority the priority, lower numbers first
+	 */
+	public void setPriority( int priority ) { this.priority = priority; }
+
+	/**
+	 * Requires a request header to match.
+	 *
+	 * @param header the name of the header
+	 * @param matcher the ValueMatcher the header value must satisfy
+	 */
+	public void setHeaderMatcher( String header, ValueMatcher matcher ) { this.headers.put( header, matcher ); }
+
+	/**
+	 * Requires the request body, read as UTF-8, to match.
+	 *
+	 * @param matcher the ValueMatcher the body must satisfy
+	 */
+	public void setBodyMatcher( ValueMatcher matcher ) { this.body = matcher; }
+
+	/**
+	 * Requires a custom condition to hold.
+	 *
+	 * @param matcher the RequestMatcher that must accept the request
+	 */
+	public void addRequestMatcher( RequestMatcher matcher ) { this.matchers.add( matcher ); }
+
+	/**
+	 * Gets the canned response.
+	 *
+	 * @return the HTTPResponse sent when the rule matches
+	 */
+	public HTTPResponse getResponse() { return this.response; }
+
+	/**
+	 * Sets the canned response.  Build it once with the usual HTTPResponse
+	 * methods.  It is copied into every matching request's response, so
+	 * don't change it while the server is running.
+	 *
+	 * @param response the HTTPResponse sent when the rule matches
+	 */
+	public void setResponse( HTTPResponse response ) { this.response = response; }
+
+	/**
+	 * Checks the headers, body and custom conditions.  The method and path
+	 * were already matched by the index.
+	 *
+	 * @param request the HTTPRequest to check
+	 * @return true if every condition holds
+	 */
+	boolean matches( HTTPRequest request ) {
+		for ( Entry<String, ValueMatcher> header : headers.entrySet() ) {
+			if ( !header.getValue().test( request.getHeader( header.getKey() ) ) ) return false;
+		}
+		if ( body != null && !body.test( request.getBodyAsString() ) ) return false;
+		for ( RequestMatcher matcher : matchers ) {
+			if ( !matcher.matches( request ) ) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * A custom condition on a request.
+	 */
+	public interface RequestMatcher {
+
+		/**
+		 * Decides whether the request matches.
+		 *
+		 * @param request the HTTPRequest to check
+		 * @return true if the request matches
+		 */
+		public boolean matches( HTTPRequest request );
+	}
+
+	/**
+	 * A condition on a header value or body.  A missing value only
+	 * matches {@link #absent()}.
+	 */
+	public static class ValueMatcher {
+
+		static final int EQUAL_TO = 0;
+		static final int CONTAINS = 1;
+		static final int MATCHES = 2;
+		static final int ABSENT = 3;
+
+		int type;
+		String value;
+		Pattern pattern;
+
+		ValueMatcher( int type, String value ) {
+			this.type = type;
+			this.value = value;
+			if ( type == MATCHES ) this.pattern = Pattern.compile( value, Pattern.DOTALL );
+		}
+
+		/**
+		 * Matches a value equal to the given one.
+		 *
+		 * @param value the expected value
+		 * @return the ValueMatcher
+		 */
+		public static ValueMatcher equalTo( String value ) { return new ValueMatcher( EQUAL_TO, value ); }
+
+		/**
+		 * Matches a value that contains the given one.
+		 *
+		 * @param value the expected substring
+		 * @return the ValueMatcher
+		 */
+		public static ValueMatcher contains( String value ) { return new ValueMatcher( CONTAINS, value ); }
+
+		/**
+		 * Matches a value that matches the given regular expression in full.
+		 *
+		 * @param regex the regular expression
+		 * @return the ValueMatcher
+		 */
+		public static ValueMatcher matches( String regex ) { return new ValueMatcher( MATCHES, regex ); }
+
+		/**
+		 * Matches a missing value.
+		 *
+		 * @return the ValueMatcher
+		 */
+		public static ValueMatcher absent() { return new ValueMatcher( ABSENT, null ); }
+
+		boolean test( String actual ) {
+			if ( actual == null ) return type == ABSENT;
+			switch ( type ) {
+				case EQUAL_TO: return actual.equals( value );
+				case CONTAINS: return actual.contains( value );
+				case MATCHES: return pattern.matcher( actual ).matches();
+				default: return false;
+			}
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package com.mauter.httpserver;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads from another InputStream no faster than a fixed number of bytes
+ * per second.  Reads are cut into slices of about 50 ms worth of bytes and
+ * each slice is paid for out of a {@link TokenBucket}, so the pace is
+ * smooth rather than a burst followed by a long pause.
+ */
+class ThrottledInputStream extends FilterInputStream {
+
+	TokenBucket bucket;
+	int slice;
+
+	/**
+	 * Creates a throttled stream.
+	 *
+	 * @param in the InputStream to read from
+	 * @param bytesPerSecond the most bytes to read per second
+	 */
+	ThrottledInputStream( InputStream in, int bytesPerSecond ) {
+		super( in );
+		this.slice = slice( bytesPerSecond );
+		this.bucket = new TokenBucket( bytesPerSecond, slice );
+	}
+
+	/**
+	 * Picks how many bytes to move at a time for the given rate.
+	 *
+	 * @param bytesPerSecond the rate
+	 * @return the slice size in bytes
+	 */
+	static int slice( int bytesPerSecond ) {
+		return Math.max( 1, Math.min( 8192, bytesPerSecond / 20 ) );
+	}
+
+	@Override
+	public int read() throws IOException {
+		int b = in.read();
+		if ( b >= 0 ) bucket.await( 1 );
+		return b;
+	}
+
+	@Override
+	public int read( byte[] b, int off, int len ) throws IOException {
+		int n = in.read( b, off, Math.min( len, slice ) );
+		if ( n > 0 ) bucket.await( n );
+		return n;
+	}
+
+	@Override
+	public long skip( long n ) throws IOException {
+		long skipped = in.skip( Math.min( n, slice ) );
+		if ( skipped > 0 ) bucket.await( skipped );
+		return skipped;
+	}
+}
@@ -0,0 +1,44 @@
+package com.mauter.httpserver;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes to another OutputStream no faster than a fixed number of bytes
+ * per second, in the same slices as {@link ThrottledInputStream}.
+ */
+class ThrottledOutputStream extends FilterOutputStream {
+
+	TokenBucket bucket;
+	int slice;
+
+	/**
+	 * Creates a throttled stream.
+	 *
+	 * @param out the OutputStream to write to
+	 * @param bytesPerSecond the most bytes to write per second
+	 */
+	ThrottledOutputStream( OutputStream out, int bytesPerSecond ) {
+		super( out );
+		this.slice = ThrottledInputStream.slice( bytesPerSecond );
+		this.bucket = new TokenBucket( bytesPerSecond, slice );
+	}
+
+	@Override
+	public void write( int b ) throws IOException {
+		bucket.await( 1 );
+		out.write( b );
+	}
+
+	@Override
+	public void write( byte[] b, int off, int len ) throws IOException {
+		while ( len > 0 ) {
+			int n = Math.min( len, slice );
+			bucket.await( n );
+			out.write( b, off, n );
+			off += n;
+			len -= n;
+		}
+	}
+}
@@ -0,0 +1,219 @@
+package com.mauter.httpserver;
+
+import java.io.Closeable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A hashed timer wheel for the connection timeouts.  Every open connection
+ * has a timeout pending at all times and nearly all of them are cancelled
+ * before they expire, so scheduling and cancelling must be cheap.  Timeouts
+ * are dropped into one of a fixed number of buckets by their deadline and a
+ * single thread visits one bucket per tick, so scheduling is a queue offer,
+ * cancelling is a compare-and-set and there is no heap to keep in order.
+ * <p>
+ * The price is precision.  A timeout fires on the first tick after its
+ * deadline, so it can be up to one tick late.  Tasks run on the wheel's
+ * thread and must be quick.
+ */
+class TimerWheel implements Closeable {
+
+	private static final Logger log = LoggerFactory.getLogger( TimerWheel.class );
+
+	static final int PENDING = 0;
+	static final int CANCELLED = 1;
+	static final int EXPIRED = 2;
+
+	long tickNanos;
+	Bucket[] buckets;
+	int mask;
+	Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();
+	long startTime;
+	long tick = 0;
+	volatile boolean isRunning = true;
+	Thread thread;
+
+	/**
+	 * Creates a timer wheel and starts its thread.
+	 *
+	 * @param name the name of the thread
+	 * @param tickDuration how often the wheel advances
+	 * @param unit the unit of the tick duration
+	 * @param ticksPerWheel the number of buckets, rounded up to a power of two
+	 */
+	TimerWheel( String name, long tickDuration, TimeUnit unit, int ticksPerWheel ) {
+		if ( tickDuration <= 0 ) throw new IllegalArgumentException( "tickDuration must be positive" );
+		if ( ticksPerWheel <= 0 || ticksPerWheel > 1 << 30 ) throw new IllegalArgumentException( "ticksPerWheel must be between 1 and 2^30" );
+
+		int size = 1;
+		while ( size < ticksPerWheel ) size <<= 1;
+		this.buckets = new Bucket[ size ];
+		for ( int i = 0; i < size; i++ ) buckets[i] = new Bucket();
+		this.mask = size - 1;
+		this.tickNanos = unit.toNanos( tickDuration );
+		this.startTime = System.nanoTime();
+
+		this.thread = new Thread( new Runnable() {
+			@Override public void run() {
+				work();
+			}
+		}, name );
+		this.thread.setDaemon( true );
+		this.thread.start();
+	}
+
+	/**
+	 * Schedules a task to run once after the given delay.
+	 *
+	 * @param task the Runnable to run
+	 * @param delay how long to wait
+	 * @param unit the unit of the delay
+	 * @return the Timeout used to cancel the task
+	 */
+	Timeout schedule( Runnable task, long delay, TimeUnit unit ) {
+		Timeout timeout = new Timeout( task, System.nanoTime() + unit.toNanos( Math.max( 0, delay ) ) - startTime );
+		scheduled.add( timeout );
+		return timeout;
+	}
+
+	/**
+	 * Stops the thread.  Timeouts that have not expired yet never will.
+	 */
+	@Override
+	public void close() {
+		isRunning = false;
+		thread.interrupt();
+	}
+
+	void work() {
+		while ( isRunning ) {
+			long deadline = ( tick + 1 ) * tickNanos;
+			long sleep = deadline - ( System.nanoTime() - startTime );
+			if ( sleep > 0 ) {
+				try {
+					TimeUnit.NANOSECONDS.sleep( sleep );
+				}
+				catch ( InterruptedException ie ) {
+					continue;
+				}
+			}
+
+			transferScheduled();
+			buckets[(int)( tick & mask )].expire( deadline );
+			tick++;
+		}
+	}
+
+	/**
+	 * Moves newly scheduled timeouts into their buckets.  This only happens
+	 * on the wheel's thread so the buckets themselves need no locking.
+	 */
+	void transferScheduled() {
+		Timeout timeout;
+		while ( ( timeout = scheduled.poll() ) != null ) {
+			if ( timeout.state.get() != PENDING ) continue;
+
+			long ticks = timeout.deadline / tickNanos;
+			timeout.rounds = ( ticks - tick ) / buckets.length;
+
+			// anything already past due goes in the bucket about to be expired
+			buckets[(int)( Math.max( ticks, tick ) & mask )].add( timeout );
+		}
+	}
+
+	/**
+	 * A scheduled task.  Cancelled timeouts stay in their bucket until the
+	 * wheel comes around to it and throws them away.
+	 */
+	static class Timeout {
+		Runnable task;
+		long deadline;
+		long rounds;
+		AtomicInteger state = new AtomicInteger( PENDING );
+		Timeout next;
+		Timeout prev;
+
+		Timeout( Runnable task, long deadline ) {
+			this.task = task;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Cancels the task if it has not run yet.
+		 *
+		 * @return true if the task will not run because of this call
+		 */
+		boolean cancel() {
+			return state.compareAndSet( PENDING, CANCELLED );
+		}
+
+		boolean isCancelled() { return state.get() == CANCELLED; }
+
+		boolean isExpired() { return state.get() == EXPIRED; }
+
+		void expire() {
+			if ( !state.compareAndSet( PENDING, EXPIRED ) ) return;
+			try {
+				task.run();
+			}
+			catch ( RuntimeException re ) {
+				log.warn( "Timeout task failed.", re );
+			}
+		}
+	}
+
+	/**
+	 * A doubly linked list of the timeouts that hash to one slot.
+	 */
+	static class Bucket {
+		Timeout head;
+		Timeout tail;
+
+		void add( Timeout timeout ) {
+			timeout.next = null;
+			timeout.prev = tail;
+			if ( tail == null ) head = tail = timeout;
+			else {
+				tail.next = timeout;
+				tail = timeout;
+			}
+		}
+
+		void remove( Timeout timeout ) {
+			if ( timeout.prev == null ) head = timeout.next;
+			else timeout.prev.next = timeout.next;
+			if ( timeout.next == null ) tail = timeout.prev;
+			else timeout.next.prev = timeout.prev;
+			timeout.next = timeout.prev = null;
+		}
+
+		/**
+		 * Runs the timeouts in this bucket that are due on this turn of the
+		 * wheel and drops the cancelled ones.
+		 *
+		 * @param deadline the time of the current tick relative to the start of the wheel
+		 */
+		void expire( long deadline ) {
+			Timeout timeout = head;
+			while ( timeout != null ) {
+				Timeout next = timeout.next;
+				if ( timeout.isCancelled() ) {
+					remove( timeout );
+				}
+				else if ( timeout.rounds <= 0 && timeout.deadline <= deadline ) {
+					remove( timeout );
+					timeout.expire();
+				}
+				else {
+					timeout.rounds--;
+				}
+				timeout = next;
+			}
+		}
+	}
+}
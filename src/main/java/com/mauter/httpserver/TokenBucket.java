@@ -0,0 +1,88 @@
+package com.mauter.httpserver;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A token bucket.  Tokens drip in at a steady rate up to a fixed capacity
+ * and are taken out to pay for bytes or requests, so the long-run rate is
+ * limited while short bursts up to the capacity go through at once.  The
+ * bucket is refilled lazily from the clock when tokens are taken, so there
+ * is no thread topping it up.  It is not thread-safe.
+ */
+class TokenBucket {
+
+	double tokensPerNano;
+	double capacity;
+	double tokens;
+	long last;
+
+	/**
+	 * Creates a full bucket.
+	 *
+	 * @param tokensPerSecond how fast the bucket refills
+	 * @param capacity the most tokens the bucket holds
+	 */
+	TokenBucket( double tokensPerSecond, double capacity ) {
+		if ( tokensPerSecond <= 0 ) throw new IllegalArgumentException( "tokensPerSecond must be positive" );
+		if ( capacity <= 0 ) throw new IllegalArgumentException( "capacity must be positive" );
+		this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos( 1 );
+		this.capacity = capacity;
+		this.tokens = capacity;
+		this.last = System.nanoTime();
+	}
+
+	void refill( long now ) {
+		if ( now > last ) tokens = Math.min( capacity, tokens + ( now - last ) * tokensPerNano );
+		last = now;
+	}
+
+	/**
+	 * Takes tokens if there are enough of them.
+	 *
+	 * @param count the number of tokens to take
+	 * @param now the current System.nanoTime()
+	 * @return 0 if the tokens were taken, otherwise how many nanoseconds
+	 * until there will be enough
+	 */
+	long tryTake( double count, long now ) {
+		refill( now );
+		if ( tokens >= count ) {
+			tokens -= count;
+			return 0;
+		}
+		return (long)Math.ceil( ( count - tokens ) / tokensPerNano );
+	}
+
+	/**
+	 * Takes tokens whether or not there are enough of them, leaving the
+	 * bucket in debt if there are not.
+	 *
+	 * @param count the number of tokens to take
+	 * @param now the current System.nanoTime()
+	 * @return how many nanoseconds until the debt is paid off, 0 if there is none
+	 */
+	long take( double count, long now ) {
+		refill( now );
+		tokens -= count;
+		return tokens >= 0 ? 0 : (long)Math.ceil( -tokens / tokensPerNano );
+	}
+
+	/**
+	 * Takes tokens and sleeps until they have been paid for.
+	 *
+	 * @param count the number of tokens to take
+	 * @throws InterruptedIOException if the thread is interrupted while it sleeps
+	 */
+	void await( double count ) throws InterruptedIOException {
+		long wait = take( count, System.nanoTime() );
+		if ( wait <= 0 ) return;
+		try {
+			TimeUnit.NANOSECONDS.sleep( wait );
+		}
+		catch ( InterruptedException ie ) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException( "Interrupted while throttled." );
+		}
+	}
+}
@@ -0,0 +1,306 @@
+package com.mauter.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolFamily;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.StandardProtocolFamily;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Path;
+
+/**
+ * Listens on a Unix domain socket.  Java added them in version 16, to
+ * channels only, and this library is built for Java 8, so the few methods
+ * needed are looked up by name.  The channels are dressed up as a
+ * ServerSocket and Sockets so that the rest of the server, from the
+ * acceptors to the timeouts, does not know the difference.
+ * <p>
+ * Reads cannot time out, so setSoTimeout is ignored.  The server's own
+ * deadlines shut the input down instead.
+ */
+class UnixDomainSockets {
+
+	/**
+	 * Checks whether this Java supports Unix domain sockets.
+	 *
+	 * @return true if Unix domain sockets can be used
+	 */
+	static boolean isSupported() {
+		try {
+			Class.forName( "java.net.UnixDomainSocketAddress" );
+			StandardProtocolFamily.valueOf( "UNIX" );
+			return true;
+		}
+		catch ( ClassNotFoundException | IllegalArgumentException e ) {
+			return false;
+		}
+	}
+
+	/**
+	 * Creates the address of a Unix domain socket.
+	 *
+	 * @param path the path of the socket file
+	 * @return the UnixDomainSocketAddress
+	 * @throws IOException if this Java does not support Unix domain sockets
+	 */
+	static SocketAddress address( Path path ) throws IOException {
+		try {
+			return (SocketAddress)Class.forName( "java.net.UnixDomainSocketAddress" ).getMethod( "of", Path.class ).invoke( null, path );
+		}
+		catch ( ReflectiveOperationException roe ) {
+			throw new IOException( "Unix domain sockets need Java 16 or later.", roe );
+		}
+	}
+
+	/**
+	 * Binds a listening socket to the given path.  The file must not exist
+	 * yet.
+	 *
+	 * @param path the path of the socket file
+	 * @param backlog the listen backlog
+	 * @return a ServerSocket that accepts connections on the path
+	 * @throws IOException if the socket cannot be bound
+	 */
+	static ServerSocket bind( Path path, int backlog ) throws IOException {
+		return new ChannelServerSocket( open( path, backlog ) );
+	}
+
+	/**
+	 * Binds a listening channel to the given path.  The file must not
+	 * exist yet.
+	 *
+	 * @param path the path of the socket file
+	 * @param backlog the listen backlog
+	 * @return the bound ServerSocketChannel
+	 * @throws IOException if the channel cannot be bound
+	 */
+	static ServerSocketChannel open( Path path, int backlog ) throws IOException {
+		SocketAddress address = address( path );
+		ServerSocketChannel channel;
+		try {
+			ProtocolFamily unix = StandardProtocolFamily.valueOf( "UNIX" );
+			channel = (ServerSocketChannel)ServerSocketChannel.class.getMethod( "open", ProtocolFamily.class ).invoke( null, unix );
+		}
+		catch ( ReflectiveOperationException | IllegalArgumentException e ) {
+			throw new IOException( "Unix domain sockets need Java 16 or later.", e );
+		}
+
+		try {
+			channel.bind( address, backlog );
+		}
+		catch ( IOException ioe ) {
+			channel.close();
+			throw ioe;
+		}
+		return channel;
+	}
+
+	/**
+	 * Connects to a Unix domain socket.
+	 *
+	 * @param path the path of the socket file
+	 * @return a Socket connected to the path
+	 * @throws IOException if the socket cannot connect
+	 */
+	static Socket connect( Path path ) throws IOException {
+		SocketAddress address = address( path );
+		SocketChannel channel;
+		try {
+			ProtocolFamily unix = StandardProtocolFamily.valueOf( "UNIX" );
+			channel = (SocketChannel)SocketChannel.class.getMethod( "open", ProtocolFamily.class ).invoke( null, unix );
+		}
+		catch ( ReflectiveOperationException | IllegalArgumentException e ) {
+			throw new IOException( "Unix domain sockets need Java 16 or later.", e );
+		}
+
+		try {
+			channel.connect( address );
+		}
+		catch ( IOException ioe ) {
+			channel.close();
+			throw ioe;
+		}
+		return new ChannelSocket( channel );
+	}
+
+	/**
+	 * A listening channel that looks like a ServerSocket.
+	 */
+	static class ChannelServerSocket extends ServerSocket {
+		ServerSocketChannel channel;
+
+		ChannelServerSocket( ServerSocketChannel channel ) throws IOException {
+			this.channel = channel;
+		}
+
+		@Override
+		public Socket accept() throws IOException {
+			return new ChannelSocket( channel.accept() );
+		}
+
+		@Override
+		public void close() throws IOException {
+			channel.close();
+		}
+
+		@Override
+		public boolean isClosed() {
+			return !channel.isOpen();
+		}
+
+		@Override
+		public boolean isBound() {
+			return true;
+		}
+
+		@Override
+		public int getLocalPort() {
+			return 0;
+		}
+
+		@Override
+		public SocketAddress getLocalSocketAddress() {
+			try {
+				return channel.getLocalAddress();
+			}
+			catch ( IOException ioe ) {
+				return null;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "ChannelServerSocket[" + getLocalSocketAddress() + "]";
+		}
+	}
+
+	/**
+	 * A connected channel that looks like a Socket.  Reads and writes go
+	 * straight to the channel, which lets one thread read while another
+	 * writes.
+	 */
+	static class ChannelSocket extends Socket {
+		SocketChannel channel;
+		volatile boolean inputShutdown = false;
+		volatile boolean outputShutdown = false;
+
+		InputStream in = new InputStream() {
+			@Override public int read() throws IOException {
+				byte[] b = new byte[ 1 ];
+				return read( b, 0, 1 ) < 0 ? -1 : b[0] & 0xff;
+			}
+
+			@Override public int read( byte[] b, int off, int len ) throws IOException {
+				if ( len == 0 ) return 0;
+				int count;
+				do {
+					count = channel.read( ByteBuffer.wrap( b, off, len ) );
+				} while ( count == 0 );
+				return count;
+			}
+
+			@Override public void close() throws IOException {
+				ChannelSocket.this.close();
+			}
+		};
+
+		OutputStream out = new OutputStream() {
+			@Override public void write( int b ) throws IOException {
+				write( new byte[] { (byte)b }, 0, 1 );
+			}
+
+			@Override public void write( byte[] b, int off, int len ) throws IOException {
+				ByteBuffer buffer = ByteBuffer.wrap( b, off, len );
+				while ( buffer.hasRemaining() ) channel.write( buffer );
+			}
+
+			@Override public void close() throws IOException {
+				ChannelSocket.this.close();
+			}
+		};
+
+		ChannelSocket( SocketChannel channel ) {
+			this.channel = channel;
+		}
+
+		@Override
+		public InputStream getInputStream() throws IOException {
+			if ( isClosed() ) throw new SocketException( "Socket is closed" );
+			return in;
+		}
+
+		@Override
+		public OutputStream getOutputStream() throws IOException {
+			if ( isClosed() ) throw new SocketException( "Socket is closed" );
+			return out;
+		}
+
+		@Override
+		public void shutdownInput() throws IOException {
+			inputShutdown = true;
+			channel.shutdownInput();
+		}
+
+		@Override
+		public void shutdownOutput() throws IOException {
+			outputShutdown = true;
+			channel.shutdownOutput();
+		}
+
+		@Override
+		public boolean isInputShutdown() {
+			return inputShutdown;
+		}
+
+		@Override
+		public boolean isOutputShutdown() {
+			return outputShutdown;
+		}
+
+		@Override
+		public synchronized void close() throws IOException {
+			channel.close();
+		}
+
+		@Override
+		public boolean isClosed() {
+			return !channel.isOpen();
+		}
+
+		@Override
+		public boolean isConnected() {
+			return channel.isConnected();
+		}
+
+		@Override
+		public synchronized void setSoTimeout( int timeout ) {
+			// blocking channels cannot time out a read
+		}
+
+		@Override
+		public int getPort() {
+			return 0;
+		}
+
+		@Override
+		public SocketAddress getRemoteSocketAddress() {
+			try {
+				return channel.getRemoteAddress();
+			}
+			catch ( IOException ioe ) {
+				return null;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "ChannelSocket[" + getRemoteSocketAddress() + "]";
+		}
+	}
+}
@@ -0,0 +1,269 @@
+package com.mauter.httpserver;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestAsyncHTTPRequestHandler {
+
+	ScheduledExecutorService backend = Executors.newScheduledThreadPool( 1 );
+
+	@After
+	public void tearDown() {
+		backend.shutdownNow();
+	}
+
+	/**
+	 * Answers every request after the given delay from the backend thread.
+	 */
+	AsyncHTTPRequestHandler delayed( final long millis ) {
+		return new AsyncHTTPRequestHandler() {
+			@Override public CompletionStage<HTTPResponse> handleRequestAsync( HTTPRequest request, final HTTPResponse response ) {
+				final CompletableFuture<HTTPResponse> future = new CompletableFuture<>();
+				backend.schedule( new Runnable() {
+					@Override public void run() {
+						response.setStatus( 200 );
+						response.setBody( "done" );
+						future.complete( response );
+					}
+				}, millis, TimeUnit.MILLISECONDS );
+				return future;
+			}
+		};
+	}
+
+	AsyncHTTPRequestHandler failing( final Throwable t ) {
+		return new AsyncHTTPRequestHandler() {
+			@Override public CompletionStage<HTTPResponse> handleRequestAsync( HTTPRequest request, HTTPResponse response ) {
+				CompletableFuture<HTTPResponse> future = new CompletableFuture<>();
+				future.completeExceptionally( t );
+				return future;
+			}
+		};
+	}
+
+	/**
+	 * Never completes its stage.
+	 */
+	AsyncHTTPRequestHandler stuck = new AsyncHTTPRequestHandler() {
+		@Override public CompletionStage<HTTPResponse> handleRequestAsync( HTTPRequest request, HTTPResponse response ) {
+			return new CompletableFuture<>();
+		}
+	};
+
+	Callable<Integer> status( final URL url ) {
+		return new Callable<Integer>() {
+			@Override public Integer call() throws IOException {
+				return ( (HttpURLConnection)url.openConnection() ).getResponseCode();
+			}
+		};
+	}
+
+	@Test
+	public void testHandleRequestWaits() throws HTTPException {
+		HTTPResponse response = new HTTPResponse();
+		delayed( 20 ).handleRequest( new HTTPRequest(), response );
+		Assert.assertEquals( 200, response.getStatus() );
+		Assert.assertEquals( "done", response.getBodyAsString() );
+	}
+
+	@Test
+	public void testHandleRequestCopiesOtherResponse() throws HTTPException {
+		AsyncHTTPRequestHandler handler = new AsyncHTTPRequestHandler() {
+			@Override public CompletionStage<HTTPResponse> handleRequestAsync( HTTPRequest request, HTTPResponse response ) {
+				HTTPResponse other = new HTTPResponse();
+				other.setStatus( 201 );
+				other.setHeader( "Location", "/things/1" );
+				return CompletableFuture.completedFuture( other );
+			}
+		};
+		HTTPResponse response = new HTTPResponse();
+		handler.handleRequest( new HTTPRequest(), response );
+		Assert.assertEquals( 201, response.getStatus() );
+		Assert.assertEquals( "/things/1", response.getHeader( "Location" ) );
+	}
+
+	@Test
+	public void testHandleRequestFails() {
+		try {
+			failing( new HTTPException( 404, "gone" ) ).handleRequest( new HTTPRequest(), new HTTPResponse() );
+			Assert.fail();
+		}
+		catch ( HTTPException he ) {
+			Assert.assertEquals( 404, he.getStatus() );
+		}
+
+		try {
+			failing( new IllegalStateException( "boom" ) ).handleRequest( new HTTPRequest(), new HTTPResponse() );
+			Assert.fail();
+		}
+		catch ( HTTPException he ) {
+			Assert.assertEquals( 500, he.getStatus() );
+			Assert.assertTrue( he.getCause() instanceof IllegalStateException );
+		}
+	}
+
+	@Test
+	public void testServerDoesNotHoldWorkers() throws Exception {
+		ExecutorService clients = Executors.newFixedThreadPool( 20 );
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setMaxConnections( 2 );
+			server.setHTTPRequestHandler( delayed( 300 ) );
+			server.start();
+
+			URL url = new URL( "http://localhost:" + server.getPort() );
+			List<Future<Integer>> statuses = new ArrayList<>();
+			long start = System.nanoTime();
+			for ( int i = 0; i < 20; i++ ) {
+				statuses.add( clients.submit( status( url ) ) );
+			}
+			for ( Future<Integer> status : statuses ) Assert.assertEquals( 200, (int)status.get() );
+
+			// two workers holding each request for 300 ms would take 3 seconds
+			Assert.assertTrue( System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos( 2000 ) );
+			Assert.assertEquals( 20, server.getResponses().size() );
+			Assert.assertEquals( "done", server.getResponses().get( 0 ).getBodyAsString() );
+		}
+		finally {
+			clients.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testServerFailure() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHTTPRequestHandler( failing( new HTTPException( 409, "conflict" ) ) );
+			server.start();
+
+			HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() ).openConnection();
+			Assert.assertEquals( 409, con.getResponseCode() );
+			Assert.assertEquals( 409, server.getResponses().get( 0 ).getStatus() );
+		}
+	}
+
+	@Test
+	public void testServerHandlerThrows() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHTTPRequestHandler( new AsyncHTTPRequestHandler() {
+				@Override public CompletionStage<HTTPResponse> handleRequestAsync( HTTPRequest request, HTTPResponse response ) {
+					throw new IllegalStateException( "boom" );
+				}
+			} );
+			server.start();
+
+			HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() ).openConnection();
+			Assert.assertEquals( 500, con.getResponseCode() );
+		}
+	}
+
+	@Test
+	public void testHandlerTimeout() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			Assert.assertEquals( 30000, server.getHandlerTimeout() );
+			server.setHandlerTimeout( 200 );
+			server.setKeepAliveTimeout( 5000 );
+			server.setHTTPRequestHandler( stuck );
+			server.start();
+
+			HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() ).openConnection();
+			Assert.assertEquals( 503, con.getResponseCode() );
+			Assert.assertEquals( 503, server.getResponses().get( 0 ).getStatus() );
+			Assert.assertEquals( "close", server.getResponses().get( 0 ).getHeader( "Connection" ) );
+		}
+	}
+
+	@Test
+	public void testExchangeHandlerTimeout() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHandlerTimeout( 200 );
+			server.setHTTPRequestHandler( stuck );
+			HTTPRequest request = new HTTPRequest();
+			request.setMethod( "GET" );
+			request.setPath( "/" );
+
+			// not started, so there is no timer thread to keep the deadline
+			long start = System.nanoTime();
+			Assert.assertEquals( 503, server.exchange( request ).getStatus() );
+			Assert.assertTrue( System.nanoTime() - start < TimeUnit.SECONDS.toNanos( 5 ) );
+
+			server.start();
+			Assert.assertEquals( 503, server.exchange( request ).getStatus() );
+		}
+	}
+
+	@Test
+	public void testLateStageIsIgnored() throws Exception {
+		final CompletableFuture<HTTPResponse> late = new CompletableFuture<>();
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHandlerTimeout( 100 );
+			server.setHTTPRequestHandler( new AsyncHTTPRequestHandler() {
+				@Override public CompletionStage<HTTPResponse> handleRequestAsync( HTTPRequest request, HTTPResponse response ) {
+					return late;
+				}
+			} );
+			server.start();
+
+			HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() ).openConnection();
+			Assert.assertEquals( 503, con.getResponseCode() );
+			HTTPResponse response = new HTTPResponse();
+			response.setStatus( 200 );
+			late.complete( response );
+			Assert.assertEquals( 1, server.getResponses().size() );
+			Assert.assertEquals( 503, server.getResponses().get( 0 ).getStatus() );
+		}
+	}
+
+	@Test
+	public void testServerKeepAlive() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setKeepAliveTimeout( 5000 );
+			server.setHTTPRequestHandler( delayed( 10 ) );
+			server.start();
+
+			for ( int i = 0; i < 3; i++ ) {
+				HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() ).openConnection();
+				Assert.assertEquals( 200, con.getResponseCode() );
+				Assert.assertArrayEquals( "done".getBytes(), TestHTTPServer.readAll( con.getInputStream() ) );
+			}
+			Assert.assertEquals( 1, server.getActiveConnections() );
+		}
+	}
+
+	@Test
+	public void testStopDrainsAsyncRequests() throws Exception {
+		ExecutorService clients = Executors.newCachedThreadPool();
+		HTTPServer server = new HTTPServer();
+		try {
+			server.setDrainTimeout( 5000 );
+			server.setHTTPRequestHandler( delayed( 300 ) );
+			server.start();
+
+			URL url = new URL( "http://localhost:" + server.getPort() );
+			Future<Integer> status = clients.submit( status( url ) );
+			while ( server.getRequests().isEmpty() || server.getRequests().get( 0 ).getMethod() == null ) Thread.sleep( 5 );
+
+			server.stop();
+			Assert.assertEquals( 200, (int)status.get() );
+			Assert.assertEquals( 1, server.getDrainedExchanges() );
+			Assert.assertEquals( 0, server.getActiveConnections() );
+		}
+		finally {
+			server.stop();
+			clients.shutdownNow();
+		}
+	}
+}
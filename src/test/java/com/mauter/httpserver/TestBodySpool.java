@@ -0,0 +1,131 @@
+package com.mauter.httpserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestBodySpool {
+
+	static byte[] bytes( int size ) {
+		byte[] bytes = new byte[ size ];
+		for ( int i = 0; i < size; i++ ) bytes[i] = (byte)i;
+		return bytes;
+	}
+
+	static RequestBody spool( BodySpool spool, long expected, byte[] body, int chunk ) throws IOException {
+		BodySpool.SpoolOutputStream out = spool.open( expected );
+		for ( int i = 0; i < body.length; i += chunk ) out.write( body, i, Math.min( chunk, body.length - i ) );
+		Assert.assertEquals( body.length, out.size() );
+		return out.toRequestBody();
+	}
+
+	@Test
+	public void testHeap() throws IOException {
+		RequestBody body = spool( new BodySpool( 0, 100, 200 ), -1, bytes( 100 ), 7 );
+		Assert.assertTrue( body.isOnHeap() );
+		Assert.assertArrayEquals( bytes( 100 ), body.getBytes() );
+	}
+
+	@Test
+	public void testDirect() throws IOException {
+		byte[] expected = bytes( 150 );
+		for ( long size : new long[] { -1, 150 } ) {
+			RequestBody body = spool( new BodySpool( 0, 100, 200 ), size, expected, 7 );
+			Assert.assertTrue( body.isDirect() );
+			Assert.assertNull( body.getPath() );
+			Assert.assertArrayEquals( expected, body.getBytes() );
+		}
+	}
+
+	@Test
+	public void testFile() throws IOException {
+		byte[] expected = bytes( 300 );
+		for ( long size : new long[] { -1, 300 } ) {
+			for ( int chunk : new int[] { 7, 120, 300 } ) {
+				RequestBody body = spool( new BodySpool( 0, 100, 200 ), size, expected, chunk );
+				Path path = body.getPath();
+				Assert.assertNotNull( path );
+				Assert.assertArrayEquals( expected, Files.readAllBytes( path ) );
+				body.close();
+				Assert.assertFalse( Files.exists( path ) );
+			}
+		}
+	}
+
+	@Test
+	public void testNoDirect() throws IOException {
+		RequestBody body = spool( new BodySpool( 0, 100, 0 ), -1, bytes( 150 ), 50 );
+		Assert.assertNotNull( body.getPath() );
+		body.close();
+	}
+
+	@Test
+	public void testDirectory() throws IOException {
+		Path directory = Files.createTempDirectory( "http-server" );
+		try {
+			BodySpool spool = new BodySpool( 0, 10, 0 );
+			spool.directory = directory;
+			RequestBody body = spool( spool, 20, bytes( 20 ), 20 );
+			Assert.assertEquals( directory, body.getPath().getParent() );
+			body.close();
+		}
+		finally {
+			Files.delete( directory );
+		}
+	}
+
+	@Test
+	public void testPool() throws IOException {
+		BodySpool spool = new BodySpool( 0, 10, 100 );
+		ByteBuffer buffer = spool.allocate();
+		Assert.assertTrue( buffer.isDirect() );
+		Assert.assertEquals( 100, buffer.capacity() );
+		spool.release( buffer );
+		Assert.assertSame( buffer, spool.allocate() );
+
+		// buffers from another threshold are not reused
+		spool.release( buffer );
+		spool.directThreshold = 50;
+		Assert.assertEquals( 50, spool.allocate().capacity() );
+
+		for ( int i = 0; i < BodySpool.POOL_SIZE + 2; i++ ) spool.release( ByteBuffer.allocateDirect( 50 ) );
+		Assert.assertEquals( BodySpool.POOL_SIZE, spool.pool.size() );
+	}
+
+	@Test
+	public void testCloseReleases() throws IOException {
+		BodySpool spool = new BodySpool( 0, 10, 100 );
+		BodySpool.SpoolOutputStream out = spool.open( 50 );
+		out.write( bytes( 50 ) );
+		out.close();
+		Assert.assertEquals( 1, spool.pool.size() );
+
+		out = spool.open( 500 );
+		out.write( bytes( 500 ) );
+		Path path = out.path;
+		Assert.assertTrue( Files.exists( path ) );
+		out.close();
+		Assert.assertFalse( Files.exists( path ) );
+	}
+
+	@Test
+	public void testIsTooLarge() {
+		Assert.assertFalse( new BodySpool( 0, 10, 0 ).isTooLarge( Long.MAX_VALUE ) );
+		Assert.assertFalse( new BodySpool( 100, 10, 0 ).isTooLarge( 100 ) );
+		Assert.assertTrue( new BodySpool( 100, 10, 0 ).isTooLarge( 101 ) );
+		Assert.assertFalse( BodySpool.HEAP.isTooLarge( Integer.MAX_VALUE ) );
+	}
+
+	@Test
+	public void testHeapSpool() throws IOException {
+		byte[] expected = bytes( 100000 );
+		RequestBody body = spool( BodySpool.HEAP, -1, expected, 8192 );
+		Assert.assertTrue( body.isOnHeap() );
+		Assert.assertTrue( Arrays.equals( expected, body.getBytes() ) );
+	}
+}
@@ -0,0 +1,63 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestBoundedInputStream {
+
+	ByteArrayInputStream source() {
+		return new ByteArrayInputStream( new byte[] { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9 } );
+	}
+
+	@Test
+	public void testReadStopsAtLimit() throws IOException {
+		ByteArrayInputStream source = source();
+		BoundedInputStream bounded = new BoundedInputStream( source, 4 );
+		byte[] buffer = new byte[ 10 ];
+		Assert.assertEquals( 4, bounded.read( buffer, 0, buffer.length ) );
+		Assert.assertEquals( -1, bounded.read( buffer, 0, buffer.length ) );
+		Assert.assertEquals( -1, bounded.read() );
+		Assert.assertEquals( 4, bounded.getCount() );
+		Assert.assertEquals( 0, bounded.getRemaining() );
+		Assert.assertEquals( 4, source.read() );
+	}
+
+	@Test
+	public void testReadSingleBytes() throws IOException {
+		BoundedInputStream bounded = new BoundedInputStream( source(), 2 );
+		Assert.assertEquals( 0, bounded.read() );
+		Assert.assertEquals( 1, bounded.read() );
+		Assert.assertEquals( -1, bounded.read() );
+		Assert.assertEquals( 2, bounded.getCount() );
+	}
+
+	@Test
+	public void testLimitPastEnd() throws IOException {
+		BoundedInputStream bounded = new BoundedInputStream( source(), 20 );
+		bounded.drain();
+		Assert.assertEquals( 10, bounded.getCount() );
+		Assert.assertEquals( 10, bounded.getRemaining() );
+	}
+
+	@Test
+	public void testSkipAndAvailable() throws IOException {
+		BoundedInputStream bounded = new BoundedInputStream( source(), 5 );
+		Assert.assertEquals( 5, bounded.available() );
+		Assert.assertEquals( 3, bounded.skip( 3 ) );
+		Assert.assertEquals( 2, bounded.skip( 3 ) );
+		Assert.assertEquals( 0, bounded.available() );
+		Assert.assertFalse( bounded.markSupported() );
+	}
+
+	@Test
+	public void testCloseLeavesSourceOpen() throws IOException {
+		ByteArrayInputStream source = source();
+		BoundedInputStream bounded = new BoundedInputStream( source, 5 );
+		bounded.drain();
+		bounded.close();
+		Assert.assertEquals( 5, source.read() );
+	}
+}
@@ -0,0 +1,252 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCachingHandler {
+
+	AtomicInteger calls = new AtomicInteger();
+
+	HTTPRequestHandler counting = new HTTPRequestHandler() {
+		@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+			int call = calls.incrementAndGet();
+			response.setStatus( request.getPath().startsWith( "/missing" ) ? 404 : 200 );
+			response.setHeader( "Content-Type", "application/json" );
+			response.setBody( "{\"call\":" + call + "}" );
+		}
+	};
+
+	HTTPRequest request( String method, String path ) {
+		HTTPRequest request = new HTTPRequest();
+		request.setMethod( method );
+		request.setPath( path );
+		return request;
+	}
+
+	HTTPResponse handle( CachingHandler cache, HTTPRequest request ) throws HTTPException {
+		HTTPResponse response = new HTTPResponse();
+		cache.handleRequest( request, response );
+		return response;
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNoEntries() {
+		new CachingHandler( counting, 0, 1, TimeUnit.MINUTES );
+	}
+
+	@Test
+	public void testHit() throws HTTPException {
+		CachingHandler cache = new CachingHandler( counting, 10, 1, TimeUnit.MINUTES );
+
+		HTTPResponse first = handle( cache, request( "GET", "/a" ) );
+		HTTPResponse second = handle( cache, request( "GET", "/a" ) );
+
+		Assert.assertEquals( 1, calls.get() );
+		Assert.assertEquals( "{\"call\":1}", first.getBodyAsString() );
+		Assert.assertEquals( "{\"call\":1}", second.getBodyAsString() );
+		Assert.assertEquals( 200, second.getStatus() );
+		Assert.assertEquals( "OK", second.getStatusMessage() );
+		Assert.assertEquals( "application/json", second.getHeader( "Content-Type" ) );
+		Assert.assertNotNull( second.head );
+		Assert.assertEquals( 1, cache.getHits() );
+		Assert.assertEquals( 1, cache.getMisses() );
+		Assert.assertEquals( 1, cache.getSize() );
+	}
+
+	@Test
+	public void testHitIsWrittenFromSerializedHead() throws HTTPException, IOException {
+		CachingHandler cache = new CachingHandler( counting, 10, 1, TimeUnit.MINUTES );
+		HTTPResponse first = handle( cache, request( "GET", "/a" ) );
+		HTTPResponse second = handle( cache, request( "GET", "/a" ) );
+
+		ByteArrayOutputStream one = new ByteArrayOutputStream();
+		HTTPServer.write( one, first );
+		ByteArrayOutputStream two = new ByteArrayOutputStream();
+		HTTPServer.write( two, second );
+		Assert.assertArrayEquals( one.toByteArray(), two.toByteArray() );
+		Assert.assertTrue( two.toString( StandardCharsets.UTF_8.name() ).startsWith( "HTTP/1.0 200 OK\r\n" ) );
+	}
+
+	@Test
+	public void testChangingHitClearsSerializedHead() throws HTTPException, IOException {
+		CachingHandler cache = new CachingHandler( counting, 10, 1, TimeUnit.MINUTES );
+		handle( cache, request( "GET", "/a" ) );
+		HTTPResponse second = handle( cache, request( "GET", "/a" ) );
+		second.setHeader( "X-Extra", "yes" );
+		Assert.assertNull( second.head );
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HTTPServer.write( baos, second );
+		Assert.assertTrue( baos.toString( StandardCharsets.UTF_8.name() ).contains( "x-extra: yes\r\n" ) );
+
+		HTTPResponse third = handle( cache, request( "GET", "/a" ) );
+		Assert.assertNull( third.getHeader( "X-Extra" ) );
+	}
+
+	@Test
+	public void testDifferentPaths() throws HTTPException {
+		CachingHandler cache = new CachingHandler( counting, 10, 1, TimeUnit.MINUTES );
+		handle( cache, request( "GET", "/a" ) );
+		handle( cache, request( "GET", "/b" ) );
+		Assert.assertEquals( 2, calls.get() );
+		Assert.assertEquals( 2, cache.getMisses() );
+	}
+
+	@Test
+	public void testVaryHeaders() throws HTTPException {
+		CachingHandler cache = new CachingHandler( counting, 10, 1, TimeUnit.MINUTES, "Accept" );
+
+		HTTPRequest json = request( "GET", "/a" );
+		json.setHeader( "Accept", "application/json" );
+		HTTPRequest xml = request( "GET", "/a" );
+		xml.setHeader( "Accept", "application/xml" );
+
+		handle( cache, json );
+		handle( cache, xml );
+		handle( cache, json );
+		handle( cache, request( "GET", "/a" ) );
+
+		Assert.assertEquals( 3, calls.get() );
+		Assert.assertEquals( 1, cache.getHits() );
+	}
+
+	@Test
+	public void testCredentialsAreKeyed() throws HTTPException {
+		CachingHandler cache = new CachingHandler( counting, 10, 1, TimeUnit.MINUTES );
+
+		HTTPRequest alice = request( "GET", "/me" );
+		alice.setHeader( "Authorization", "Bearer alice" );
+		HTTPRequest bob = request( "GET", "/me" );
+		bob.setHeader( "Authorization", "Bearer bob" );
+		Assert.assertEquals( "{\"call\":1}", handle( cache, alice ).getBodyAsString() );
+		Assert.assertEquals( "{\"call\":2}", handle( cache, bob ).getBodyAsString() );
+		Assert.assertEquals( "{\"call\":3}", handle( cache, request( "GET", "/me" ) ).getBodyAsString() );
+		Assert.assertEquals( "{\"call\":1}", handle( cache, alice ).getBodyAsString() );
+
+		HTTPRequest session = request( "GET", "/me" );
+		session.setHeader( "Cookie", "session=carol" );
+		Assert.assertEquals( "{\"call\":4}", handle( cache, session ).getBodyAsString() );
+		Assert.assertEquals( 1, cache.getHits() );
+	}
+
+	CachingHandler cacheWithHeader( final String name, final String value ) {
+		return new CachingHandler( new HTTPRequestHandler() {
+			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+				counting.handleRequest( request, response );
+				response.setHeader( name, value );
+			}
+		}, 10, 1, TimeUnit.MINUTES );
+	}
+
+	void assertNotStored( CachingHandler cache ) throws HTTPException {
+		handle( cache, request( "GET", "/a" ) );
+		handle( cache, request( "GET", "/a" ) );
+		Assert.assertEquals( 2, calls.get() );
+		Assert.assertEquals( 0, cache.getSize() );
+	}
+
+	@Test
+	public void testNoStoreIsNotCached() throws HTTPException {
+		assertNotStored( cacheWithHeader( "Cache-Control", "max-age=0, no-store" ) );
+	}
+
+	@Test
+	public void testPrivateIsNotCached() throws HTTPException {
+		assertNotStored( cacheWithHeader( "Cache-Control", "Private" ) );
+	}
+
+	@Test
+	public void testSetCookieIsNotCached() throws HTTPException {
+		assertNotStored( cacheWithHeader( "Set-Cookie", "session=abc" ) );
+	}
+
+	@Test
+	public void testPublicIsCached() throws HTTPException {
+		CachingHandler cache = cacheWithHeader( "Cache-Control", "public, max-age=60" );
+		handle( cache, request( "GET", "/a" ) );
+		handle( cache, request( "GET", "/a" ) );
+		Assert.assertEquals( 1, calls.get() );
+	}
+
+	@Test
+	public void testOnlyGetAndHead() throws HTTPException {
+		CachingHandler cache = new CachingHandler( counting, 10, 1, TimeUnit.MINUTES );
+		handle( cache, request( "POST", "/a" ) );
+		handle( cache, request( "POST", "/a" ) );
+		handle( cache, request( "HEAD", "/a" ) );
+		handle( cache, request( "HEAD", "/a" ) );
+		Assert.assertEquals( 3, calls.get() );
+		Assert.assertEquals( 1, cache.getHits() );
+	}
+
+	@Test
+	public void testOnlySuccess() throws HTTPException {
+		CachingHandler cache = new CachingHandler( counting, 10, 1, TimeUnit.MINUTES );
+		handle( cache, request( "GET", "/missing" ) );
+		HTTPResponse response = handle( cache, request( "GET", "/missing" ) );
+		Assert.assertEquals( 404, response.getStatus() );
+		Assert.assertEquals( 2, calls.get() );
+		Assert.assertEquals( 0, cache.getSize() );
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() throws HTTPException {
+		CachingHandler cache = new CachingHandler( counting, 2, 1, TimeUnit.MINUTES );
+		handle( cache, request( "GET", "/a" ) );
+		handle( cache, request( "GET", "/b" ) );
+		handle( cache, request( "GET", "/a" ) ); // hit, /b is now the eldest
+		handle( cache, request( "GET", "/c" ) ); // evicts /b
+		Assert.assertEquals( 1, cache.getEvictions() );
+		Assert.assertEquals( 2, cache.getSize() );
+
+		handle( cache, request( "GET", "/a" ) );
+		Assert.assertEquals( 2, cache.getHits() );
+		handle( cache, request( "GET", "/b" ) );
+		Assert.assertEquals( 4, calls.get() );
+	}
+
+	@Test
+	public void testTimeToLive() throws HTTPException, InterruptedException {
+		CachingHandler cache = new CachingHandler( counting, 10, 20, TimeUnit.MILLISECONDS );
+		handle( cache, request( "GET", "/a" ) );
+		Thread.sleep( 40 );
+		HTTPResponse response = handle( cache, request( "GET", "/a" ) );
+		Assert.assertEquals( "{\"call\":2}", response.getBodyAsString() );
+		Assert.assertEquals( 0, cache.getHits() );
+		Assert.assertEquals( 2, cache.getMisses() );
+	}
+
+	@Test
+	public void testClear() throws HTTPException {
+		CachingHandler cache = new CachingHandler( counting, 10, 1, TimeUnit.MINUTES );
+		handle( cache, request( "GET", "/a" ) );
+		cache.clear();
+		Assert.assertEquals( 0, cache.getSize() );
+		handle( cache, request( "GET", "/a" ) );
+		Assert.assertEquals( 2, calls.get() );
+	}
+
+	@Test
+	public void testHandlerThrows() {
+		CachingHandler cache = new CachingHandler( new HTTPRequestHandler() {
+			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+				throw new HTTPException( 400, "bad" );
+			}
+		}, 10, 1, TimeUnit.MINUTES );
+
+		try {
+			handle( cache, request( "GET", "/a" ) );
+			Assert.fail();
+		}
+		catch ( HTTPException he ) {
+			Assert.assertEquals( 400, he.getStatus() );
+		}
+		Assert.assertEquals( 0, cache.getSize() );
+	}
+}
@@ -0,0 +1,187 @@
+package com.mauter.httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCoalescingHandler {
+
+	ExecutorService clients = Executors.newCachedThreadPool();
+	CountDownLatch release = new CountDownLatch( 1 );
+	AtomicInteger calls = new AtomicInteger();
+
+	HTTPRequestHandler slow = new HTTPRequestHandler() {
+		@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+			int call = calls.incrementAndGet();
+			try {
+				release.await( 5, TimeUnit.SECONDS );
+			}
+			catch ( InterruptedException ie ) {
+				throw new HTTPException( ie );
+			}
+			if ( request.getPath().equals( "/fail" ) ) throw new HTTPException( 502, "upstream failed" );
+			response.setStatus( 200 );
+			response.setBody( "call " + call );
+		}
+	};
+
+	@After
+	public void tearDown() {
+		clients.shutdownNow();
+	}
+
+	HTTPRequest request( String method, String path ) {
+		HTTPRequest request = new HTTPRequest();
+		request.setMethod( method );
+		request.setPath( path );
+		return request;
+	}
+
+	Future<HTTPResponse> submit( final HTTPRequestHandler handler, final HTTPRequest request ) {
+		return clients.submit( new Callable<HTTPResponse>() {
+			@Override public HTTPResponse call() throws HTTPException {
+				HTTPResponse response = new HTTPResponse();
+				handler.handleRequest( request, response );
+				return response;
+			}
+		} );
+	}
+
+	void awaitCoalesced( CoalescingHandler handler, long count ) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while ( handler.getCoalesced() < count && System.currentTimeMillis() < deadline ) Thread.sleep( 5 );
+		Assert.assertEquals( count, handler.getCoalesced() );
+	}
+
+	@Test
+	public void testIdenticalRequestsShareOneExecution() throws Exception {
+		CoalescingHandler handler = new CoalescingHandler( slow );
+
+		List<Future<HTTPResponse>> responses = new ArrayList<>();
+		responses.add( submit( handler, request( "GET", "/a" ) ) );
+		while ( calls.get() == 0 ) Thread.sleep( 5 );
+		for ( int i = 0; i < 9; i++ ) responses.add( submit( handler, request( "GET", "/a" ) ) );
+		awaitCoalesced( handler, 9 );
+		release.countDown();
+
+		for ( Future<HTTPResponse> response : responses ) {
+			Assert.assertEquals( 200, response.get().getStatus() );
+			Assert.assertEquals( "call 1", response.get().getBodyAsString() );
+		}
+		Assert.assertEquals( 1, calls.get() );
+		Assert.assertEquals( 1, handler.getExecutions() );
+	}
+
+	@Test
+	public void testDifferentRequestsDoNotShare() throws Exception {
+		CoalescingHandler handler = new CoalescingHandler( slow );
+		Future<HTTPResponse> a = submit( handler, request( "GET", "/a" ) );
+		Future<HTTPResponse> b = submit( handler, request( "GET", "/b" ) );
+		Future<HTTPResponse> c = submit( handler, request( "POST", "/a" ) );
+		while ( calls.get() < 3 ) Thread.sleep( 5 );
+		release.countDown();
+
+		a.get();
+		b.get();
+		c.get();
+		Assert.assertEquals( 3, handler.getExecutions() );
+		Assert.assertEquals( 0, handler.getCoalesced() );
+	}
+
+	@Test
+	public void testSequentialRequestsDoNotShare() throws HTTPException {
+		release.countDown();
+		CoalescingHandler handler = new CoalescingHandler( slow );
+		HTTPResponse first = new HTTPResponse();
+		handler.handleRequest( request( "GET", "/a" ), first );
+		HTTPResponse second = new HTTPResponse();
+		handler.handleRequest( request( "GET", "/a" ), second );
+		Assert.assertEquals( "call 1", first.getBodyAsString() );
+		Assert.assertEquals( "call 2", second.getBodyAsString() );
+	}
+
+	@Test
+	public void testExceptionIsShared() throws Exception {
+		CoalescingHandler handler = new CoalescingHandler( slow );
+		Future<HTTPResponse> leader = submit( handler, request( "GET", "/fail" ) );
+		while ( calls.get() == 0 ) Thread.sleep( 5 );
+		Future<HTTPResponse> follower = submit( handler, request( "GET", "/fail" ) );
+		awaitCoalesced( handler, 1 );
+		release.countDown();
+
+		for ( Future<HTTPResponse> response : Arrays.asList( leader, follower ) ) {
+			try {
+				response.get();
+				Assert.fail();
+			}
+			catch ( ExecutionException ee ) {
+				Assert.assertEquals( 502, ( (HTTPException)ee.getCause() ).getStatus() );
+			}
+		}
+		Assert.assertEquals( 1, calls.get() );
+	}
+
+	@Test
+	public void testNullKeyIsNeverShared() throws Exception {
+		CoalescingHandler handler = new CoalescingHandler( slow, new HTTPRequestKey() {
+			@Override public String getKey( HTTPRequest request ) { return null; }
+		} );
+		Future<HTTPResponse> a = submit( handler, request( "GET", "/a" ) );
+		Future<HTTPResponse> b = submit( handler, request( "GET", "/a" ) );
+		while ( calls.get() < 2 ) Thread.sleep( 5 );
+		release.countDown();
+		a.get();
+		b.get();
+		Assert.assertEquals( 2, handler.getExecutions() );
+	}
+
+	@Test
+	public void testPostsWithDifferentBodiesDoNotShare() throws Exception {
+		CoalescingHandler handler = new CoalescingHandler( slow );
+		HTTPRequest first = request( "POST", "/orders" );
+		first.setBody( "{\"item\":1}".getBytes( StandardCharsets.UTF_8 ) );
+		HTTPRequest second = request( "POST", "/orders" );
+		second.setBody( "{\"item\":2}".getBytes( StandardCharsets.UTF_8 ) );
+
+		Future<HTTPResponse> a = submit( handler, first );
+		Future<HTTPResponse> b = submit( handler, second );
+		while ( calls.get() < 2 ) Thread.sleep( 5 );
+		release.countDown();
+
+		Assert.assertNotEquals( a.get().getBodyAsString(), b.get().getBodyAsString() );
+		Assert.assertEquals( 2, handler.getExecutions() );
+		Assert.assertEquals( 0, handler.getCoalesced() );
+	}
+
+	@Test
+	public void testMethodAndPathKey() {
+		Assert.assertEquals( "GET /a?b=c", HTTPRequestKey.METHOD_AND_PATH.getKey( request( "GET", "/a?b=c" ) ) );
+		Assert.assertEquals( "HEAD /a", HTTPRequestKey.METHOD_AND_PATH.getKey( request( "HEAD", "/a" ) ) );
+		Assert.assertNull( HTTPRequestKey.METHOD_AND_PATH.getKey( request( "POST", "/a" ) ) );
+		Assert.assertNull( HTTPRequestKey.METHOD_AND_PATH.getKey( request( "DELETE", "/a" ) ) );
+
+		// different credentials never share a response
+		HTTPRequest alice = request( "GET", "/a" );
+		alice.setHeader( "Authorization", "Bearer alice" );
+		HTTPRequest bob = request( "GET", "/a" );
+		bob.setHeader( "Authorization", "Bearer bob" );
+		Assert.assertNotEquals( HTTPRequestKey.METHOD_AND_PATH.getKey( alice ), HTTPRequestKey.METHOD_AND_PATH.getKey( bob ) );
+		bob.setHeader( "Authorization", "Bearer alice" );
+		Assert.assertEquals( HTTPRequestKey.METHOD_AND_PATH.getKey( alice ), HTTPRequestKey.METHOD_AND_PATH.getKey( bob ) );
+		bob.setHeader( "Cookie", "session=bob" );
+		Assert.assertNotEquals( HTTPRequestKey.METHOD_AND_PATH.getKey( alice ), HTTPRequestKey.METHOD_AND_PATH.getKey( bob ) );
+	}
+}
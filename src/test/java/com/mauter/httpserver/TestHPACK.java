@@ -0,0 +1,158 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * The examples are from RFC 7541 Appendix C.
+ */
+public class TestHPACK {
+
+	static byte[] hex( String hex ) {
+		hex = hex.replace( " ", "" );
+		byte[] bytes = new byte[ hex.length() / 2 ];
+		for ( int i = 0; i < bytes.length; i++ ) bytes[i] = (byte)Integer.parseInt( hex.substring( i * 2, i * 2 + 2 ), 16 );
+		return bytes;
+	}
+
+	static List<String[]> decode( HPACK.Decoder decoder, String hex ) throws HTTP2Exception {
+		byte[] block = hex( hex );
+		return decoder.decode( block, 0, block.length );
+	}
+
+	static void assertHeader( String name, String value, String[] header ) {
+		Assert.assertEquals( name, header[0] );
+		Assert.assertEquals( value, header[1] );
+	}
+
+	@Test
+	public void testWriteInteger() {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HPACK.writeInteger( out, 10, 5, 0 );
+		Assert.assertArrayEquals( hex( "0a" ), out.toByteArray() );
+
+		out.reset();
+		HPACK.writeInteger( out, 1337, 5, 0 );
+		Assert.assertArrayEquals( hex( "1f9a0a" ), out.toByteArray() );
+
+		out.reset();
+		HPACK.writeInteger( out, 42, 8, 0 );
+		Assert.assertArrayEquals( hex( "2a" ), out.toByteArray() );
+	}
+
+	@Test
+	public void testLiteralWithIndexing() throws HTTP2Exception {
+		HPACK.Decoder decoder = new HPACK.Decoder( 4096 );
+		List<String[]> headers = decode( decoder, "400a 6375 7374 6f6d 2d6b 6579 0d63 7573 746f 6d2d 6865 6164 6572" );
+		Assert.assertEquals( 1, headers.size() );
+		assertHeader( "custom-key", "custom-header", headers.get( 0 ) );
+		Assert.assertEquals( 55, decoder.size );
+	}
+
+	@Test
+	public void testLiteralWithoutIndexing() throws HTTP2Exception {
+		HPACK.Decoder decoder = new HPACK.Decoder( 4096 );
+		List<String[]> headers = decode( decoder, "040c 2f73 616d 706c 652f 7061 7468" );
+		assertHeader( ":path", "/sample/path", headers.get( 0 ) );
+		Assert.assertEquals( 0, decoder.size );
+
+		headers = decode( decoder, "1008 7061 7373 776f 7264 0673 6563 7265 74" );
+		assertHeader( "password", "secret", headers.get( 0 ) );
+		Assert.assertEquals( 0, decoder.size );
+	}
+
+	@Test
+	public void testRequestsWithoutHuffman() throws HTTP2Exception {
+		HPACK.Decoder decoder = new HPACK.Decoder( 4096 );
+		List<String[]> headers = decode( decoder, "8286 8441 0f77 7777 2e65 7861 6d70 6c65 2e63 6f6d" );
+		Assert.assertEquals( 4, headers.size() );
+		assertHeader( ":method", "GET", headers.get( 0 ) );
+		assertHeader( ":scheme", "http", headers.get( 1 ) );
+		assertHeader( ":path", "/", headers.get( 2 ) );
+		assertHeader( ":authority", "www.example.com", headers.get( 3 ) );
+		Assert.assertEquals( 57, decoder.size );
+
+		headers = decode( decoder, "8286 84be 5808 6e6f 2d63 6163 6865" );
+		Assert.assertEquals( 5, headers.size() );
+		assertHeader( ":authority", "www.example.com", headers.get( 3 ) );
+		assertHeader( "cache-control", "no-cache", headers.get( 4 ) );
+		Assert.assertEquals( 110, decoder.size );
+
+		headers = decode( decoder, "8287 85bf 400a 6375 7374 6f6d 2d6b 6579 0c63 7573 746f 6d2d 7661 6c75 65" );
+		assertHeader( ":scheme", "https", headers.get( 1 ) );
+		assertHeader( ":path", "/index.html", headers.get( 2 ) );
+		assertHeader( ":authority", "www.example.com", headers.get( 3 ) );
+		assertHeader( "custom-key", "custom-value", headers.get( 4 ) );
+		Assert.assertEquals( 164, decoder.size );
+	}
+
+	@Test
+	public void testRequestsWithHuffman() throws HTTP2Exception {
+		HPACK.Decoder decoder = new HPACK.Decoder( 4096 );
+		List<String[]> headers = decode( decoder, "8286 8441 8cf1 e3c2 e5f2 3a6b a0ab 90f4 ff" );
+		assertHeader( ":authority", "www.example.com", headers.get( 3 ) );
+
+		headers = decode( decoder, "8286 84be 5886 a8eb 1064 9cbf" );
+		assertHeader( "cache-control", "no-cache", headers.get( 4 ) );
+
+		headers = decode( decoder, "8287 85bf 4088 25a8 49e9 5ba9 7d7f 8925 a849 e95b b8e8 b4bf" );
+		assertHeader( "custom-key", "custom-value", headers.get( 4 ) );
+		Assert.assertEquals( 164, decoder.size );
+	}
+
+	@Test
+	public void testEviction() throws HTTP2Exception {
+		// C.5 with a 256 byte table
+		HPACK.Decoder decoder = new HPACK.Decoder( 256 );
+		decode( decoder, "4803 3330 3258 0770 7269 7661 7465 611d 4d6f 6e2c 2032 3120 4f63 7420 3230 3133 2032 303a 3133 3a32 3120 474d 546e 1768 7474 7073 3a2f 2f77 7777 2e65 7861 6d70 6c65 2e63 6f6d" );
+		Assert.assertEquals( 222, decoder.size );
+
+		List<String[]> headers = decode( decoder, "4803 3330 37c1 c0bf" );
+		assertHeader( ":status", "307", headers.get( 0 ) );
+		assertHeader( "location", "https://www.example.com", headers.get( 3 ) );
+		Assert.assertEquals( 4, decoder.dynamic.size() );
+		Assert.assertEquals( 222, decoder.size );
+		assertHeader( ":status", "307", decoder.dynamic.get( 0 ) );
+	}
+
+	@Test
+	public void testHuffmanDecode() throws HTTP2Exception {
+		byte[] bytes = hex( "f1e3c2e5f23a6ba0ab90f4ff" );
+		Assert.assertEquals( "www.example.com", HPACK.huffmanDecode( bytes, 0, bytes.length ) );
+		bytes = hex( "a8eb10649cbf" );
+		Assert.assertEquals( "no-cache", HPACK.huffmanDecode( bytes, 0, bytes.length ) );
+	}
+
+	@Test(expected=HTTP2Exception.class)
+	public void testInvalidIndex() throws HTTP2Exception {
+		decode( new HPACK.Decoder( 4096 ), "be" );
+	}
+
+	@Test(expected=HTTP2Exception.class)
+	public void testTableSizeOverLimit() throws HTTP2Exception {
+		decode( new HPACK.Decoder( 4096 ), "3fe21f" );
+	}
+
+	@Test
+	public void testEncoderRoundTrip() throws HTTP2Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HPACK.writeStatus( out, 200 );
+		HPACK.writeStatus( out, 418 );
+		HPACK.writeHeader( out, "content-type", "text/plain" );
+		HPACK.writeHeader( out, "x-custom", "héllo" );
+		byte[] block = out.toByteArray();
+		Assert.assertEquals( (byte)0x88, block[0] );
+
+		HPACK.Decoder decoder = new HPACK.Decoder( 4096 );
+		List<String[]> headers = decoder.decode( block, 0, block.length );
+		Assert.assertEquals( 4, headers.size() );
+		assertHeader( ":status", "200", headers.get( 0 ) );
+		assertHeader( ":status", "418", headers.get( 1 ) );
+		assertHeader( "content-type", "text/plain", headers.get( 2 ) );
+		assertHeader( "x-custom", "héllo", headers.get( 3 ) );
+		Assert.assertEquals( 0, decoder.size );
+	}
+}
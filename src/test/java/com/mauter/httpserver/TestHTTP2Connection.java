@@ -0,0 +1,572 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.SSLParameters;
+import javax.net.ssl.SSLSocket;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHTTP2Connection {
+
+	HTTPRequestHandler echo = new HTTPRequestHandler() {
+		@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+			response.setStatus( 200 );
+			response.setHeader( "Content-Type", "text/plain" );
+			String body = request.getMethod() + " " + request.getPath() + " " + request.getVersion();
+			if ( request.getBody() != null ) body += " " + new String( request.getBody(), StandardCharsets.UTF_8 );
+			response.setBody( body.getBytes( StandardCharsets.UTF_8 ) );
+		}
+	};
+
+	HTTPServer start( HTTPRequestHandler handler ) throws IOException {
+		HTTPServer server = new HTTPServer();
+		server.setHTTP2Enabled( true );
+		server.setHTTPRequestHandler( handler );
+		server.start();
+		return server;
+	}
+
+	static class Frame {
+		int type;
+		int flags;
+		int streamId;
+		byte[] payload;
+	}
+
+	/**
+	 * A bare HTTP/2 client that writes and reads frames by hand.
+	 */
+	static class Client implements AutoCloseable {
+		Socket socket;
+		OutputStream out;
+		DataInputStream in;
+		HPACK.Decoder decoder = new HPACK.Decoder( 4096 );
+
+		Client( int port ) throws IOException {
+			this( new Socket( "localhost", port ) );
+		}
+
+		Client( Socket socket ) throws IOException {
+			this.socket = socket;
+			socket.setSoTimeout( 5000 );
+			out = socket.getOutputStream();
+			in = new DataInputStream( socket.getInputStream() );
+		}
+
+		void preface( byte[] settings ) throws IOException {
+			out.write( HTTP2Connection.PREFACE );
+			frame( HTTP2Connection.SETTINGS, 0, 0, settings );
+		}
+
+		void frame( int type, int flags, int streamId, byte[] payload ) throws IOException {
+			byte[] header = new byte[ 9 ];
+			header[0] = (byte)( payload.length >>> 16 );
+			header[1] = (byte)( payload.length >>> 8 );
+			header[2] = (byte)payload.length;
+			header[3] = (byte)type;
+			header[4] = (byte)flags;
+			HTTP2Connection.writeInt( header, 5, streamId );
+			out.write( header );
+			out.write( payload );
+			out.flush();
+		}
+
+		void request( int streamId, String method, String path, boolean endStream ) throws IOException {
+			ByteArrayOutputStream block = new ByteArrayOutputStream();
+			HPACK.writeHeader( block, ":method", method );
+			HPACK.writeHeader( block, ":scheme", "http" );
+			HPACK.writeHeader( block, ":path", path );
+			HPACK.writeHeader( block, ":authority", "localhost" );
+			frame( HTTP2Connection.HEADERS, HTTP2Connection.END_HEADERS | ( endStream ? HTTP2Connection.END_STREAM : 0 ), streamId, block.toByteArray() );
+		}
+
+		Frame read() throws IOException {
+			byte[] header = new byte[ 9 ];
+			in.readFully( header );
+			Frame frame = new Frame();
+			int length = ( header[0] & 0xff ) << 16 | ( header[1] & 0xff ) << 8 | ( header[2] & 0xff );
+			frame.type = header[3];
+			frame.flags = header[4];
+			frame.streamId = (int)HTTP2Connection.readUnsignedInt( header, 5 ) & 0x7fffffff;
+			frame.payload = new byte[ length ];
+			in.readFully( frame.payload );
+			return frame;
+		}
+
+		/**
+		 * Reads frames until one of the given type arrives, skipping the
+		 * server's SETTINGS, WINDOW_UPDATE and acknowledgements.
+		 */
+		Frame read( int type ) throws IOException {
+			while ( true ) {
+				Frame frame = read();
+				if ( frame.type == type ) return frame;
+			}
+		}
+
+		/**
+		 * Reads responses until the given number of streams have ended.
+		 *
+		 * @return the status and body of each stream by id
+		 */
+		Map<Integer, String> responses( int count ) throws IOException {
+			Map<Integer, String> responses = new HashMap<>();
+			Map<Integer, String> statuses = new HashMap<>();
+			Map<Integer, ByteArrayOutputStream> bodies = new HashMap<>();
+			while ( responses.size() < count ) {
+				Frame frame = read();
+				if ( frame.type == HTTP2Connection.HEADERS ) {
+					List<String[]> headers = decoder.decode( frame.payload, 0, frame.payload.length );
+					Assert.assertEquals( ":status", headers.get( 0 )[0] );
+					statuses.put( frame.streamId, headers.get( 0 )[1] );
+					bodies.put( frame.streamId, new ByteArrayOutputStream() );
+				}
+				else if ( frame.type == HTTP2Connection.DATA ) {
+					bodies.get( frame.streamId ).write( frame.payload );
+				}
+				else {
+					continue;
+				}
+				if ( ( frame.flags & HTTP2Connection.END_STREAM ) != 0 ) {
+					String body = new String( bodies.get( frame.streamId ).toByteArray(), StandardCharsets.UTF_8 );
+					responses.put( frame.streamId, statuses.get( frame.streamId ) + ( body.isEmpty() ? "" : " " + body ) );
+				}
+			}
+			return responses;
+		}
+
+		@Override
+		public void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	@Test
+	public void testPriorKnowledge() throws IOException {
+		try ( HTTPServer server = start( echo ); Client client = new Client( server.getPort() ) ) {
+			client.preface( new byte[0] );
+			client.request( 1, "GET", "/hello", true );
+			Assert.assertEquals( "200 GET /hello HTTP/2.0", client.responses( 1 ).get( 1 ) );
+
+			// the same connection carries the next request
+			client.request( 3, "GET", "/again", true );
+			Assert.assertEquals( "200 GET /again HTTP/2.0", client.responses( 1 ).get( 3 ) );
+			Assert.assertEquals( 2, server.getRequests().size() );
+			Assert.assertEquals( "localhost", server.getRequests().get( 0 ).getHeader( "Host" ) );
+		}
+	}
+
+	@Test
+	public void testStreamsDoNotBlockEachOther() throws Exception {
+		final CountDownLatch release = new CountDownLatch( 1 );
+		HTTPRequestHandler handler = new HTTPRequestHandler() {
+			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+				if ( "/slow".equals( request.getPath() ) ) {
+					try {
+						release.await( 5, TimeUnit.SECONDS );
+					}
+					catch ( InterruptedException ie ) {
+						throw new HTTPException( ie );
+					}
+				}
+				echo.handleRequest( request, response );
+			}
+		};
+
+		try ( HTTPServer server = start( handler ); Client client = new Client( server.getPort() ) ) {
+			client.preface( new byte[0] );
+			client.request( 1, "GET", "/slow", true );
+			client.request( 3, "GET", "/fast", true );
+
+			Map<Integer, String> responses = client.responses( 1 );
+			Assert.assertEquals( "200 GET /fast HTTP/2.0", responses.get( 3 ) );
+
+			release.countDown();
+			Assert.assertEquals( "200 GET /slow HTTP/2.0", client.responses( 1 ).get( 1 ) );
+		}
+	}
+
+	@Test
+	public void testHandlerTimeout() throws IOException {
+		AsyncHTTPRequestHandler stuck = new AsyncHTTPRequestHandler() {
+			@Override public CompletionStage<HTTPResponse> handleRequestAsync( HTTPRequest request, HTTPResponse response ) {
+				return new CompletableFuture<>();
+			}
+		};
+
+		try ( HTTPServer server = start( stuck ); Client client = new Client( server.getPort() ) ) {
+			server.setHandlerTimeout( 200 );
+			client.preface( new byte[0] );
+			client.request( 1, "GET", "/stuck", true );
+			Assert.assertTrue( client.responses( 1 ).get( 1 ).startsWith( "503" ) );
+		}
+	}
+
+	@Test
+	public void testRequestBody() throws IOException {
+		try ( HTTPServer server = start( echo ); Client client = new Client( server.getPort() ) ) {
+			client.preface( new byte[0] );
+			client.request( 1, "POST", "/echo", false );
+			client.frame( HTTP2Connection.DATA, 0, 1, "hello ".getBytes( StandardCharsets.UTF_8 ) );
+			client.frame( HTTP2Connection.DATA, HTTP2Connection.END_STREAM, 1, "world".getBytes( StandardCharsets.UTF_8 ) );
+			Assert.assertEquals( "200 POST /echo HTTP/2.0 hello world", client.responses( 1 ).get( 1 ) );
+		}
+	}
+
+	@Test
+	public void testSpooledRequestBody() throws IOException {
+		final long[] size = new long[ 1 ];
+		HTTPRequestHandler handler = new HTTPRequestHandler() {
+			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+				RequestBody body = request.getRequestBody();
+				size[0] = body.getPath() != null ? body.getSize() : -1;
+				response.setStatus( 204 );
+			}
+		};
+
+		try ( HTTPServer server = start( handler ); Client client = new Client( server.getPort() ) ) {
+			server.setHeapBodyThreshold( 10 );
+			server.setDirectBodyThreshold( 0 );
+			client.preface( new byte[0] );
+			client.request( 1, "POST", "/upload", false );
+			client.frame( HTTP2Connection.DATA, 0, 1, new byte[ 20 ] );
+			client.frame( HTTP2Connection.DATA, HTTP2Connection.END_STREAM, 1, new byte[ 20 ] );
+			Assert.assertEquals( "204", client.responses( 1 ).get( 1 ) );
+			Assert.assertEquals( 40, size[0] );
+		}
+	}
+
+	@Test
+	public void testRequestBodyTooLarge() throws IOException {
+		try ( HTTPServer server = start( echo ); Client client = new Client( server.getPort() ) ) {
+			server.setMaxBodySize( 10 );
+			client.preface( new byte[0] );
+			client.request( 1, "POST", "/echo", false );
+			client.frame( HTTP2Connection.DATA, 0, 1, new byte[ 8 ] );
+			client.frame( HTTP2Connection.DATA, 0, 1, new byte[ 8 ] );
+
+			// the stream is credited for the first frame, which was spooled, and never again
+			int credits = 0;
+			String status = null;
+			while ( true ) {
+				Frame frame = client.read();
+				if ( frame.type == HTTP2Connection.WINDOW_UPDATE && frame.streamId == 1 ) credits++;
+				if ( frame.type == HTTP2Connection.HEADERS ) status = client.decoder.decode( frame.payload, 0, frame.payload.length ).get( 0 )[1];
+				if ( frame.type == HTTP2Connection.RST_STREAM ) {
+					Assert.assertEquals( HTTP2Exception.NO_ERROR, HTTP2Connection.readUnsignedInt( frame.payload, 0 ) );
+					break;
+				}
+			}
+			Assert.assertEquals( "413", status );
+			Assert.assertEquals( 1, credits );
+		}
+	}
+
+	@Test
+	public void testDeclaredContentLengthTooLarge() throws IOException {
+		try ( HTTPServer server = start( echo ); Client client = new Client( server.getPort() ) ) {
+			server.setMaxBodySize( 10 );
+			client.preface( new byte[0] );
+
+			ByteArrayOutputStream block = new ByteArrayOutputStream();
+			HPACK.writeHeader( block, ":method", "POST" );
+			HPACK.writeHeader( block, ":scheme", "http" );
+			HPACK.writeHeader( block, ":path", "/echo" );
+			HPACK.writeHeader( block, "content-length", "11" );
+			client.frame( HTTP2Connection.HEADERS, HTTP2Connection.END_HEADERS, 1, block.toByteArray() );
+
+			// the answer comes without a byte of the body being sent
+			Assert.assertTrue( client.responses( 1 ).get( 1 ).startsWith( "413" ) );
+			Assert.assertEquals( 1, client.read( HTTP2Connection.RST_STREAM ).streamId );
+		}
+	}
+
+	HTTPServer startWithHeaderLimit( int maxHeaderListSize ) throws IOException {
+		HTTPServer server = new HTTPServer();
+		server.setHTTP2Enabled( true );
+		server.setHTTPRequestHandler( echo );
+		server.setMaxHeaderListSize( maxHeaderListSize );
+		server.start();
+		return server;
+	}
+
+	@Test
+	public void testAdvertisesMaxHeaderListSize() throws IOException {
+		try ( HTTPServer server = startWithHeaderLimit( 1000 ); Client client = new Client( server.getPort() ) ) {
+			Assert.assertEquals( HTTPServer.DEFAULT_MAX_HEADER_LIST_SIZE, new HTTPServer().getMaxHeaderListSize() );
+			client.preface( new byte[0] );
+			Frame settings = client.read( HTTP2Connection.SETTINGS );
+			long advertised = -1;
+			for ( int i = 0; i < settings.payload.length; i += 6 ) {
+				int id = ( settings.payload[i] & 0xff ) << 8 | ( settings.payload[i + 1] & 0xff );
+				if ( id == HTTP2Connection.SETTINGS_MAX_HEADER_LIST_SIZE ) advertised = HTTP2Connection.readUnsignedInt( settings.payload, i + 2 );
+			}
+			Assert.assertEquals( 1000, advertised );
+		}
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNoMaxHeaderListSize() {
+		new HTTPServer().setMaxHeaderListSize( 0 );
+	}
+
+	@Test
+	public void testHeaderListTooLarge() throws IOException {
+		try ( HTTPServer server = startWithHeaderLimit( 300 ); Client client = new Client( server.getPort() ) ) {
+			client.preface( new byte[0] );
+			ByteArrayOutputStream block = new ByteArrayOutputStream();
+			HPACK.writeHeader( block, ":method", "GET" );
+			HPACK.writeHeader( block, ":scheme", "http" );
+			HPACK.writeHeader( block, ":path", "/" );
+
+			// one header added to the table and then sent again by its index, so the block stays small
+			block.write( 0x40 );
+			HPACK.writeString( block, "x-big" );
+			HPACK.writeString( block, "0123456789012345678901234567890123456789" );
+			for ( int i = 0; i < 4; i++ ) block.write( 0x80 | ( HPACK.STATIC_TABLE.length + 1 ) );
+			Assert.assertTrue( block.size() < 300 );
+			client.frame( HTTP2Connection.HEADERS, HTTP2Connection.END_HEADERS | HTTP2Connection.END_STREAM, 1, block.toByteArray() );
+			Assert.assertTrue( client.responses( 1 ).get( 1 ).startsWith( "431" ) );
+
+			// the connection is still good
+			client.request( 3, "GET", "/next", true );
+			Assert.assertEquals( "200 GET /next HTTP/2.0", client.responses( 1 ).get( 3 ) );
+		}
+	}
+
+	@Test
+	public void testContinuationFlood() throws IOException {
+		try ( HTTPServer server = startWithHeaderLimit( 1000 ); Client client = new Client( server.getPort() ) ) {
+			client.preface( new byte[0] );
+			client.frame( HTTP2Connection.HEADERS, 0, 1, new byte[ 400 ] );
+			client.frame( HTTP2Connection.CONTINUATION, 0, 1, new byte[ 400 ] );
+			client.frame( HTTP2Connection.CONTINUATION, 0, 1, new byte[ 400 ] );
+			Frame goAway = client.read( HTTP2Connection.GOAWAY );
+			Assert.assertEquals( HTTP2Exception.ENHANCE_YOUR_CALM, HTTP2Connection.readUnsignedInt( goAway.payload, 4 ) );
+		}
+	}
+
+	@Test
+	public void testUpgrade() throws IOException {
+		try ( HTTPServer server = start( echo ); Client client = new Client( server.getPort() ) ) {
+			String request = "GET /upgraded HTTP/1.1\r\nHost: localhost\r\nConnection: Upgrade, HTTP2-Settings\r\nUpgrade: h2c\r\nHTTP2-Settings: AAMAAABk\r\n\r\n";
+			client.out.write( request.getBytes( StandardCharsets.US_ASCII ) );
+			client.out.flush();
+
+			StringBuilder head = new StringBuilder();
+			while ( !head.toString().endsWith( "\r\n\r\n" ) ) head.append( (char)client.in.read() );
+			Assert.assertTrue( head.toString().startsWith( "HTTP/1.1 101 Switching Protocols\r\n" ) );
+
+			// the response to the upgrade request comes back on stream 1
+			client.preface( new byte[0] );
+			Assert.assertEquals( "200 GET /upgraded HTTP/2.0", client.responses( 1 ).get( 1 ) );
+
+			client.request( 3, "GET", "/next", true );
+			Assert.assertEquals( "200 GET /next HTTP/2.0", client.responses( 1 ).get( 3 ) );
+		}
+	}
+
+	@Test
+	public void testPing() throws IOException {
+		try ( HTTPServer server = start( echo ); Client client = new Client( server.getPort() ) ) {
+			client.preface( new byte[0] );
+			byte[] data = { 1, 2, 3, 4, 5, 6, 7, 8 };
+			client.frame( HTTP2Connection.PING, 0, 0, data );
+			Frame ping = client.read( HTTP2Connection.PING );
+			Assert.assertEquals( HTTP2Connection.ACK, ping.flags );
+			Assert.assertArrayEquals( data, ping.payload );
+		}
+	}
+
+	@Test
+	public void testFlowControl() throws IOException {
+		HTTPRequestHandler handler = new HTTPRequestHandler() {
+			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+				response.setStatus( 200 );
+				response.setBody( "0123456789abcdefghijklmno".getBytes( StandardCharsets.UTF_8 ) );
+			}
+		};
+
+		try ( HTTPServer server = start( handler ); Client client = new Client( server.getPort() ) ) {
+			byte[] settings = new byte[ 6 ];
+			HTTP2Connection.setting( settings, 0, HTTP2Connection.SETTINGS_INITIAL_WINDOW_SIZE, 10 );
+			client.preface( settings );
+			client.request( 1, "GET", "/", true );
+
+			Frame data = client.read( HTTP2Connection.DATA );
+			Assert.assertEquals( "0123456789", new String( data.payload, StandardCharsets.UTF_8 ) );
+			Assert.assertEquals( 0, data.flags & HTTP2Connection.END_STREAM );
+
+			// nothing more comes until the client opens the window
+			client.socket.setSoTimeout( 200 );
+			try {
+				client.read( HTTP2Connection.DATA );
+				Assert.fail( "Server ignored the flow control window." );
+			}
+			catch ( java.net.SocketTimeoutException ste ) {
+				// expected
+			}
+			client.socket.setSoTimeout( 5000 );
+
+			byte[] increment = new byte[ 4 ];
+			HTTP2Connection.writeInt( increment, 0, 100 );
+			client.frame( HTTP2Connection.WINDOW_UPDATE, 0, 1, increment );
+			data = client.read( HTTP2Connection.DATA );
+			Assert.assertEquals( "abcdefghijklmno", new String( data.payload, StandardCharsets.UTF_8 ) );
+			Assert.assertEquals( HTTP2Connection.END_STREAM, data.flags & HTTP2Connection.END_STREAM );
+		}
+	}
+
+	@Test
+	public void testClientThatStopsReading() throws Exception {
+		HTTPRequestHandler handler = new HTTPRequestHandler() {
+			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+				response.setStatus( 200 );
+				response.setBody( new byte[ 64 * 1024 * 1024 ] );
+			}
+		};
+
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHTTP2Enabled( true );
+			server.setWriteTimeout( 200 );
+			server.setHTTPRequestHandler( handler );
+			server.start();
+
+			try ( Client client = new Client( server.getPort() ) ) {
+				// the windows are wide open, so only the socket can hold the response back
+				byte[] settings = new byte[ 6 ];
+				HTTP2Connection.setting( settings, 0, HTTP2Connection.SETTINGS_INITIAL_WINDOW_SIZE, HTTP2Connection.MAX_WINDOW_SIZE );
+				client.preface( settings );
+				byte[] increment = new byte[ 4 ];
+				HTTP2Connection.writeInt( increment, 0, HTTP2Connection.MAX_WINDOW_SIZE - HTTP2Connection.DEFAULT_WINDOW_SIZE );
+				client.frame( HTTP2Connection.WINDOW_UPDATE, 0, 0, increment );
+				client.request( 1, "GET", "/", true );
+
+				// the client never reads, and the server gives up instead of blocking forever
+				while ( server.getActiveConnections() == 0 ) Thread.sleep( 5 );
+				long deadline = System.currentTimeMillis() + 5000;
+				while ( server.getActiveConnections() > 0 && System.currentTimeMillis() < deadline ) Thread.sleep( 10 );
+				Assert.assertEquals( 0, server.getActiveConnections() );
+			}
+		}
+	}
+
+	@Test
+	public void testRefusesStreamsOverTheLimit() throws Exception {
+		final CountDownLatch release = new CountDownLatch( 1 );
+		HTTPRequestHandler handler = new HTTPRequestHandler() {
+			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+				try {
+					release.await( 5, TimeUnit.SECONDS );
+				}
+				catch ( InterruptedException ie ) {
+					throw new HTTPException( ie );
+				}
+				response.setStatus( 204 );
+			}
+		};
+
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHTTP2Enabled( true );
+			server.setMaxConcurrentStreams( 1 );
+			server.setHTTPRequestHandler( handler );
+			server.start();
+
+			try ( Client client = new Client( server.getPort() ) ) {
+				client.preface( new byte[0] );
+				client.request( 1, "GET", "/", true );
+				client.request( 3, "GET", "/", true );
+
+				Frame reset = client.read( HTTP2Connection.RST_STREAM );
+				Assert.assertEquals( 3, reset.streamId );
+				Assert.assertEquals( HTTP2Exception.REFUSED_STREAM, HTTP2Connection.readUnsignedInt( reset.payload, 0 ) );
+
+				release.countDown();
+				Assert.assertEquals( "204", client.responses( 1 ).get( 1 ) );
+			}
+		}
+	}
+
+	@Test
+	public void testProtocolErrorSendsGoAway() throws IOException {
+		try ( HTTPServer server = start( echo ); Client client = new Client( server.getPort() ) ) {
+			client.preface( new byte[0] );
+
+			// clients use odd stream ids
+			client.request( 2, "GET", "/", true );
+			Frame goAway = client.read( HTTP2Connection.GOAWAY );
+			Assert.assertEquals( HTTP2Exception.PROTOCOL_ERROR, HTTP2Connection.readUnsignedInt( goAway.payload, 4 ) );
+			Assert.assertEquals( -1, client.in.read() );
+		}
+	}
+
+	@Test
+	public void testOverTLS() throws Exception {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHTTP2Enabled( true );
+			server.setSecure( true );
+			server.setHTTPRequestHandler( echo );
+			server.start();
+
+			SSLSocket socket = (SSLSocket)server.getClientSSLContext().getSocketFactory().createSocket( "localhost", server.getPort() );
+			SSLParameters parameters = socket.getSSLParameters();
+			Assert.assertTrue( HTTPServer.setApplicationProtocols( parameters, new String[] { "h2" } ) );
+			socket.setSSLParameters( parameters );
+
+			try ( Client client = new Client( socket ) ) {
+				socket.startHandshake();
+				Assert.assertEquals( "h2", SSLSocket.class.getMethod( "getApplicationProtocol" ).invoke( socket ) );
+				client.preface( new byte[0] );
+				client.request( 1, "GET", "/secure", true );
+				Assert.assertEquals( "200 GET /secure HTTP/2.0", client.responses( 1 ).get( 1 ) );
+			}
+		}
+	}
+
+	@Test
+	public void testDisabledByDefault() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHTTPRequestHandler( echo );
+			server.start();
+			Assert.assertFalse( server.isHTTP2Enabled() );
+
+			try ( Client client = new Client( server.getPort() ) ) {
+				client.preface( new byte[0] );
+				byte[] status = new byte[ 5 ];
+				client.in.readFully( status );
+				Assert.assertEquals( "HTTP/", new String( status, StandardCharsets.US_ASCII ) );
+			}
+		}
+	}
+
+	@Test
+	public void testIsUpgrade() {
+		HTTPRequest request = new HTTPRequest();
+		request.setVersion( "HTTP/1.1" );
+		request.setHeader( "Connection", "Upgrade, HTTP2-Settings" );
+		request.setHeader( "Upgrade", "h2c" );
+		request.setHeader( "HTTP2-Settings", "" );
+		Assert.assertTrue( HTTP2Connection.isUpgrade( request ) );
+
+		request.setHeader( "Upgrade", "websocket" );
+		Assert.assertFalse( HTTP2Connection.isUpgrade( request ) );
+
+		request.setHeader( "Upgrade", "h2c" );
+		request.setVersion( "HTTP/1.0" );
+		Assert.assertFalse( HTTP2Connection.isUpgrade( request ) );
+	}
+}
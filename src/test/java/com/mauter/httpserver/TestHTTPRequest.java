@@ -1,6 +1,8 @@
 package com.mauter.httpserver;
 
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -337,4 +339,151 @@ public class TestHTTPRequest {
 		request.setHeader( "asdf", "qwer" );
 		request.getHeaders().put( "zxcv", "dfgh" );
 	}
+
+	@Test
+	public void testGetPathParameterNone() {
+		HTTPRequest request = new HTTPRequest();
+		Assert.assertNull( request.getPathParameter( "id" ) );
+	}
+	
+	@Test
+	public void testSetPathParameter() {
+		HTTPRequest request = new HTTPRequest();
+		request.setPathParameter( "id", "1234" );
+		Assert.assertEquals( "1234", request.getPathParameter( "id" ) );
+		Assert.assertNull( request.getPathParameter( "ID" ) );
+	}
+	
+	@Test
+	public void testGetPathParametersNone() {
+		HTTPRequest request = new HTTPRequest();
+		Assert.assertNull( request.getPathParameters() );
+	}
+	
+	@Test(expected=UnsupportedOperationException.class)
+	public void testGetPathParametersNotModifiable() {
+		HTTPRequest request = new HTTPRequest();
+		request.setPathParameter( "id", "1234" );
+		Assert.assertEquals( 1, request.getPathParameters().size() );
+		request.getPathParameters().put( "zxcv", "dfgh" );
+	}
+
+	@Test
+	public void testGetWireBodySizeUnread() {
+		HTTPRequest request = new HTTPRequest();
+		request.setBody( "1234" );
+		Assert.assertEquals( -1, request.getWireBodySize() );
+	}
+	
+	@Test
+	public void testGetDecodedBodySize() {
+		HTTPRequest request = new HTTPRequest();
+		Assert.assertEquals( 0, request.getDecodedBodySize() );
+		request.setBody( "1234" );
+		Assert.assertEquals( 4, request.getDecodedBodySize() );
+	}
+
+	@Test
+	public void testRemoteAddress() {
+		HTTPRequest request = new HTTPRequest();
+		Assert.assertNull( request.getRemoteAddress() );
+		request.setRemoteAddress( "10.0.0.1" );
+		Assert.assertEquals( "10.0.0.1", request.getRemoteAddress() );
+	}
+
+	static HTTPRequest raw( String... lines ) {
+		StringBuilder raw = new StringBuilder();
+		int[] index = new int[ lines.length * 3 ];
+		for ( int i = 0; i < lines.length; i++ ) {
+			index[i * 3] = raw.length();
+			index[i * 3 + 1] = lines[i].startsWith( " " ) ? -1 : raw.length() + lines[i].indexOf( ':' );
+			raw.append( lines[i] );
+			index[i * 3 + 2] = raw.length();
+		}
+		HTTPRequest request = new HTTPRequest();
+		request.setRawHeaders( raw.toString().getBytes( StandardCharsets.US_ASCII ), index, lines.length );
+		return request;
+	}
+
+	@Test
+	public void testRawHeaders() {
+		HTTPRequest request = raw( "Host: localhost", "Accept:  text/plain  ", "X-Long: one,", "  two" );
+		Assert.assertEquals( "localhost", request.getHeader( "host" ) );
+		Assert.assertEquals( "text/plain", request.getHeader( "ACCEPT" ) );
+		Assert.assertEquals( "one, two", request.getHeader( "X-Long" ) );
+		Assert.assertNull( request.getHeader( "Hos" ) );
+		Assert.assertNull( request.getHeader( "Hosts" ) );
+		Assert.assertNull( request.headers );
+	}
+
+	@Test
+	public void testRawHeadersLastWins() {
+		HTTPRequest request = raw( "Accept: text/plain", "Host: localhost", "accept: text/html" );
+		Assert.assertEquals( "text/html", request.getHeader( "Accept" ) );
+		Assert.assertEquals( 2, request.getHeaders().size() );
+		Assert.assertEquals( "text/html", request.getHeaders().get( "accept" ) );
+	}
+
+	@Test
+	public void testRawHeadersDecodedBySetHeader() {
+		HTTPRequest request = raw( "Host: localhost" );
+		request.setHeader( "Accept", "text/plain" );
+		Assert.assertNull( request.rawHeaders );
+		Assert.assertEquals( "localhost", request.getHeader( "Host" ) );
+		Assert.assertEquals( "text/plain", request.getHeader( "Accept" ) );
+		Assert.assertEquals( 2, request.getHeaders().size() );
+	}
+
+	@Test
+	public void testGetBodyAsStringCached() {
+		HTTPRequest request = new HTTPRequest();
+		request.setBody( "1234" );
+		String body = request.getBodyAsString();
+		Assert.assertEquals( "1234", body );
+		Assert.assertSame( body, request.getBodyAsString() );
+
+		request.setBody( "5678" );
+		Assert.assertEquals( "5678", request.getBodyAsString() );
+		request.body = "abcd".getBytes( StandardCharsets.UTF_8 );
+		Assert.assertEquals( "abcd", request.getBodyAsString() );
+		request.setBody( (byte[])null );
+		Assert.assertNull( request.getBodyAsString() );
+	}
+
+	@Test
+	public void testQueryParameters() {
+		HTTPRequest request = new HTTPRequest();
+		Assert.assertNull( request.getQueryString() );
+		Assert.assertNull( request.getQueryParameter( "q" ) );
+
+		request.setPath( "/search?q=red+squirrel&tag=a&tag=b" );
+		Assert.assertEquals( "q=red+squirrel&tag=a&tag=b", request.getQueryString() );
+		Assert.assertEquals( "red squirrel", request.getQueryParameter( "q" ) );
+		Assert.assertEquals( Arrays.asList( "a", "b" ), request.getQueryParameters( "tag" ) );
+		Assert.assertEquals( 2, request.getQueryParameterNames().size() );
+
+		// a new path is split again
+		request.setPath( "/search" );
+		Assert.assertNull( request.getQueryString() );
+		Assert.assertNull( request.getQueryParameter( "q" ) );
+		Assert.assertTrue( request.getQueryParameterNames().isEmpty() );
+	}
+
+	@Test
+	public void testFormParameters() {
+		HTTPRequest request = new HTTPRequest();
+		request.setBody( "name=Chip&friend=Dale&friend=Gadget" );
+		Assert.assertNull( request.getFormParameter( "name" ) );
+
+		request = new HTTPRequest();
+		request.setHeader( "Content-Type", "application/x-www-form-urlencoded; charset=UTF-8" );
+		request.setBody( "name=Chip&friend=Dale&friend=Gadget" );
+		Assert.assertEquals( "Chip", request.getFormParameter( "name" ) );
+		Assert.assertEquals( Arrays.asList( "Dale", "Gadget" ), request.getFormParameters( "friend" ) );
+		Assert.assertEquals( 2, request.getFormParameterNames().size() );
+
+		request.setBody( "name=Dale" );
+		Assert.assertEquals( "Dale", request.getFormParameter( "name" ) );
+		Assert.assertTrue( request.getFormParameters( "friend" ).isEmpty() );
+	}
 }
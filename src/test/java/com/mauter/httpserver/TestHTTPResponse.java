@@ -29,6 +29,17 @@ public class TestHTTPResponse {
 		Assert.assertEquals( 1234, response.status );
 	}
 
+	@Test
+	public void testSetStatusSetsStatusMessage() {
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( 503 );
+		Assert.assertEquals( "Service Unavailable", response.getStatusMessage() );
+		response.setStatus( 413 );
+		Assert.assertEquals( "Payload Too Large", response.getStatusMessage() );
+		response.setStatus( 299 );
+		Assert.assertEquals( "299 Message", response.getStatusMessage() );
+	}
+
 	@Test
 	public void testGetStatusMessageNull() {
 		HTTPResponse response = new HTTPResponse();
@@ -326,4 +337,43 @@ public class TestHTTPResponse {
 		Assert.assertEquals( body.toString(), response.getBodyAsString() );
 	}
 	
+
+	@Test
+	public void testSetHeaderClearsHead() {
+		HTTPResponse response = new HTTPResponse();
+		response.head = new byte[0];
+		response.setHeader( "a", "b" );
+		Assert.assertNull( response.head );
+	}
+	
+	@Test
+	public void testSetStatusClearsHead() {
+		HTTPResponse response = new HTTPResponse();
+		response.head = new byte[0];
+		response.setStatus( 200 );
+		Assert.assertNull( response.head );
+		response.head = new byte[0];
+		response.setStatusMessage( "Fine" );
+		Assert.assertNull( response.head );
+	}
+	
+	@Test
+	public void testCopy() {
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( 201 );
+		response.setHeader( "a", "b" );
+		response.setBody( "1234" );
+		response.head = new byte[0];
+		
+		HTTPResponse copy = new HTTPResponse();
+		copy.copy( response );
+		Assert.assertEquals( 201, copy.getStatus() );
+		Assert.assertEquals( response.getStatusMessage(), copy.getStatusMessage() );
+		Assert.assertEquals( "b", copy.getHeader( "a" ) );
+		Assert.assertSame( response.body, copy.body );
+		Assert.assertSame( response.head, copy.head );
+		
+		copy.setHeader( "c", "d" );
+		Assert.assertNull( response.getHeader( "c" ) );
+	}
 }
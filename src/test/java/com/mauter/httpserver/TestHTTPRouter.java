@@ -0,0 +1,230 @@
+package com.mauter.httpserver;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestHTTPRouter {
+
+	/**
+	 * Responds with the given status and a body naming the handler.
+	 */
+	HTTPRequestHandler respond( final int status, final String name ) {
+		return new HTTPRequestHandler() {
+			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+				response.setStatus( status );
+				response.setBody( name );
+			}
+		};
+	}
+
+	HTTPResponse route( HTTPRouter router, HTTPRequest request ) throws HTTPException {
+		HTTPResponse response = new HTTPResponse();
+		router.handleRequest( request, response );
+		return response;
+	}
+
+	HTTPRequest request( String method, String path ) {
+		HTTPRequest request = new HTTPRequest();
+		request.setMethod( method );
+		request.setPath( path );
+		return request;
+	}
+
+	@Test
+	public void testStaticRoutes() throws HTTPException {
+		HTTPRouter router = new HTTPRouter();
+		router.addRoute( "GET", "/", respond( 200, "root" ) );
+		router.addRoute( "GET", "/users", respond( 200, "users" ) );
+		router.addRoute( "GET", "/users/all", respond( 200, "all" ) );
+		router.addRoute( "GET", "/uses", respond( 200, "uses" ) );
+
+		Assert.assertEquals( "root", route( router, request( "GET", "/" ) ).getBodyAsString() );
+		Assert.assertEquals( "users", route( router, request( "GET", "/users" ) ).getBodyAsString() );
+		Assert.assertEquals( "all", route( router, request( "GET", "/users/all" ) ).getBodyAsString() );
+		Assert.assertEquals( "uses", route( router, request( "GET", "/uses" ) ).getBodyAsString() );
+		Assert.assertEquals( 404, route( router, request( "GET", "/user" ) ).getStatus() );
+		Assert.assertEquals( 404, route( router, request( "GET", "/users/" ) ).getStatus() );
+	}
+
+	@Test
+	public void testQueryStringIgnored() throws HTTPException {
+		HTTPRouter router = new HTTPRouter();
+		router.addRoute( "GET", "/users", respond( 200, "users" ) );
+		Assert.assertEquals( "users", route( router, request( "GET", "/users?sort=name" ) ).getBodyAsString() );
+	}
+
+	@Test
+	public void testPathParameters() throws HTTPException {
+		HTTPRouter router = new HTTPRouter();
+		router.addRoute( "GET", "/users/{id}/orders/{order}", respond( 200, "order" ) );
+
+		HTTPRequest request = request( "GET", "/users/42/orders/abc?x=y" );
+		Assert.assertEquals( "order", route( router, request ).getBodyAsString() );
+		Assert.assertEquals( "42", request.getPathParameter( "id" ) );
+		Assert.assertEquals( "abc", request.getPathParameter( "order" ) );
+
+		Assert.assertEquals( 404, route( router, request( "GET", "/users//orders/abc" ) ).getStatus() );
+	}
+
+	@Test
+	public void testLiteralWinsOverParameter() throws HTTPException {
+		HTTPRouter router = new HTTPRouter();
+		router.addRoute( "GET", "/users/{id}", respond( 200, "user" ) );
+		router.addRoute( "GET", "/users/me", respond( 200, "me" ) );
+
+		HTTPRequest request = request( "GET", "/users/me" );
+		Assert.assertEquals( "me", route( router, request ).getBodyAsString() );
+		Assert.assertNull( request.getPathParameters() );
+
+		request = request( "GET", "/users/mel" );
+		Assert.assertEquals( "user", route( router, request ).getBodyAsString() );
+		Assert.assertEquals( "mel", request.getPathParameter( "id" ) );
+	}
+
+	@Test
+	public void testBacktrackToParameter() throws HTTPException {
+		HTTPRouter router = new HTTPRouter();
+		router.addRoute( "GET", "/a/bc/x", respond( 200, "literal" ) );
+		router.addRoute( "GET", "/a/{p}/y", respond( 200, "parameter" ) );
+
+		HTTPRequest request = request( "GET", "/a/bc/y" );
+		Assert.assertEquals( "parameter", route( router, request ).getBodyAsString() );
+		Assert.assertEquals( "bc", request.getPathParameter( "p" ) );
+	}
+
+	@Test
+	public void testSameParameterDifferentNames() throws HTTPException {
+		HTTPRouter router = new HTTPRouter();
+		router.addRoute( "GET", "/a/{id}", respond( 200, "id" ) );
+		router.addRoute( "GET", "/a/{name}/b", respond( 200, "name" ) );
+
+		HTTPRequest request = request( "GET", "/a/x/b" );
+		Assert.assertEquals( "name", route( router, request ).getBodyAsString() );
+		Assert.assertEquals( "x", request.getPathParameter( "name" ) );
+		Assert.assertNull( request.getPathParameter( "id" ) );
+	}
+
+	@Test
+	public void testWildcard() throws HTTPException {
+		HTTPRouter router = new HTTPRouter();
+		router.addRoute( "GET", "/files/*", respond( 200, "files" ) );
+		router.addRoute( "GET", "/static/*path", respond( 200, "static" ) );
+		router.addRoute( "GET", "/files/special", respond( 200, "special" ) );
+
+		HTTPRequest request = request( "GET", "/files/a/b/c.txt" );
+		Assert.assertEquals( "files", route( router, request ).getBodyAsString() );
+		Assert.assertEquals( "a/b/c.txt", request.getPathParameter( "*" ) );
+
+		request = request( "GET", "/static/" );
+		Assert.assertEquals( "static", route( router, request ).getBodyAsString() );
+		Assert.assertEquals( "", request.getPathParameter( "path" ) );
+
+		Assert.assertEquals( "special", route( router, request( "GET", "/files/special" ) ).getBodyAsString() );
+		Assert.assertEquals( 404, route( router, request( "GET", "/files" ) ).getStatus() );
+	}
+
+	@Test
+	public void testMethods() throws HTTPException {
+		HTTPRouter router = new HTTPRouter();
+		router.addRoute( "GET", "/users", respond( 200, "get" ) );
+		router.addRoute( "POST", "/users", respond( 201, "post" ) );
+		router.addRoute( "*", "/any", respond( 200, "any" ) );
+
+		Assert.assertEquals( "get", route( router, request( "GET", "/users" ) ).getBodyAsString() );
+		Assert.assertEquals( 201, route( router, request( "POST", "/users" ) ).getStatus() );
+		Assert.assertEquals( "any", route( router, request( "DELETE", "/any" ) ).getBodyAsString() );
+	}
+
+	@Test
+	public void testMethodNotAllowed() throws HTTPException {
+		HTTPRouter router = new HTTPRouter();
+		router.addRoute( "GET", "/users", respond( 200, "get" ) );
+		router.addRoute( "POST", "/users", respond( 201, "post" ) );
+
+		HTTPResponse response = route( router, request( "DELETE", "/users" ) );
+		Assert.assertEquals( 405, response.getStatus() );
+		Assert.assertTrue( response.getHeader( "Allow" ).contains( "GET" ) );
+		Assert.assertTrue( response.getHeader( "Allow" ).contains( "POST" ) );
+	}
+
+	@Test
+	public void testDefaultHandler() throws HTTPException {
+		HTTPRouter router = new HTTPRouter();
+		router.setDefaultHandler( respond( 418, "default" ) );
+		Assert.assertEquals( 418, route( router, request( "GET", "/nothing" ) ).getStatus() );
+		Assert.assertNotNull( router.getDefaultHandler() );
+	}
+
+	@Test
+	public void testNullPath() throws HTTPException {
+		HTTPRouter router = new HTTPRouter();
+		router.addRoute( "GET", "", respond( 200, "empty" ) );
+		Assert.assertEquals( "empty", route( router, request( "GET", null ) ).getBodyAsString() );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testAddRouteDuplicate() {
+		HTTPRouter router = new HTTPRouter();
+		router.addRoute( "GET", "/users", respond( 200, "a" ) );
+		router.addRoute( "GET", "/users", respond( 200, "b" ) );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testAddRouteUnclosedParameter() {
+		new HTTPRouter().addRoute( "GET", "/users/{id", respond( 200, "a" ) );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testAddRouteParameterNotEndingSegment() {
+		new HTTPRouter().addRoute( "GET", "/users/{id}.json", respond( 200, "a" ) );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testAddRouteWildcardNotLast() {
+		new HTTPRouter().addRoute( "GET", "/files/*/x", respond( 200, "a" ) );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testAddRouteNullHandler() {
+		new HTTPRouter().addRoute( "GET", "/", null );
+	}
+
+	@Test
+	public void testManyRoutes() throws HTTPException {
+		HTTPRouter router = new HTTPRouter();
+		for ( int i = 0; i < 500; i++ ) {
+			router.addRoute( "GET", "/api/v1/resource" + i + "/{id}", respond( 200, "r" + i ) );
+		}
+
+		for ( int i = 0; i < 500; i++ ) {
+			HTTPRequest request = request( "GET", "/api/v1/resource" + i + "/" + i );
+			Assert.assertEquals( "r" + i, route( router, request ).getBodyAsString() );
+			Assert.assertEquals( String.valueOf( i ), request.getPathParameter( "id" ) );
+		}
+	}
+
+	@Test
+	public void testServer() throws IOException {
+		HTTPRouter router = new HTTPRouter();
+		router.addRoute( "GET", "/hello/{name}", respond( 200, "hello" ) );
+
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHTTPRequestHandler( router );
+			server.start();
+
+			HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() + "/hello/world" ).openConnection();
+			Assert.assertEquals( 200, con.getResponseCode() );
+			con.disconnect();
+
+			con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() + "/goodbye" ).openConnection();
+			Assert.assertEquals( 404, con.getResponseCode() );
+			con.disconnect();
+
+			Assert.assertEquals( "world", server.getRequests().get( 0 ).getPathParameter( "name" ) );
+		}
+	}
+}
@@ -7,14 +7,34 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.ServerSocket;
+import java.net.Socket;
 import java.net.URL;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.net.ssl.HttpsURLConnection;
 
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Test;
 
 public class TestHTTPServer {
@@ -377,6 +397,77 @@ public class TestHTTPServer {
 		HTTPServer.read( input, request );
 		Assert.fail();
 	}
+
+	HTTPRequest readLazily( String test ) throws IOException, HTTPException {
+		HTTPRequest request = new HTTPRequest();
+		HTTPServer.readHead( new BufferedInputStream( new ByteArrayInputStream( test.getBytes( StandardCharsets.UTF_8 ) ) ), request, true );
+		return request;
+	}
+
+	@Test
+	public void testReadHeadLazily() throws IOException, HTTPException {
+		HTTPRequest request = readLazily( "GET / HTTP/1.1\r\nHost: localhost:8080\r\nColors: Red,\r\n Blue,       \n      Yellow\r\nX-Café: crème\r\n\r\nbody" );
+		Assert.assertEquals( "GET", request.getMethod() );
+		Assert.assertNotNull( request.rawHeaders );
+		Assert.assertEquals( 5, request.headerCount );
+		Assert.assertNull( request.headers );
+
+		Assert.assertEquals( "localhost:8080", request.getHeader( "HOST" ) );
+		Assert.assertEquals( "Red, Blue, Yellow", request.getHeader( "colors" ) );
+		Assert.assertEquals( "crème", request.getHeader( "x-café" ) );
+		Assert.assertNull( request.getHeader( "Content-length" ) );
+		Assert.assertNull( request.headers );
+
+		// decoding them all gives the same Map as reading them eagerly
+		HTTPRequest eager = new HTTPRequest();
+		HTTPServer.read( new ByteArrayInputStream( "GET / HTTP/1.1\r\nHost: localhost:8080\r\nColors: Red,\r\n Blue,       \n      Yellow\r\nX-Café: crème\r\n\r\n".getBytes( StandardCharsets.UTF_8 ) ), eager );
+		Assert.assertEquals( eager.getHeaders(), request.getHeaders() );
+		Assert.assertNull( request.rawHeaders );
+	}
+
+	@Test
+	public void testReadHeadLazilyNoHeaders() throws IOException, HTTPException {
+		HTTPRequest request = readLazily( "GET / HTTP/1.0\n\n" );
+		Assert.assertNull( request.getHeader( "Host" ) );
+		Assert.assertNull( request.getHeaders() );
+	}
+
+	@Test(expected=HTTPException.class)
+	public void testReadHeadLazilyUnnamedMultilineHeader() throws IOException, HTTPException {
+		readLazily( "GET / HTTP/1.0\n Red,\n      Yellow\n" );
+	}
+
+	@Test(expected=HTTPException.class)
+	public void testReadHeadLazilyBadMultilineHeader() throws IOException, HTTPException {
+		readLazily( "GET / HTTP/1.0\nColors: Red,\nBlue,       \n      Yellow\n" );
+	}
+
+	@Test
+	public void testLazyHeaders() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			Assert.assertFalse( server.isLazyHeaders() );
+			server.setLazyHeaders( true );
+			server.setHTTPRequestHandler( new HTTPRequestHandler() {
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+					response.setStatus( 200 );
+					response.setBody( request.getHeader( "X-Test" ) + " " + request.getBodyAsString() );
+				}
+			} );
+
+			HTTPRequest request = new HTTPRequest();
+			request.setMethod( "POST" );
+			request.setPath( "/" );
+			request.setHeader( "X-Test", "yes" );
+			request.setBody( "some body" );
+			HTTPResponse response = server.exchange( request );
+			Assert.assertEquals( "yes some body", response.getBodyAsString() );
+
+			// only the headers that were asked for were decoded
+			HTTPRequest recorded = server.getRequests().get( 0 );
+			Assert.assertNull( recorded.headers );
+			Assert.assertEquals( "9", recorded.getHeader( "Content-Length" ) );
+		}
+	}
 	
 	@Test(expected=HTTPException.class)
 	public void testReadInputStreamWithBadMultilineHeaderCRLF() throws IOException, HTTPException {
@@ -392,142 +483,1486 @@ public class TestHTTPServer {
 		Assert.fail();
 	}
 	
-	@Test(expected=NullPointerException.class)
-	public void testWriteNull() throws IOException {
-		HTTPServer.write( null, null );
+	byte[] gzip( byte[] body ) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try ( GZIPOutputStream gzip = new GZIPOutputStream( baos ) ) {
+			gzip.write( body );
+		}
+		return baos.toByteArray();
 	}
 	
-	@Test(expected=NullPointerException.class)
-	public void testWriteNullOutputStream() throws IOException {
-		HTTPServer.write( null, new HTTPResponse() );
+	byte[] deflate( byte[] body, boolean nowrap ) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		try ( DeflaterOutputStream deflate = new DeflaterOutputStream( baos, new Deflater( Deflater.DEFAULT_COMPRESSION, nowrap ) ) ) {
+			deflate.write( body );
+		}
+		return baos.toByteArray();
 	}
 	
-	@Test(expected=NullPointerException.class)
-	public void testWriteNullResponse() throws IOException {
-		HTTPServer.write( new ByteArrayOutputStream(), null );
+	HTTPRequest readEncoded( String encoding, byte[] wire, int maxDecodedBodySize ) throws IOException, HTTPException {
+		Map<String, String> headers = new HashMap<>();
+		headers.put( "Content-Encoding", encoding );
+		HTTPRequest request = new HTTPRequest();
+		HTTPServer.read( buildRequest( headers, wire ), request, maxDecodedBodySize );
+		return request;
 	}
 	
-	String testWriteResponse( HTTPResponse response ) throws IOException {
-		ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		HTTPServer.write( baos, response );
-		return baos.toString( StandardCharsets.UTF_8.name() );
+	@Test
+	public void testReadGzipBody() throws IOException, HTTPException {
+		byte[] body = "Squirrel! Squirrel! Squirrel! Squirrel!".getBytes( StandardCharsets.UTF_8 );
+		byte[] wire = gzip( body );
+		HTTPRequest request = readEncoded( "gzip", wire, 1000 );
+		Assert.assertArrayEquals( body, request.getBody() );
+		Assert.assertEquals( wire.length, request.getWireBodySize() );
+		Assert.assertEquals( body.length, request.getDecodedBodySize() );
+		Assert.assertEquals( String.valueOf( wire.length ), request.getHeader( "Content-Length" ) );
+		Assert.assertEquals( "gzip", request.getHeader( "Content-Encoding" ) );
 	}
 	
 	@Test
-	public void testWriteBlankResponse() throws IOException {
-		HTTPResponse response = new HTTPResponse();
-		String result = testWriteResponse( response );
-		Assert.assertEquals( "HTTP/1.0 0 null\r\n", result );
+	public void testReadDeflateBody() throws IOException, HTTPException {
+		byte[] body = "Squirrel! Squirrel! Squirrel! Squirrel!".getBytes( StandardCharsets.UTF_8 );
+		Assert.assertArrayEquals( body, readEncoded( "deflate", deflate( body, false ), 1000 ).getBody() );
+		Assert.assertArrayEquals( body, readEncoded( "Deflate", deflate( body, true ), 1000 ).getBody() );
 	}
 	
 	@Test
-	public void testWriteSimpleResponse() throws IOException {
-		HTTPResponse response = new HTTPResponse();
-		response.setStatus( 200 );
-		String result = testWriteResponse( response );
-		Assert.assertEquals( "HTTP/1.0 200 OK\r\n", result );
+	public void testReadStackedEncodings() throws IOException, HTTPException {
+		byte[] body = "Squirrel! Squirrel! Squirrel! Squirrel!".getBytes( StandardCharsets.UTF_8 );
+		Assert.assertArrayEquals( body, readEncoded( "deflate, gzip", gzip( deflate( body, false ) ), 1000 ).getBody() );
+		Assert.assertArrayEquals( body, readEncoded( "identity", body, 1000 ).getBody() );
 	}
 	
 	@Test
-	public void testWriteSimpleResponseNonstandardStatusMessage() throws IOException {
-		HTTPResponse response = new HTTPResponse();
-		response.setStatus( 200 );
-		response.setStatusMessage( "asdf" );
-		String result = testWriteResponse( response );
-		Assert.assertEquals( "HTTP/1.0 200 asdf\r\n", result );
+	public void testReadEncodedBodyNotDecoded() throws IOException, HTTPException {
+		byte[] wire = gzip( "Squirrel!".getBytes( StandardCharsets.UTF_8 ) );
+		HTTPRequest request = readEncoded( "gzip", wire, -1 );
+		Assert.assertArrayEquals( wire, request.getBody() );
+		Assert.assertEquals( wire.length, request.getWireBodySize() );
+		Assert.assertEquals( wire.length, request.getDecodedBodySize() );
 	}
 	
 	@Test
-	public void testWriteSimpleResponseUnplannedStatus() throws IOException {
-		HTTPResponse response = new HTTPResponse();
-		response.setStatus( 111 );
-		String result = testWriteResponse( response );
-		Assert.assertEquals( "HTTP/1.0 111 111 Message\r\n", result );
+	public void testReadEncodedBodyTooLarge() throws IOException {
+		byte[] wire = gzip( new byte[ 100000 ] );
+		try {
+			readEncoded( "gzip", wire, 50000 );
+			Assert.fail();
+		}
+		catch ( HTTPException he ) {
+			Assert.assertEquals( 413, he.getStatus() );
+		}
 	}
 	
 	@Test
-	public void testWriteResponseWithHeaders() throws IOException {
-		HTTPResponse response = new HTTPResponse();
-		response.setStatus( 200 );
-		response.setHeader( "a", "a" );
-		response.setHeader( "b", "b" );
-		response.setHeader( "c", "b" );
-		response.setHeader( "a", "b" );
-		String result = testWriteResponse( response );
-		Assert.assertTrue( result.startsWith( "HTTP/1.0 200 OK\r\n" ) );
-		Assert.assertTrue( result.contains( "a: b\r\n" ) );
-		Assert.assertTrue( result.contains( "b: b\r\n" ) );
-		Assert.assertTrue( result.contains( "c: b\r\n" ) );
+	public void testReadEncodedBodyUnsupported() throws IOException {
+		try {
+			readEncoded( "br", new byte[] { 1, 2, 3 }, 1000 );
+			Assert.fail();
+		}
+		catch ( HTTPException he ) {
+			Assert.assertEquals( 415, he.getStatus() );
+		}
 	}
 	
 	@Test
-	public void testWriteResponseWithBody() throws IOException {
-		HTTPResponse response = new HTTPResponse();
-		response.setStatus( 200 );
-		response.setBody( "hello world" );
-		String result = testWriteResponse( response );
-		Assert.assertTrue( result.startsWith( "HTTP/1.0 200 OK\r\n" ) );
-		Assert.assertTrue( result.toLowerCase().contains( "content-length: 11\r\n" ) );
-		Assert.assertTrue( result.contains( "\r\n\r\nhello world" ) );
+	public void testReadEncodedBodyCorrupt() throws IOException {
+		try {
+			readEncoded( "gzip", "not gzip at all".getBytes( StandardCharsets.UTF_8 ), 1000 );
+			Assert.fail();
+		}
+		catch ( HTTPException he ) {
+			Assert.assertEquals( 400, he.getStatus() );
+		}
 	}
 	
 	@Test
-	public void testWriteResponse() throws IOException {
-		HTTPResponse response = new HTTPResponse();
-		response.setStatus( 200 );
-		response.setHeader( "a", "a" );
-		response.setHeader( "b", "b" );
-		response.setHeader( "c", "b" );
-		response.setHeader( "a", "b" );
-		response.setHeader( "content-length", "444" );
-		response.setBody( "hello world" );
-		String result = testWriteResponse( response );
-		Assert.assertTrue( result.startsWith( "HTTP/1.0 200 OK\r\n" ) );
-		Assert.assertTrue( result.contains( "a: b\r\n" ) );
-		Assert.assertTrue( result.contains( "b: b\r\n" ) );
-		Assert.assertTrue( result.contains( "c: b\r\n" ) );
-		Assert.assertTrue( result.toLowerCase().contains( "content-length: 11\r\n" ) );
-		Assert.assertTrue( result.contains( "\r\n\r\nhello world" ) );
+	public void testReadEncodedBodyTruncated() throws IOException {
+		byte[] wire = gzip( "Squirrel! Squirrel! Squirrel! Squirrel!".getBytes( StandardCharsets.UTF_8 ) );
+		try {
+			readEncoded( "gzip", Arrays.copyOf( wire, wire.length - 4 ), 1000 );
+			Assert.fail();
+		}
+		catch ( HTTPException he ) {
+			Assert.assertEquals( 400, he.getStatus() );
+		}
 	}
-
+	
 	@Test
-	public void testStopWithIOException() throws IOException {
+	public void testReadBodyShorterThanContentLength() throws IOException {
+		String test = "POST / HTTP/1.0\r\nContent-Length: 100\r\n\r\nshort";
+		try {
+			HTTPServer.read( new ByteArrayInputStream( test.getBytes( StandardCharsets.UTF_8 ) ), new HTTPRequest() );
+			Assert.fail();
+		}
+		catch ( HTTPException he ) {
+			Assert.assertEquals( 400, he.getStatus() );
+		}
+	}
+	
+	@Test
+	public void testReadBodyArrivingInPieces() throws IOException, HTTPException {
+		final byte[] test = "POST / HTTP/1.0\r\nContent-Length: 10\r\n\r\n0123456789".getBytes( StandardCharsets.UTF_8 );
+		InputStream trickle = new InputStream() {
+			int position = 0;
+			@Override public int read() {
+				return position < test.length ? test[ position++ ] : -1;
+			}
+			@Override public int read( byte[] b, int off, int len ) throws IOException {
+				// never hand out more than 3 bytes at a time
+				return super.read( b, off, Math.min( len, 3 ) );
+			}
+		};
+		HTTPRequest request = new HTTPRequest();
+		HTTPServer.read( trickle, request );
+		Assert.assertEquals( "0123456789", request.getBodyAsString() );
+	}
+	
+	@Test
+	public void testGetSetMaxDecodedBodySize() {
+		try ( HTTPServer server = new HTTPServer() ) {
+			Assert.assertEquals( HTTPServer.DEFAULT_MAX_DECODED_BODY_SIZE, server.getMaxDecodedBodySize() );
+			server.setMaxDecodedBodySize( -1 );
+			Assert.assertEquals( -1, server.getMaxDecodedBodySize() );
+		}
+	}
+	
+	@Test
+	public void testServerDecodesGzipBody() throws IOException {
+		byte[] body = "{\"telemetry\":[1,2,3,4,5,6,7,8,9]}".getBytes( StandardCharsets.UTF_8 );
+		byte[] wire = gzip( body );
 		try ( HTTPServer server = HTTPServer.always200OK() ) {
-			server.serverSocket.close();
+			HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() ).openConnection();
+			con.setDoOutput( true );
+			con.setRequestMethod( "POST" );
+			con.setRequestProperty( "Content-Encoding", "gzip" );
+			con.getOutputStream().write( wire );
+			Assert.assertEquals( 200, con.getResponseCode() );
+			con.disconnect();
 			
-			server.serverSocket = new ServerSocket( 0 ) {
-				@Override
-				public void close() throws IOException {
-					super.close();
-					throw new IOException( "test" );
+			HTTPRequest request = server.getRequests().get( 0 );
+			Assert.assertArrayEquals( body, request.getBody() );
+			Assert.assertEquals( wire.length, request.getWireBodySize() );
+		}
+	}
+	
+	@Test
+	public void testServerSetsRemoteAddress() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			HttpURLConnection con = (HttpURLConnection)new URL( "http://127.0.0.1:" + server.getPort() ).openConnection();
+			Assert.assertEquals( 200, con.getResponseCode() );
+			con.disconnect();
+			Assert.assertEquals( "127.0.0.1", server.getRequests().get( 0 ).getRemoteAddress() );
+		}
+	}
+	
+	int getSecure( HTTPServer server, String path ) throws IOException {
+		HttpsURLConnection con = (HttpsURLConnection)new URL( "https://localhost:" + server.getPort() + path ).openConnection();
+		con.setSSLSocketFactory( server.getClientSSLContext().getSocketFactory() );
+		try {
+			return con.getResponseCode();
+		}
+		finally {
+			con.disconnect();
+		}
+	}
+
+	@Test
+	public void testSecure() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setSecure( true );
+			server.setHTTPRequestHandler( new HTTPRequestHandler() {
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+					response.setStatus( 200 );
 				}
-			};
-			
-			server.stop(); // note:  IOException should be logged
+			} );
+			server.start();
+			Assert.assertTrue( server.isSecure() );
+
+			Assert.assertEquals( 200, getSecure( server, "/secret" ) );
+			Assert.assertEquals( "/secret", server.getRequests().get( 0 ).getPath() );
+			Assert.assertEquals( 1, server.getHandshakeCount() );
 		}
 	}
 
 	@Test
-	public void testHandlerThrowsHTTPException() throws IOException {
+	public void testSecureWithKeyStore() throws Exception {
+		SelfSignedCertificate certificate = new SelfSignedCertificate( "secret".toCharArray() );
 		try ( HTTPServer server = new HTTPServer() ) {
+			server.setKeyStore( certificate.keyStore, "secret".toCharArray() );
 			server.setHTTPRequestHandler( new HTTPRequestHandler() {
-				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
-					throw new HTTPException( 400, "some kind of message" );
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+					response.setStatus( 204 );
 				}
 			} );
 			server.start();
-			
-			URL url = new URL( "http://localhost:" + server.getPort() );
-			HttpURLConnection con = (HttpURLConnection)url.openConnection();
-			Assert.assertEquals( 400, con.getResponseCode() );
-			
-			try ( InputStream resp = con.getErrorStream() ) {
-				byte[] buffer = new byte[ 1000 ];
-				int count = resp.read( buffer, 0, buffer.length );
-				String body = new String( buffer, 0, count, StandardCharsets.UTF_8 );
-				Assert.assertTrue( body.startsWith( "<html><body><h1>400 - Bad Request</h1><pre>com.mauter.httpserver.HTTPException: some kind of message" ) );
-				Assert.assertTrue( body.endsWith( "</pre></body></html>" ) );
+			Assert.assertTrue( server.isSecure() );
+			Assert.assertEquals( 204, getSecure( server, "/" ) );
+		}
+	}
+
+	@Test
+	public void testSessionResumption() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			server.stop();
+			server.setSecure( true );
+			server.start();
+
+			// the server closes each connection, but the client context remembers the session
+			for ( int i = 0; i < 3; i++ ) Assert.assertEquals( 200, getSecure( server, "/" ) );
+			Assert.assertEquals( 3, server.getHandshakeCount() );
+			Assert.assertEquals( 2, server.getResumedHandshakeCount() );
+		}
+	}
+
+	@Test
+	public void testPlainClientOnSecureServer() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setSecure( true );
+			server.setHeaderTimeout( 1000 );
+			server.setHTTPRequestHandler( new HTTPRequestHandler() {
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+					response.setStatus( 200 );
+				}
+			} );
+			server.start();
+
+			try ( Socket socket = new Socket( "localhost", server.getPort() ) ) {
+				socket.setSoTimeout( 5000 );
+				socket.getOutputStream().write( "GET / HTTP/1.0\r\n\r\n".getBytes( StandardCharsets.UTF_8 ) );
+				InputStream in = socket.getInputStream();
+				while ( in.read() >= 0 ) {
+					// the server gives up on the handshake and hangs up
+				}
+			}
+			Assert.assertEquals( 0, server.getRequests().size() );
+			Assert.assertEquals( 0, server.getHandshakeCount() );
+		}
+	}
+
+	String exchange( Socket socket, String request ) throws IOException {
+		socket.getOutputStream().write( request.getBytes( StandardCharsets.UTF_8 ) );
+		ByteArrayOutputStream response = new ByteArrayOutputStream();
+		InputStream in = socket.getInputStream();
+		byte[] buffer = new byte[ 1024 ];
+		int count;
+		while ( ( count = in.read( buffer ) ) >= 0 ) response.write( buffer, 0, count );
+		return new String( response.toByteArray(), StandardCharsets.UTF_8 );
+	}
+
+	@Test
+	public void testUnixDomainSocket() throws IOException {
+		Assume.assumeTrue( UnixDomainSockets.isSupported() );
+		Path directory = Files.createTempDirectory( "http-server" );
+		Path path = directory.resolve( "server.sock" );
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setUnixDomainSocket( path );
+			server.setHTTPRequestHandler( new HTTPRequestHandler() {
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+					response.setStatus( 200 );
+					response.setBody( ( "hello " + request.getPath() ).getBytes( StandardCharsets.UTF_8 ) );
+				}
+			} );
+			server.start();
+			Assert.assertEquals( path, server.getUnixDomainSocket() );
+			Assert.assertTrue( Files.exists( path ) );
+
+			try ( Socket socket = UnixDomainSockets.connect( path ) ) {
+				String response = exchange( socket, "GET /local HTTP/1.1\r\nHost: localhost\r\n\r\n" );
+				Assert.assertTrue( response, response.startsWith( "HTTP/1.0 200 OK\r\n" ) );
+				Assert.assertTrue( response, response.endsWith( "\r\n\r\nhello /local" ) );
+			}
+			Assert.assertEquals( "/local", server.getRequests().get( 0 ).getPath() );
+			Assert.assertNull( server.getRequests().get( 0 ).getRemoteAddress() );
+		}
+		finally {
+			Assert.assertFalse( Files.exists( path ) );
+			Files.delete( directory );
+		}
+	}
+
+	@Test
+	public void testUnixDomainSocketTimeout() throws IOException {
+		Assume.assumeTrue( UnixDomainSockets.isSupported() );
+		Path directory = Files.createTempDirectory( "http-server" );
+		Path path = directory.resolve( "server.sock" );
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			server.stop();
+			server.setUnixDomainSocket( path );
+			server.setHeaderTimeout( 200 );
+			server.start();
+
+			// the deadline shuts the channel's input down just as it would a socket's
+			try ( Socket socket = UnixDomainSockets.connect( path ) ) {
+				String response = exchange( socket, "GET /slow HTTP/1.1\r\n" );
+				Assert.assertTrue( response, response.startsWith( "HTTP/1.0 408 " ) );
 			}
 		}
+		finally {
+			Files.deleteIfExists( path );
+			Files.delete( directory );
+		}
+	}
+
+	@Test
+	public void testExchange() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHTTPRequestHandler( new HTTPRequestHandler() {
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+					response.setStatus( 201 );
+					response.setStatusMessage( "Created" );
+					response.setHeader( "X-Echo", request.getHeader( "X-Test" ) );
+					response.setBody( request.getMethod() + " " + request.getPath() + " " + request.getBodyAsString() );
+				}
+			} );
+
+			// the server is never started
+			HTTPRequest request = new HTTPRequest();
+			request.setMethod( "POST" );
+			request.setPath( "/things?x=1" );
+			request.setHeader( "X-Test", "yes" );
+			request.setBody( "some body" );
+			HTTPResponse response = server.exchange( request );
+
+			Assert.assertEquals( 201, response.getStatus() );
+			Assert.assertEquals( "Created", response.getStatusMessage() );
+			Assert.assertEquals( "yes", response.getHeader( "X-Echo" ) );
+			Assert.assertEquals( "POST /things?x=1 some body", response.getBodyAsString() );
+
+			// the server recorded what it read, not the object it was handed
+			HTTPRequest recorded = server.getRequests().get( 0 );
+			Assert.assertNotSame( request, recorded );
+			Assert.assertEquals( "HTTP/1.1", recorded.getVersion() );
+			Assert.assertEquals( 9, recorded.getWireBodySize() );
+			Assert.assertEquals( 0, server.getActiveConnections() );
+		}
+	}
+
+	@Test
+	public void testExchangeAsync() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHTTPRequestHandler( new AsyncHTTPRequestHandler() {
+				@Override public CompletionStage<HTTPResponse> handleRequestAsync( HTTPRequest request, final HTTPResponse response ) {
+					final CompletableFuture<HTTPResponse> future = new CompletableFuture<>();
+					new Thread( new Runnable() {
+						@Override public void run() {
+							response.setStatus( 200 );
+							response.setBody( "later" );
+							future.complete( response );
+						}
+					} ).start();
+					return future;
+				}
+			} );
+
+			HTTPResponse response = server.exchange( new HTTPRequest() );
+			Assert.assertEquals( 200, response.getStatus() );
+			Assert.assertEquals( "later", response.getBodyAsString() );
+		}
+	}
+
+	@Test
+	public void testExchangeBadRequest() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			HTTPRequest request = new HTTPRequest();
+			request.setHeader( "X-Broken", "a\r\nnot a header" );
+			HTTPResponse response = server.exchange( request );
+			Assert.assertEquals( 400, response.getStatus() );
+			Assert.assertEquals( "text/html", response.getHeader( "Content-Type" ) );
+		}
+	}
+
+	@Test
+	public void testExchangeRemoteAddress() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			HTTPRequest request = new HTTPRequest();
+			request.setRemoteAddress( "10.1.2.3" );
+			Assert.assertEquals( 200, server.exchange( request ).getStatus() );
+			Assert.assertEquals( "10.1.2.3", server.getRequests().get( 0 ).getRemoteAddress() );
+		}
+	}
+
+	HTTPRequest post( int size ) {
+		byte[] body = new byte[ size ];
+		for ( int i = 0; i < size; i++ ) body[i] = (byte)( 'a' + i % 26 );
+		HTTPRequest request = new HTTPRequest();
+		request.setMethod( "POST" );
+		request.setBody( body );
+		return request;
+	}
+
+	@Test
+	public void testSpooledBodies() throws IOException {
+		Path directory = Files.createTempDirectory( "http-server" );
+		try ( HTTPServer server = new HTTPServer() ) {
+			Assert.assertEquals( HTTPServer.DEFAULT_MAX_BODY_SIZE, server.getMaxBodySize() );
+			Assert.assertEquals( 1024 * 1024, server.getHeapBodyThreshold() );
+			Assert.assertEquals( 8 * 1024 * 1024, server.getDirectBodyThreshold() );
+			Assert.assertNull( server.getBodyDirectory() );
+
+			server.setHeapBodyThreshold( 100 );
+			server.setDirectBodyThreshold( 1000 );
+			server.setBodyDirectory( directory );
+			server.setHTTPRequestHandler( new HTTPRequestHandler() {
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+					try ( InputStream in = request.getRequestBody().getInputStream() ) {
+						long total = 0;
+						while ( in.read() >= 0 ) total++;
+						response.setStatus( 200 );
+						response.setBody( String.valueOf( total ) );
+					}
+					catch ( IOException ioe ) {
+						throw new HTTPException( 500, "Unable to read the body.", ioe );
+					}
+				}
+			} );
+
+			for ( int size : new int[] { 100, 1000, 5000 } ) Assert.assertEquals( String.valueOf( size ), server.exchange( post( size ) ).getBodyAsString() );
+
+			RequestBody heap = server.getRequests().get( 0 ).getRequestBody();
+			RequestBody direct = server.getRequests().get( 1 ).getRequestBody();
+			RequestBody file = server.getRequests().get( 2 ).getRequestBody();
+			Assert.assertTrue( heap.isOnHeap() );
+			Assert.assertTrue( direct.isDirect() );
+			Assert.assertEquals( directory, file.getPath().getParent() );
+			Assert.assertEquals( 5000, server.getRequests().get( 2 ).getWireBodySize() );
+			Assert.assertArrayEquals( post( 5000 ).getBody(), server.getRequests().get( 2 ).getBody() );
+
+			// resetting the server releases what was kept off the heap
+			server.reset();
+			Assert.assertFalse( Files.exists( file.getPath() ) );
+			Assert.assertEquals( 1, server.spool.pool.size() );
+		}
+		finally {
+			Files.delete( directory );
+		}
+	}
+
+	@Test
+	public void testClosingReleasesSpooledBodies() throws IOException {
+		Path directory = Files.createTempDirectory( "http-server" );
+		try {
+			HTTPServer server = HTTPServer.always200OK();
+			server.setHeapBodyThreshold( 100 );
+			server.setDirectBodyThreshold( 0 );
+			server.setBodyDirectory( directory );
+			Assert.assertEquals( 200, server.exchange( post( 5000 ) ).getStatus() );
+			Path path = server.getRequests().get( 0 ).getRequestBody().getPath();
+			Assert.assertTrue( Files.exists( path ) );
+
+			server.close();
+			Assert.assertFalse( Files.exists( path ) );
+			Assert.assertEquals( 1, server.getRequests().size() );
+		}
+		finally {
+			Files.delete( directory );
+		}
+	}
+
+	@Test
+	public void testSpooledEncodedBody() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			server.setHeapBodyThreshold( 100 );
+			server.setDirectBodyThreshold( 0 );
+
+			HTTPRequest request = post( 5000 );
+			ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+			try ( GZIPOutputStream gzip = new GZIPOutputStream( gzipped ) ) {
+				gzip.write( request.getBody() );
+			}
+			request.setBody( gzipped.toByteArray() );
+			request.setHeader( "Content-Encoding", "gzip" );
+			Assert.assertEquals( 200, server.exchange( request ).getStatus() );
+
+			HTTPRequest read = server.getRequests().get( 0 );
+			Assert.assertNotNull( read.getRequestBody().getPath() );
+			Assert.assertArrayEquals( post( 5000 ).getBody(), read.getBody() );
+			Assert.assertEquals( gzipped.size(), read.getWireBodySize() );
+		}
+	}
+
+	@Test
+	public void testMaxBodySize() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			server.setMaxBodySize( 100 );
+			Assert.assertEquals( 200, server.exchange( post( 100 ) ).getStatus() );
+			Assert.assertEquals( 413, server.exchange( post( 101 ) ).getStatus() );
+
+			// no limit at all
+			server.setMaxBodySize( 0 );
+			Assert.assertEquals( 200, server.exchange( post( 101 ) ).getStatus() );
+		}
+	}
+
+	@Test
+	public void testHugeContentLength() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			// the body is never read, so the server must not make room for it
+			HTTPRequest request = new HTTPRequest();
+			request.setMethod( "POST" );
+			request.setHeader( "Content-length", "99999999999" );
+			Assert.assertEquals( 413, server.exchange( request ).getStatus() );
+
+			request.setHeader( "Content-length", "lots" );
+			Assert.assertEquals( 400, server.exchange( request ).getStatus() );
+			request.setHeader( "Content-length", "-1" );
+			Assert.assertEquals( 400, server.exchange( request ).getStatus() );
+		}
+	}
+
+	@Test
+	public void testExpectContinue() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			try ( Socket socket = new Socket( "localhost", server.getPort() ) ) {
+				socket.setSoTimeout( 5000 );
+				BufferedInputStream bis = new BufferedInputStream( socket.getInputStream() );
+				socket.getOutputStream().write( "POST / HTTP/1.1\r\nContent-length: 5\r\nExpect: 100-continue\r\n\r\n".getBytes( StandardCharsets.UTF_8 ) );
+
+				// the go-ahead comes before any of the body is sent
+				Assert.assertEquals( "HTTP/1.1 100 Continue\n\n", readResponse( bis ) );
+				socket.getOutputStream().write( "hello".getBytes( StandardCharsets.UTF_8 ) );
+				Assert.assertTrue( readResponse( bis ).startsWith( "HTTP/1.0 200 OK\n" ) );
+			}
+			Assert.assertEquals( "hello", server.getRequests().get( 0 ).getBodyAsString() );
+		}
+	}
+
+	@Test
+	public void testExpectContinueRejected() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			server.setMaxBodySize( 10 );
+			server.setContinueHandler( new ContinueHandler() {
+				@Override public void checkContinue( HTTPRequest request ) throws HTTPException {
+					if ( request.getHeader( "Authorization" ) == null ) throw new HTTPException( 401, "Log in first." );
+				}
+			} );
+
+			// neither rejection waits for the body, which is never sent
+			String head = "POST / HTTP/1.1\r\nContent-length: 5\r\nExpect: 100-continue\r\n\r\n";
+			Assert.assertTrue( send( server, head ).startsWith( "HTTP/1.0 401 Unauthorized\n" ) );
+			head = "POST / HTTP/1.1\r\nAuthorization: Basic Zm9vOmJhcg==\r\nContent-length: 11\r\nExpect: 100-continue\r\n\r\n";
+			Assert.assertTrue( send( server, head ).startsWith( "HTTP/1.0 413 Payload Too Large\n" ) );
+
+			HTTPRequest request = post( 5 );
+			request.setHeader( "Expect", "100-continue" );
+			request.setHeader( "Authorization", "Basic Zm9vOmJhcg==" );
+			Assert.assertEquals( 200, server.exchange( request ).getStatus() );
+		}
+	}
+
+	String send( HTTPServer server, String head ) throws IOException {
+		try ( Socket socket = new Socket( "localhost", server.getPort() ) ) {
+			socket.setSoTimeout( 5000 );
+			socket.getOutputStream().write( head.getBytes( StandardCharsets.UTF_8 ) );
+			return new String( readAll( socket.getInputStream() ), StandardCharsets.UTF_8 ).replace( "\r\n", "\n" );
+		}
+	}
+
+	static class GuardedHandler implements HTTPRequestHandler, ContinueHandler {
+		@Override public void checkContinue( HTTPRequest request ) throws HTTPException {
+			if ( !"/upload".equals( request.getPath() ) ) throw new HTTPException( 404, "Nowhere to upload to." );
+		}
+
+		@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+			response.setStatus( 200 );
+		}
+	}
+
+	@Test
+	public void testRequestHandlerChecksContinue() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHTTPRequestHandler( new GuardedHandler() );
+			server.start();
+
+			HTTPRequest request = post( 5 );
+			request.setHeader( "Expect", "100-continue" );
+			Assert.assertEquals( 404, server.exchange( request ).getStatus() );
+			request.setPath( "/upload" );
+			Assert.assertEquals( 200, server.exchange( request ).getStatus() );
+
+			// HTTP/1.0 clients never wait for 100 Continue, so there is nothing to check
+			request.setPath( "/" );
+			request.setVersion( "HTTP/1.0" );
+			Assert.assertEquals( 200, server.exchange( request ).getStatus() );
+		}
+	}
+
+	@Test
+	public void testExpectationFailed() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			HTTPRequest request = post( 5 );
+			request.setHeader( "Expect", "something-else" );
+			HTTPResponse response = server.exchange( request );
+			Assert.assertEquals( 417, response.getStatus() );
+			Assert.assertEquals( "Expectation Failed", response.getStatusMessage() );
+		}
+	}
+
+	@Test
+	public void testReadResponseSkipsContinue() throws IOException {
+		byte[] bytes = "HTTP/1.1 100 Continue\r\n\r\nHTTP/1.0 200 OK\r\nContent-length: 2\r\n\r\nok".getBytes( StandardCharsets.UTF_8 );
+		HTTPResponse response = HTTPServer.readResponse( new ByteArrayInputStream( bytes ) );
+		Assert.assertEquals( 200, response.getStatus() );
+		Assert.assertEquals( "ok", response.getBodyAsString() );
+	}
+
+	@Test
+	public void testReadResponse() throws IOException {
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( 404 );
+		response.setHeader( "X-Thing", "a: b" );
+		response.setBody( "missing" );
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		HTTPServer.write( out, response );
+
+		HTTPResponse read = HTTPServer.readResponse( new ByteArrayInputStream( out.toByteArray() ) );
+		Assert.assertEquals( 404, read.getStatus() );
+		Assert.assertEquals( "Not Found", read.getStatusMessage() );
+		Assert.assertEquals( "a: b", read.getHeader( "X-Thing" ) );
+		Assert.assertEquals( "missing", read.getBodyAsString() );
+	}
+
+	@Test(expected=IOException.class)
+	public void testReadResponseEmpty() throws IOException {
+		HTTPServer.readResponse( new ByteArrayInputStream( new byte[0] ) );
+	}
+
+	@Test(expected=NullPointerException.class)
+	public void testWriteNull() throws IOException {
+		HTTPServer.write( null, null );
+	}
+	
+	@Test(expected=NullPointerException.class)
+	public void testWriteNullOutputStream() throws IOException {
+		HTTPServer.write( null, new HTTPResponse() );
+	}
+	
+	@Test(expected=NullPointerException.class)
+	public void testWriteNullResponse() throws IOException {
+		HTTPServer.write( new ByteArrayOutputStream(), null );
+	}
+	
+	String testWriteResponse( HTTPResponse response ) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HTTPServer.write( baos, response );
+		return baos.toString( StandardCharsets.UTF_8.name() );
+	}
+	
+	@Test
+	public void testWriteBlankResponse() throws IOException {
+		HTTPResponse response = new HTTPResponse();
+		String result = testWriteResponse( response );
+		Assert.assertEquals( "HTTP/1.0 0 null\r\n", result );
+	}
+	
+	@Test
+	public void testWriteSimpleResponse() throws IOException {
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( 200 );
+		String result = testWriteResponse( response );
+		Assert.assertEquals( "HTTP/1.0 200 OK\r\n", result );
+	}
+	
+	@Test
+	public void testWriteSimpleResponseNonstandardStatusMessage() throws IOException {
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( 200 );
+		response.setStatusMessage( "asdf" );
+		String result = testWriteResponse( response );
+		Assert.assertEquals( "HTTP/1.0 200 asdf\r\n", result );
+	}
+	
+	@Test
+	public void testWriteSimpleResponseUnplannedStatus() throws IOException {
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( 111 );
+		String result = testWriteResponse( response );
+		Assert.assertEquals( "HTTP/1.0 111 111 Message\r\n", result );
+	}
+	
+	@Test
+	public void testWriteResponseWithHeaders() throws IOException {
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( 200 );
+		response.setHeader( "a", "a" );
+		response.setHeader( "b", "b" );
+		response.setHeader( "c", "b" );
+		response.setHeader( "a", "b" );
+		String result = testWriteResponse( response );
+		Assert.assertTrue( result.startsWith( "HTTP/1.0 200 OK\r\n" ) );
+		Assert.assertTrue( result.contains( "a: b\r\n" ) );
+		Assert.assertTrue( result.contains( "b: b\r\n" ) );
+		Assert.assertTrue( result.contains( "c: b\r\n" ) );
+	}
+	
+	@Test
+	public void testWriteResponseWithBody() throws IOException {
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( 200 );
+		response.setBody( "hello world" );
+		String result = testWriteResponse( response );
+		Assert.assertTrue( result.startsWith( "HTTP/1.0 200 OK\r\n" ) );
+		Assert.assertTrue( result.toLowerCase().contains( "content-length: 11\r\n" ) );
+		Assert.assertTrue( result.contains( "\r\n\r\nhello world" ) );
+	}
+	
+	@Test
+	public void testWriteResponse() throws IOException {
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( 200 );
+		response.setHeader( "a", "a" );
+		response.setHeader( "b", "b" );
+		response.setHeader( "c", "b" );
+		response.setHeader( "a", "b" );
+		response.setHeader( "content-length", "444" );
+		response.setBody( "hello world" );
+		String result = testWriteResponse( response );
+		Assert.assertTrue( result.startsWith( "HTTP/1.0 200 OK\r\n" ) );
+		Assert.assertTrue( result.contains( "a: b\r\n" ) );
+		Assert.assertTrue( result.contains( "b: b\r\n" ) );
+		Assert.assertTrue( result.contains( "c: b\r\n" ) );
+		Assert.assertTrue( result.toLowerCase().contains( "content-length: 11\r\n" ) );
+		Assert.assertTrue( result.contains( "\r\n\r\nhello world" ) );
+	}
+
+	@Test
+	public void testWriteResponseWithSerializedHead() throws IOException {
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( 200 );
+		response.setBody( "hello world" );
+		response.head = "HTTP/1.0 299 Cached\r\n".getBytes( StandardCharsets.UTF_8 );
+		String result = testWriteResponse( response );
+		Assert.assertEquals( "HTTP/1.0 299 Cached\r\n\r\nhello world", result );
+	}
+
+	@Test
+	public void testSerializeHead() throws IOException {
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( 200 );
+		response.setHeader( "a", "b" );
+		String head = new String( HTTPServer.serializeHead( response ), StandardCharsets.UTF_8 );
+		Assert.assertEquals( "HTTP/1.0 200 OK\r\na: b\r\n", head );
+	}
+
+	@Test
+	public void testStopWithIOException() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			server.serverSocket.close();
+			
+			server.serverSocket = new ServerSocket( 0 ) {
+				@Override
+				public void close() throws IOException {
+					super.close();
+					throw new IOException( "test" );
+				}
+			};
+			
+			server.stop(); // note:  IOException should be logged
+		}
+	}
+
+	@Test
+	public void testHandlerThrowsHTTPException() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHTTPRequestHandler( new HTTPRequestHandler() {
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+					throw new HTTPException( 400, "some kind of message" );
+				}
+			} );
+			server.start();
+			
+			URL url = new URL( "http://localhost:" + server.getPort() );
+			HttpURLConnection con = (HttpURLConnection)url.openConnection();
+			Assert.assertEquals( 400, con.getResponseCode() );
+			
+			try ( InputStream resp = con.getErrorStream() ) {
+				byte[] buffer = new byte[ 1000 ];
+				int count = resp.read( buffer, 0, buffer.length );
+				String body = new String( buffer, 0, count, StandardCharsets.UTF_8 );
+				Assert.assertTrue( body.startsWith( "<html><body><h1>400 - Bad Request</h1><pre>com.mauter.httpserver.HTTPException: some kind of message" ) );
+				Assert.assertTrue( body.endsWith( "</pre></body></html>" ) );
+			}
+		}
+	}
+
+	@Test
+	public void testConcurrentRequests() throws Exception {
+		final CountDownLatch bothArrived = new CountDownLatch( 2 );
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHTTPRequestHandler( new HTTPRequestHandler() {
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+					bothArrived.countDown();
+					try {
+						// each request waits for the other, so this only returns if they run at the same time
+						response.setStatus( bothArrived.await( 5, TimeUnit.SECONDS ) ? 200 : 500 );
+					}
+					catch ( InterruptedException ie ) {
+						throw new HTTPException( ie );
+					}
+				}
+			} );
+			server.start();
+
+			final URL url = new URL( "http://localhost:" + server.getPort() );
+			ExecutorService clients = Executors.newFixedThreadPool( 2 );
+			try {
+				Callable<Integer> call = new Callable<Integer>() {
+					@Override public Integer call() throws IOException {
+						HttpURLConnection con = (HttpURLConnection)url.openConnection();
+						try {
+							return con.getResponseCode();
+						}
+						finally {
+							con.disconnect();
+						}
+					}
+				};
+				Future<Integer> first = clients.submit( call );
+				Future<Integer> second = clients.submit( call );
+				Assert.assertEquals( 200, first.get().intValue() );
+				Assert.assertEquals( 200, second.get().intValue() );
+			}
+			finally {
+				clients.shutdownNow();
+			}
+		}
+	}
+
+	HTTPRequestHandler blockUntil( final CountDownLatch release ) {
+		return new HTTPRequestHandler() {
+			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+				try {
+					release.await( 5, TimeUnit.SECONDS );
+				}
+				catch ( InterruptedException ie ) {
+					throw new HTTPException( ie );
+				}
+				response.setStatus( 200 );
+			}
+		};
+	}
+	
+	Callable<HttpURLConnection> get( final URL url ) {
+		return new Callable<HttpURLConnection>() {
+			@Override public HttpURLConnection call() throws IOException {
+				HttpURLConnection con = (HttpURLConnection)url.openConnection();
+				con.getResponseCode();
+				return con;
+			}
+		};
+	}
+	
+	Callable<HttpURLConnection> getSecure( final URL url, final HTTPServer server ) {
+		return new Callable<HttpURLConnection>() {
+			@Override public HttpURLConnection call() throws IOException {
+				HttpsURLConnection con = (HttpsURLConnection)url.openConnection();
+				con.setSSLSocketFactory( server.getClientSSLContext().getSocketFactory() );
+				con.getResponseCode();
+				return con;
+			}
+		};
+	}
+	
+	@Test
+	public void testAdmissionSettings() {
+		try ( HTTPServer server = new HTTPServer() ) {
+			Assert.assertEquals( 50, server.getBacklog() );
+			Assert.assertEquals( 0, server.getMaxConnections() );
+			Assert.assertEquals( -1, server.getMaxQueuedRequests() );
+			Assert.assertEquals( 0, server.getQueueDelayTarget() );
+			Assert.assertEquals( 1, server.getRetryAfter() );
+			
+			server.setBacklog( 10 );
+			server.setMaxConnections( 2 );
+			server.setMaxQueuedRequests( 3 );
+			server.setQueueDelayTarget( 4 );
+			server.setRetryAfter( 5 );
+			Assert.assertEquals( 10, server.getBacklog() );
+			Assert.assertEquals( 2, server.getMaxConnections() );
+			Assert.assertEquals( 3, server.getMaxQueuedRequests() );
+			Assert.assertEquals( 4, server.getQueueDelayTarget() );
+			Assert.assertEquals( 5, server.getRetryAfter() );
+		}
+	}
+	
+	@Test
+	public void testBuildOverloadResponse() throws IOException {
+		String response = new String( HTTPServer.buildOverloadResponse( 7 ), StandardCharsets.UTF_8 );
+		Assert.assertTrue( response.startsWith( "HTTP/1.0 503 Service Unavailable\r\n" ) );
+		Assert.assertTrue( response.contains( "retry-after: 7\r\n" ) );
+		Assert.assertTrue( response.contains( "connection: close\r\n" ) );
+		Assert.assertTrue( response.endsWith( "\r\n\r\n503 - Service Unavailable" ) );
+	}
+	
+	@Test
+	public void testCreateWorkers() {
+		try ( HTTPServer server = new HTTPServer() ) {
+			ThreadPoolExecutor unlimited = (ThreadPoolExecutor)server.createWorkers();
+			Assert.assertEquals( Integer.MAX_VALUE, unlimited.getMaximumPoolSize() );
+			unlimited.shutdown();
+			
+			server.setMaxConnections( 3 );
+			server.setMaxQueuedRequests( 7 );
+			ThreadPoolExecutor limited = (ThreadPoolExecutor)server.createWorkers();
+			Assert.assertEquals( 3, limited.getMaximumPoolSize() );
+			Assert.assertEquals( 7, limited.getQueue().remainingCapacity() );
+			limited.shutdown();
+		}
+	}
+	
+	@Test
+	public void testRequestsAndResponsesStayPaired() throws Exception {
+		ExecutorService clients = Executors.newFixedThreadPool( 8 );
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHTTPRequestHandler( new HTTPRequestHandler() {
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+					response.setStatus( 200 );
+					response.setBody( request.getPath() );
+				}
+			} );
+			server.start();
+
+			final int port = server.getPort();
+			List<Future<String>> sent = new ArrayList<>();
+			for ( int i = 0; i < 200; i++ ) {
+				final String path = "/" + i;
+				sent.add( clients.submit( new Callable<String>() {
+					@Override public String call() throws IOException {
+						try ( Socket socket = new Socket( "localhost", port ) ) {
+							socket.setSoTimeout( 5000 );
+							socket.getOutputStream().write( ( "GET " + path + " HTTP/1.0\r\n\r\n" ).getBytes( StandardCharsets.UTF_8 ) );
+							return new String( readAll( socket.getInputStream() ), StandardCharsets.UTF_8 );
+						}
+					}
+				} ) );
+			}
+			for ( Future<String> response : sent ) Assert.assertTrue( response.get().startsWith( "HTTP/1.0 200 OK" ) );
+
+			// the same index of each list belongs to the same exchange
+			Assert.assertEquals( 200, server.getRequests().size() );
+			for ( int i = 0; i < 200; i++ ) {
+				Assert.assertEquals( server.getRequests().get( i ).getPath(), server.getResponses().get( i ).getBodyAsString() );
+			}
+		}
+		finally {
+			clients.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testShedsBeyondConnectionAndQueueLimits() throws Exception {
+		CountDownLatch release = new CountDownLatch( 1 );
+		ExecutorService clients = Executors.newCachedThreadPool();
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setMaxConnections( 1 );
+			server.setMaxQueuedRequests( 1 );
+			server.setRetryAfter( 3 );
+			server.setHTTPRequestHandler( blockUntil( release ) );
+			server.start();
+			
+			URL url = new URL( "http://localhost:" + server.getPort() );
+			Future<HttpURLConnection> busy = clients.submit( get( url ) );
+			while ( server.getActiveConnections() == 0 ) Thread.sleep( 5 );
+			Future<HttpURLConnection> queued = clients.submit( get( url ) );
+			Thread.sleep( 100 );
+			
+			HttpURLConnection shed = get( url ).call();
+			Assert.assertEquals( 503, shed.getResponseCode() );
+			Assert.assertEquals( "3", shed.getHeaderField( "Retry-After" ) );
+			shed.disconnect();
+			Assert.assertEquals( 1, server.getShedCount() );
+			
+			release.countDown();
+			Assert.assertEquals( 200, busy.get().getResponseCode() );
+			Assert.assertEquals( 200, queued.get().getResponseCode() );
+			Assert.assertEquals( 2, server.getRequests().size() );
+		}
+		finally {
+			clients.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testShedsThroughTLS() throws Exception {
+		CountDownLatch release = new CountDownLatch( 1 );
+		ExecutorService clients = Executors.newCachedThreadPool();
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setSecure( true );
+			server.setMaxConnections( 1 );
+			server.setMaxQueuedRequests( 1 );
+			server.setRetryAfter( 3 );
+			server.setHTTPRequestHandler( blockUntil( release ) );
+			server.start();
+			
+			URL url = new URL( "https://localhost:" + server.getPort() );
+			Future<HttpURLConnection> busy = clients.submit( getSecure( url, server ) );
+			while ( server.getActiveConnections() == 0 ) Thread.sleep( 5 );
+			Future<HttpURLConnection> queued = clients.submit( getSecure( url, server ) );
+			Thread.sleep( 100 );
+			
+			HttpURLConnection shed = getSecure( url, server ).call();
+			Assert.assertEquals( 503, shed.getResponseCode() );
+			Assert.assertEquals( "3", shed.getHeaderField( "Retry-After" ) );
+			shed.disconnect();
+			Assert.assertEquals( 1, server.getShedCount() );
+			
+			release.countDown();
+			Assert.assertEquals( 200, busy.get().getResponseCode() );
+			Assert.assertEquals( 200, queued.get().getResponseCode() );
+		}
+		finally {
+			clients.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testShedsOnQueueDelay() throws Exception {
+		ExecutorService clients = Executors.newCachedThreadPool();
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setMaxConnections( 1 );
+			server.setQueueDelayTarget( 50 );
+			server.setHTTPRequestHandler( new HTTPRequestHandler() {
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+					try {
+						Thread.sleep( 150 );
+					}
+					catch ( InterruptedException ie ) {
+						throw new HTTPException( ie );
+					}
+					response.setStatus( 200 );
+				}
+			} );
+			server.start();
+			
+			URL url = new URL( "http://localhost:" + server.getPort() );
+			List<Future<HttpURLConnection>> responses = new ArrayList<>();
+			for ( int i = 0; i < 4; i++ ) responses.add( clients.submit( get( url ) ) );
+			
+			int ok = 0, unavailable = 0;
+			for ( Future<HttpURLConnection> response : responses ) {
+				int status = response.get().getResponseCode();
+				if ( status == 200 ) ok++;
+				if ( status == 503 ) unavailable++;
+			}
+			Assert.assertEquals( 4, ok + unavailable );
+			Assert.assertTrue( ok >= 2 );
+			Assert.assertTrue( unavailable >= 1 );
+			Assert.assertEquals( unavailable, server.getShedCount() );
+		}
+		finally {
+			clients.shutdownNow();
+		}
+	}
+
+	static byte[] readAll( InputStream is ) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[ 8192 ];
+		int count;
+		while ( ( count = is.read( buffer ) ) > 0 ) baos.write( buffer, 0, count );
+		return baos.toByteArray();
+	}
+	
+	/**
+	 * Reads one response from a keep-alive connection, status line and
+	 * headers followed by Content-length bytes of body.
+	 */
+	String readResponse( BufferedInputStream bis ) throws IOException {
+		StringBuilder response = new StringBuilder();
+		int contentLength = 0;
+		String line;
+		while ( !( line = HTTPServer.readLine( bis ) ).isEmpty() ) {
+			response.append( line ).append( "\n" );
+			if ( line.toLowerCase().startsWith( "content-length:" ) ) contentLength = Integer.parseInt( line.substring( 15 ).trim() );
+		}
+		response.append( "\n" );
+		for ( int i = 0; i < contentLength; i++ ) response.append( (char)bis.read() );
+		return response.toString();
+	}
+	
+	@Test
+	public void testTimeoutSettings() {
+		try ( HTTPServer server = new HTTPServer() ) {
+			Assert.assertEquals( 10000, server.getHeaderTimeout() );
+			Assert.assertEquals( 30000, server.getBodyTimeout() );
+			Assert.assertEquals( 30000, server.getWriteTimeout() );
+			Assert.assertEquals( 0, server.getKeepAliveTimeout() );
+			
+			server.setHeaderTimeout( 1 );
+			server.setBodyTimeout( 2 );
+			server.setWriteTimeout( 3 );
+			server.setKeepAliveTimeout( 4 );
+			Assert.assertEquals( 1, server.getHeaderTimeout() );
+			Assert.assertEquals( 2, server.getBodyTimeout() );
+			Assert.assertEquals( 3, server.getWriteTimeout() );
+			Assert.assertEquals( 4, server.getKeepAliveTimeout() );
+		}
+	}
+	
+	@Test
+	public void testHeaderTimeout() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			server.stop();
+			server.setHeaderTimeout( 100 );
+			server.start();
+			
+			try ( Socket socket = new Socket( "localhost", server.getPort() ) ) {
+				socket.setSoTimeout( 5000 );
+				socket.getOutputStream().write( "GET / HTTP/1.0\r\nHost: loc".getBytes( StandardCharsets.UTF_8 ) );
+				String response = new String( readAll( socket.getInputStream() ), StandardCharsets.UTF_8 );
+				Assert.assertTrue( response, response.startsWith( "HTTP/1.0 408 Request Timeout\r\n" ) );
+			}
+			Assert.assertEquals( 408, server.getResponses().get( 0 ).getStatus() );
+		}
+	}
+	
+	@Test
+	public void testBodyTimeout() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			server.stop();
+			server.setBodyTimeout( 100 );
+			server.start();
+			
+			try ( Socket socket = new Socket( "localhost", server.getPort() ) ) {
+				socket.setSoTimeout( 5000 );
+				socket.getOutputStream().write( "POST / HTTP/1.0\r\nContent-length: 10\r\n\r\n12345".getBytes( StandardCharsets.UTF_8 ) );
+				String response = new String( readAll( socket.getInputStream() ), StandardCharsets.UTF_8 );
+				Assert.assertTrue( response, response.startsWith( "HTTP/1.0 408 Request Timeout\r\n" ) );
+			}
+		}
+	}
+	
+	@Test
+	public void testSlowHandlerIsNotTimedOut() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHeaderTimeout( 50 );
+			server.setBodyTimeout( 50 );
+			server.setHTTPRequestHandler( new HTTPRequestHandler() {
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+					try {
+						Thread.sleep( 200 );
+					}
+					catch ( InterruptedException ie ) {
+						throw new HTTPException( ie );
+					}
+					response.setStatus( 200 );
+				}
+			} );
+			server.start();
+			
+			HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() ).openConnection();
+			Assert.assertEquals( 200, con.getResponseCode() );
+			con.disconnect();
+		}
+	}
+	
+	@Test
+	public void testIsKeepAlive() {
+		HTTPRequest request = new HTTPRequest();
+		request.setVersion( "HTTP/1.1" );
+		Assert.assertTrue( HTTPServer.isKeepAlive( request ) );
+		request.setHeader( "Connection", "Upgrade, close" );
+		Assert.assertFalse( HTTPServer.isKeepAlive( request ) );
+		
+		request = new HTTPRequest();
+		request.setVersion( "HTTP/1.0" );
+		Assert.assertFalse( HTTPServer.isKeepAlive( request ) );
+		request.setHeader( "Connection", "Keep-Alive" );
+		Assert.assertTrue( HTTPServer.isKeepAlive( request ) );
+	}
+	
+	@Test
+	public void testWriteKeepAlive() throws IOException {
+		byte[] keepAlive = "connection: keep-alive\r\n".getBytes( StandardCharsets.UTF_8 );
+		
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( 204 );
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		HTTPServer.write( baos, response, keepAlive );
+		Assert.assertEquals( "HTTP/1.0 204 204 Message\r\nconnection: keep-alive\r\ncontent-length: 0\r\n\r\n", baos.toString( StandardCharsets.UTF_8.name() ) );
+		Assert.assertNull( response.getHeader( "Connection" ) );
+		
+		response.setBody( "hi" );
+		baos.reset();
+		HTTPServer.write( baos, response, keepAlive );
+		Assert.assertEquals( "HTTP/1.0 204 204 Message\r\ncontent-length: 2\r\nconnection: keep-alive\r\n\r\nhi", baos.toString( StandardCharsets.UTF_8.name() ) );
+	}
+	
+	@Test
+	public void testKeepAlive() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			server.stop();
+			server.setKeepAliveTimeout( 2000 );
+			server.start();
+			
+			try ( Socket socket = new Socket( "localhost", server.getPort() ) ) {
+				socket.setSoTimeout( 5000 );
+				BufferedInputStream bis = new BufferedInputStream( socket.getInputStream() );
+				for ( int i = 0; i < 3; i++ ) {
+					socket.getOutputStream().write( ( "GET /" + i + " HTTP/1.1\r\nHost: localhost\r\n\r\n" ).getBytes( StandardCharsets.UTF_8 ) );
+					String response = readResponse( bis );
+					Assert.assertTrue( response.startsWith( "HTTP/1.0 200 OK\n" ) );
+					Assert.assertTrue( response.contains( "connection: keep-alive\n" ) );
+					Assert.assertTrue( response.contains( "keep-alive: timeout=2\n" ) );
+				}
+				
+				socket.getOutputStream().write( "GET /last HTTP/1.1\r\nConnection: close\r\n\r\n".getBytes( StandardCharsets.UTF_8 ) );
+				String response = new String( readAll( bis ), StandardCharsets.UTF_8 );
+				Assert.assertFalse( response.contains( "keep-alive" ) );
+			}
+			Assert.assertEquals( 4, server.getRequests().size() );
+			Assert.assertEquals( "/2", server.getRequests().get( 2 ).getPath() );
+		}
+	}
+	
+	@Test
+	public void testKeepAliveOffByDefault() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			try ( Socket socket = new Socket( "localhost", server.getPort() ) ) {
+				socket.setSoTimeout( 5000 );
+				socket.getOutputStream().write( "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes( StandardCharsets.UTF_8 ) );
+				String response = new String( readAll( socket.getInputStream() ), StandardCharsets.UTF_8 );
+				Assert.assertFalse( response.contains( "keep-alive" ) );
+			}
+		}
+	}
+	
+	@Test
+	public void testKeepAliveTimeout() throws IOException, InterruptedException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			server.stop();
+			server.setKeepAliveTimeout( 100 );
+			server.start();
+			
+			try ( Socket socket = new Socket( "localhost", server.getPort() ) ) {
+				socket.setSoTimeout( 5000 );
+				BufferedInputStream bis = new BufferedInputStream( socket.getInputStream() );
+				socket.getOutputStream().write( "GET / HTTP/1.1\r\n\r\n".getBytes( StandardCharsets.UTF_8 ) );
+				Assert.assertTrue( readResponse( bis ).startsWith( "HTTP/1.0 200 OK\n" ) );
+				Assert.assertEquals( -1, bis.read() );
+			}
+			Assert.assertEquals( 1, server.getRequests().size() );
+			while ( server.getActiveConnections() > 0 ) Thread.sleep( 5 );
+		}
+	}
+	
+	@Test
+	public void testKeepAliveWithHttpURLConnection() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			server.stop();
+			server.setKeepAliveTimeout( 5000 );
+			server.start();
+			
+			for ( int i = 0; i < 3; i++ ) {
+				HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() + "/" + i ).openConnection();
+				Assert.assertEquals( 200, con.getResponseCode() );
+				try ( InputStream is = con.getInputStream() ) {
+					readAll( is );
+				}
+			}
+			Assert.assertEquals( 3, server.getRequests().size() );
+			Assert.assertEquals( 1, server.getActiveConnections() );
+		}
+	}
+	
+	@Test
+	public void testStopClosesIdleConnections() throws IOException {
+		HTTPServer server = HTTPServer.always200OK();
+		server.stop();
+		server.setKeepAliveTimeout( 60000 );
+		server.start();
+		
+		try ( Socket socket = new Socket( "localhost", server.getPort() ) ) {
+			socket.setSoTimeout( 5000 );
+			BufferedInputStream bis = new BufferedInputStream( socket.getInputStream() );
+			socket.getOutputStream().write( "GET / HTTP/1.1\r\n\r\n".getBytes( StandardCharsets.UTF_8 ) );
+			readResponse( bis );
+			
+			long start = System.nanoTime();
+			server.stop();
+			Assert.assertEquals( -1, bis.read() );
+			Assert.assertTrue( System.nanoTime() - start < TimeUnit.SECONDS.toNanos( 2 ) );
+			Assert.assertEquals( 0, server.getActiveConnections() );
+		}
+	}
+
+	@Test
+	public void testDrainSettings() {
+		try ( HTTPServer server = new HTTPServer() ) {
+			Assert.assertEquals( 1000, server.getDrainTimeout() );
+			server.setDrainTimeout( 5000 );
+			Assert.assertEquals( 5000, server.getDrainTimeout() );
+			Assert.assertEquals( 0, server.getDrainedExchanges() );
+			Assert.assertEquals( 0, server.getAbortedExchanges() );
+		}
+	}
+	
+	@Test
+	public void testStopDrainsRequestsInFlight() throws Exception {
+		ExecutorService clients = Executors.newCachedThreadPool();
+		HTTPServer server = new HTTPServer();
+		try {
+			server.setDrainTimeout( 5000 );
+			server.setHTTPRequestHandler( new HTTPRequestHandler() {
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+					try {
+						Thread.sleep( 300 );
+					}
+					catch ( InterruptedException ie ) {
+						throw new HTTPException( ie );
+					}
+					response.setStatus( 200 );
+				}
+			} );
+			server.start();
+			
+			URL url = new URL( "http://localhost:" + server.getPort() );
+			Future<HttpURLConnection> first = clients.submit( get( url ) );
+			Future<HttpURLConnection> second = clients.submit( get( url ) );
+			while ( server.getActiveConnections() < 2 ) Thread.sleep( 5 );
+			
+			server.stop();
+			Assert.assertEquals( 200, first.get().getResponseCode() );
+			Assert.assertEquals( 200, second.get().getResponseCode() );
+			Assert.assertEquals( 2, server.getDrainedExchanges() );
+			Assert.assertEquals( 0, server.getAbortedExchanges() );
+		}
+		finally {
+			server.stop();
+			clients.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testStopAbortsAfterDrainTimeout() throws Exception {
+		CountDownLatch release = new CountDownLatch( 1 );
+		HTTPServer server = new HTTPServer();
+		try {
+			server.setDrainTimeout( 200 );
+			server.setHTTPRequestHandler( blockUntil( release ) );
+			server.start();
+			
+			try ( Socket socket = new Socket( "localhost", server.getPort() ) ) {
+				socket.setSoTimeout( 5000 );
+				socket.getOutputStream().write( "GET / HTTP/1.0\r\n\r\n".getBytes( StandardCharsets.UTF_8 ) );
+				while ( server.getActiveConnections() == 0 ) Thread.sleep( 5 );
+				
+				long start = System.nanoTime();
+				server.stop();
+				Assert.assertTrue( System.nanoTime() - start < TimeUnit.SECONDS.toNanos( 2 ) );
+				Assert.assertEquals( 0, server.getDrainedExchanges() );
+				Assert.assertEquals( 1, server.getAbortedExchanges() );
+				Assert.assertEquals( 0, readAll( socket.getInputStream() ).length );
+			}
+		}
+		finally {
+			release.countDown();
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testAcceptors() {
+		try ( HTTPServer server = new HTTPServer() ) {
+			Assert.assertEquals( 1, server.getAcceptors() );
+			server.setAcceptors( 4 );
+			Assert.assertEquals( 4, server.getAcceptors() );
+		}
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testNoAcceptors() {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setAcceptors( 0 );
+		}
+	}
+	
+	@Test
+	public void testMultipleAcceptors() throws Exception {
+		boolean reusePort;
+		try ( ServerSocket probe = new ServerSocket() ) {
+			reusePort = HTTPServer.setReusePort( probe );
+		}
+		
+		ExecutorService clients = Executors.newFixedThreadPool( 8 );
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			server.stop();
+			server.setAcceptors( 4 );
+			server.start();
+			Assert.assertEquals( 3, server.acceptorThreads.size() );
+			Assert.assertEquals( reusePort ? 3 : 0, server.reusePortSockets.size() );
+			
+			URL url = new URL( "http://localhost:" + server.getPort() );
+			List<Future<HttpURLConnection>> responses = new ArrayList<>();
+			for ( int i = 0; i < 40; i++ ) responses.add( clients.submit( get( url ) ) );
+			for ( Future<HttpURLConnection> response : responses ) {
+				Assert.assertEquals( 200, response.get().getResponseCode() );
+			}
+			Assert.assertEquals( 40, server.getRequests().size() );
+			
+			server.stop();
+			Assert.assertTrue( server.acceptorThreads.isEmpty() );
+			Assert.assertTrue( server.reusePortSockets.isEmpty() );
+			
+			// the port can be bound again
+			server.start();
+			HttpURLConnection con = get( url ).call();
+			Assert.assertEquals( 200, con.getResponseCode() );
+		}
+		finally {
+			clients.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testBandwidthSettings() {
+		try ( HTTPServer server = new HTTPServer() ) {
+			Assert.assertEquals( 0, server.getReadBandwidth() );
+			Assert.assertEquals( 0, server.getWriteBandwidth() );
+			server.setReadBandwidth( 1000 );
+			server.setWriteBandwidth( 2000 );
+			Assert.assertEquals( 1000, server.getReadBandwidth() );
+			Assert.assertEquals( 2000, server.getWriteBandwidth() );
+		}
+	}
+	
+	@Test
+	public void testWriteBandwidth() throws IOException {
+		final byte[] body = new byte[ 20000 ];
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setWriteBandwidth( 40000 );
+			server.setHTTPRequestHandler( new HTTPRequestHandler() {
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+					response.setStatus( 200 );
+					response.setBody( body );
+				}
+			} );
+			server.start();
+			
+			long start = System.nanoTime();
+			HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() ).openConnection();
+			Assert.assertEquals( 200, con.getResponseCode() );
+			try ( InputStream is = con.getInputStream() ) {
+				Assert.assertEquals( body.length, readAll( is ).length );
+			}
+			
+			// half a second at 40 KB/s, less the first slice which goes out at once
+			Assert.assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 400 ) );
+		}
+	}
+	
+	@Test
+	public void testReadBandwidth() throws IOException {
+		try ( HTTPServer server = HTTPServer.always200OK() ) {
+			server.setReadBandwidth( 40000 );
+			
+			long start = System.nanoTime();
+			HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() ).openConnection();
+			con.setDoOutput( true );
+			con.setFixedLengthStreamingMode( 20000 );
+			con.getOutputStream().write( new byte[ 20000 ] );
+			Assert.assertEquals( 200, con.getResponseCode() );
+			Assert.assertEquals( 20000, server.getRequests().get( 0 ).getBody().length );
+			Assert.assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 400 ) );
+		}
 	}
 }
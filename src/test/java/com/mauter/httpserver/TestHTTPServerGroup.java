@@ -0,0 +1,160 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class TestHTTPServerGroup {
+
+	static HTTPServer server( HTTPServerGroup group, final String name ) {
+		HTTPServer server = new HTTPServer();
+		server.setGroup( group );
+		server.setHTTPRequestHandler( new HTTPRequestHandler() {
+			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+				response.setStatus( 200 );
+				response.setBody( name );
+			}
+		} );
+		return server;
+	}
+
+	static String get( HTTPServer server ) throws IOException {
+		HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() ).openConnection();
+		try ( InputStream in = con.getInputStream() ) {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			byte[] buffer = new byte[ 1024 ];
+			int count;
+			while ( ( count = in.read( buffer ) ) >= 0 ) body.write( buffer, 0, count );
+			return new String( body.toByteArray(), StandardCharsets.UTF_8 );
+		}
+	}
+
+	@Test
+	public void testServersShareThreads() throws IOException {
+		try ( HTTPServerGroup group = new HTTPServerGroup() ) {
+			int threads = Thread.activeCount();
+			List<HTTPServer> servers = new ArrayList<>();
+			for ( int i = 0; i < 50; i++ ) {
+				HTTPServer server = server( group, "server " + i );
+				server.start();
+				servers.add( server );
+			}
+			Assert.assertEquals( 50, group.getServerCount() );
+
+			// on their own, fifty servers would have started at least a hundred threads
+			Assert.assertTrue( Thread.activeCount() - threads < 10 );
+
+			for ( int i = 0; i < servers.size(); i++ ) Assert.assertEquals( "server " + i, get( servers.get( i ) ) );
+			for ( HTTPServer server : servers ) Assert.assertEquals( 1, server.getRequests().size() );
+
+			for ( HTTPServer server : servers ) server.stop();
+			Assert.assertEquals( 0, group.getServerCount() );
+		}
+	}
+
+	@Test
+	public void testRestart() throws IOException {
+		try ( HTTPServerGroup group = new HTTPServerGroup() ) {
+			HTTPServer server = server( group, "again" );
+			server.start();
+			int port = server.getPort();
+			Assert.assertEquals( "again", get( server ) );
+			server.stop();
+
+			try {
+				get( server );
+				Assert.fail( "Stopped server still answered." );
+			}
+			catch ( IOException ioe ) {
+				// expected
+			}
+
+			server.start();
+			Assert.assertEquals( port, server.getPort() );
+			Assert.assertEquals( "again", get( server ) );
+			server.stop();
+		}
+	}
+
+	@Test
+	public void testCloseStopsServers() throws IOException {
+		HTTPServer server;
+		try ( HTTPServerGroup group = new HTTPServerGroup() ) {
+			server = server( group, "closed" );
+			server.start();
+			Assert.assertTrue( server.isRunning );
+		}
+		Assert.assertFalse( server.isRunning );
+	}
+
+	@Test(expected=IOException.class)
+	public void testClosedGroup() throws IOException {
+		HTTPServerGroup group = new HTTPServerGroup();
+		group.close();
+		server( group, "never" ).start();
+	}
+
+	@Test
+	public void testTimeouts() throws IOException {
+		try ( HTTPServerGroup group = new HTTPServerGroup(); HTTPServer server = server( group, "slow" ) ) {
+			server.setHeaderTimeout( 200 );
+			server.start();
+
+			try ( Socket socket = new Socket( "localhost", server.getPort() ) ) {
+				socket.setSoTimeout( 5000 );
+				socket.getOutputStream().write( "GET / HTTP/1.1\r\n".getBytes( StandardCharsets.UTF_8 ) );
+				byte[] status = new byte[ 12 ];
+				int read = 0;
+				while ( read < status.length ) read += socket.getInputStream().read( status, read, status.length - read );
+				Assert.assertEquals( "HTTP/1.0 408", new String( status, StandardCharsets.UTF_8 ) );
+			}
+		}
+	}
+
+	@Test
+	public void testMaxWorkers() throws IOException {
+		try ( HTTPServerGroup group = new HTTPServerGroup( 2 ) ) {
+			Assert.assertEquals( 2, ( (ThreadPoolExecutor)group.workers ).getMaximumPoolSize() );
+			HTTPServer server = server( group, "limited" );
+			server.start();
+			Assert.assertEquals( "limited", get( server ) );
+		}
+	}
+
+	@Test
+	public void testUnixDomainSocket() throws IOException {
+		Assume.assumeTrue( UnixDomainSockets.isSupported() );
+		Path directory = Files.createTempDirectory( "http-server" );
+		Path path = directory.resolve( "group.sock" );
+		try ( HTTPServerGroup group = new HTTPServerGroup(); HTTPServer server = server( group, "local" ) ) {
+			server.setUnixDomainSocket( path );
+			server.start();
+
+			try ( Socket socket = UnixDomainSockets.connect( path ) ) {
+				socket.getOutputStream().write( "GET / HTTP/1.0\r\n\r\n".getBytes( StandardCharsets.UTF_8 ) );
+				ByteArrayOutputStream response = new ByteArrayOutputStream();
+				InputStream in = socket.getInputStream();
+				int b;
+				while ( ( b = in.read() ) >= 0 ) response.write( b );
+				Assert.assertTrue( new String( response.toByteArray(), StandardCharsets.UTF_8 ).endsWith( "\r\n\r\nlocal" ) );
+			}
+		}
+		finally {
+			Files.deleteIfExists( path );
+			Files.delete( directory );
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package com.mauter.httpserver;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class TestHTTPServerPool {
+
+	private static final Logger log = LoggerFactory.getLogger( TestHTTPServerPool.class );
+
+	static int get( HTTPServer server ) throws IOException {
+		HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() ).openConnection();
+		try {
+			return con.getResponseCode();
+		}
+		finally {
+			con.disconnect();
+		}
+	}
+
+	static final HTTPRequestHandler TEAPOT = new HTTPRequestHandler() {
+		@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+			response.setStatus( 418 );
+		}
+	};
+
+	@Test
+	public void testPrestarted() throws IOException {
+		try ( HTTPServerPool pool = new HTTPServerPool( 3 ) ) {
+			Assert.assertEquals( 3, pool.getIdleCount() );
+			HTTPServer server = pool.acquire();
+			Assert.assertEquals( 2, pool.getIdleCount() );
+			Assert.assertTrue( server.isRunning );
+			Assert.assertEquals( 200, get( server ) );
+		}
+	}
+
+	@Test
+	public void testReleaseResets() throws IOException {
+		try ( HTTPServerPool pool = new HTTPServerPool( 1 ) ) {
+			HTTPServer server = pool.acquire();
+			int port = server.getPort();
+			server.setHTTPRequestHandler( TEAPOT );
+			Assert.assertEquals( 418, get( server ) );
+			Assert.assertEquals( 1, server.getRequests().size() );
+			pool.release( server );
+
+			HTTPServer again = pool.acquire();
+			Assert.assertSame( server, again );
+			Assert.assertEquals( port, again.getPort() );
+			Assert.assertTrue( again.getRequests().isEmpty() );
+			Assert.assertTrue( again.getResponses().isEmpty() );
+			Assert.assertEquals( 200, get( again ) );
+		}
+	}
+
+	@Test
+	public void testGrowsAndShrinks() throws IOException {
+		try ( HTTPServerPool pool = new HTTPServerPool( 1 ) ) {
+			HTTPServer first = pool.acquire();
+			HTTPServer second = pool.acquire();
+			Assert.assertNotSame( first, second );
+			Assert.assertTrue( second.isRunning );
+
+			pool.release( first );
+			pool.release( second );
+			Assert.assertEquals( 1, pool.getIdleCount() );
+			Assert.assertFalse( second.isRunning );
+		}
+	}
+
+	@Test
+	public void testStoppedServerIsDropped() throws IOException {
+		try ( HTTPServerPool pool = new HTTPServerPool( 1 ) ) {
+			HTTPServer server = pool.acquire();
+			server.stop();
+			pool.release( server );
+			Assert.assertEquals( 0, pool.getIdleCount() );
+
+			HTTPServer next = pool.acquire();
+			Assert.assertNotSame( server, next );
+			Assert.assertEquals( 200, get( next ) );
+		}
+	}
+
+	@Test
+	public void testClose() throws IOException {
+		HTTPServerPool pool = new HTTPServerPool( 1 );
+		HTTPServer lent = pool.acquire();
+		HTTPServer idle = pool.acquire();
+		pool.release( idle );
+		pool.close();
+		Assert.assertFalse( lent.isRunning );
+		Assert.assertFalse( idle.isRunning );
+
+		try {
+			pool.acquire();
+			Assert.fail( "Closed pool lent a server." );
+		}
+		catch ( IOException ioe ) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testShared() throws IOException {
+		Assert.assertSame( HTTPServerPool.shared(), HTTPServerPool.shared() );
+	}
+
+	/**
+	 * Compares the overhead a test pays for its own server with borrowing
+	 * one from a pool.
+	 */
+	@Test
+	public void testOverhead() throws IOException {
+		int tests = 50;
+		long start = System.nanoTime();
+		for ( int i = 0; i < tests; i++ ) {
+			HTTPServer server = new HTTPServer();
+			server.setHTTPRequestHandler( TEAPOT );
+			server.start();
+			server.stop();
+		}
+		long fresh = ( System.nanoTime() - start ) / tests;
+
+		long pooled;
+		try ( HTTPServerPool pool = new HTTPServerPool( 1 ) ) {
+			start = System.nanoTime();
+			for ( int i = 0; i < tests; i++ ) {
+				HTTPServer server = pool.acquire();
+				server.setHTTPRequestHandler( TEAPOT );
+				pool.release( server );
+			}
+			pooled = ( System.nanoTime() - start ) / tests;
+		}
+
+		log.info( "per test overhead: {} us for a new server, {} us for a pooled one", TimeUnit.NANOSECONDS.toMicros( fresh ), TimeUnit.NANOSECONDS.toMicros( pooled ) );
+		Assert.assertTrue( pooled < fresh );
+	}
+}
@@ -0,0 +1,67 @@
+package com.mauter.httpserver;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class TestHTTPServerRule {
+
+	static HTTPServerPool pool;
+
+	@Rule
+	public HTTPServerRule http;
+
+	public TestHTTPServerRule() throws IOException {
+		if ( pool == null ) pool = new HTTPServerPool( 1 );
+		http = new HTTPServerRule( pool );
+	}
+
+	@AfterClass
+	public static void closePool() {
+		pool.close();
+	}
+
+	void assertFresh() throws IOException {
+		Assert.assertEquals( 0, pool.getIdleCount() );
+		Assert.assertTrue( http.getServer().getRequests().isEmpty() );
+
+		http.getServer().setHTTPRequestHandler( new HTTPRequestHandler() {
+			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+				response.setStatus( 204 );
+			}
+		} );
+		HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + http.getPort() ).openConnection();
+		Assert.assertEquals( 204, con.getResponseCode() );
+		Assert.assertEquals( 1, http.getServer().getRequests().size() );
+	}
+
+	// both tests leave a request behind, so whichever runs second sees the reset
+
+	@Test
+	public void testFirst() throws IOException {
+		assertFresh();
+	}
+
+	@Test
+	public void testSecond() throws IOException {
+		assertFresh();
+	}
+
+	@Test
+	public void testSharedPool() throws Throwable {
+		HTTPServerRule rule = new HTTPServerRule();
+		rule.before();
+		try {
+			Assert.assertTrue( rule.getServer().isRunning );
+		}
+		finally {
+			rule.after();
+		}
+		Assert.assertNull( rule.getServer() );
+	}
+}
@@ -0,0 +1,65 @@
+package com.mauter.httpserver;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestJSON {
+
+	@Test
+	public void testScalars() {
+		Assert.assertEquals( "abc", JSON.parse( "\"abc\"" ) );
+		Assert.assertEquals( 42L, JSON.parse( "42" ) );
+		Assert.assertEquals( -7L, JSON.parse( " -7 " ) );
+		Assert.assertEquals( 1.5e3, JSON.parse( "1.5e3" ) );
+		Assert.assertEquals( Boolean.TRUE, JSON.parse( "true" ) );
+		Assert.assertEquals( Boolean.FALSE, JSON.parse( "false" ) );
+		Assert.assertNull( JSON.parse( "null" ) );
+	}
+
+	@Test
+	public void testEscapes() {
+		Assert.assertEquals( "a\"b\\c/d\n\té", JSON.parse( "\"a\\\"b\\\\c\\/d\\n\\t\\u00e9\"" ) );
+	}
+
+	@Test
+	public void testObjectsAndArrays() {
+		Map<?, ?> object = (Map<?, ?>)JSON.parse( "{ \"a\": [1, \"two\", {}], \"b\": { \"c\": null }, \"d\": [] }" );
+		Assert.assertEquals( Arrays.asList( "a", "b", "d" ), Arrays.asList( object.keySet().toArray() ) );
+		List<?> a = (List<?>)object.get( "a" );
+		Assert.assertEquals( 1L, a.get( 0 ) );
+		Assert.assertEquals( "two", a.get( 1 ) );
+		Assert.assertTrue( ( (Map<?, ?>)a.get( 2 ) ).isEmpty() );
+		Assert.assertTrue( ( (Map<?, ?>)object.get( "b" ) ).containsKey( "c" ) );
+		Assert.assertTrue( ( (List<?>)object.get( "d" ) ).isEmpty() );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testTrailingText() {
+		JSON.parse( "{} {}" );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testUnterminatedString() {
+		JSON.parse( "\"abc" );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testMissingComma() {
+		JSON.parse( "[1 2]" );
+	}
+
+	@Test
+	public void testErrorPosition() {
+		try {
+			JSON.parse( "{\"a\": x}" );
+			Assert.fail();
+		}
+		catch ( IllegalArgumentException iae ) {
+			Assert.assertEquals( "Unexpected character 'x' at position 6 of JSON", iae.getMessage() );
+		}
+	}
+}
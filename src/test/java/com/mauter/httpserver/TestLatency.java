@@ -0,0 +1,66 @@
+package com.mauter.httpserver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestLatency {
+
+	@Test
+	public void testFixed() {
+		Latency latency = Latency.fixed( 25 );
+		for ( int i = 0; i < 100; i++ ) Assert.assertEquals( 25, latency.nextDelay() );
+	}
+
+	@Test
+	public void testUniform() {
+		Latency latency = Latency.uniform( 10, 20 );
+		boolean sawMin = false, sawMax = false;
+		for ( int i = 0; i < 10000; i++ ) {
+			long delay = latency.nextDelay();
+			Assert.assertTrue( delay >= 10 && delay <= 20 );
+			if ( delay == 10 ) sawMin = true;
+			if ( delay == 20 ) sawMax = true;
+		}
+		Assert.assertTrue( sawMin && sawMax );
+	}
+
+	@Test
+	public void testPercentiles() {
+		Latency latency = Latency.percentiles( new double[] { 50, 90, 100 }, new long[] { 10, 100, 1000 } );
+		int samples = 20000, underMedian = 0, underP90 = 0;
+		for ( int i = 0; i < samples; i++ ) {
+			long delay = latency.nextDelay();
+			Assert.assertTrue( delay >= 10 && delay <= 1000 );
+			if ( delay <= 10 ) underMedian++;
+			if ( delay <= 100 ) underP90++;
+		}
+		Assert.assertEquals( 0.5, underMedian / (double)samples, 0.03 );
+		Assert.assertEquals( 0.9, underP90 / (double)samples, 0.03 );
+	}
+
+	@Test
+	public void testPercentilesAboveLast() {
+		Latency latency = Latency.percentiles( new double[] { 0 }, new long[] { 42 } );
+		for ( int i = 0; i < 100; i++ ) Assert.assertEquals( 42, latency.nextDelay() );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testPercentilesMustIncrease() {
+		Latency.percentiles( new double[] { 90, 50 }, new long[] { 1, 2 } );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testLatenciesMustNotDecrease() {
+		Latency.percentiles( new double[] { 50, 90 }, new long[] { 2, 1 } );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testMismatchedLengths() {
+		Latency.percentiles( new double[] { 50 }, new long[] { 1, 2 } );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNegativeFixed() {
+		Latency.fixed( -1 );
+	}
+}
@@ -0,0 +1,145 @@
+package com.mauter.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMetricsHandler {
+
+	HTTPRequestHandler ok = new HTTPRequestHandler() {
+		@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+			response.setStatus( 200 );
+		}
+	};
+
+	HTTPRequest request( String method, String path ) {
+		HTTPRequest request = new HTTPRequest();
+		request.setMethod( method );
+		request.setPath( path );
+		return request;
+	}
+
+	@Test
+	public void testGetPathDefault() {
+		Assert.assertEquals( "/metrics", new MetricsHandler( null, ok ).getPath() );
+	}
+
+	@Test
+	public void testSetPath() {
+		MetricsHandler metrics = new MetricsHandler( null, ok );
+		metrics.setPath( "/stats" );
+		Assert.assertEquals( "/stats", metrics.path );
+	}
+
+	@Test
+	public void testIsMetricsPath() {
+		MetricsHandler metrics = new MetricsHandler( null, ok );
+		Assert.assertTrue( metrics.isMetricsPath( "/metrics" ) );
+		Assert.assertTrue( metrics.isMetricsPath( "/metrics?name=x" ) );
+		Assert.assertFalse( metrics.isMetricsPath( "/metricsx" ) );
+		Assert.assertFalse( metrics.isMetricsPath( "/" ) );
+		Assert.assertFalse( metrics.isMetricsPath( null ) );
+	}
+
+	@Test
+	public void testHandleRequestDelegates() throws HTTPException {
+		MetricsHandler metrics = new MetricsHandler( null, ok );
+		HTTPResponse response = new HTTPResponse();
+		metrics.handleRequest( request( "GET", "/" ), response );
+		Assert.assertEquals( 200, response.getStatus() );
+		Assert.assertEquals( 1, metrics.getCount() );
+	}
+
+	@Test
+	public void testHandleRequestCountsHTTPException() {
+		MetricsHandler metrics = new MetricsHandler( null, new HTTPRequestHandler() {
+			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+				throw new HTTPException( 404, "nope" );
+			}
+		} );
+
+		try {
+			metrics.handleRequest( request( "GET", "/" ), new HTTPResponse() );
+			Assert.fail();
+		}
+		catch ( HTTPException he ) {
+			Assert.assertEquals( 404, he.getStatus() );
+		}
+		Assert.assertTrue( metrics.render().contains( "httpserver_requests_total{method=\"GET\",status=\"404\"} 1\n" ) );
+	}
+
+	@Test
+	public void testScrapeIsNotCounted() throws HTTPException {
+		MetricsHandler metrics = new MetricsHandler( null, ok );
+		HTTPResponse response = new HTTPResponse();
+		metrics.handleRequest( request( "GET", "/metrics" ), response );
+		Assert.assertEquals( 200, response.getStatus() );
+		Assert.assertEquals( MetricsHandler.CONTENT_TYPE, response.getHeader( "Content-Type" ) );
+		Assert.assertEquals( 0, metrics.getCount() );
+	}
+
+	@Test
+	public void testRenderCounters() {
+		MetricsHandler metrics = new MetricsHandler( null, ok );
+		metrics.record( "GET", 200, 1 );
+		metrics.record( "GET", 200, 1 );
+		metrics.record( "POST", 500, 1 );
+		String text = metrics.render();
+		Assert.assertTrue( text.contains( "# TYPE httpserver_requests_total counter\n" ) );
+		Assert.assertTrue( text.contains( "httpserver_requests_total{method=\"GET\",status=\"200\"} 2\n" ) );
+		Assert.assertTrue( text.contains( "httpserver_requests_total{method=\"POST\",status=\"500\"} 1\n" ) );
+		Assert.assertFalse( text.contains( "httpserver_connections_active" ) );
+	}
+
+	@Test
+	public void testRenderHistogram() {
+		MetricsHandler metrics = new MetricsHandler( null, ok );
+		metrics.record( "GET", 200, TimeUnit.MICROSECONDS.toNanos( 500 ) );
+		metrics.record( "GET", 200, TimeUnit.MILLISECONDS.toNanos( 30 ) );
+		metrics.record( "GET", 200, TimeUnit.SECONDS.toNanos( 60 ) );
+		String text = metrics.render();
+		Assert.assertTrue( text.contains( "httpserver_request_duration_seconds_bucket{le=\"0.001\"} 1\n" ) );
+		Assert.assertTrue( text.contains( "httpserver_request_duration_seconds_bucket{le=\"0.025\"} 1\n" ) );
+		Assert.assertTrue( text.contains( "httpserver_request_duration_seconds_bucket{le=\"0.05\"} 2\n" ) );
+		Assert.assertTrue( text.contains( "httpserver_request_duration_seconds_bucket{le=\"10.0\"} 2\n" ) );
+		Assert.assertTrue( text.contains( "httpserver_request_duration_seconds_bucket{le=\"+Inf\"} 3\n" ) );
+		Assert.assertTrue( text.contains( "httpserver_request_duration_seconds_count 3\n" ) );
+	}
+
+	@Test
+	public void testEscape() {
+		Assert.assertEquals( "", MetricsHandler.escape( null ) );
+		Assert.assertEquals( "a\\\"b\\\\c\\n", MetricsHandler.escape( "a\"b\\c\n" ) );
+	}
+
+	@Test
+	public void testScrapeServer() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHTTPRequestHandler( new MetricsHandler( server, ok ) );
+			server.start();
+
+			HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() + "/hello" ).openConnection();
+			Assert.assertEquals( 200, con.getResponseCode() );
+			con.disconnect();
+
+			con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() + "/metrics" ).openConnection();
+			Assert.assertEquals( 200, con.getResponseCode() );
+			try ( InputStream is = con.getInputStream() ) {
+				byte[] buffer = new byte[ 8192 ];
+				int count, total = 0;
+				while ( ( count = is.read( buffer, total, buffer.length - total ) ) > 0 ) total += count;
+				String text = new String( buffer, 0, total, StandardCharsets.UTF_8 );
+				Assert.assertTrue( text.contains( "httpserver_requests_total{method=\"GET\",status=\"200\"} 1\n" ) );
+				Assert.assertTrue( text.contains( "httpserver_connections_active 1\n" ) );
+				Assert.assertTrue( text.contains( "httpserver_connections_shed_total 0\n" ) );
+				Assert.assertTrue( text.contains( "httpserver_captured_requests 2\n" ) );
+			}
+		}
+	}
+}
@@ -0,0 +1,214 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMultipartParser {
+
+	static final String BOUNDARY = "----WebKitFormBoundary7MA4YWxkTrZu0gW";
+
+	static final String FORM = "--" + BOUNDARY + "\r\n"
+			+ "Content-Disposition: form-data; name=\"title\"\r\n"
+			+ "\r\n"
+			+ "My Squirrel\r\n"
+			+ "--" + BOUNDARY + "\r\n"
+			+ "Content-Disposition: form-data; name=\"photo\"; filename=\"squirrel \\\"1\\\".txt\"\r\n"
+			+ "Content-Type: text/plain\r\n"
+			+ "\r\n"
+			+ "line one\r\n--" + BOUNDARY.substring( 0, 10 ) + "\r\nline three\r\n"
+			+ "--" + BOUNDARY + "--\r\n";
+
+	static InputStream stream( String body ) {
+		return new ByteArrayInputStream( body.getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	/**
+	 * Hands out one byte per read so every boundary straddles a refill.
+	 */
+	static InputStream trickle( InputStream in ) {
+		return new FilterInputStream( in ) {
+			@Override public int read( byte[] b, int off, int len ) throws IOException {
+				return super.read( b, off, Math.min( len, 1 ) );
+			}
+		};
+	}
+
+	void assertForm( List<MultipartParser.Part> parts ) throws IOException {
+		Assert.assertEquals( 2, parts.size() );
+		Assert.assertEquals( "title", parts.get( 0 ).getName() );
+		Assert.assertNull( parts.get( 0 ).getFilename() );
+		Assert.assertNull( parts.get( 0 ).getContentType() );
+		Assert.assertEquals( "My Squirrel", parts.get( 0 ).getBodyAsString() );
+
+		Assert.assertEquals( "photo", parts.get( 1 ).getName() );
+		Assert.assertEquals( "squirrel \"1\".txt", parts.get( 1 ).getFilename() );
+		Assert.assertEquals( "text/plain", parts.get( 1 ).getContentType() );
+		Assert.assertEquals( "text/plain", parts.get( 1 ).getHeaders().get( "content-type" ) );
+		Assert.assertEquals( "line one\r\n--" + BOUNDARY.substring( 0, 10 ) + "\r\nline three", parts.get( 1 ).getBodyAsString() );
+	}
+
+	@Test
+	public void testParse() throws IOException, HTTPException {
+		assertForm( new MultipartParser( stream( FORM ), BOUNDARY ).parse() );
+	}
+
+	@Test
+	public void testParseTrickle() throws IOException, HTTPException {
+		assertForm( new MultipartParser( trickle( stream( FORM ) ), BOUNDARY ).parse() );
+	}
+
+	@Test
+	public void testPreambleEpilogueAndPadding() throws IOException, HTTPException {
+		String body = "This is a preamble.\r\n" + FORM.replace( BOUNDARY + "\r\nContent-Type", BOUNDARY + "  \t\r\nContent-Type" ) + "This is an epilogue.";
+		assertForm( new MultipartParser( stream( body ), BOUNDARY ).parse() );
+	}
+
+	@Test
+	public void testNext() throws IOException, HTTPException {
+		MultipartParser parser = new MultipartParser( stream( FORM ), BOUNDARY );
+		Assert.assertEquals( "title", parser.next().getName() );
+		Assert.assertEquals( "photo", parser.next().getName() );
+		Assert.assertNull( parser.next() );
+		Assert.assertNull( parser.next() );
+	}
+
+	@Test
+	public void testEmptyPart() throws IOException, HTTPException {
+		String body = "--b\r\nContent-Disposition: form-data; name=empty\r\n\r\n\r\n--b--";
+		List<MultipartParser.Part> parts = new MultipartParser( stream( body ), "b" ).parse();
+		Assert.assertEquals( 1, parts.size() );
+		Assert.assertEquals( "empty", parts.get( 0 ).getName() );
+		Assert.assertEquals( 0, parts.get( 0 ).getSize() );
+	}
+
+	@Test
+	public void testLargePartSpills() throws IOException, HTTPException {
+		byte[] file = new byte[ 300 * 1024 ];
+		new Random( 42 ).nextBytes( file );
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		body.write( ( "--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"upload\"; filename=\"random.bin\"\r\n\r\n" ).getBytes( StandardCharsets.US_ASCII ) );
+		body.write( file );
+		body.write( ( "\r\n--" + BOUNDARY + "--\r\n" ).getBytes( StandardCharsets.US_ASCII ) );
+
+		MultipartParser parser = new MultipartParser( new ByteArrayInputStream( body.toByteArray() ), BOUNDARY );
+		parser.setHeapThreshold( 64 * 1024 );
+		List<MultipartParser.Part> parts = parser.parse();
+		Assert.assertEquals( 1, parts.size() );
+
+		MultipartParser.Part part = parts.get( 0 );
+		Assert.assertEquals( file.length, part.getSize() );
+		Assert.assertNotNull( part.getBody().getPath() );
+		Assert.assertArrayEquals( file, Files.readAllBytes( part.getBody().getPath() ) );
+
+		part.close();
+		Assert.assertFalse( Files.exists( part.getBody().getPath() ) );
+	}
+
+	@Test
+	public void testMissingClosingBoundary() throws IOException {
+		try {
+			new MultipartParser( stream( FORM.substring( 0, FORM.length() - 10 ) ), BOUNDARY ).parse();
+			Assert.fail( "Parsed a truncated body." );
+		}
+		catch ( HTTPException he ) {
+			Assert.assertEquals( 400, he.getStatus() );
+		}
+	}
+
+	@Test(expected=HTTPException.class)
+	public void testInvalidHeader() throws IOException, HTTPException {
+		new MultipartParser( stream( "--b\r\nnot a header\r\n\r\nx\r\n--b--" ), "b" ).parse();
+	}
+
+	@Test(expected=HTTPException.class)
+	public void testInvalidBoundaryLine() throws IOException, HTTPException {
+		new MultipartParser( stream( "--b!\r\n\r\nx\r\n--b--" ), "b" ).parse();
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNoBoundary() {
+		new MultipartParser( stream( FORM ), "" );
+	}
+
+	@Test
+	public void testParseRequest() throws IOException, HTTPException {
+		HTTPRequest request = new HTTPRequest();
+		request.setHeader( "Content-Type", "multipart/form-data; boundary=\"" + BOUNDARY + "\"" );
+		request.setBody( FORM );
+		assertForm( MultipartParser.parse( request ) );
+	}
+
+	@Test
+	public void testParseRequestNotMultipart() throws IOException {
+		HTTPRequest request = new HTTPRequest();
+		request.setHeader( "Content-Type", "application/json" );
+		request.setBody( "{}" );
+		try {
+			MultipartParser.parse( request );
+			Assert.fail( "Parsed JSON as multipart." );
+		}
+		catch ( HTTPException he ) {
+			Assert.assertEquals( 415, he.getStatus() );
+		}
+	}
+
+	@Test
+	public void testUploadThroughServer() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setHeapBodyThreshold( 100 );
+			server.setDirectBodyThreshold( 0 );
+			server.setHTTPRequestHandler( new HTTPRequestHandler() {
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+					StringBuilder names = new StringBuilder();
+					try {
+						for ( MultipartParser.Part part : MultipartParser.parse( request ) ) {
+							names.append( part.getName() ).append( '=' ).append( part.getSize() ).append( ';' );
+							part.close();
+						}
+					}
+					catch ( IOException ioe ) {
+						throw new HTTPException( 500, "Unable to read the upload.", ioe );
+					}
+					response.setStatus( 200 );
+					response.setBody( names.toString() );
+				}
+			} );
+
+			HTTPRequest request = new HTTPRequest();
+			request.setMethod( "POST" );
+			request.setHeader( "Content-Type", "multipart/form-data; boundary=" + BOUNDARY );
+			request.setBody( FORM );
+			Assert.assertEquals( "title=11;photo=" + ( 22 + BOUNDARY.substring( 0, 10 ).length() + 2 ) + ";", server.exchange( request ).getBodyAsString() );
+			Assert.assertNotNull( server.getRequests().get( 0 ).getRequestBody().getPath() );
+		}
+	}
+
+	@Test
+	public void testGetParameter() {
+		Assert.assertEquals( "file", MultipartParser.getParameter( "form-data; name=\"file\"; filename=\"a.txt\"", "name" ) );
+		Assert.assertEquals( "a.txt", MultipartParser.getParameter( "form-data; name=\"file\"; filename=\"a.txt\"", "FILENAME" ) );
+		Assert.assertEquals( "x", MultipartParser.getParameter( "multipart/mixed;boundary=x", "boundary" ) );
+		Assert.assertEquals( "a;b", MultipartParser.getParameter( "form-data; name=\"a;b\"", "name" ) );
+		Assert.assertNull( MultipartParser.getParameter( "form-data", "name" ) );
+		Assert.assertNull( MultipartParser.getParameter( "form-data; filename=\"a\"", "name" ) );
+		Assert.assertNull( MultipartParser.getParameter( null, "name" ) );
+	}
+
+	@Test
+	public void testGetBoundary() {
+		Assert.assertEquals( "abc", MultipartParser.getBoundary( "Multipart/Form-Data; boundary=abc" ) );
+		Assert.assertNull( MultipartParser.getBoundary( "text/plain; boundary=abc" ) );
+		Assert.assertNull( MultipartParser.getBoundary( null ) );
+	}
+}
@@ -0,0 +1,94 @@
+package com.mauter.httpserver;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestParameters {
+
+	static Parameters query( String query ) {
+		String path = "/search?" + query;
+		return new Parameters( path, 8, path.length() );
+	}
+
+	static Parameters form( String form ) {
+		return new Parameters( form.getBytes( StandardCharsets.UTF_8 ) );
+	}
+
+	@Test
+	public void testGet() {
+		for ( Parameters parameters : new Parameters[] { query( "q=squirrel&page=2" ), form( "q=squirrel&page=2" ) } ) {
+			Assert.assertEquals( "squirrel", parameters.get( "q" ) );
+			Assert.assertEquals( "2", parameters.get( "page" ) );
+			Assert.assertNull( parameters.get( "Q" ) );
+			Assert.assertNull( parameters.get( "pag" ) );
+			Assert.assertNull( parameters.get( "pages" ) );
+		}
+	}
+
+	@Test
+	public void testDecode() {
+		for ( Parameters parameters : new Parameters[] { query( "name=Cr%C3%A8me+Br%c3%BBl%C3%A9e&a%20b=c+d&100%=50%25&bad=%zz%4" ), form( "name=Cr%C3%A8me+Br%c3%BBl%C3%A9e&a%20b=c+d&100%=50%25&bad=%zz%4" ) } ) {
+			Assert.assertEquals( "Crème Brûlée", parameters.get( "name" ) );
+			Assert.assertEquals( "c d", parameters.get( "a b" ) );
+			Assert.assertEquals( "50%", parameters.get( "100%" ) );
+			Assert.assertEquals( "%zz%4", parameters.get( "bad" ) );
+		}
+	}
+
+	@Test
+	public void testUnencodedUnicode() {
+		Assert.assertEquals( "crème", query( "café=crème" ).get( "café" ) );
+		Assert.assertEquals( "crème", form( "café=crème" ).get( "café" ) );
+	}
+
+	@Test
+	public void testRepeated() {
+		Parameters parameters = query( "color=red&size=L&color=blue&color=" );
+		Assert.assertEquals( "red", parameters.get( "color" ) );
+		Assert.assertEquals( Arrays.asList( "red", "blue", "" ), parameters.getAll( "color" ) );
+		Assert.assertEquals( Collections.singletonList( "L" ), parameters.getAll( "size" ) );
+		Assert.assertEquals( Collections.emptyList(), parameters.getAll( "shape" ) );
+		Assert.assertEquals( Arrays.asList( "color", "size" ), Arrays.asList( parameters.names().toArray() ) );
+	}
+
+	@Test
+	public void testEmptyPairs() {
+		Parameters parameters = query( "&a&&b=&=c&d==e&" );
+		Assert.assertEquals( "", parameters.get( "a" ) );
+		Assert.assertEquals( "", parameters.get( "b" ) );
+		Assert.assertEquals( "c", parameters.get( "" ) );
+		Assert.assertEquals( "=e", parameters.get( "d" ) );
+		Assert.assertEquals( 4, parameters.names().size() );
+	}
+
+	@Test
+	public void testEmpty() {
+		Parameters parameters = query( "" );
+		Assert.assertNull( parameters.get( "a" ) );
+		Assert.assertTrue( parameters.names().isEmpty() );
+		Assert.assertTrue( form( "" ).getAll( "a" ).isEmpty() );
+	}
+
+	@Test
+	public void testSplitOnce() {
+		Parameters parameters = query( "a=1&b=2" );
+		Assert.assertEquals( "1", parameters.get( "a" ) );
+		int[] index = parameters.index;
+		Assert.assertEquals( "2", parameters.get( "b" ) );
+		Assert.assertSame( index, parameters.index );
+		Assert.assertEquals( 2, parameters.count );
+	}
+
+	@Test
+	public void testManyPairs() {
+		StringBuilder query = new StringBuilder();
+		for ( int i = 0; i < 100; i++ ) query.append( "k" ).append( i ).append( '=' ).append( i ).append( '&' );
+		Parameters parameters = query( query.toString() );
+		Assert.assertEquals( "99", parameters.get( "k99" ) );
+		Assert.assertEquals( 100, parameters.names().size() );
+	}
+}
@@ -0,0 +1,45 @@
+package com.mauter.httpserver;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestQueueDelayController {
+
+	@Test
+	public void testDisabled() {
+		QueueDelayController controller = new QueueDelayController( 0, 100 );
+		Assert.assertFalse( controller.shouldShed( 1000000, 0 ) );
+		Assert.assertFalse( controller.shouldShed( 1000000, 1000 ) );
+	}
+
+	@Test
+	public void testUnderTarget() {
+		QueueDelayController controller = new QueueDelayController( 10, 100 );
+		for ( long now = 0; now < 1000; now += 50 ) {
+			Assert.assertFalse( controller.shouldShed( 5, now ) );
+		}
+	}
+
+	@Test
+	public void testBurstIsTolerated() {
+		QueueDelayController controller = new QueueDelayController( 10, 100 );
+		Assert.assertFalse( controller.shouldShed( 50, 0 ) );
+		Assert.assertFalse( controller.shouldShed( 50, 99 ) );
+		Assert.assertFalse( controller.shouldShed( 5, 150 ) );
+		Assert.assertFalse( controller.shouldShed( 50, 200 ) );
+		Assert.assertFalse( controller.shouldShed( 50, 250 ) );
+	}
+
+	@Test
+	public void testShedsAfterInterval() {
+		QueueDelayController controller = new QueueDelayController( 10, 100 );
+		Assert.assertFalse( controller.shouldShed( 50, 0 ) );
+		Assert.assertTrue( controller.shouldShed( 50, 100 ) );
+		Assert.assertTrue( controller.shouldShed( 50, 150 ) );
+
+		// one connection under the target ends the shedding
+		Assert.assertFalse( controller.shouldShed( 5, 160 ) );
+		Assert.assertFalse( controller.shouldShed( 50, 170 ) );
+		Assert.assertTrue( controller.shouldShed( 50, 270 ) );
+	}
+}
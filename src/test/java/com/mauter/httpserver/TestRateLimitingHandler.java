@@ -0,0 +1,187 @@
+package com.mauter.httpserver;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestRateLimitingHandler {
+
+	AtomicInteger calls = new AtomicInteger();
+
+	HTTPRequestHandler ok = new HTTPRequestHandler() {
+		@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+			calls.incrementAndGet();
+			response.setStatus( 200 );
+		}
+	};
+
+	HTTPRequest request( String remoteAddress ) {
+		HTTPRequest request = new HTTPRequest();
+		request.setMethod( "GET" );
+		request.setPath( "/" );
+		request.setRemoteAddress( remoteAddress );
+		return request;
+	}
+
+	HTTPResponse handle( RateLimitingHandler limiter, HTTPRequest request ) throws HTTPException {
+		HTTPResponse response = new HTTPResponse();
+		limiter.handleRequest( request, response );
+		return response;
+	}
+
+	@Test
+	public void testLimitsEachClient() throws HTTPException {
+		RateLimitingHandler limiter = new RateLimitingHandler( ok, 1, 3 );
+		for ( int i = 0; i < 3; i++ ) Assert.assertEquals( 200, handle( limiter, request( "10.0.0.1" ) ).getStatus() );
+
+		HTTPResponse response = handle( limiter, request( "10.0.0.1" ) );
+		Assert.assertEquals( 429, response.getStatus() );
+		Assert.assertEquals( "Too Many Requests", response.getStatusMessage() );
+		Assert.assertEquals( "1", response.getHeader( "Retry-After" ) );
+		Assert.assertNotNull( response.head );
+
+		// another client has a bucket of its own
+		Assert.assertEquals( 200, handle( limiter, request( "10.0.0.2" ) ).getStatus() );
+		Assert.assertEquals( 4, calls.get() );
+		Assert.assertEquals( 1, limiter.getLimitedCount() );
+	}
+
+	@Test
+	public void testRefills() throws Exception {
+		RateLimitingHandler limiter = new RateLimitingHandler( ok, 20, 1 );
+		Assert.assertEquals( 200, handle( limiter, request( "10.0.0.1" ) ).getStatus() );
+		Assert.assertEquals( 429, handle( limiter, request( "10.0.0.1" ) ).getStatus() );
+		Thread.sleep( 100 );
+		Assert.assertEquals( 200, handle( limiter, request( "10.0.0.1" ) ).getStatus() );
+	}
+
+	@Test
+	public void testRetryAfterForSlowRates() throws HTTPException {
+		RateLimitingHandler limiter = new RateLimitingHandler( ok, 0.1, 1 );
+		handle( limiter, request( "10.0.0.1" ) );
+		HTTPResponse response = handle( limiter, request( "10.0.0.1" ) );
+		Assert.assertEquals( 429, response.getStatus() );
+		Assert.assertEquals( "10", response.getHeader( "Retry-After" ) );
+	}
+
+	@Test
+	public void testHeaderKey() throws HTTPException {
+		RateLimitingHandler limiter = new RateLimitingHandler( ok, 1, 1, HTTPRequestKey.header( "X-Api-Key" ) );
+		HTTPRequest request = request( "10.0.0.1" );
+		request.setHeader( "X-Api-Key", "a" );
+		Assert.assertEquals( 200, handle( limiter, request ).getStatus() );
+		Assert.assertEquals( 429, handle( limiter, request ).getStatus() );
+		request.setHeader( "X-Api-Key", "b" );
+		Assert.assertEquals( 200, handle( limiter, request ).getStatus() );
+
+		// no key, no limit
+		for ( int i = 0; i < 5; i++ ) Assert.assertEquals( 200, handle( limiter, request( "10.0.0.1" ) ).getStatus() );
+	}
+
+	@Test
+	public void testEvictsFullBuckets() throws HTTPException {
+		RateLimitingHandler limiter = new RateLimitingHandler( ok, 1000000, 1 );
+		for ( int i = 0; i < RateLimitingHandler.STRIPES * RateLimitingHandler.MAX_KEYS_PER_STRIPE * 2; i++ ) {
+			handle( limiter, request( "client-" + i ) );
+		}
+		for ( RateLimitingHandler.Stripe stripe : limiter.stripes ) {
+			Assert.assertTrue( stripe.buckets.size() <= RateLimitingHandler.MAX_KEYS_PER_STRIPE );
+		}
+	}
+
+	@Test
+	public void testStripesStayBoundedWhileLimiting() throws HTTPException {
+		RateLimitingHandler limiter = new RateLimitingHandler( ok, 0.001, 1 );
+		for ( int i = 0; i < RateLimitingHandler.STRIPES * RateLimitingHandler.MAX_KEYS_PER_STRIPE * 2; i++ ) {
+			handle( limiter, request( "client-" + i ) );
+		}
+		for ( RateLimitingHandler.Stripe stripe : limiter.stripes ) {
+			Assert.assertTrue( stripe.buckets.size() <= RateLimitingHandler.MAX_KEYS_PER_STRIPE );
+		}
+	}
+
+	@Test
+	public void testKeepsRecentlyUsedBuckets() throws HTTPException {
+		RateLimitingHandler limiter = new RateLimitingHandler( ok, 0.001, 1 );
+		Assert.assertEquals( 200, handle( limiter, request( "busy" ) ).getStatus() );
+		int stripe = RateLimitingHandler.stripe( "busy".hashCode() );
+		int added = 0;
+		for ( int i = 0; added < RateLimitingHandler.MAX_KEYS_PER_STRIPE * 2; i++ ) {
+			String k = "client-" + i;
+			if ( RateLimitingHandler.stripe( k.hashCode() ) != stripe ) continue;
+			handle( limiter, request( k ) );
+			added++;
+
+			// still limited, so still remembered
+			if ( added % 100 == 0 ) Assert.assertEquals( 429, handle( limiter, request( "busy" ) ).getStatus() );
+		}
+		Assert.assertEquals( RateLimitingHandler.MAX_KEYS_PER_STRIPE, limiter.stripes[ stripe ].buckets.size() );
+	}
+
+	@Test
+	public void testStripe() {
+		for ( int hash : new int[] { 0, 1, -1, Integer.MAX_VALUE, Integer.MIN_VALUE, 0x10000 } ) {
+			int stripe = RateLimitingHandler.stripe( hash );
+			Assert.assertTrue( stripe >= 0 && stripe < RateLimitingHandler.STRIPES );
+		}
+		Assert.assertNotEquals( RateLimitingHandler.stripe( 0 ), RateLimitingHandler.stripe( 0x10000 ) );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testRateMustBePositive() {
+		new RateLimitingHandler( ok, 0, 1 );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testBurstMustBePositive() {
+		new RateLimitingHandler( ok, 1, 0 );
+	}
+
+	@Test
+	public void testServer() throws Exception {
+		ExecutorService clients = Executors.newFixedThreadPool( 8 );
+		try ( HTTPServer server = new HTTPServer() ) {
+			RateLimitingHandler limiter = new RateLimitingHandler( ok, 0.5, 5 );
+			server.setHTTPRequestHandler( limiter );
+			server.start();
+
+			final URL url = new URL( "http://localhost:" + server.getPort() + "/" );
+			List<Future<HttpURLConnection>> responses = new ArrayList<>();
+			for ( int i = 0; i < 20; i++ ) {
+				responses.add( clients.submit( new Callable<HttpURLConnection>() {
+					@Override public HttpURLConnection call() throws IOException {
+						HttpURLConnection con = (HttpURLConnection)url.openConnection();
+						con.getResponseCode();
+						return con;
+					}
+				} ) );
+			}
+
+			int ok = 0, limited = 0;
+			for ( Future<HttpURLConnection> response : responses ) {
+				HttpURLConnection con = response.get();
+				if ( con.getResponseCode() == 200 ) ok++;
+				if ( con.getResponseCode() == 429 ) {
+					limited++;
+					Assert.assertTrue( Integer.parseInt( con.getHeaderField( "Retry-After" ) ) <= 2 );
+				}
+			}
+			Assert.assertEquals( 5, ok );
+			Assert.assertEquals( 15, limited );
+			Assert.assertEquals( 15, limiter.getLimitedCount() );
+		}
+		finally {
+			clients.shutdownNow();
+		}
+	}
+}
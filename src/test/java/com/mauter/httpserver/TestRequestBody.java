@@ -0,0 +1,151 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestRequestBody {
+
+	static final byte[] CONTENT = "Squirrel!".getBytes( StandardCharsets.UTF_8 );
+
+	static byte[] read( InputStream in ) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[ 4 ];
+		int count;
+		while ( ( count = in.read( buffer ) ) >= 0 ) out.write( buffer, 0, count );
+		in.close();
+		return out.toByteArray();
+	}
+
+	static byte[] read( ByteBuffer buffer ) {
+		byte[] bytes = new byte[ buffer.remaining() ];
+		buffer.get( bytes );
+		return bytes;
+	}
+
+	static RequestBody direct( BodySpool spool ) {
+		ByteBuffer buffer = spool.allocate();
+		buffer.put( CONTENT );
+		buffer.flip();
+		return new RequestBody( buffer, spool );
+	}
+
+	static RequestBody file() throws IOException {
+		Path path = Files.createTempFile( "http-body-", ".tmp" );
+		Files.write( path, CONTENT );
+		return new RequestBody( path, CONTENT.length );
+	}
+
+	void assertBody( RequestBody body ) throws IOException {
+		Assert.assertEquals( CONTENT.length, body.getSize() );
+		Assert.assertArrayEquals( CONTENT, body.getBytes() );
+		Assert.assertArrayEquals( CONTENT, read( body.getInputStream() ) );
+		Assert.assertArrayEquals( CONTENT, read( body.getInputStream() ) );
+		Assert.assertArrayEquals( CONTENT, read( body.getByteBuffer() ) );
+		Assert.assertTrue( body.getByteBuffer().isReadOnly() );
+	}
+
+	@Test
+	public void testHeap() throws IOException {
+		RequestBody body = new RequestBody( CONTENT );
+		assertBody( body );
+		Assert.assertTrue( body.isOnHeap() );
+		Assert.assertFalse( body.isDirect() );
+		Assert.assertNull( body.getPath() );
+		Assert.assertSame( CONTENT, body.getBytes() );
+
+		// there is nothing to release
+		body.close();
+		assertBody( body );
+	}
+
+	@Test
+	public void testDirect() throws IOException {
+		BodySpool spool = new BodySpool( 0, 0, 64 );
+		RequestBody body = direct( spool );
+		assertBody( body );
+		Assert.assertFalse( body.isOnHeap() );
+		Assert.assertTrue( body.isDirect() );
+		Assert.assertNull( body.getPath() );
+
+		// a buffer handed out by getByteBuffer is not reused
+		body.close();
+		Assert.assertEquals( 0, spool.pool.size() );
+
+		body = direct( spool );
+		Assert.assertArrayEquals( CONTENT, body.getBytes() );
+		Assert.assertArrayEquals( CONTENT, read( body.getInputStream() ) );
+		body.close();
+		Assert.assertEquals( 1, spool.pool.size() );
+		body.close();
+		Assert.assertEquals( 1, spool.pool.size() );
+	}
+
+	@Test
+	public void testByteBufferOutlivesRelease() throws IOException {
+		BodySpool spool = new BodySpool( 0, 0, 64 );
+		RequestBody body = direct( spool );
+		ByteBuffer view = body.getByteBuffer();
+		body.close();
+
+		// the next body must not land in the buffer the view still reads
+		ByteBuffer next = spool.allocate();
+		while ( next.hasRemaining() ) next.put( (byte)'!' );
+		Assert.assertArrayEquals( CONTENT, read( view ) );
+	}
+
+	@Test(expected=IOException.class)
+	public void testStreamStopsAtRelease() throws IOException {
+		BodySpool spool = new BodySpool( 0, 0, 64 );
+		RequestBody body = direct( spool );
+		InputStream in = body.getInputStream();
+		body.close();
+		in.read();
+	}
+
+	@Test
+	public void testFile() throws IOException {
+		RequestBody body = file();
+		assertBody( body );
+		Assert.assertFalse( body.isOnHeap() );
+		Assert.assertFalse( body.isDirect() );
+		Path path = body.getPath();
+		Assert.assertTrue( Files.exists( path ) );
+
+		body.close();
+		Assert.assertFalse( Files.exists( path ) );
+	}
+
+	@Test(expected=IOException.class)
+	public void testClosed() throws IOException {
+		RequestBody body = file();
+		body.close();
+		body.getInputStream();
+	}
+
+	@Test
+	public void testHTTPRequest() throws IOException {
+		HTTPRequest request = new HTTPRequest();
+		Assert.assertNull( request.getRequestBody() );
+
+		RequestBody body = file();
+		request.setRequestBody( body );
+		Assert.assertSame( body, request.getRequestBody() );
+		Assert.assertArrayEquals( CONTENT, request.getBody() );
+		Assert.assertEquals( "Squirrel!", request.getBodyAsString() );
+		Assert.assertEquals( CONTENT.length, request.getDecodedBodySize() );
+
+		// replacing the body lets go of the file
+		request.setBody( "Chipmunk!" );
+		Assert.assertFalse( Files.exists( body.getPath() ) );
+		Assert.assertEquals( "Chipmunk!", request.getBodyAsString() );
+		Assert.assertTrue( request.getRequestBody().isOnHeap() );
+	}
+}
@@ -0,0 +1,232 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestResponseCompressor {
+
+	static byte[] json( int size ) {
+		StringBuilder body = new StringBuilder( "[" );
+		while ( body.length() < size ) body.append( "{\"name\":\"value\"}," );
+		body.setLength( size - 1 );
+		return body.append( "]" ).toString().getBytes( StandardCharsets.UTF_8 );
+	}
+
+	static byte[] readAll( InputStream is ) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[ 8192 ];
+		int count;
+		while ( ( count = is.read( buffer ) ) > 0 ) baos.write( buffer, 0, count );
+		return baos.toByteArray();
+	}
+
+	HTTPResponse response( byte[] body, String contentType ) {
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( 200 );
+		if ( contentType != null ) response.setHeader( "Content-Type", contentType );
+		response.setBody( body );
+		return response;
+	}
+
+	/**
+	 * Splits the written response at the blank line.
+	 */
+	String[] written( ResponseCompressor compressor, HTTPResponse response, String encoding ) throws IOException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		compressor.write( baos, response, encoding );
+		String text = baos.toString( StandardCharsets.ISO_8859_1.name() );
+		int split = text.indexOf( "\r\n\r\n" );
+		return new String[] { text.substring( 0, split ), text.substring( split + 4 ) };
+	}
+
+	@Test
+	public void testNegotiate() {
+		ResponseCompressor compressor = new ResponseCompressor();
+		Assert.assertNull( compressor.negotiate( null ) );
+		Assert.assertNull( compressor.negotiate( "" ) );
+		Assert.assertNull( compressor.negotiate( "br, identity" ) );
+		Assert.assertEquals( "gzip", compressor.negotiate( "gzip" ) );
+		Assert.assertEquals( "gzip", compressor.negotiate( "GZIP" ) );
+		Assert.assertEquals( "gzip", compressor.negotiate( "x-gzip" ) );
+		Assert.assertEquals( "deflate", compressor.negotiate( "deflate" ) );
+		Assert.assertEquals( "gzip", compressor.negotiate( "gzip, deflate, br" ) );
+		Assert.assertEquals( "gzip", compressor.negotiate( "deflate, gzip" ) );
+		Assert.assertEquals( "deflate", compressor.negotiate( "gzip;q=0.5, deflate" ) );
+		Assert.assertEquals( "deflate", compressor.negotiate( "gzip; q=0, deflate" ) );
+		Assert.assertNull( compressor.negotiate( "gzip;q=0" ) );
+		Assert.assertEquals( "gzip", compressor.negotiate( "*" ) );
+		Assert.assertEquals( "deflate", compressor.negotiate( "gzip;q=0, *" ) );
+		Assert.assertNull( compressor.negotiate( "gzip;q=bogus" ) );
+	}
+
+	@Test
+	public void testIsCompressible() {
+		ResponseCompressor compressor = new ResponseCompressor();
+		Assert.assertTrue( compressor.isCompressible( response( json( 2000 ), "application/json; charset=utf-8" ) ) );
+		Assert.assertTrue( compressor.isCompressible( response( json( 2000 ), "Text/HTML" ) ) );
+		Assert.assertFalse( compressor.isCompressible( response( json( 100 ), "application/json" ) ) );
+		Assert.assertFalse( compressor.isCompressible( response( json( 2000 ), "image/png" ) ) );
+		Assert.assertFalse( compressor.isCompressible( response( json( 2000 ), null ) ) );
+		Assert.assertFalse( compressor.isCompressible( response( null, "application/json" ) ) );
+
+		HTTPResponse encoded = response( json( 2000 ), "application/json" );
+		encoded.setHeader( "Content-Encoding", "br" );
+		Assert.assertFalse( compressor.isCompressible( encoded ) );
+	}
+
+	@Test
+	public void testSettings() {
+		ResponseCompressor compressor = new ResponseCompressor();
+		compressor.setMinimumSize( 10 );
+		compressor.setContentTypes( "image/" );
+		compressor.setLevel( 9 );
+		compressor.setMaximumCachedSize( 100 );
+		Assert.assertEquals( 10, compressor.getMinimumSize() );
+		Assert.assertArrayEquals( new String[] { "image/" }, compressor.getContentTypes() );
+		Assert.assertEquals( 9, compressor.getLevel() );
+		Assert.assertEquals( 100, compressor.getMaximumCachedSize() );
+		Assert.assertTrue( compressor.isCompressible( response( json( 20 ), "image/png" ) ) );
+	}
+
+	@Test
+	public void testWriteGzip() throws IOException {
+		ResponseCompressor compressor = new ResponseCompressor();
+		byte[] body = json( 5000 );
+		String[] written = written( compressor, response( body, "application/json" ), "gzip" );
+		byte[] compressed = written[1].getBytes( StandardCharsets.ISO_8859_1 );
+
+		Assert.assertTrue( written[0].startsWith( "HTTP/1.0 200 OK" ) );
+		Assert.assertTrue( written[0].contains( "content-encoding: gzip" ) );
+		Assert.assertTrue( written[0].contains( "vary: Accept-Encoding" ) );
+		Assert.assertTrue( written[0].contains( "content-length: " + compressed.length ) );
+		Assert.assertTrue( compressed.length < body.length );
+		Assert.assertArrayEquals( body, readAll( new GZIPInputStream( new ByteArrayInputStream( compressed ) ) ) );
+	}
+
+	@Test
+	public void testWriteDeflate() throws IOException {
+		ResponseCompressor compressor = new ResponseCompressor();
+		byte[] body = json( 5000 );
+		HTTPResponse response = response( body, "application/json" );
+		response.setHeader( "Vary", "Accept" );
+		String[] written = written( compressor, response, "deflate" );
+		byte[] compressed = written[1].getBytes( StandardCharsets.ISO_8859_1 );
+
+		Assert.assertTrue( written[0].contains( "content-encoding: deflate" ) );
+		Assert.assertTrue( written[0].contains( "vary: Accept, Accept-Encoding" ) );
+		Assert.assertArrayEquals( body, readAll( new InflaterInputStream( new ByteArrayInputStream( compressed ) ) ) );
+	}
+
+	@Test
+	public void testWriteLeavesResponseAlone() throws IOException {
+		ResponseCompressor compressor = new ResponseCompressor();
+		byte[] body = json( 5000 );
+		HTTPResponse response = response( body, "application/json" );
+		written( compressor, response, "gzip" );
+		Assert.assertSame( body, response.getBody() );
+		Assert.assertNull( response.getHeader( "Content-Encoding" ) );
+	}
+
+	@Test
+	public void testIdenticalBodiesCompressedOnce() throws IOException {
+		ResponseCompressor compressor = new ResponseCompressor();
+		byte[] first = compressor.compress( json( 5000 ), "gzip" );
+		byte[] second = compressor.compress( json( 5000 ), "gzip" );
+		Assert.assertSame( first, second );
+		Assert.assertEquals( 1, compressor.getCompressions() );
+		Assert.assertEquals( 1, compressor.getCacheHits() );
+
+		compressor.compress( json( 5000 ), "deflate" );
+		compressor.compress( json( 5001 ), "gzip" );
+		Assert.assertEquals( 3, compressor.getCompressions() );
+	}
+
+	@Test
+	public void testCacheEviction() throws IOException {
+		ResponseCompressor compressor = new ResponseCompressor( 1 );
+		compressor.compress( json( 2000 ), "gzip" );
+		compressor.compress( json( 3000 ), "gzip" );
+		compressor.compress( json( 2000 ), "gzip" );
+		Assert.assertEquals( 3, compressor.getCompressions() );
+		Assert.assertEquals( 0, compressor.getCacheHits() );
+	}
+
+	@Test
+	public void testWriteStreamsLargeBodies() throws IOException {
+		ResponseCompressor compressor = new ResponseCompressor();
+		compressor.setMaximumCachedSize( 1000 );
+		byte[] body = json( 5000 );
+		String[] written = written( compressor, response( body, "application/json" ), "gzip" );
+
+		Assert.assertTrue( written[0].contains( "content-encoding: gzip" ) );
+		Assert.assertFalse( written[0].contains( "content-length" ) );
+		byte[] compressed = written[1].getBytes( StandardCharsets.ISO_8859_1 );
+		Assert.assertArrayEquals( body, readAll( new GZIPInputStream( new ByteArrayInputStream( compressed ) ) ) );
+		Assert.assertEquals( 0, compressor.getCacheHits() );
+		Assert.assertEquals( 1, compressor.getCompressions() );
+	}
+
+	@Test
+	public void testCacheKey() {
+		ResponseCompressor.CacheKey a = new ResponseCompressor.CacheKey( "gzip", new byte[] { 1, 2, 3 } );
+		ResponseCompressor.CacheKey b = new ResponseCompressor.CacheKey( "gzip", new byte[] { 1, 2, 3 } );
+		ResponseCompressor.CacheKey c = new ResponseCompressor.CacheKey( "deflate", new byte[] { 1, 2, 3 } );
+		ResponseCompressor.CacheKey d = new ResponseCompressor.CacheKey( "gzip", new byte[] { 1, 2, 4 } );
+		Assert.assertEquals( a, b );
+		Assert.assertEquals( a.hashCode(), b.hashCode() );
+		Assert.assertNotEquals( a, c );
+		Assert.assertNotEquals( a, d );
+		Assert.assertNotEquals( a, "gzip" );
+	}
+
+	@Test
+	public void testServer() throws IOException {
+		final byte[] body = json( 10000 );
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setResponseCompressor( new ResponseCompressor() );
+			server.setHTTPRequestHandler( new HTTPRequestHandler() {
+				@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+					response.setStatus( 200 );
+					response.setHeader( "Content-Type", "application/json" );
+					response.setBody( body );
+				}
+			} );
+			server.start();
+			Assert.assertNotNull( server.getResponseCompressor() );
+
+			URL url = new URL( "http://localhost:" + server.getPort() );
+			for ( int i = 0; i < 2; i++ ) {
+				HttpURLConnection con = (HttpURLConnection)url.openConnection();
+				con.setRequestProperty( "Accept-Encoding", "gzip" );
+				Assert.assertEquals( 200, con.getResponseCode() );
+				Assert.assertEquals( "gzip", con.getHeaderField( "Content-Encoding" ) );
+				Assert.assertTrue( con.getContentLength() < body.length );
+				try ( InputStream is = new GZIPInputStream( con.getInputStream() ) ) {
+					Assert.assertTrue( Arrays.equals( body, readAll( is ) ) );
+				}
+				con.disconnect();
+			}
+			Assert.assertEquals( 1, server.getResponseCompressor().getCompressions() );
+
+			HttpURLConnection con = (HttpURLConnection)url.openConnection();
+			con.setRequestProperty( "Accept-Encoding", "identity" );
+			Assert.assertEquals( 200, con.getResponseCode() );
+			Assert.assertNull( con.getHeaderField( "Content-Encoding" ) );
+			Assert.assertEquals( body.length, con.getContentLength() );
+			con.disconnect();
+
+			Assert.assertSame( body, server.getResponses().get( 0 ).getBody() );
+		}
+	}
+}
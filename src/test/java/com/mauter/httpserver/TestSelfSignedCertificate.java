@@ -0,0 +1,64 @@
+package com.mauter.httpserver;
+
+import java.security.Key;
+import java.security.PrivateKey;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSelfSignedCertificate {
+
+	@Test
+	public void testCertificate() throws Exception {
+		SelfSignedCertificate self = new SelfSignedCertificate( "secret".toCharArray() );
+		X509Certificate certificate = self.certificate;
+
+		certificate.checkValidity();
+
+		// a server left running for a long time keeps handshaking
+		certificate.checkValidity( new Date( System.currentTimeMillis() + TimeUnit.DAYS.toMillis( 800 ) ) );
+		certificate.verify( certificate.getPublicKey() );
+		Assert.assertEquals( 3, certificate.getVersion() );
+		Assert.assertEquals( "CN=localhost", certificate.getSubjectX500Principal().getName() );
+		Assert.assertEquals( certificate.getSubjectX500Principal(), certificate.getIssuerX500Principal() );
+
+		List<Object> names = new ArrayList<>();
+		for ( List<?> name : certificate.getSubjectAlternativeNames() ) names.add( name.get( 1 ) );
+		Assert.assertTrue( names.contains( "localhost" ) );
+		Assert.assertTrue( names.contains( "127.0.0.1" ) );
+	}
+
+	@Test
+	public void testKeyStore() throws Exception {
+		SelfSignedCertificate self = new SelfSignedCertificate( "secret".toCharArray() );
+		Key key = self.keyStore.getKey( SelfSignedCertificate.ALIAS, "secret".toCharArray() );
+		Assert.assertTrue( key instanceof PrivateKey );
+		Assert.assertEquals( self.certificate, self.keyStore.getCertificate( SelfSignedCertificate.ALIAS ) );
+	}
+
+	@Test
+	public void testEachIsDifferent() throws Exception {
+		Collection<X509Certificate> certificates = new ArrayList<>();
+		certificates.add( new SelfSignedCertificate( new char[0] ).certificate );
+		X509Certificate other = new SelfSignedCertificate( new char[0] ).certificate;
+		Assert.assertFalse( certificates.contains( other ) );
+	}
+
+	@Test
+	public void testDERLength() {
+		Assert.assertEquals( 2 + 5, SelfSignedCertificate.der( 0x04, new byte[ 5 ] ).length );
+		byte[] medium = SelfSignedCertificate.der( 0x04, new byte[ 200 ] );
+		Assert.assertEquals( (byte)0x81, medium[1] );
+		Assert.assertEquals( (byte)200, medium[2] );
+		byte[] large = SelfSignedCertificate.der( 0x04, new byte[ 300 ] );
+		Assert.assertEquals( (byte)0x82, large[1] );
+		Assert.assertEquals( 1, large[2] );
+		Assert.assertEquals( 44, large[3] );
+	}
+}
@@ -0,0 +1,104 @@
+package com.mauter.httpserver;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestShapingHandler {
+
+	HTTPRequestHandler ok = new HTTPRequestHandler() {
+		@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+			response.setStatus( 200 );
+			response.setBody( "ok" );
+		}
+	};
+
+	@Test
+	public void testDelaysResponse() throws Exception {
+		ShapingHandler shaping = new ShapingHandler( ok, Latency.fixed( 100 ) );
+		HTTPResponse response = new HTTPResponse();
+		long start = System.nanoTime();
+		HTTPResponse result = shaping.handleRequestAsync( new HTTPRequest(), response ).toCompletableFuture().get();
+		Assert.assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 100 ) );
+		Assert.assertSame( response, result );
+		Assert.assertEquals( "ok", response.getBodyAsString() );
+	}
+
+	@Test
+	public void testStageReturnsBeforeLatency() {
+		ShapingHandler shaping = new ShapingHandler( ok, Latency.fixed( 10000 ) );
+		Assert.assertFalse( shaping.handleRequestAsync( new HTTPRequest(), new HTTPResponse() ).toCompletableFuture().isDone() );
+	}
+
+	@Test
+	public void testZeroLatencyCompletesAtOnce() {
+		ShapingHandler shaping = new ShapingHandler( ok, Latency.fixed( 0 ) );
+		Assert.assertTrue( shaping.handleRequestAsync( new HTTPRequest(), new HTTPResponse() ).toCompletableFuture().isDone() );
+	}
+
+	@Test
+	public void testDelaysFailure() throws InterruptedException {
+		ShapingHandler shaping = new ShapingHandler( new HTTPRequestHandler() {
+			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) throws HTTPException {
+				throw new HTTPException( 404, "nope" );
+			}
+		}, Latency.fixed( 50 ) );
+
+		long start = System.nanoTime();
+		try {
+			shaping.handleRequestAsync( new HTTPRequest(), new HTTPResponse() ).toCompletableFuture().get();
+			Assert.fail();
+		}
+		catch ( ExecutionException ee ) {
+			Assert.assertEquals( 404, ( (HTTPException)ee.getCause() ).getStatus() );
+		}
+		Assert.assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 50 ) );
+	}
+
+	@Test
+	public void testSetLatency() {
+		ShapingHandler shaping = new ShapingHandler( ok, Latency.fixed( 1 ) );
+		Latency latency = Latency.fixed( 2 );
+		shaping.setLatency( latency );
+		Assert.assertSame( latency, shaping.getLatency() );
+	}
+
+	@Test
+	public void testDoesNotHoldWorkers() throws Exception {
+		ExecutorService clients = Executors.newFixedThreadPool( 20 );
+		try ( HTTPServer server = new HTTPServer() ) {
+			server.setMaxConnections( 2 );
+			server.setHTTPRequestHandler( new ShapingHandler( ok, Latency.fixed( 300 ) ) );
+			server.start();
+
+			final URL url = new URL( "http://localhost:" + server.getPort() + "/" );
+			List<Future<Integer>> statuses = new ArrayList<>();
+			long start = System.nanoTime();
+			for ( int i = 0; i < 20; i++ ) {
+				statuses.add( clients.submit( new Callable<Integer>() {
+					@Override public Integer call() throws IOException {
+						return ( (HttpURLConnection)url.openConnection() ).getResponseCode();
+					}
+				} ) );
+			}
+			for ( Future<Integer> status : statuses ) Assert.assertEquals( 200, (int)status.get() );
+
+			// two sleeping workers would take 3 seconds
+			Assert.assertTrue( System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos( 2000 ) );
+		}
+		finally {
+			clients.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,265 @@
+package com.mauter.httpserver;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.mauter.httpserver.StubMapping.RequestMatcher;
+import com.mauter.httpserver.StubMapping.ValueMatcher;
+
+public class TestStubHandler {
+
+	StubMapping stub( String method, String path, int status, String body ) {
+		StubMapping mapping = new StubMapping();
+		mapping.setMethod( method );
+		if ( path != null && ( path.contains( "{" ) || path.contains( "*" ) ) ) mapping.setPathPattern( path );
+		else mapping.setPath( path );
+		HTTPResponse response = new HTTPResponse();
+		response.setStatus( status );
+		response.setBody( body );
+		mapping.setResponse( response );
+		return mapping;
+	}
+
+	HTTPRequest request( String method, String path ) {
+		HTTPRequest request = new HTTPRequest();
+		request.setMethod( method );
+		request.setPath( path );
+		return request;
+	}
+
+	HTTPResponse handle( StubHandler stubs, HTTPRequest request ) throws HTTPException {
+		HTTPResponse response = new HTTPResponse();
+		stubs.handleRequest( request, response );
+		return response;
+	}
+
+	@Test
+	public void testExactPath() throws HTTPException {
+		StubHandler stubs = new StubHandler();
+		stubs.addStubMapping( stub( "GET", "/users", 200, "users" ) );
+		stubs.addStubMapping( stub( "POST", "/users", 201, "created" ) );
+
+		Assert.assertEquals( "users", handle( stubs, request( "GET", "/users" ) ).getBodyAsString() );
+		Assert.assertEquals( "users", handle( stubs, request( "GET", "/users?page=2" ) ).getBodyAsString() );
+		Assert.assertEquals( 201, handle( stubs, request( "POST", "/users" ) ).getStatus() );
+		Assert.assertEquals( 404, handle( stubs, request( "GET", "/users/1" ) ).getStatus() );
+		Assert.assertEquals( 404, handle( stubs, request( "DELETE", "/users" ) ).getStatus() );
+	}
+
+	@Test
+	public void testPathPatternAndAnyMethod() throws HTTPException {
+		StubHandler stubs = new StubHandler();
+		stubs.addStubMapping( stub( "GET", "/users/{id}", 200, "user" ) );
+		stubs.addStubMapping( stub( null, "/files/*", 200, "file" ) );
+		stubs.addStubMapping( stub( null, null, 418, "anything" ) );
+
+		Assert.assertEquals( "user", handle( stubs, request( "GET", "/users/7" ) ).getBodyAsString() );
+		Assert.assertEquals( "anything", handle( stubs, request( "PUT", "/users/7" ) ).getBodyAsString() );
+		Assert.assertEquals( "file", handle( stubs, request( "DELETE", "/files/a/b" ) ).getBodyAsString() );
+		Assert.assertEquals( "file", handle( stubs, request( "GET", "/files/a" ) ).getBodyAsString() );
+		Assert.assertEquals( 418, handle( stubs, request( "GET", "/other" ) ).getStatus() );
+	}
+
+	@Test
+	public void testPriority() throws HTTPException {
+		StubHandler stubs = new StubHandler();
+		stubs.addStubMapping( stub( "GET", "/users/{id}", 200, "pattern" ) );
+		stubs.addStubMapping( stub( "GET", "/users/1", 200, "exact" ) );
+		StubMapping urgent = stub( null, "/users/*", 200, "urgent" );
+		urgent.setPriority( 1 );
+		urgent.setHeaderMatcher( "X-Urgent", ValueMatcher.equalTo( "yes" ) );
+		stubs.addStubMapping( urgent );
+
+		// equal priority goes to the first one added, exact or not
+		Assert.assertEquals( "pattern", handle( stubs, request( "GET", "/users/1" ) ).getBodyAsString() );
+
+		HTTPRequest request = request( "GET", "/users/1" );
+		request.setHeader( "X-Urgent", "yes" );
+		Assert.assertEquals( "urgent", handle( stubs, request ).getBodyAsString() );
+	}
+
+	@Test
+	public void testHeaderBodyAndCustomMatchers() throws HTTPException {
+		StubHandler stubs = new StubHandler();
+		StubMapping json = stub( "POST", "/orders", 201, "json" );
+		json.setHeaderMatcher( "Content-Type", ValueMatcher.contains( "json" ) );
+		json.setHeaderMatcher( "X-Debug", ValueMatcher.absent() );
+		json.setBodyMatcher( ValueMatcher.matches( ".*\"qty\":\\s*[1-9].*" ) );
+		json.addRequestMatcher( new RequestMatcher() {
+			@Override public boolean matches( HTTPRequest request ) {
+				return request.getBody().length < 100;
+			}
+		} );
+		stubs.addStubMapping( json );
+		stubs.addStubMapping( stub( "POST", "/orders", 400, "bad" ) );
+
+		HTTPRequest request = request( "POST", "/orders" );
+		request.setHeader( "Content-Type", "application/json" );
+		request.setBody( "{\n\"qty\": 3}" );
+		Assert.assertEquals( "json", handle( stubs, request ).getBodyAsString() );
+
+		request.setBody( "{\"qty\": 0}" );
+		Assert.assertEquals( "bad", handle( stubs, request ).getBodyAsString() );
+
+		request.setBody( "{\"qty\": 3}" );
+		request.setHeader( "X-Debug", "1" );
+		Assert.assertEquals( "bad", handle( stubs, request ).getBodyAsString() );
+	}
+
+	@Test
+	public void testValueMatcher() {
+		Assert.assertTrue( ValueMatcher.equalTo( "a" ).test( "a" ) );
+		Assert.assertFalse( ValueMatcher.equalTo( "a" ).test( "ab" ) );
+		Assert.assertFalse( ValueMatcher.equalTo( "a" ).test( null ) );
+		Assert.assertTrue( ValueMatcher.contains( "b" ).test( "abc" ) );
+		Assert.assertTrue( ValueMatcher.matches( "a.c" ).test( "abc" ) );
+		Assert.assertFalse( ValueMatcher.matches( "a" ).test( "abc" ) );
+		Assert.assertTrue( ValueMatcher.absent().test( null ) );
+		Assert.assertFalse( ValueMatcher.absent().test( "" ) );
+	}
+
+	@Test
+	public void testDefaultHandler() throws HTTPException {
+		StubHandler stubs = new StubHandler();
+		stubs.setDefaultHandler( new HTTPRequestHandler() {
+			@Override public void handleRequest( HTTPRequest request, HTTPResponse response ) {
+				response.setStatus( 204 );
+			}
+		} );
+		Assert.assertEquals( 204, handle( stubs, request( "GET", "/" ) ).getStatus() );
+	}
+
+	@Test
+	public void testAddAfterCompile() throws HTTPException {
+		StubHandler stubs = new StubHandler();
+		stubs.addStubMapping( stub( "GET", "/a", 200, "a" ) );
+		Assert.assertEquals( 404, handle( stubs, request( "GET", "/b" ) ).getStatus() );
+		stubs.addStubMapping( stub( "GET", "/b", 200, "b" ) );
+		Assert.assertEquals( "b", handle( stubs, request( "GET", "/b" ) ).getBodyAsString() );
+		stubs.clear();
+		Assert.assertEquals( 404, handle( stubs, request( "GET", "/a" ) ).getStatus() );
+	}
+
+	@Test
+	public void testCannedResponseIsSerializedOnce() throws HTTPException {
+		StubHandler stubs = new StubHandler();
+		stubs.addStubMapping( stub( "GET", "/a", 200, "a" ) );
+		HTTPResponse first = handle( stubs, request( "GET", "/a" ) );
+		HTTPResponse second = handle( stubs, request( "GET", "/a" ) );
+		Assert.assertNotNull( first.head );
+		Assert.assertSame( first.head, second.head );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testMissingResponse() {
+		new StubHandler().addStubMapping( new StubMapping() );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testMalformedPattern() {
+		new StubHandler().addStubMapping( stub( "GET", "/users/{id", 200, "x" ) );
+	}
+
+	@Test
+	public void testLoad() throws IOException, HTTPException {
+		String json = "{ \"mappings\": [\n"
+			+ "  { \"request\": { \"method\": \"GET\", \"pathPattern\": \"/users/{id}\" },\n"
+			+ "    \"response\": { \"status\": 200, \"headers\": { \"Content-Type\": \"application/json\" }, \"body\": \"{\\\"name\\\":\\\"Bob\\\"}\" } },\n"
+			+ "  { \"priority\": 1,\n"
+			+ "    \"request\": { \"path\": \"/users/0\", \"headers\": { \"Accept\": { \"contains\": \"json\" }, \"X-Debug\": { \"absent\": true } } },\n"
+			+ "    \"response\": { \"status\": 410 } },\n"
+			+ "  { \"request\": { \"method\": \"POST\", \"path\": \"/echo\", \"body\": \"ping\" },\n"
+			+ "    \"response\": { \"body\": \"pong\" } }\n"
+			+ "] }";
+		StubHandler stubs = new StubHandler();
+		InputStream is = new ByteArrayInputStream( json.getBytes( StandardCharsets.UTF_8 ) );
+		stubs.load( is );
+		Assert.assertEquals( 3, stubs.getStubMappings().size() );
+
+		HTTPResponse response = handle( stubs, request( "GET", "/users/1" ) );
+		Assert.assertEquals( 200, response.getStatus() );
+		Assert.assertEquals( "application/json", response.getHeader( "Content-Type" ) );
+		Assert.assertEquals( "{\"name\":\"Bob\"}", response.getBodyAsString() );
+
+		HTTPRequest request = request( "GET", "/users/0" );
+		request.setHeader( "Accept", "application/json" );
+		Assert.assertEquals( 410, handle( stubs, request ).getStatus() );
+		Assert.assertEquals( 200, handle( stubs, request( "GET", "/users/0" ) ).getStatus() );
+
+		request = request( "POST", "/echo" );
+		request.setBody( "ping" );
+		response = handle( stubs, request );
+		Assert.assertEquals( 200, response.getStatus() );
+		Assert.assertEquals( "pong", response.getBodyAsString() );
+	}
+
+	@Test
+	public void testLoadArray() {
+		StubHandler stubs = new StubHandler();
+		stubs.load( "[ { \"request\": { \"method\": \"ANY\" }, \"response\": { \"status\": 204 } } ]" );
+		Assert.assertNull( stubs.getStubMappings().get( 0 ).getMethod() );
+	}
+
+	@Test
+	public void testLoadMalformed() {
+		StubHandler stubs = new StubHandler();
+		stubs.addStubMapping( stub( "GET", "/a", 200, "a" ) );
+		try {
+			stubs.load( "[ { \"request\": { \"path\": \"/b\" }, \"response\": { \"status\": 200 } }, { \"request\": {} } ]" );
+			Assert.fail();
+		}
+		catch ( IllegalArgumentException iae ) {
+			Assert.assertEquals( "Expected response to be an object.", iae.getMessage() );
+		}
+		// nothing from a bad file is added
+		Assert.assertEquals( 1, stubs.getStubMappings().size() );
+	}
+
+	void assertMalformed( String json, String message ) {
+		try {
+			new StubHandler().load( json );
+			Assert.fail();
+		}
+		catch ( IllegalArgumentException iae ) {
+			Assert.assertEquals( message, iae.getMessage() );
+		}
+	}
+
+	@Test
+	public void testLoadWrongTypes() {
+		assertMalformed( "[ { \"request\": {}, \"response\": { \"status\": \"200\" } } ]", "Expected status to be a number." );
+		assertMalformed( "[ { \"priority\": true, \"request\": {}, \"response\": {} } ]", "Expected priority to be a number." );
+		assertMalformed( "[ { \"request\": { \"method\": 1 }, \"response\": {} } ]", "Expected method to be a string." );
+		assertMalformed( "[ { \"request\": { \"path\": [] }, \"response\": {} } ]", "Expected path to be a string." );
+		assertMalformed( "[ { \"request\": {}, \"response\": { \"body\": { \"a\": 1 } } } ]", "Expected body to be a string." );
+		assertMalformed( "[ { \"request\": { \"body\": { \"contains\": 2 } }, \"response\": {} } ]", "Expected contains to be a string." );
+	}
+
+	@Test
+	public void testServer() throws IOException {
+		try ( HTTPServer server = new HTTPServer() ) {
+			StubHandler stubs = new StubHandler();
+			stubs.load( "[ { \"request\": { \"method\": \"GET\", \"path\": \"/hello\" },"
+				+ " \"response\": { \"status\": 200, \"headers\": { \"X-Stub\": \"1\" }, \"body\": \"Hello\" } } ]" );
+			server.setHTTPRequestHandler( stubs );
+			server.start();
+
+			HttpURLConnection con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() + "/hello" ).openConnection();
+			Assert.assertEquals( 200, con.getResponseCode() );
+			Assert.assertEquals( "1", con.getHeaderField( "X-Stub" ) );
+			try ( InputStream is = con.getInputStream() ) {
+				Assert.assertEquals( "Hello", new String( TestHTTPServer.readAll( is ), StandardCharsets.UTF_8 ) );
+			}
+
+			con = (HttpURLConnection)new URL( "http://localhost:" + server.getPort() + "/missing" ).openConnection();
+			Assert.assertEquals( 404, con.getResponseCode() );
+		}
+	}
+}
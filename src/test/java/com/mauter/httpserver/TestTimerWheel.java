@@ -0,0 +1,136 @@
+package com.mauter.httpserver;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTimerWheel {
+
+	Runnable countDown( final CountDownLatch latch ) {
+		return new Runnable() {
+			@Override public void run() {
+				latch.countDown();
+			}
+		};
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testBadTickDuration() {
+		new TimerWheel( "test", 0, TimeUnit.MILLISECONDS, 8 );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testBadTicksPerWheel() {
+		new TimerWheel( "test", 10, TimeUnit.MILLISECONDS, 0 );
+	}
+
+	@Test
+	public void testWheelSizeIsPowerOfTwo() {
+		try ( TimerWheel timers = new TimerWheel( "test", 10, TimeUnit.MILLISECONDS, 100 ) ) {
+			Assert.assertEquals( 128, timers.buckets.length );
+			Assert.assertEquals( 127, timers.mask );
+		}
+	}
+
+	@Test
+	public void testExpires() throws InterruptedException {
+		try ( TimerWheel timers = new TimerWheel( "test", 5, TimeUnit.MILLISECONDS, 8 ) ) {
+			CountDownLatch latch = new CountDownLatch( 1 );
+			long start = System.nanoTime();
+			TimerWheel.Timeout timeout = timers.schedule( countDown( latch ), 50, TimeUnit.MILLISECONDS );
+			Assert.assertTrue( latch.await( 2, TimeUnit.SECONDS ) );
+			Assert.assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 50 ) );
+			Assert.assertTrue( timeout.isExpired() );
+			Assert.assertFalse( timeout.cancel() );
+		}
+	}
+
+	@Test
+	public void testExpiresAfterSeveralRounds() throws InterruptedException {
+		// 4 buckets of 5 ms go around the wheel every 20 ms
+		try ( TimerWheel timers = new TimerWheel( "test", 5, TimeUnit.MILLISECONDS, 4 ) ) {
+			CountDownLatch latch = new CountDownLatch( 1 );
+			long start = System.nanoTime();
+			timers.schedule( countDown( latch ), 100, TimeUnit.MILLISECONDS );
+			Assert.assertTrue( latch.await( 2, TimeUnit.SECONDS ) );
+			Assert.assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 100 ) );
+		}
+	}
+
+	@Test
+	public void testCancel() throws InterruptedException {
+		try ( TimerWheel timers = new TimerWheel( "test", 5, TimeUnit.MILLISECONDS, 8 ) ) {
+			CountDownLatch cancelled = new CountDownLatch( 1 );
+			CountDownLatch fired = new CountDownLatch( 1 );
+			TimerWheel.Timeout timeout = timers.schedule( countDown( cancelled ), 20, TimeUnit.MILLISECONDS );
+			timers.schedule( countDown( fired ), 60, TimeUnit.MILLISECONDS );
+			Assert.assertTrue( timeout.cancel() );
+			Assert.assertTrue( timeout.isCancelled() );
+			Assert.assertFalse( timeout.cancel() );
+
+			Assert.assertTrue( fired.await( 2, TimeUnit.SECONDS ) );
+			Assert.assertEquals( 1, cancelled.getCount() );
+		}
+	}
+
+	@Test
+	public void testOrder() throws InterruptedException {
+		try ( TimerWheel timers = new TimerWheel( "test", 5, TimeUnit.MILLISECONDS, 4 ) ) {
+			final List<Integer> order = Collections.synchronizedList( new ArrayList<Integer>() );
+			final CountDownLatch latch = new CountDownLatch( 3 );
+			for ( final int delay : new int[] { 90, 10, 45 } ) {
+				timers.schedule( new Runnable() {
+					@Override public void run() {
+						order.add( delay );
+						latch.countDown();
+					}
+				}, delay, TimeUnit.MILLISECONDS );
+			}
+			Assert.assertTrue( latch.await( 2, TimeUnit.SECONDS ) );
+			Assert.assertEquals( Arrays.asList( 10, 45, 90 ), order );
+		}
+	}
+
+	@Test
+	public void testFailingTaskDoesNotStopTheWheel() throws InterruptedException {
+		try ( TimerWheel timers = new TimerWheel( "test", 5, TimeUnit.MILLISECONDS, 8 ) ) {
+			CountDownLatch latch = new CountDownLatch( 1 );
+			timers.schedule( new Runnable() {
+				@Override public void run() {
+					throw new IllegalStateException( "boom" );
+				}
+			}, 0, TimeUnit.MILLISECONDS );
+			timers.schedule( countDown( latch ), 20, TimeUnit.MILLISECONDS );
+			Assert.assertTrue( latch.await( 2, TimeUnit.SECONDS ) );
+		}
+	}
+
+	@Test
+	public void testManyTimeouts() throws InterruptedException {
+		try ( TimerWheel timers = new TimerWheel( "test", 1, TimeUnit.MILLISECONDS, 64 ) ) {
+			final AtomicInteger fired = new AtomicInteger();
+			final CountDownLatch latch = new CountDownLatch( 500 );
+			List<TimerWheel.Timeout> timeouts = new ArrayList<>();
+			for ( int i = 0; i < 1000; i++ ) {
+				timeouts.add( timers.schedule( new Runnable() {
+					@Override public void run() {
+						fired.incrementAndGet();
+						latch.countDown();
+					}
+				}, 50 + i % 100, TimeUnit.MILLISECONDS ) );
+			}
+			for ( int i = 0; i < 1000; i += 2 ) timeouts.get( i ).cancel();
+
+			Assert.assertTrue( latch.await( 2, TimeUnit.SECONDS ) );
+			Thread.sleep( 20 );
+			Assert.assertEquals( 500, fired.get() );
+		}
+	}
+}
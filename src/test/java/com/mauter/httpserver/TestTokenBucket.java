@@ -0,0 +1,60 @@
+package com.mauter.httpserver;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTokenBucket {
+
+	static final long SECOND = TimeUnit.SECONDS.toNanos( 1 );
+
+	@Test
+	public void testStartsFull() {
+		TokenBucket bucket = new TokenBucket( 10, 5 );
+		long now = bucket.last;
+		for ( int i = 0; i < 5; i++ ) Assert.assertEquals( 0, bucket.tryTake( 1, now ) );
+		Assert.assertEquals( SECOND / 10, bucket.tryTake( 1, now ) );
+	}
+
+	@Test
+	public void testRefillsUpToCapacity() {
+		TokenBucket bucket = new TokenBucket( 10, 5 );
+		long now = bucket.last;
+		Assert.assertEquals( 0, bucket.tryTake( 5, now ) );
+		Assert.assertEquals( 0, bucket.tryTake( 2, now + SECOND / 5 ) );
+		Assert.assertTrue( bucket.tryTake( 1, now + SECOND / 5 ) > 0 );
+
+		// an hour idle still only holds the capacity
+		now += TimeUnit.HOURS.toNanos( 1 );
+		Assert.assertEquals( 0, bucket.tryTake( 5, now ) );
+		Assert.assertTrue( bucket.tryTake( 1, now ) > 0 );
+	}
+
+	@Test
+	public void testTakeGoesIntoDebt() {
+		TokenBucket bucket = new TokenBucket( 100, 10 );
+		long now = bucket.last;
+		Assert.assertEquals( 0, bucket.take( 10, now ) );
+		Assert.assertEquals( SECOND / 2, bucket.take( 50, now ), 1 );
+		Assert.assertEquals( 0, bucket.take( 0, now + SECOND / 2 ) );
+	}
+
+	@Test
+	public void testAwait() throws Exception {
+		TokenBucket bucket = new TokenBucket( 1000, 10 );
+		long start = System.nanoTime();
+		bucket.await( 110 );
+		Assert.assertTrue( System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos( 90 ) );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testRateMustBePositive() {
+		new TokenBucket( 0, 1 );
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testCapacityMustBePositive() {
+		new TokenBucket( 1, 0 );
+	}
+}